@@ -0,0 +1,238 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * The CommandPipeline class runs commands against a {@link TMS} on a single writer thread.
+ * <p>
+ * Any thread may submit commands. They are put into a bounded lock-free ring buffer; producers only
+ * compete for a slot number. The writer thread takes up to {@code batchSize} waiting commands at a time
+ * and runs them as one batch under a single write lock, so the data version, caches and pinned versions
+ * are updated once per batch. Each command's future is completed after the batch has released the lock.
+ * When the buffer is full, producers wait until the writer has made room.
+ * </p>
+ */
+public class CommandPipeline implements AutoCloseable {
+    /**
+     * The default number of commands the ring buffer holds.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The default largest number of commands run in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TMS tms;
+    private final Slot[] ring;
+    private final int mask;
+    private final int batchSize;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    private static final class Slot {
+        private volatile long sequence;
+        private Command<?> command;
+    }
+
+    private static final class Command<T> {
+        private final Function<TMS, T> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private RuntimeException failure;
+
+        private Command(Function<TMS, T> action) {
+            this.action = action;
+        }
+
+        private void run(TMS tms) {
+            try {
+                result = action.apply(tms);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        private void complete() {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Starts a pipeline with the default capacity and batch size.
+     *
+     * @param tms The TMS the commands run against.
+     */
+    public CommandPipeline(TMS tms) {
+        this(tms, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Starts a pipeline and its writer thread.
+     *
+     * @param tms       The TMS the commands run against.
+     * @param capacity  The number of commands the ring buffer holds, rounded up to a power of two.
+     * @param batchSize The largest number of commands run in one batch.
+     */
+    public CommandPipeline(TMS tms, int capacity, int batchSize) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.tms = tms;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        this.batchSize = batchSize;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+            ring[i].sequence = i;
+        }
+        writer = new Thread(this::drain, "tms-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submits a command. Waits while the ring buffer is full.
+     *
+     * @param command The command, calling methods of the TMS, for example {@code t -> t.deleteTask("A")}.
+     * @param <T>     The type of the result.
+     * @return A future completed with the result of the command on the writer thread.
+     * @throws IllegalStateException if the pipeline has been closed.
+     */
+    public <T> CompletableFuture<T> submit(Function<TMS, T> command) {
+        Command<T> entry = new Command<>(command);
+        long position = tail.get();
+        while (true) {
+            if (!running) {
+                throw new IllegalStateException("Pipeline is closed.");
+            }
+            Slot slot = ring[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.command = entry;
+                    slot.sequence = position + 1;
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // full: wait for the writer to free this slot
+                LockSupport.unpark(writer);
+                Thread.yield();
+                position = tail.get();
+            } else {
+                position = tail.get();
+            }
+        }
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+        if (!running) {
+            // closed while this command was being added; the writer may already have stopped
+            awaitWriter();
+            rejectLeftovers();
+        }
+        return entry.future;
+    }
+
+    private void drain() {
+        List<Command<?>> batch = new ArrayList<>(batchSize);
+        while (true) {
+            take(batch);
+            if (batch.isEmpty()) {
+                if (!running && tail.get() == head) {
+                    return;
+                }
+                idle = true;
+                // look again after announcing idleness, so a command published meanwhile is not missed
+                take(batch);
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            tms.batch(() -> {
+                for (Command<?> command : batch) {
+                    command.run(tms);
+                }
+                return null;
+            });
+            for (Command<?> command : batch) {
+                command.complete();
+            }
+            batch.clear();
+        }
+    }
+
+    private void take(List<Command<?>> batch) {
+        while (batch.size() < batchSize) {
+            Slot slot = ring[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                return;
+            }
+            batch.add(slot.command);
+            slot.command = null;
+            slot.sequence = head + ring.length;
+            head++;
+        }
+    }
+
+    /**
+     * Stops accepting commands, runs the commands already submitted and stops the writer thread.
+     * Waits for the writer thread even if interrupted, and keeps the interrupt for the caller.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        awaitWriter();
+        rejectLeftovers();
+    }
+
+    private void awaitWriter() {
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Fails the commands added after the writer stopped. Only called once the writer thread has ended.
+    private synchronized void rejectLeftovers() {
+        List<Command<?>> leftovers = new ArrayList<>();
+        while (head != tail.get()) {
+            take(leftovers);
+            for (Command<?> command : leftovers) {
+                command.future.completeExceptionally(new IllegalStateException("Pipeline is closed."));
+            }
+            leftovers.clear();
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * The MappedTransport class carries frames through a memory-mapped file shared by two processes on one machine.
+ * <p>
+ * The file holds a header and two rings, one per direction. Each ring has exactly one writer and one reader,
+ * which only share the positions they have written and read up to, so no lock is needed. A waiting side spins
+ * for a short while before it parks, which keeps the latency of a request within microseconds while the other
+ * side is busy. An idle server parks longer and longer, up to 32 ms, and publishes the data version of the
+ * served workspace in the header as it wakes, so that an attached client can read it without a request to see
+ * whether anything has changed.
+ * </p>
+ * <p>
+ * An attached client holds a lock on the file, which the operating system drops when the client's process ends.
+ * A client that finds the lock free while the channel is still marked as attached takes the channel over from
+ * the dead client: it marks the channel as detached, waits for the server to empty it, and attaches.
+ * </p>
+ * <p>
+ * Header layout, each field on its own cache line: magic and ring size, the channel state, the data version,
+ * then the write and read positions of the request ring and of the reply ring.
+ * </p>
+ */
+final class MappedTransport implements WireTransport {
+    static final int DEFAULT_RING_SIZE = 1 << 20;
+
+    static final int FREE = 0;
+    static final int ATTACHED = 1;
+    static final int DETACHED = 2;
+    static final int CLOSED = 3;
+
+    private static final int MAGIC = 0x544D5331;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SIZE_OFFSET = 4;
+    private static final int STATE_OFFSET = 64;
+    private static final int VERSION_OFFSET = 128;
+    private static final int REQUEST_TAIL = 192;
+    private static final int REQUEST_HEAD = 256;
+    private static final int REPLY_TAIL = 320;
+    private static final int REPLY_HEAD = 384;
+    private static final int HEADER_SIZE = 448;
+
+    private static final int SPINS = 20_000;
+    private static final int SHORT_PARKS = 10_000;
+    private static final long SHORT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long LONG_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // The idle server doubles its long park this many times, to 32 ms
+    private static final int IDLE_DOUBLINGS = 5;
+    private static final int MAX_SPINS = SPINS + SHORT_PARKS + IDLE_DOUBLINGS;
+    // While parking briefly, the idle server publishes the data version only every so many parks
+    private static final int PUBLISH_PARKS = 200;
+
+    // The client's lock: one byte far past the rings, so that it never covers mapped data
+    private static final long LEASE_POSITION = Long.MAX_VALUE - 1;
+    private static final long TAKEOVER_MILLIS = 1000;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int ringSize;
+    private final boolean server;
+    private final int outData;
+    private final int outTail;
+    private final int outHead;
+    private final int inData;
+    private final int inTail;
+    private final int inHead;
+    private final LongSupplier version;
+    private final FileChannel channel;
+    private final FileLock lease;
+
+    private MappedTransport(MappedByteBuffer buffer, boolean server, LongSupplier version, FileChannel channel, FileLock lease) {
+        this.buffer = buffer;
+        this.ringSize = buffer.getInt(SIZE_OFFSET);
+        this.server = server;
+        this.version = version;
+        this.channel = channel;
+        this.lease = lease;
+        int requestData = HEADER_SIZE;
+        int replyData = HEADER_SIZE + ringSize;
+        outData = server ? replyData : requestData;
+        outTail = server ? REPLY_TAIL : REQUEST_TAIL;
+        outHead = server ? REPLY_HEAD : REQUEST_HEAD;
+        inData = server ? requestData : replyData;
+        inTail = server ? REQUEST_TAIL : REPLY_TAIL;
+        inHead = server ? REQUEST_HEAD : REPLY_HEAD;
+    }
+
+    /**
+     * Creates the file of a channel and maps it. An older file is deleted and a new one made in its place,
+     * rather than truncated under the processes that may still have it mapped.
+     *
+     * @param path     The file.
+     * @param ringSize The size of each ring in bytes.
+     * @return The mapped file, with no client attached.
+     * @throws IOException if the file cannot be created, or the older one cannot be deleted.
+     */
+    static MappedByteBuffer create(Path path, int ringSize) throws IOException {
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * ringSize);
+            buffer.putInt(SIZE_OFFSET, ringSize);
+            reset(buffer);
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            return buffer;
+        }
+    }
+
+    /**
+     * Empties both rings and frees the channel for the next client.
+     *
+     * @param buffer The mapped file.
+     */
+    static void reset(MappedByteBuffer buffer) {
+        LONGS.setVolatile(buffer, REQUEST_TAIL, 0L);
+        LONGS.setVolatile(buffer, REQUEST_HEAD, 0L);
+        LONGS.setVolatile(buffer, REPLY_TAIL, 0L);
+        LONGS.setVolatile(buffer, REPLY_HEAD, 0L);
+        INTS.setVolatile(buffer, STATE_OFFSET, FREE);
+    }
+
+    /**
+     * Opens the server end of a channel.
+     *
+     * @param buffer  The mapped file.
+     * @param version The data version of the served workspace, published with every reply and while idle.
+     * @return The transport.
+     */
+    static MappedTransport serve(MappedByteBuffer buffer, LongSupplier version) {
+        return new MappedTransport(buffer, true, version, null, null);
+    }
+
+    /**
+     * Attaches to a channel as its client, taking it over if the client attached to it has died.
+     *
+     * @param path The file of the channel.
+     * @return The transport.
+     * @throws IOException if the file is not a channel, another client is attached, or the channel is closed.
+     */
+    static MappedTransport attach(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("Not a shared channel: " + path);
+            }
+            FileLock lease = lease(channel);
+            if (lease == null) {
+                throw new IOException("Shared channel is in use: " + path);
+            }
+            try {
+                // no live client holds the lock, so one still marked as attached has died
+                INTS.compareAndSet(buffer, STATE_OFFSET, ATTACHED, DETACHED);
+                awaitFree(buffer);
+                if (!INTS.compareAndSet(buffer, STATE_OFFSET, FREE, ATTACHED)) {
+                    throw new IOException("Shared channel is closed or not served: " + path);
+                }
+                return new MappedTransport(buffer, false, null, channel, lease);
+            } catch (IOException | RuntimeException e) {
+                lease.release();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns null if a live client holds the lock, in another process or in this one
+    private static FileLock lease(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock(LEASE_POSITION, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Waits for the server to empty the channel after its client has detached
+    private static void awaitFree(MappedByteBuffer buffer) throws InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TAKEOVER_MILLIS);
+        while (state(buffer) == DETACHED && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(LONG_PARK_NANOS);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    static int state(MappedByteBuffer buffer) {
+        return (int) INTS.getVolatile(buffer, STATE_OFFSET);
+    }
+
+    static void setState(MappedByteBuffer buffer, int state) {
+        INTS.setVolatile(buffer, STATE_OFFSET, state);
+    }
+
+    private void publishVersion() {
+        long current = version.getAsLong();
+        if ((long) LONGS.getOpaque(buffer, VERSION_OFFSET) != current) {
+            LONGS.setRelease(buffer, VERSION_OFFSET, current);
+        }
+    }
+
+    /**
+     * Get the data version last published by the server
+     * @return the data version
+     */
+    long publishedVersion() {
+        return (long) LONGS.getAcquire(buffer, VERSION_OFFSET);
+    }
+
+    @Override
+    public void send(byte[] frame) throws IOException {
+        int needed = 4 + frame.length;
+        if (needed > ringSize) {
+            throw new IOException("Frame of " + frame.length + " bytes is larger than the ring.");
+        }
+        long tail = (long) LONGS.getOpaque(buffer, outTail);
+        for (int spins = 0; tail + needed - (long) LONGS.getAcquire(buffer, outHead) > ringSize; spins = Math.min(spins + 1, MAX_SPINS)) {
+            if (peerGone()) {
+                throw new IOException("Shared channel is closed.");
+            }
+            pause(spins);
+        }
+        byte[] length = {(byte) (frame.length >>> 24), (byte) (frame.length >>> 16), (byte) (frame.length >>> 8), (byte) frame.length};
+        copyIn(outData, tail, length);
+        copyIn(outData, tail + 4, frame);
+        if (server) {
+            publishVersion();
+        }
+        LONGS.setRelease(buffer, outTail, tail + needed);
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        long head = (long) LONGS.getOpaque(buffer, inHead);
+        for (int spins = 0; (long) LONGS.getAcquire(buffer, inTail) == head; spins = Math.min(spins + 1, MAX_SPINS)) {
+            if (peerGone()) {
+                // look once more, the peer may have written its last frame just before leaving
+                if ((long) LONGS.getAcquire(buffer, inTail) == head) {
+                    return null;
+                }
+                break;
+            }
+            if (server && (spins == 0 || spins >= SPINS + SHORT_PARKS || spins >= SPINS && (spins - SPINS) % PUBLISH_PARKS == 0)) {
+                publishVersion();
+            }
+            pause(spins);
+        }
+        byte[] length = copyOut(inData, head, 4);
+        int size = ((length[0] & 0xFF) << 24) | ((length[1] & 0xFF) << 16) | ((length[2] & 0xFF) << 8) | (length[3] & 0xFF);
+        if (size < 0 || size > ringSize - 4) {
+            throw new IOException("Corrupt frame length " + size + ".");
+        }
+        byte[] frame = copyOut(inData, head + 4, size);
+        LONGS.setRelease(buffer, inHead, head + 4 + size);
+        return frame;
+    }
+
+    @Override
+    public boolean ready() {
+        return (long) LONGS.getAcquire(buffer, inTail) != (long) LONGS.getOpaque(buffer, inHead);
+    }
+
+    private boolean peerGone() {
+        int state = state(buffer);
+        return server ? state == DETACHED || state == CLOSED : state != ATTACHED;
+    }
+
+    private void pause(int spins) throws InterruptedIOException {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+            return;
+        }
+        long nanos;
+        if (spins < SPINS + SHORT_PARKS) {
+            nanos = SHORT_PARK_NANOS;
+        } else {
+            // only the server waits for long without a request; a client waits for the reply it asked for
+            nanos = server ? LONG_PARK_NANOS << (spins - SPINS - SHORT_PARKS) : LONG_PARK_NANOS;
+        }
+        LockSupport.parkNanos(this, nanos);
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void copyIn(int data, long position, byte[] bytes) {
+        int offset = (int) (position % ringSize);
+        int first = Math.min(bytes.length, ringSize - offset);
+        buffer.put(data + offset, bytes, 0, first);
+        buffer.put(data, bytes, first, bytes.length - first);
+    }
+
+    private byte[] copyOut(int data, long position, int length) {
+        byte[] bytes = new byte[length];
+        int offset = (int) (position % ringSize);
+        int first = Math.min(length, ringSize - offset);
+        buffer.get(data + offset, bytes, 0, first);
+        buffer.get(data, bytes, first, length - first);
+        return bytes;
+    }
+
+    /**
+     * Detaches the client. On the server side, empties the rings and frees the channel for the next client,
+     * unless the channel has been closed for good.
+     */
+    @Override
+    public void close() {
+        if (server) {
+            if (state(buffer) != CLOSED) {
+                reset(buffer);
+            }
+        } else {
+            INTS.compareAndSet(buffer, STATE_OFFSET, ATTACHED, DETACHED);
+            try {
+                lease.release();
+                channel.close();
+            } catch (IOException e) {
+                // the lock goes with the channel, and the channel with the process at the latest
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.TaskManager;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskRecord;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ReplicaFollower class keeps a read-only copy of a primary {@link TMS} from the stream of a
+ * {@link ReplicationLeader}, so that heavy queries do not compete with the changes made on the primary.
+ * <p>
+ * The copy answers queries, for example through {@link #serve(int)}, as long as it lags behind the primary
+ * by at most a given time; beyond that, and after the stream is lost, queries fail with a
+ * {@link ReplicaException} rather than return stale results. Changes always fail on a replica.
+ * </p>
+ * <p>
+ * A replica that cannot apply what the primary sends, or loses the stream, stops following for good: from
+ * then on it reports an unbounded lag, and its queries fail at once with the reason, which
+ * {@link #getFailure()} also gives. A new replica has to be connected to follow the primary again.
+ * </p>
+ */
+public class ReplicaFollower implements AutoCloseable {
+    private final TMS tms = new TMS();
+    private final TaskManager taskManager = tms.getTaskManager();
+    private final WireTransport transport;
+    private final long maxLagMillis;
+    private final Thread receiver;
+    private long appliedVersion = -1;
+    private long leaderVersion = -1;
+    private long upToDateAt = -1;
+    private String failure;
+
+    /**
+     * How far a replica lags behind its primary.
+     */
+    public static final class Status {
+        private final long appliedVersion;
+        private final long leaderVersion;
+        private final long lagMillis;
+
+        Status(long appliedVersion, long leaderVersion, long lagMillis) {
+            this.appliedVersion = appliedVersion;
+            this.leaderVersion = leaderVersion;
+            this.lagMillis = lagMillis;
+        }
+
+        /**
+         * Get the data version of the primary the replica has caught up with
+         * @return the data version, or -1 before the first snapshot
+         */
+        public long getAppliedVersion() {
+            return appliedVersion;
+        }
+
+        /**
+         * Get the newest data version of the primary the replica has heard of
+         * @return the data version, or -1 before the first snapshot
+         */
+        public long getLeaderVersion() {
+            return leaderVersion;
+        }
+
+        /**
+         * Get the time since the replica was last known to be up to date
+         * @return the time in milliseconds
+         */
+        public long getLagMillis() {
+            return lagMillis;
+        }
+    }
+
+    ReplicaFollower(WireTransport transport, long maxLagMillis) {
+        this.transport = transport;
+        this.maxLagMillis = maxLagMillis;
+        receiver = new Thread(this::receive, "tms-replica-follower");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Connects to a {@link ReplicationLeader} and starts following its primary.
+     *
+     * @param host         The host of the leader.
+     * @param port         The port of the leader.
+     * @param maxLagMillis The staleness up to which the replica answers queries.
+     * @return The replica.
+     * @throws IOException if the leader cannot be reached.
+     */
+    public static ReplicaFollower connect(String host, int port, long maxLagMillis) throws IOException {
+        return new ReplicaFollower(WireTransport.over(new Socket(host, port)), maxLagMillis);
+    }
+
+    private void receive() {
+        WireFormat.Decoder frame = new WireFormat.Decoder();
+        try (WireTransport connection = transport) {
+            byte[] bytes;
+            while ((bytes = connection.receive()) != null) {
+                frame.reset(bytes);
+                int type = frame.readByte();
+                if (type == ReplicationLeader.SNAPSHOT) {
+                    applySnapshot(frame);
+                } else if (type == ReplicationLeader.MUTATIONS) {
+                    applyMutations(frame);
+                } else if (type == ReplicationLeader.HEARTBEAT) {
+                    long version = frame.readVarint();
+                    caughtUp(version, version);
+                } else {
+                    throw new IOException("Unknown frame " + type + ".");
+                }
+            }
+            failed("The stream of the primary has ended.");
+        } catch (ReplicaException e) {
+            failed(e.getMessage());
+        } catch (IOException e) {
+            failed("The stream of the primary is lost: " + e.getMessage());
+        }
+    }
+
+    private synchronized void failed(String reason) {
+        if (failure == null) {
+            failure = reason;
+        }
+        notifyAll();
+    }
+
+    private void applySnapshot(WireFormat.Decoder frame) throws IOException, ReplicaException {
+        long version = frame.readVarint();
+        int count = frame.readCount();
+        List<TaskRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(frame.readRecord());
+        }
+        List<String> criterionLines = frame.readStrings();
+        Exception failure = tms.write(() -> {
+            try {
+                taskManager.replaceAll(records, criterionLines);
+                return null;
+            } catch (InvalidPrerequisiteException | InvalidSubtaskException | CritersionNotFoundException
+                     | CriterionNameNullException | CriterionAlreadyExistsException e) {
+                return e;
+            }
+        });
+        if (failure != null) {
+            throw new ReplicaException("Cannot load the snapshot of the primary: " + failure.getMessage());
+        }
+        caughtUp(version, version);
+    }
+
+    // The entries of one frame are applied together, since a change of one version may refer to a later one
+    private void applyMutations(WireFormat.Decoder frame) throws IOException, ReplicaException {
+        Map<String, TaskRecord> tasks = new LinkedHashMap<>();
+        Map<String, String> criteria = new LinkedHashMap<>();
+        long last = frame.readVarint();
+        long version = -1;
+        int entries = frame.readCount();
+        for (int i = 0; i < entries; i++) {
+            version = frame.readVarint();
+            int taskCount = frame.readCount();
+            for (int j = 0; j < taskCount; j++) {
+                String name = frame.readName();
+                tasks.put(name, frame.readByte() == 0 ? null : frame.readRecord());
+            }
+            int criterionCount = frame.readCount();
+            for (int j = 0; j < criterionCount; j++) {
+                String name = frame.readName();
+                criteria.put(name, frame.readByte() == 0 ? null : frame.readString());
+            }
+        }
+        Exception failure = tms.write(() -> {
+            try {
+                taskManager.applyReplicated(tasks, criteria);
+                return null;
+            } catch (InvalidBatchException | CritersionNotFoundException e) {
+                return e;
+            }
+        });
+        if (failure != null) {
+            throw new ReplicaException("Cannot apply the changes of the primary: " + failure.getMessage());
+        }
+        caughtUp(version, last);
+    }
+
+    // The replica is up to date while it has applied the last version the primary had when it sent the frame
+    private synchronized void caughtUp(long applied, long leader) {
+        appliedVersion = Math.max(appliedVersion, applied);
+        leaderVersion = Math.max(leaderVersion, leader);
+        if (appliedVersion >= leaderVersion) {
+            upToDateAt = System.currentTimeMillis();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reports how far the replica lags behind its primary.
+     *
+     * @return The status of the replica.
+     */
+    public synchronized Status status() {
+        long lag = upToDateAt < 0 || failure != null ? Long.MAX_VALUE : System.currentTimeMillis() - upToDateAt;
+        return new Status(appliedVersion, leaderVersion, lag);
+    }
+
+    /**
+     * Checks whether the replica lags behind its primary by at most the time it was created with.
+     *
+     * @return true if the replica answers queries.
+     */
+    public boolean isFresh() {
+        return status().getLagMillis() <= maxLagMillis;
+    }
+
+    /**
+     * Tells why the replica has stopped following its primary.
+     *
+     * @return The reason, or null while the replica follows its primary.
+     */
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    // The exception queries fail with while the replica is not fresh
+    synchronized ReplicaException staleness() {
+        if (failure != null) {
+            return new ReplicaException("Replica stopped following its primary. " + failure);
+        }
+        return new ReplicaException("Replica is " + status().getLagMillis() + " ms behind its primary.");
+    }
+
+    /**
+     * Waits until the replica has caught up with a data version of its primary, for example one a client
+     * has just written, so that the client reads its own changes.
+     *
+     * @param version       The data version of the primary.
+     * @param timeoutMillis The longest time to wait.
+     * @return true if the replica has caught up, false after the timeout or once it has stopped following.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized boolean awaitVersion(long version, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (appliedVersion < version) {
+            if (failure != null) {
+                return false;
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Get the copy of the primary. Changes made to it directly are overwritten by those of the primary.
+     * @return the TMS of the replica
+     */
+    public TMS getTMS() {
+        return tms;
+    }
+
+    /**
+     * Serves the replica to {@link TMSClient}s, which can query its staleness with {@link TMSClient#replicaStatus()}.
+     *
+     * @param port The port, or 0 for any free port.
+     * @return The server, which refuses changes.
+     * @throws IOException if the port cannot be opened.
+     */
+    public WireServer serve(int port) throws IOException {
+        return new WireServer(tms, port, this);
+    }
+
+    /**
+     * Stops following the primary. If interrupted while waiting for the receiving thread, returns at once
+     * and keeps the interrupt for the caller; the thread stops on its own once the connection is closed.
+     *
+     * @throws IOException if the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a replica until the JVM is stopped.
+     *
+     * @param args The port of the leader, then optionally the port to serve on and the allowed staleness in ms.
+     * @throws IOException if the leader cannot be reached or the port cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        long maxLag = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        ReplicaFollower follower = connect("localhost", Integer.parseInt(args[0]), maxLag);
+        WireServer server = follower.serve(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+        System.out.println(server.getPort());
+    }
+}
@@ -0,0 +1,209 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.MutationLog;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskManager;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskRecord;
+import hk.edu.polyu.comp.comp2021.tms.model.WorkspaceSnapshot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The ReplicationLeader class streams the changes of a primary {@link TMS} to {@link ReplicaFollower}s.
+ * <p>
+ * A new follower first receives a snapshot of all tasks and criteria, then the entries of the
+ * {@link MutationLog} of the primary in version order. A follower that falls behind the entries the log
+ * keeps receives a new snapshot instead. While nothing changes, a heartbeat with the current data version
+ * is sent every {@value #HEARTBEAT_MILLIS} ms, so followers can tell how stale they are.
+ * </p>
+ */
+public class ReplicationLeader implements AutoCloseable {
+    /**
+     * The number of versions the mutation log keeps for followers that fall behind.
+     */
+    public static final int DEFAULT_RETAINED = 10_000;
+    /**
+     * The longest time between two frames sent to a follower.
+     */
+    public static final long HEARTBEAT_MILLIS = 100;
+
+    static final int SNAPSHOT = 1;
+    static final int MUTATIONS = 2;
+    static final int HEARTBEAT = 3;
+
+    private final TMS tms;
+    private final TaskManager taskManager;
+    private final MutationLog log;
+    private final ServerSocket serverSocket;
+    private final ExecutorService threads = TMSAsync.defaultExecutor();
+    private final Set<WireTransport> followers = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    /**
+     * Starts streaming the changes of a TMS to followers that connect on the loopback address.
+     *
+     * @param tms  The primary.
+     * @param port The port, or 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public ReplicationLeader(TMS tms, int port) throws IOException {
+        this.tms = tms;
+        this.taskManager = tms.getTaskManager();
+        this.log = tms.write(() -> taskManager.enableMutationLog(DEFAULT_RETAINED));
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "tms-replication-leader");
+        acceptor.start();
+    }
+
+    /**
+     * Get the port followers connect to
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the data version of the last change of the primary
+     * @return the data version
+     */
+    public long getLastVersion() {
+        return log.getLastVersion();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                follow(WireTransport.over(socket));
+            } catch (IOException e) {
+                // closed, or a follower that went away while connecting
+            }
+        }
+    }
+
+    /**
+     * Starts a follower in this process, streamed to without a socket.
+     *
+     * @param maxLagMillis The staleness up to which the follower answers queries.
+     * @return The follower.
+     */
+    public ReplicaFollower loopbackFollower(long maxLagMillis) {
+        WireTransport[] ends = WireTransport.loopback();
+        follow(ends[0]);
+        return new ReplicaFollower(ends[1], maxLagMillis);
+    }
+
+    private void follow(WireTransport transport) {
+        followers.add(transport);
+        threads.execute(() -> {
+            try (WireTransport connection = transport) {
+                stream(connection);
+            } catch (IOException e) {
+                // the follower went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                followers.remove(transport);
+            }
+        });
+    }
+
+    private void stream(WireTransport connection) throws IOException, InterruptedException {
+        WireFormat.Encoder frame = new WireFormat.Encoder();
+        long cursor = sendSnapshot(connection, frame);
+        while (running) {
+            List<MutationLog.Entry> entries = log.since(cursor, HEARTBEAT_MILLIS);
+            frame.reset();
+            if (entries == null) {
+                cursor = sendSnapshot(connection, frame);
+                continue;
+            }
+            if (entries.isEmpty()) {
+                frame.writeByte(HEARTBEAT);
+                frame.writeVarint(cursor);
+            } else {
+                frame.writeByte(MUTATIONS);
+                frame.writeVarint(log.getLastVersion());
+                frame.writeVarint(entries.size());
+                for (MutationLog.Entry entry : entries) {
+                    writeEntry(frame, entry);
+                }
+                cursor = entries.get(entries.size() - 1).getVersion();
+            }
+            connection.send(frame.toByteArray());
+        }
+    }
+
+    // Returns the data version of the snapshot sent
+    private long sendSnapshot(WireTransport connection, WireFormat.Encoder frame) throws IOException {
+        WorkspaceSnapshot snapshot = tms.readLocked(taskManager::snapshot);
+        frame.reset();
+        frame.writeByte(SNAPSHOT);
+        frame.writeVarint(snapshot.getVersion());
+        frame.writeVarint(snapshot.getTasks().size());
+        for (TaskRecord record : snapshot.getTasks()) {
+            frame.writeRecord(record);
+        }
+        frame.writeStrings(snapshot.getCriterionLines());
+        connection.send(frame.toByteArray());
+        return snapshot.getVersion();
+    }
+
+    private static void writeEntry(WireFormat.Encoder frame, MutationLog.Entry entry) {
+        frame.writeVarint(entry.getVersion());
+        frame.writeVarint(entry.getTasks().size());
+        for (Map.Entry<String, TaskRecord> task : entry.getTasks().entrySet()) {
+            frame.writeName(task.getKey());
+            frame.writeByte(task.getValue() == null ? 0 : 1);
+            if (task.getValue() != null) {
+                frame.writeRecord(task.getValue());
+            }
+        }
+        frame.writeVarint(entry.getCriteria().size());
+        for (Map.Entry<String, String> criterion : entry.getCriteria().entrySet()) {
+            frame.writeName(criterion.getKey());
+            frame.writeByte(criterion.getValue() == null ? 0 : 1);
+            if (criterion.getValue() != null) {
+                frame.writeString(criterion.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting followers and closes the streams to the connected ones.
+     * The mutation log of the primary keeps being written. If interrupted while waiting for the accepting
+     * thread, closes the streams without waiting and keeps the interrupt for the caller.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            // the accepting thread stops on its own now that its socket is closed
+            Thread.currentThread().interrupt();
+        }
+        for (WireTransport follower : followers) {
+            try {
+                follower.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        threads.shutdown();
+    }
+}
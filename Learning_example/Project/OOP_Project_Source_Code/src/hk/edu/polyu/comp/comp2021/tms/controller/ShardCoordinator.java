@@ -0,0 +1,467 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.RemoteOperationException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The ShardCoordinator class spreads the tasks of one workspace over several shards, each a {@link WireServer}
+ * usually running in its own JVM, so that a workspace can grow beyond one heap.
+ * <p>
+ * A task lives on the shard its name hashes to. When a task has a prerequisite on another shard, that shard's
+ * task is mirrored on the task's shard as a ghost: a simple task with the same name and no prerequisites.
+ * Ghosts let each shard check prerequisites and compute durations and earliest finish times on its own,
+ * since an earliest finish time only looks at the own durations of the direct prerequisites. A ghost therefore
+ * carries the own duration of its task, not its total: that of a simple task, or 0 for a composite task,
+ * whose duration is made of its subtasks. Duration changes are copied to the ghosts.
+ * </p>
+ * <p>
+ * Each ghost is kept for the tasks of its shard that have it as a prerequisite. It is deleted once none of
+ * them is left, and ghosts made for a change that fails are deleted again. Like any prerequisite, a task
+ * cannot be deleted while a ghost of it is still used.
+ * </p>
+ * <p>
+ * Searches are sent to all shards at once and their results gathered, leaving out ghosts. Criteria are defined
+ * on every shard. Composite tasks must have all their subtasks on their own shard, and tasks cannot be renamed,
+ * since a new name may belong to another shard. The coordinator must be the only client changing the shards.
+ * </p>
+ */
+public class ShardCoordinator implements AutoCloseable {
+    /**
+     * The description given to ghosts.
+     */
+    public static final String GHOST_DESCRIPTION = "Ghost";
+
+    private final List<TMSClient> shards;
+    // For each task with ghosts: the shards holding one, each with the names of the tasks there that use it
+    private final Map<String, Map<Integer, Set<String>>> ghosts = new HashMap<>();
+    // The prerequisites on other shards of each simple task
+    private final Map<String, List<String>> remotePrerequisites = new HashMap<>();
+    // The subtasks of each composite task
+    private final Map<String, List<String>> composites = new HashMap<>();
+    private final ExecutorService threads = TMSAsync.defaultExecutor();
+
+    /**
+     * Creates a coordinator over connected shards. The order of the shards decides where each task lives,
+     * so it must stay the same for the lifetime of the workspace.
+     *
+     * @param shards The clients of the shards.
+     */
+    public ShardCoordinator(List<TMSClient> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed.");
+        }
+        this.shards = new ArrayList<>(shards);
+    }
+
+    /**
+     * Connects to shards served by {@link WireServer}s.
+     *
+     * @param addresses The addresses of the shards, in a fixed order.
+     * @return The coordinator.
+     * @throws IOException if a shard cannot be reached.
+     */
+    public static ShardCoordinator connect(List<InetSocketAddress> addresses) throws IOException {
+        List<TMSClient> clients = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : addresses) {
+                clients.add(TMSClient.connect(address.getHostString(), address.getPort()));
+            }
+        } catch (IOException e) {
+            for (TMSClient client : clients) {
+                client.close();
+            }
+            throw e;
+        }
+        return new ShardCoordinator(clients);
+    }
+
+    /**
+     * Finds the shard a task lives on.
+     *
+     * @param name The name of the task.
+     * @return The index of the shard.
+     */
+    public int shardOf(String name) {
+        return Math.floorMod(name.hashCode(), shards.size());
+    }
+
+    private TMSClient owner(String name) {
+        return shards.get(shardOf(name));
+    }
+
+    /**
+     * Creates a simple task, with ghosts of its prerequisites from other shards.
+     *
+     * @param name          The name of the task.
+     * @param description   The description of the task.
+     * @param duration      The duration of the task.
+     * @param prerequisites The names of the prerequisites, possibly empty.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the task cannot be created.
+     */
+    public synchronized void createSimpleTask(String name, String description, double duration, List<String> prerequisites) throws IOException, RemoteOperationException {
+        int shard = shardOf(name);
+        List<String> created = addGhosts(shard, prerequisites);
+        try {
+            owner(name).createSimpleTask(name, description, duration, prerequisites);
+        } catch (IOException | RemoteOperationException e) {
+            deleteGhosts(shard, created, e);
+            throw e;
+        }
+        useGhosts(name, remote(shard, prerequisites));
+    }
+
+    /**
+     * Creates a composite task. All subtasks must live on the shard of the composite task.
+     *
+     * @param name        The name of the task.
+     * @param description The description of the task.
+     * @param subtasks    The names of the subtasks.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the task cannot be created.
+     */
+    public synchronized void createCompositeTask(String name, String description, List<String> subtasks) throws IOException, RemoteOperationException {
+        checkLocalSubtasks(name, subtasks);
+        owner(name).createCompositeTask(name, description, subtasks);
+        composites.put(name, new ArrayList<>(subtasks));
+    }
+
+    /**
+     * Deletes a task, and the ghosts no task uses any more. As on a single TMS, deleting a composite task
+     * deletes its subtasks.
+     *
+     * @param name The name of the task.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the task, or one of its ghosts, is still used.
+     */
+    public synchronized void deleteTask(String name) throws IOException, RemoteOperationException {
+        List<String> subtasks = composites.get(name);
+        if (subtasks == null) {
+            for (Set<String> users : ghosts.getOrDefault(name, Collections.emptyMap()).values()) {
+                if (!users.isEmpty()) {
+                    throw new RemoteOperationException("TaskCannotReomoveException", isSubtask(name)
+                            ? "Subtask cannot be removed." : "Prerequisite task cannot be removed.");
+                }
+            }
+        }
+        owner(name).deleteTask(name);
+        if (subtasks == null) {
+            releaseGhosts(name);
+            return;
+        }
+        for (String subtask : subtasks) {
+            releaseGhosts(subtask);
+            composites.remove(subtask);
+        }
+    }
+
+    private boolean isSubtask(String name) {
+        for (List<String> subtasks : composites.values()) {
+            if (subtasks.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Changes the description or duration of a task. A new duration is copied to its ghosts.
+     *
+     * @param name     The name of the task.
+     * @param property "description" or "duration".
+     * @param value    The new value.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the task cannot be changed.
+     */
+    public synchronized void changeTask(String name, String property, String value) throws IOException, RemoteOperationException {
+        if (property.equalsIgnoreCase("name")) {
+            throw new RemoteOperationException("InvalidPropertyException", "Tasks cannot be renamed across shards.");
+        }
+        owner(name).changeTask(name, property, value);
+        if (property.equalsIgnoreCase("duration")) {
+            for (int shard : ghosts.getOrDefault(name, Collections.emptyMap()).keySet()) {
+                shards.get(shard).changeTask(name, property, value);
+            }
+        }
+    }
+
+    /**
+     * Changes the prerequisites or subtasks of a task, adding ghosts of new prerequisites from other shards.
+     *
+     * @param name     The name of the task.
+     * @param property "prerequisites" or "subtasks".
+     * @param value    The new names, possibly empty.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the task cannot be changed.
+     */
+    public synchronized void changeTask(String name, String property, List<String> value) throws IOException, RemoteOperationException {
+        int shard = shardOf(name);
+        if (property.equalsIgnoreCase("subtasks")) {
+            checkLocalSubtasks(name, value);
+            owner(name).changeTask(name, property, value);
+            if (composites.containsKey(name)) {
+                composites.put(name, new ArrayList<>(value));
+            }
+            return;
+        }
+        List<String> created = property.equalsIgnoreCase("prerequisites") ? addGhosts(shard, value) : Collections.emptyList();
+        try {
+            owner(name).changeTask(name, property, value);
+        } catch (IOException | RemoteOperationException e) {
+            deleteGhosts(shard, created, e);
+            throw e;
+        }
+        if (property.equalsIgnoreCase("prerequisites")) {
+            List<String> unused = new ArrayList<>(remotePrerequisites.getOrDefault(name, Collections.emptyList()));
+            useGhosts(name, remote(shard, value));
+            unused.removeAll(remotePrerequisites.get(name));
+            releaseGhosts(name, shard, unused);
+        }
+    }
+
+    // The distinct prerequisites that live on other shards than the given one
+    private List<String> remote(int shard, List<String> prerequisites) {
+        Set<String> remote = new LinkedHashSet<>();
+        for (String prerequisite : prerequisites) {
+            if (!prerequisite.equals(",") && shardOf(prerequisite) != shard) {
+                remote.add(prerequisite);
+            }
+        }
+        return new ArrayList<>(remote);
+    }
+
+    // Makes the ghosts a shard lacks for some prerequisites; returns the names of the ghosts made
+    private List<String> addGhosts(int shard, List<String> prerequisites) throws IOException, RemoteOperationException {
+        List<String> created = new ArrayList<>();
+        try {
+            for (String prerequisite : remote(shard, prerequisites)) {
+                if (ghosts.getOrDefault(prerequisite, Collections.emptyMap()).containsKey(shard)) {
+                    continue;
+                }
+                // the own duration, which is what the earliest finish times of the shard use
+                double duration = composites.containsKey(prerequisite) ? 0 : owner(prerequisite).reportDuration(prerequisite);
+                shards.get(shard).createSimpleTask(prerequisite, GHOST_DESCRIPTION, duration, Collections.emptyList());
+                created.add(prerequisite);
+            }
+        } catch (IOException | RemoteOperationException e) {
+            deleteGhosts(shard, created, e);
+            throw e;
+        }
+        return created;
+    }
+
+    // Deletes the ghosts made for a change that failed; what cannot be deleted is added to the failure
+    private void deleteGhosts(int shard, List<String> created, Exception failure) {
+        for (String prerequisite : created) {
+            try {
+                shards.get(shard).deleteTask(prerequisite);
+            } catch (IOException | RemoteOperationException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    // Records that a task uses the ghosts of its prerequisites on other shards
+    private void useGhosts(String name, List<String> prerequisites) {
+        int shard = shardOf(name);
+        remotePrerequisites.put(name, prerequisites);
+        for (String prerequisite : prerequisites) {
+            ghosts.computeIfAbsent(prerequisite, k -> new TreeMap<>())
+                    .computeIfAbsent(shard, k -> new HashSet<>()).add(name);
+        }
+    }
+
+    // Records that a deleted task no longer uses ghosts, and deletes those left unused
+    private void releaseGhosts(String name) throws IOException, RemoteOperationException {
+        List<String> prerequisites = remotePrerequisites.remove(name);
+        if (prerequisites != null) {
+            releaseGhosts(name, shardOf(name), prerequisites);
+        }
+    }
+
+    private void releaseGhosts(String name, int shard, List<String> prerequisites) throws IOException, RemoteOperationException {
+        for (String prerequisite : prerequisites) {
+            Map<Integer, Set<String>> holders = ghosts.get(prerequisite);
+            Set<String> users = holders.get(shard);
+            users.remove(name);
+            if (users.isEmpty()) {
+                shards.get(shard).deleteTask(prerequisite);
+                holders.remove(shard);
+                if (holders.isEmpty()) {
+                    ghosts.remove(prerequisite);
+                }
+            }
+        }
+    }
+
+    private void checkLocalSubtasks(String name, List<String> subtasks) throws RemoteOperationException {
+        for (String subtask : subtasks) {
+            if (shardOf(subtask) != shardOf(name)) {
+                throw new RemoteOperationException("InvalidSubtaskException",
+                        "Subtask '" + subtask + "' lives on another shard than '" + name + "'.");
+            }
+        }
+    }
+
+    /**
+     * Prints the details of a task.
+     *
+     * @param name The name of the task.
+     * @return The lines describing the task.
+     * @throws IOException              if the shard cannot be reached.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public List<String> printTask(String name) throws IOException, RemoteOperationException {
+        return owner(name).printTask(name);
+    }
+
+    /**
+     * Reports the duration of a task.
+     *
+     * @param name The name of the task.
+     * @return The duration.
+     * @throws IOException              if the shard cannot be reached.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public double reportDuration(String name) throws IOException, RemoteOperationException {
+        return owner(name).reportDuration(name);
+    }
+
+    /**
+     * Reports the earliest finish time of a task. Ghosts carry the durations of prerequisites on other shards,
+     * so the shard of the task answers alone.
+     *
+     * @param name The name of the task.
+     * @return The earliest finish time.
+     * @throws IOException              if the shard cannot be reached.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public double reportEarliestFinishTime(String name) throws IOException, RemoteOperationException {
+        return owner(name).reportEarliestFinishTime(name);
+    }
+
+    /**
+     * Searches all shards at once and gathers the names of the matching tasks, without ghosts.
+     *
+     * @param criterion The name of the criterion.
+     * @return The names of the matching tasks, shard by shard.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the criterion does not exist.
+     */
+    public List<String> search(String criterion) throws IOException, RemoteOperationException {
+        List<CompletableFuture<List<String>>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    List<String> owned = new ArrayList<>();
+                    for (String name : shards.get(shard).search(criterion)) {
+                        if (shardOf(name) == shard) {
+                            owned.add(name);
+                        }
+                    }
+                    return owned;
+                } catch (IOException | RemoteOperationException e) {
+                    throw new CompletionException(e);
+                }
+            }, threads));
+        }
+        List<String> names = new ArrayList<>();
+        for (CompletableFuture<List<String>> part : parts) {
+            try {
+                names.addAll(part.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RemoteOperationException) {
+                    throw (RemoteOperationException) e.getCause();
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Defines a basic criterion on every shard.
+     *
+     * @param name     The name of the criterion.
+     * @param property The property compared.
+     * @param op       The comparison.
+     * @param value    The value compared with.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the criterion is invalid.
+     */
+    public synchronized void defineBasicCriterion(String name, String property, String op, String value) throws IOException, RemoteOperationException {
+        for (TMSClient shard : shards) {
+            TMSClient.Pipeline pipeline = shard.pipeline();
+            TMSClient.Reply<Void> reply = pipeline.defineBasicCriterion(name, property, op, value);
+            pipeline.send();
+            reply.get();
+        }
+    }
+
+    /**
+     * Defines a negated criterion on every shard.
+     *
+     * @param name      The name of the new criterion.
+     * @param criterion The name of the criterion negated.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the criterion is invalid.
+     */
+    public synchronized void defineNegatedCriterion(String name, String criterion) throws IOException, RemoteOperationException {
+        for (TMSClient shard : shards) {
+            TMSClient.Pipeline pipeline = shard.pipeline();
+            TMSClient.Reply<Void> reply = pipeline.defineNegatedCriterion(name, criterion);
+            pipeline.send();
+            reply.get();
+        }
+    }
+
+    /**
+     * Defines a binary criterion on every shard.
+     *
+     * @param name   The name of the new criterion.
+     * @param first  The name of the first criterion.
+     * @param op     "&amp;&amp;" or "||".
+     * @param second The name of the second criterion.
+     * @throws IOException              if a shard cannot be reached.
+     * @throws RemoteOperationException if the criterion is invalid.
+     */
+    public synchronized void defineBinaryCriterion(String name, String first, String op, String second) throws IOException, RemoteOperationException {
+        for (TMSClient shard : shards) {
+            TMSClient.Pipeline pipeline = shard.pipeline();
+            TMSClient.Reply<Void> reply = pipeline.defineBinaryCriterion(name, first, op, second);
+            pipeline.send();
+            reply.get();
+        }
+    }
+
+    /**
+     * Closes the connections to all shards.
+     *
+     * @throws IOException if a connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        threads.shutdown();
+        IOException failure = null;
+        for (TMSClient shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
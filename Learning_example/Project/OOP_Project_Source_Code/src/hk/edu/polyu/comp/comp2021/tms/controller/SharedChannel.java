@@ -0,0 +1,60 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The SharedChannel class serves a {@link TMS} through a memory-mapped file, for local tools that attach
+ * with {@link TMSClient#attach(Path)}.
+ * <p>
+ * Requests and replies use the binary protocol of {@link WireServer}, but travel through shared memory
+ * instead of a socket, so a request costs no system call while the server is busy or has just been.
+ * One client is attached at a time; when it detaches, the channel is emptied for the next one.
+ * The current data version of the workspace is kept in the file, so attached tools can watch for changes
+ * without sending requests.
+ * </p>
+ */
+public class SharedChannel implements AutoCloseable {
+    private final MappedByteBuffer buffer;
+    private final Thread server;
+    private volatile boolean running = true;
+
+    private SharedChannel(TMS tms, MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        server = new Thread(() -> {
+            while (running) {
+                WireServer.serve(tms, MappedTransport.serve(buffer, () -> WireServer.dataVersion(tms)));
+            }
+        }, "tms-shared-channel");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    /**
+     * Creates the file of a channel, replacing any older one, and starts serving it.
+     *
+     * @param tms  The TMS to serve.
+     * @param path The file of the channel.
+     * @return The channel.
+     * @throws IOException if the file cannot be created.
+     */
+    public static SharedChannel open(TMS tms, Path path) throws IOException {
+        return new SharedChannel(tms, MappedTransport.create(path, MappedTransport.DEFAULT_RING_SIZE));
+    }
+
+    /**
+     * Stops serving. An attached client gets an error on its next request. If interrupted while waiting for
+     * the serving thread, returns at once and keeps the interrupt for the caller; the thread stops on its own.
+     */
+    @Override
+    public void close() {
+        running = false;
+        MappedTransport.setState(buffer, MappedTransport.CLOSED);
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,7 +3,15 @@ import hk.edu.polyu.comp.comp2021.tms.model.*;
 import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
@@ -12,10 +20,31 @@ import java.util.*;
  * offering methods to create, update, delete, and report tasks and criteria.
  * This class handles the business logic and delegates lower-level operations
  * to the TaskManager.
+ * <p>
+ * One TMS can be shared by many threads. Queries share a read lock, since the task manager is made of
+ * plain maps that must not be walked while they change. Commands that change tasks or criteria run one
+ * at a time under a write lock. The lock is fair, so a command waits only for the queries already running,
+ * however many queries keep coming.
+ * </p>
  * {@code @auther} CHEN Chi-wei
  */
 public class TMS {
+    /**
+     * The number of archive pages kept in memory.
+     */
+    public static final int ARCHIVE_CACHE_PAGES = 1024;
+    /**
+     * The most names of each kind returned by {@link #complete(String)}.
+     */
+    public static final int COMPLETION_LIMIT = 20;
+    /**
+     * The most task names suggested when a task name is not found.
+     */
+    public static final int SUGGESTION_LIMIT = 3;
     private final TaskManager taskManager;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private volatile CompletableFuture<Void> pendingStore;
+    private SharedChannel sharedChannel;
 
     /**
      * Constructs a new instance of the TMS controller.
@@ -26,6 +55,102 @@ public class TMS {
 
     }
 
+    // For the other controllers of this package, which run their own calls under the locks below
+    TaskManager getTaskManager() {
+        return taskManager;
+    }
+
+    /**
+     * Runs a query under the shared read lock. Any number of queries run at once, but not while a command runs.
+     *
+     * @param query The query to run.
+     * @param <T>   The type of the result.
+     * @return The result of the query.
+     */
+    <T> T readLocked(Supplier<T> query) {
+        if (holdsWriteLock()) {
+            return query.get();
+        }
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void readLocked(Runnable query) {
+        readLocked(() -> {
+            query.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a command under the write lock. A thread that already holds the write lock runs it directly,
+     * so commands can be grouped with {@link #batch(Supplier)}.
+     *
+     * @param command The command to run.
+     * @param <T>     The type of the result.
+     * @return The result of the command.
+     */
+    <T> T write(Supplier<T> command) {
+        if (holdsWriteLock()) {
+            return command.get();
+        }
+        lock.writeLock().lock();
+        try {
+            return command.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs several commands under one write lock as one batch of the task manager:
+     * the data version moves on once and derived caches are dropped once for the whole batch.
+     *
+     * @param commands The commands to run, calling the methods of this TMS.
+     * @param <T>      The type of the result.
+     * @return The result of the commands.
+     */
+    <T> T batch(Supplier<T> commands) {
+        return write(() -> {
+            taskManager.beginBatch();
+            try {
+                return commands.get();
+            } finally {
+                taskManager.endBatch();
+            }
+        });
+    }
+
+    private boolean holdsWriteLock() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Runs a report. Once versions are enabled, the report runs on the latest pinned version, which never
+     * changes, without any lock; otherwise it runs on the task manager under the read lock like any other query.
+     *
+     * @param report The report to run.
+     * @param <T>    The type of the result.
+     * @return The result of the report.
+     */
+    <T> T report(Function<TaskQueries, T> report) {
+        if (taskManager.isVersioned() && !holdsWriteLock()) {
+            return report.apply(taskManager.pin());
+        }
+        return readLocked(() -> report.apply(taskManager));
+    }
+
+    void write(Runnable command) {
+        write(() -> {
+            command.run();
+            return null;
+        });
+    }
+
     /**
      * Creates a simple task in the Task Management System.
      * Note: This method handles exceptions internally and returns appropriate error messages as part of the response string.
@@ -38,16 +163,18 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public String createSimpleTask(String name, String description, String duration, List<String> prerequisites) {
-        try {
-            taskManager.addSimpleTask(name, description, duration, prerequisites);
-            return "Task created successfully.";
-        } catch (TaskAlreadyExistsException e) {
-            return "Error: Task already exists.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        } catch (NumberFormatException e) {
-            return "Error: The input is not a valid duration.";
-        }
+        return write(() -> {
+            try {
+                taskManager.addSimpleTask(name, description, duration, prerequisites);
+                return "Task created successfully.";
+            } catch (TaskAlreadyExistsException e) {
+                return "Error: Task already exists.";
+            } catch (InvalidPrerequisiteException e) {
+                return didYouMean("Error: Invalid prerequisite.", prerequisites);
+            } catch (NumberFormatException e) {
+                return "Error: The input is not a valid duration.";
+            }
+        });
     }
 
     /**
@@ -63,14 +190,16 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public String createCompositeTask(String name, String description, List<String> subTasks) {
-        try {
-            taskManager.addCompositeTask(name, description, subTasks);
-            return "Composite task created successfully.";
-        } catch (TaskAlreadyExistsException e) {
-            return "Error: The task already exists.";
-        } catch (InvalidSubtaskException e) {
-            return "Error: Invalid subtask.";
-        }
+        return write(() -> {
+            try {
+                taskManager.addCompositeTask(name, description, subTasks);
+                return "Composite task created successfully.";
+            } catch (TaskAlreadyExistsException e) {
+                return "Error: The task already exists.";
+            } catch (InvalidSubtaskException e) {
+                return didYouMean("Error: Invalid subtask.", subTasks);
+            }
+        });
     }
 
     /**
@@ -82,18 +211,20 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public String deleteTask(String name) {
-        try {
-            taskManager.removeTask(name);
-            return "Task deleted successfully.";
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (TaskCannotReomoveException e) {
-            return "Error: The task cannot be removed.";
-        } catch (InvalidSubtaskException e) {
-            return "Error: Invalid subtask.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        }
+        return write(() -> {
+            try {
+                taskManager.removeTask(name);
+                return "Task deleted successfully.";
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: The task does not exist.", Collections.singletonList(name));
+            } catch (TaskCannotReomoveException e) {
+                return "Error: The task cannot be removed.";
+            } catch (InvalidSubtaskException e) {
+                return "Error: Invalid subtask.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            }
+        });
     }
 
     /**
@@ -107,17 +238,19 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public String changeTask(String name, String property, List<String> value) {
-        try {
-            taskManager.updateTask(name, property, value);
-            return "Task updated successfully.";
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        } catch (InvalidSubtaskException e) {
-            return "Error: Invalid subtask.";
-        }
-        // Catch other potential exceptions
+        return write(() -> {
+            try {
+                taskManager.updateTask(name, property, value);
+                return "Task updated successfully.";
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: The task does not exist.", Collections.singletonList(name));
+            } catch (InvalidPrerequisiteException e) {
+                return didYouMean("Error: Invalid prerequisite.", value);
+            } catch (InvalidSubtaskException e) {
+                return didYouMean("Error: Invalid subtask.", value);
+            }
+            // Catch other potential exceptions
+        });
     }
 
     /**
@@ -131,17 +264,77 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public String changeTask(String name, String property, String value) {
-        try {
-            taskManager.updateTask(name, property, value);
-            return "Task updated successfully.";
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (InvalidPropertyException e) {
-            return "Error: The property does not exist.";
-        }
-        // Catch other potential exceptions
+        return write(() -> {
+            try {
+                taskManager.updateTask(name, property, value);
+                return "Task updated successfully.";
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: The task does not exist.", Collections.singletonList(name));
+            } catch (InvalidPropertyException e) {
+                if ("duration".equals(property)) {
+                    return "Error: Composite task cannot have a duration.";
+                }
+                return "Error: The property does not exist.";
+            }
+            // Catch other potential exceptions
+        });
+    }
+
+
+    /**
+     * Applies a batch of task creations, changes and deletions. Either all of them are applied or none is.
+     *
+     * @param batch The batch to apply.
+     * @return A string indicating the success of the batch, or every problem found in it.
+     */
+    public String applyBatch(TaskBatch batch) {
+        return write(() -> {
+            try {
+                taskManager.apply(batch);
+                return "Batch applied successfully: " + batch.size() + " operations.";
+            } catch (InvalidBatchException e) {
+                return "Error: " + String.join("\n", e.getErrors());
+            }
+        });
+    }
+
+    /**
+     * Changes a property of every task that meets a criterion. Either all matching tasks are changed or none is.
+     *
+     * @param criterion The name of the criterion.
+     * @param property The property to change, "description" or "duration".
+     * @param value The new value; for durations also a factor such as "*1.1".
+     * @return A string indicating how many tasks were changed, or an error message.
+     */
+    public String changeTasksMatching(String criterion, String property, String value) {
+        return write(() -> {
+            try {
+                return "Tasks updated successfully: " + taskManager.updateTasksMatching(criterion, property, value) + " tasks.";
+            } catch (CritersionNotFoundException e) {
+                return "Error: criterion is not found";
+            } catch (InvalidBatchException e) {
+                return "Error: " + String.join("\n", e.getErrors());
+            }
+        });
     }
 
+    /**
+     * Deletes every task that meets a criterion. Either all matching tasks are deleted or none is.
+     *
+     * @param criterion The name of the criterion.
+     * @return A string indicating how many tasks were deleted, or an error message.
+     */
+    public String deleteTasksMatching(String criterion) {
+        return write(() -> {
+            try {
+                return "Tasks deleted successfully: " + taskManager.removeTasksMatching(criterion) + " tasks.";
+            } catch (CritersionNotFoundException e) {
+                return "Error: criterion is not found";
+            } catch (InvalidBatchException e) {
+                return "Error: " + String.join("\n", e.getErrors());
+            }
+        });
+    }
 
     /**
      * Retrieves and formats the details of a specific task in the Task Management System.
@@ -151,16 +344,18 @@ public class TMS {
      * {@code @auther} Zeng Junqi
      */
     public String printTask(String name) {
-        try {
-            List<String> taskDetails = taskManager.printTask(name); // 调用第一个printTask方法
-            StringBuilder result = new StringBuilder("Task list printed successfully\n");
-            for (String detail : taskDetails) {
-                result.append(detail).append("\n");
-            }
-            return result.toString();
-        } catch (TaskNotFoundException e) {
-            return "Error: Task does not exist.";
-        }
+        return report(queries -> {
+            try {
+                List<String> taskDetails = queries.printTask(name); // 调用第一个printTask方法
+                StringBuilder result = new StringBuilder("Task list printed successfully\n");
+                for (String detail : taskDetails) {
+                    result.append(detail).append("\n");
+                }
+                return result.toString();
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: Task does not exist.", Collections.singletonList(name));
+            }
+        });
     }
 
     /**
@@ -170,25 +365,159 @@ public class TMS {
      * {@code @auther} Zeng Junqi
      */
     public String printAllTasks() {
-        try {
-            Map<String, List<String>> allTasksOutput = taskManager.printAllTasks();
+        return report(queries -> {
+            try {
+                Map<String, List<String>> allTasksOutput = queries.printAllTasks();
+
+                StringBuilder output = new StringBuilder();
+                for (Map.Entry<String, List<String>> entry : allTasksOutput.entrySet()) {
+                    output.append("Task: ").append(entry.getKey()).append("\n");
+                    for (String line : entry.getValue()) {
+                        output.append(line).append("\n");
+                    }
+                    output.append("\n");
+                }
+
+                return output.toString();
+
+            } catch (TaskNotFoundException e) {
+                return "Error: The task does not exist.";
+            } catch (TaskMapIsEmpty e) {
+                return "Error: Task list is empty.";
+            }
+        });
+    }
 
-            StringBuilder output = new StringBuilder();
-            for (Map.Entry<String, List<String>> entry : allTasksOutput.entrySet()) {
-                output.append("Task: ").append(entry.getKey()).append("\n");
-                for (String line : entry.getValue()) {
-                    output.append(line).append("\n");
+    /**
+     * Writes the details of a task and of the tasks it depends on straight to an output, expanding each
+     * task only once, so that tasks shared by many others do not multiply the output.
+     *
+     * @param name     The name of the task to be printed.
+     * @param maxDepth The number of levels of dependencies expanded, or null for all of them.
+     * @param out      The output; error messages are written to it too.
+     */
+    public void printTaskTree(String name, String maxDepth, PrintStream out) {
+        readLocked(() -> {
+            try {
+                int depth = parseDepth(maxDepth);
+                if (!taskManager.hasTask(name)) {
+                    throw new TaskNotFoundException("Task with name '" + name + "' does not exist.");
                 }
-                output.append("\n");
+                out.println("Task list printed successfully");
+                taskManager.printTask(name, out, depth);
+            } catch (NumberFormatException e) {
+                out.println("Error: Depth must be a non-negative whole number.");
+            } catch (TaskNotFoundException e) {
+                out.println(didYouMean("Error: Task does not exist.", Collections.singletonList(name)));
+            } catch (IOException e) {
+                out.println("Error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Writes the details of all tasks straight to an output, expanding each task only once for the whole output.
+     *
+     * @param maxDepth The number of levels of dependencies expanded, or null for all of them.
+     * @param out      The output; error messages are written to it too.
+     */
+    public void printAllTaskTrees(String maxDepth, PrintStream out) {
+        readLocked(() -> {
+            try {
+                taskManager.printAllTasks(out, parseDepth(maxDepth));
+            } catch (NumberFormatException e) {
+                out.println("Error: Depth must be a non-negative whole number.");
+            } catch (TaskNotFoundException e) {
+                out.println("Error: The task does not exist.");
+            } catch (TaskMapIsEmpty e) {
+                out.println("Error: Task list is empty.");
+            } catch (IOException e) {
+                out.println("Error: " + e.getMessage());
             }
+        });
+    }
 
-            return output.toString();
+    /**
+     * Adds a listener that is told about every later change, and returns the names of the tasks it starts from.
+     * Both happen at once, so the listener misses no change made after the names were taken.
+     *
+     * @param listener The listener; it is called while the TMS is locked for the change.
+     * @return The names of all current tasks.
+     */
+    public List<String> addTaskListener(TaskChangeListener listener) {
+        return write(() -> {
+            taskManager.addTaskChangeListener(listener);
+            return taskManager.getTaskNames();
+        });
+    }
 
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (TaskMapIsEmpty e) {
-            return "Error: Task list is empty.";
+    /**
+     * Removes a listener added with {@link #addTaskListener(TaskChangeListener)}.
+     *
+     * @param listener The listener.
+     */
+    public void removeTaskListener(TaskChangeListener listener) {
+        write(() -> taskManager.removeTaskChangeListener(listener));
+    }
+
+    /**
+     * Checks some tasks against a criterion without searching all tasks, for views that follow changes.
+     *
+     * @param criterion The name of the criterion.
+     * @param names     The names of the tasks to check.
+     * @return The names of the tasks that meet the criterion.
+     * @throws CritersionNotFoundException if the criterion does not exist.
+     */
+    public List<String> filterTasks(String criterion, Collection<String> names) throws CritersionNotFoundException {
+        List<String> matching = readLocked(() -> {
+            try {
+                return taskManager.filterNames(criterion, names);
+            } catch (CritersionNotFoundException e) {
+                return null;
+            }
+        });
+        if (matching == null) {
+            throw new CritersionNotFoundException("Criterion '" + criterion + "' does not exist.");
         }
+        return matching;
+    }
+
+    /**
+     * Summarizes one task for views that show tasks one at a time, such as a tree opened level by level.
+     *
+     * @param name The name of the task.
+     * @return The summary of the task, or null if the task does not exist.
+     */
+    public TaskSummary summarizeTask(String name) {
+        return readLocked(() -> taskManager.summarize(name));
+    }
+
+    // Adds the tasks that may have been meant to an error, for each given name that is not a task
+    private String didYouMean(String error, Collection<String> names) {
+        Set<String> suggestions = readLocked(() -> {
+            Set<String> found = new LinkedHashSet<>();
+            for (String name : names) {
+                if (!",".equals(name) && !taskManager.hasTask(name)) {
+                    found.addAll(taskManager.suggestTaskNames(name, SUGGESTION_LIMIT));
+                }
+            }
+            return found;
+        });
+        if (suggestions.isEmpty()) {
+            return error;
+        }
+        return error + " Did you mean: " + String.join(", ", suggestions) + "?";
+    }
+
+    private static int parseDepth(String maxDepth) {
+        if (maxDepth == null) {
+            return Integer.MAX_VALUE;
+        }
+        int depth = Integer.parseInt(maxDepth);
+        if (depth < 0) {
+            throw new NumberFormatException(maxDepth);
+        }
+        return depth;
     }
 
     /**
@@ -206,15 +535,17 @@ public class TMS {
      * {@code @auther} Zeng Junqi
      */
     public String reportDuration(String name) {
-        try {
-            return "Duration: " + taskManager.ReportDuration(name);
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (InvalidSubtaskException e) {
-            return "Error: Invalid subtask.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        }
+        return readLocked(() -> {
+            try {
+                return "Duration: " + taskManager.ReportDuration(name);
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: The task does not exist.", Collections.singletonList(name));
+            } catch (InvalidSubtaskException e) {
+                return "Error: Invalid subtask.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            }
+        });
     }
 
 
@@ -233,14 +564,16 @@ public class TMS {
      * {@code @auther} Zeng Junqi
      */
     public String reportEarliestFinishTime(String name) {
-        try {
-            taskManager.ReportEarliestFinishTime(name);
-            return "Earliest finish time reported: " + taskManager.ReportEarliestFinishTime(name);
-        } catch (TaskNotFoundException e) {
-            return "Error: The task does not exist.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        }
+        return report(queries -> {
+            try {
+                queries.ReportEarliestFinishTime(name);
+                return "Earliest finish time reported: " + queries.ReportEarliestFinishTime(name);
+            } catch (TaskNotFoundException e) {
+                return didYouMean("Error: The task does not exist.", Collections.singletonList(name));
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            }
+        });
     }
 
     /**
@@ -253,45 +586,17 @@ public class TMS {
      * @return A string message indicating the success or failure of adding the criterion.
      */
     public String addBasicCriterion(String name, String property, String op, String value) {
-        // Check if the name is valid (non-null and non-empty)
-        if (name == null || name.isEmpty()) {
-            return "Error: Criterion name is invalid.";
-        }
-        // Check for valid property
-        if (property == null || (!property.equals("duration") && !property.equals("name")
-                && !property.equals("description") && !property.equals("prerequisites")
-                && !property.equals("subtasks"))) {
-            return "Error: Invalid property.";
-        }
-        // Handling 'duration' property
-        if (property.equals("duration")) {
-            Set<String> operators = new HashSet<>(Arrays.asList(">", "<", "==", ">=", "<=", "!="));
-            double number;
+        return write(() -> {
             try {
-                number = Double.parseDouble(value);
-            } catch (NumberFormatException e) {
-                return "The string is not a valid double.";
+                taskManager.defineBasicCriterion(name, property, op, value);
+                return "Basic Criterion updated successfully.";
+            } catch (CriterionNameNullException e) {
+                return "Error: Criterion name is invalid.";
+            } catch (InvalidPropertyException e) {
+                // the errors of a duration criterion have always been shown without the prefix
+                return "duration".equals(property) ? e.getMessage() : "Error: " + e.getMessage();
             }
-            if (!operators.contains(op)) return "The op is not a valid value.";
-            taskManager.defineBasicCriterion(name, property, op, number, property);
-            return "Basic Criterion updated successfully.";
-        }
-        // Handling 'name' or 'description' properties
-        if (property.equals("name") || property.equals("description")) {
-            op = "contains";
-            // Ensure value is a valid string
-            if (value == null) {
-                return "Error: Value for name or description is invalid.";
-            }
-            taskManager.defineBasicCriterion(name, property, op, value, property);
-            return "Basic Criterion updated successfully.";
-        }
-
-        // Handling 'prerequisites' or 'subtasks' properties
-        op = "contains";
-        // Additional checks can be added here for the format of the value
-        taskManager.defineBasicCriterion(name, property, op, value, property);
-        return "Basic Criterion updated successfully.";
+        });
     }
 
     /**
@@ -302,19 +607,21 @@ public class TMS {
      * @return A string message indicating the success or failure of adding the negated criterion.
      */
     public String addNegatedCriterion(String newCriterionName, String existingCriterionName) {
-        try {
-            taskManager.defineNegatedCriterion(newCriterionName, existingCriterionName);
-            return "Negated Criterion updated successfully.";
-        } catch (CriterionNameNullException e) {
-            // Return a message indicating the criterion name is null or empty
-            return "Error: The criterion name cannot be null or empty.";
-        } catch (CriterionAlreadyExistsException e) {
-            // Return a message indicating the criterion already exists
-            return "Error: A criterion with this name already exists.";
-        } catch (TaskNotFoundException e) {
-            // Return the specific error message from the exception
-            return "Error: " + e.getMessage();
-        }
+        return write(() -> {
+            try {
+                taskManager.defineNegatedCriterion(newCriterionName, existingCriterionName);
+                return "Negated Criterion updated successfully.";
+            } catch (CriterionNameNullException e) {
+                // Return a message indicating the criterion name is null or empty
+                return "Error: The criterion name cannot be null or empty.";
+            } catch (CriterionAlreadyExistsException e) {
+                // Return a message indicating the criterion already exists
+                return "Error: A criterion with this name already exists.";
+            } catch (TaskNotFoundException e) {
+                // Return the specific error message from the exception
+                return "Error: " + e.getMessage();
+            }
+        });
     }
 
     /**
@@ -328,20 +635,22 @@ public class TMS {
      */
     public String addBinaryCriterion(String newCriterionName, String firstCriterionName,
                                      String logicOp, String secondCriterionName) {
-        try {
-            taskManager.defineBinaryCriterion(newCriterionName, firstCriterionName, logicOp, secondCriterionName);
-            return "Binary Criterion updated successfully.";
-        } catch (CriterionNameNullException | CriterionAlreadyExistsException e) {
-            // Handle specific exceptions for criterion name being null or already existing
-            return "Error: " + e.getMessage();
-        } catch (CritersionNotFoundException e) {
-            // Handle the case where one of the criteria does not exist
-            // Return the specific error message from the exception
-            return "Error: " + e.getMessage();
-        } catch (IllegalArgumentException e) {
-            // Log the exception details for debugging
-            return "Invalid logic operation.";
-        }
+        return write(() -> {
+            try {
+                taskManager.defineBinaryCriterion(newCriterionName, firstCriterionName, logicOp, secondCriterionName);
+                return "Binary Criterion updated successfully.";
+            } catch (CriterionNameNullException | CriterionAlreadyExistsException e) {
+                // Handle specific exceptions for criterion name being null or already existing
+                return "Error: " + e.getMessage();
+            } catch (CritersionNotFoundException e) {
+                // Handle the case where one of the criteria does not exist
+                // Return the specific error message from the exception
+                return "Error: " + e.getMessage();
+            } catch (IllegalArgumentException e) {
+                // Log the exception details for debugging
+                return "Invalid logic operation.";
+            }
+        });
     }
 
 
@@ -349,7 +658,9 @@ public class TMS {
      * Defines a criterion to check if a task is primitive in the Task Management System.
      */
     public void addIsPrimitiveCriterion() {
-        taskManager.defineIsPrimitiveCriterion();
+        write(() -> {
+            taskManager.defineIsPrimitiveCriterion();
+        });
     }
 
 
@@ -359,7 +670,9 @@ public class TMS {
      * @return A string listing all the criteria.
      */
     public String outPutAllCriteria() {
-        return taskManager.printAllCriteria();
+        return readLocked(() -> {
+            return taskManager.printAllCriteria();
+        });
     }
 
     /**
@@ -367,7 +680,9 @@ public class TMS {
      * {@code @auther} CHEN Chi-wei
      */
     public void outPutAllTasks() {
-        taskManager.PrintAllTaskNames();
+        readLocked(() -> {
+            taskManager.PrintAllTaskNames();
+        });
     }
 
 
@@ -378,10 +693,49 @@ public class TMS {
      * @return A string indicating the success or failure of the store operation.
      */
     public String store(String caoyixin) {
+        return readLocked(() -> {
+
+            try{taskManager.storing(caoyixin);
+                return "Store successfully.";
+            } catch (RuntimeException e){
+                return "Error: Runtime error.";
+            }
+        });
+    }
+
+    /**
+     * Stores the current state of the Task Management System to a file in the background.
+     * The state is captured when this method is called; new commands can be run while the file is written.
+     *
+     * @param fileName The name of the file to store the state.
+     * @return A string indicating that the store has started.
+     */
+    public String storeAsync(String fileName) {
+        return readLocked(() -> {
+            pendingStore = taskManager.storingAsync(fileName);
+            return "Store started in background.";
+        });
+    }
 
-        try{taskManager.storing(caoyixin);
+    /**
+     * Reports the outcome of the last background store.
+     *
+     * @return A string indicating whether the last background store is still running, succeeded or failed.
+     */
+    public String storeStatus() {
+        if (pendingStore == null) {
+            return "No background store has been started.";
+        }
+        if (!pendingStore.isDone()) {
+            return "Store in progress.";
+        }
+        try {
+            pendingStore.get();
             return "Store successfully.";
-        } catch (RuntimeException e){
+        } catch (ExecutionException e) {
+            return "Error: IO ERROR.";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return "Error: Runtime error.";
         }
     }
@@ -393,30 +747,312 @@ public class TMS {
      * @return A string indicating the success or failure of the load operation.
      */
     public String load(String caoyixin) {
-        try {taskManager.loading(caoyixin);
-            return "Load successfully.";
-        }
-        catch (IOException e) {
+        return load(caoyixin, progress -> { });
+    }
+
+    /**
+     * Loads the state of the Task Management System from a file, and reports how much of the file has been read.
+     *
+     * @param caoyixin The name of the file from which to load the state.
+     * @param progress Told the part of the file read so far, from 0 to 1.
+     * @return A string indicating the success or failure of the load operation.
+     */
+    public String load(String caoyixin, DoubleConsumer progress) {
+        return write(() -> {
+            try {taskManager.loading(caoyixin, progress);
+                return "Load successfully.";
+            }
+            catch (IOException e) {
+                return "Error: IO ERROR.";
+            }
+            catch (TaskAlreadyExistsException e) {
+                return "Error: Task already exists.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            } catch (NumberFormatException e) {
+                return "Error: The input is not a valid duration.";
+            } catch (InvalidSubtaskException e) {
+                return "Error: Invalid subtask.";
+            } catch (CritersionNotFoundException e) {
+                // Return the specific error message from the exception
+                return "Error: " + e.getMessage();
+            } catch (CriterionNameNullException e) {
+                return "Error: The criterion name cannot be null or empty.";
+            } catch (CriterionAlreadyExistsException e) {
+                return "Error: A criterion with this name already exists.";
+            }
+        });
+    }
+
+    /**
+     * Attaches a disk-backed archive file for rarely used tasks, creating it if it does not exist.
+     *
+     * @param fileName The name of the archive file.
+     * @return A string indicating the success or failure of opening the archive.
+     */
+    public String attachArchive(String fileName) {
+        return write(() -> {
+            try {
+                taskManager.attachArchive(fileName, ARCHIVE_CACHE_PAGES);
+                return "Archive attached successfully.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            }
+        });
+    }
+
+    /**
+     * Moves a task from memory into the attached archive.
+     *
+     * @param name The name of the task to archive.
+     * @return A string indicating the success or failure of archiving the task.
+     */
+    public String archiveTask(String name) {
+        return write(() -> {
+            try {
+                taskManager.archiveTask(name);
+                return "Task archived successfully.";
+            } catch (TaskNotFoundException e) {
+                return "Error: The task does not exist.";
+            } catch (TaskCannotReomoveException e) {
+                return "Error: The task cannot be archived.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            } catch (IllegalStateException e) {
+                return "Error: No archive is attached.";
+            }
+        });
+    }
+
+    /**
+     * Moves a task from the attached archive back into memory.
+     *
+     * @param name The name of the task to restore.
+     * @return A string indicating the success or failure of restoring the task.
+     */
+    public String restoreTask(String name) {
+        return write(() -> {
+            try {
+                taskManager.restoreTask(name);
+                return "Task restored successfully.";
+            } catch (TaskNotFoundException e) {
+                return "Error: The task is not archived.";
+            } catch (TaskAlreadyExistsException e) {
+                return "Error: Task already exists.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            } catch (InvalidSubtaskException e) {
+                return "Error: Invalid subtask.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            } catch (IllegalStateException e) {
+                return "Error: No archive is attached.";
+            }
+        });
+    }
+
+    /**
+     * Lists the tasks and criteria that differ between the current state and a stored file.
+     *
+     * @param fileName The name of the stored file.
+     * @return The differing entries separated by spaces, or a message if there are none.
+     */
+    public String diff(String fileName) {
+        return readLocked(() -> {
+            try {
+                return formatDiff(taskManager.diffSnapshot(fileName));
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            }
+        });
+    }
+
+    /**
+     * Lists the tasks and criteria that differ between two stored files.
+     *
+     * @param firstFileName The name of the first stored file.
+     * @param secondFileName The name of the second stored file.
+     * @return The differing entries separated by spaces, or a message if there are none.
+     */
+    public String diff(String firstFileName, String secondFileName) {
+        try {
+            return formatDiff(TaskManager.diffSnapshots(firstFileName, secondFileName));
+        } catch (IOException e) {
             return "Error: IO ERROR.";
         }
-        catch (TaskAlreadyExistsException e) {
-            return "Error: Task already exists.";
-        } catch (InvalidPrerequisiteException e) {
-            return "Error: Invalid prerequisite.";
-        } catch (NumberFormatException e) {
-            return "Error: The input is not a valid duration.";
-        } catch (InvalidSubtaskException e) {
-            return "Error: Invalid subtask.";
-        } catch (CritersionNotFoundException e) {
-            // Return the specific error message from the exception
+    }
+
+    private static String formatDiff(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return "No difference found";
+        }
+        return String.join(" ", keys);
+    }
+
+    /**
+     * Writes a hash summary of the current state, which another workspace can export a delta against.
+     *
+     * @param fileName The name of the summary file.
+     * @return A string indicating the success or failure of writing the summary.
+     */
+    public String storeHashes(String fileName) {
+        return readLocked(() -> {
+            try {
+                taskManager.storeHashes(fileName);
+                return "Hashes stored successfully.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            }
+        });
+    }
+
+    /**
+     * Writes the tasks and criteria that differ from a base workspace into a delta file.
+     *
+     * @param baseFileName The stored file or hash summary of the base workspace.
+     * @param deltaFileName The name of the delta file.
+     * @return A string indicating how many entries were exported, or an error message.
+     */
+    public String exportDelta(String baseFileName, String deltaFileName) {
+        return readLocked(() -> {
+            try {
+                return "Delta exported successfully: " + taskManager.exportDelta(baseFileName, deltaFileName) + " entries.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            }
+        });
+    }
+
+    /**
+     * Applies a delta file exported from another workspace.
+     *
+     * @param deltaFileName The name of the delta file.
+     * @return A string indicating the success or failure of applying the delta.
+     */
+    public String applyDelta(String deltaFileName) {
+        return write(() -> {
+            try {
+                taskManager.applyDelta(deltaFileName);
+                return "Delta applied successfully.";
+            } catch (IOException e) {
+                return "Error: IO ERROR.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            } catch (InvalidSubtaskException e) {
+                return "Error: Invalid subtask.";
+            } catch (CritersionNotFoundException | CriterionNameNullException | CriterionAlreadyExistsException e) {
+                return "Error: " + e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * Serves this workspace to local tools through a memory-mapped file, replacing the channel opened before.
+     *
+     * @param fileName The file of the channel.
+     * @return A string indicating whether the channel was opened.
+     */
+    public synchronized String serveShared(String fileName) {
+        try {
+            if (sharedChannel != null) {
+                sharedChannel.close();
+            }
+            sharedChannel = SharedChannel.open(this, Paths.get(fileName));
+            return "Serving on shared channel " + fileName + ".";
+        } catch (IOException e) {
+            sharedChannel = null;
             return "Error: " + e.getMessage();
-        } catch (CriterionNameNullException e) {
-            return "Error: The criterion name cannot be null or empty.";
-        } catch (CriterionAlreadyExistsException e) {
-            return "Error: A criterion with this name already exists.";
         }
     }
 
+    /**
+     * Reports the current data version, which the as-of commands refer to.
+     *
+     * @return A string with the current data version.
+     */
+    public String version() {
+        return readLocked(() -> {
+            return "Current version: " + taskManager.getVersion();
+        });
+    }
+
+    /**
+     * Keeps the tasks and criteria in persistent maps from now on, so that reports run on a pinned
+     * version and never wait for, or hold up, changes.
+     *
+     * @return A string indicating that versions are enabled.
+     */
+    public String enableVersions() {
+        return write(() -> {
+            taskManager.enableVersions();
+            return "Versions enabled.";
+        });
+    }
+
+    /**
+     * Retrieves and formats the details of a task as it was at an earlier data version.
+     *
+     * @param version The data version.
+     * @param name The name of the task whose details are to be printed.
+     * @return A formatted string containing the details of the task, or an error message.
+     */
+    public String printTaskAsOf(String version, String name) {
+        return readLocked(() -> {
+            try {
+                List<String> taskDetails = taskManager.printTaskAsOf(name, Long.parseLong(version));
+                StringBuilder result = new StringBuilder("Task list printed successfully\n");
+                for (String detail : taskDetails) {
+                    result.append(detail).append("\n");
+                }
+                return result.toString();
+            } catch (NumberFormatException e) {
+                return "Error: Invalid version.";
+            } catch (TaskNotFoundException e) {
+                return "Error: Task does not exist.";
+            }
+        });
+    }
+
+    /**
+     * Searches for the tasks that met a criterion at an earlier data version.
+     *
+     * @param version The data version.
+     * @param s The name of the criterion.
+     * @return The result of the search, or an error message.
+     */
+    public String searchAsOf(String version, String s) {
+        return readLocked(() -> {
+            try {
+                return taskManager.searchAsOf(s, Long.parseLong(version));
+            } catch (NumberFormatException e) {
+                return "Error: Invalid version.";
+            } catch (CritersionNotFoundException e) {
+                return "Error: criterion is not found";
+            }
+        });
+    }
+
+    /**
+     * Reports the earliest finish time of a task as it was at an earlier data version.
+     *
+     * @param version The data version.
+     * @param name The name of the task.
+     * @return A string indicating the earliest finish time of the task, or an error message.
+     */
+    public String reportEarliestFinishTimeAsOf(String version, String name) {
+        return readLocked(() -> {
+            try {
+                return "Earliest finish time reported: " + taskManager.ReportEarliestFinishTimeAsOf(name, Long.parseLong(version));
+            } catch (NumberFormatException e) {
+                return "Error: Invalid version.";
+            } catch (TaskNotFoundException e) {
+                return "Error: The task does not exist.";
+            } catch (InvalidPrerequisiteException e) {
+                return "Error: Invalid prerequisite.";
+            }
+        });
+    }
+
     /**
      * Searches for tasks or criteria based on a given search string.
      * <p>
@@ -432,10 +1068,61 @@ public class TMS {
      * @author WU Qixuan
      */
     public String search(String s) {
-        try {
-            return taskManager.search(s);
-        }catch (CritersionNotFoundException e){
-            return "Error: criterion is not found";
+        return report(queries -> {
+            try {
+                return queries.search(s);
+            }catch (CritersionNotFoundException e){
+                return "Error: criterion is not found";
+            }
+        });
+    }
+
+    /**
+     * Finds the names of the tasks that start with a prefix, for completing names as they are typed.
+     * Takes no lock, so it answers at once even while a long command is running.
+     *
+     * @param prefix The prefix of the names.
+     * @param limit  The most names returned.
+     * @return The first matching names in sorted order.
+     */
+    public List<String> completeTaskName(String prefix, int limit) {
+        return taskManager.completeTaskName(prefix, limit);
+    }
+
+    /**
+     * Finds the names of the criteria that start with a prefix, for completing names as they are typed.
+     * Takes no lock, so it answers at once even while a long command is running.
+     *
+     * @param prefix The prefix of the names.
+     * @param limit  The most names returned.
+     * @return The first matching names in sorted order.
+     */
+    public List<String> completeCriterionName(String prefix, int limit) {
+        return taskManager.completeCriterionName(prefix, limit);
+    }
+
+    /**
+     * Lists the task and criterion names that start with a prefix.
+     *
+     * @param prefix The prefix of the names.
+     * @return The matching task names and criterion names on one line each, or "No name found".
+     */
+    public String complete(String prefix) {
+        List<String> tasks = completeTaskName(prefix, COMPLETION_LIMIT);
+        List<String> criteria = completeCriterionName(prefix, COMPLETION_LIMIT);
+        if (tasks.isEmpty() && criteria.isEmpty()) {
+            return "No name found";
+        }
+        StringBuilder result = new StringBuilder();
+        if (!tasks.isEmpty()) {
+            result.append("Tasks: ").append(String.join(" ", tasks));
+        }
+        if (!criteria.isEmpty()) {
+            if (result.length() > 0) {
+                result.append("\n");
+            }
+            result.append("Criteria: ").append(String.join(" ", criteria));
         }
+        return result.toString();
     }
 }
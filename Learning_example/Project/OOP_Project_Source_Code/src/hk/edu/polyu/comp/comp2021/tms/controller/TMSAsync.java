@@ -0,0 +1,397 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.TaskBatch;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskManager;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * The TMSAsync class is an asynchronous front for a {@link TMS}.
+ * <p>
+ * Every call returns at once with a {@link CompletableFuture}. A future carries the typed result of the
+ * task manager, such as a list of task names or a duration, rather than a message string, and fails with
+ * the exception the task manager threw, such as {@link TaskNotFoundException}.
+ * Calls run on the given executor; by default one virtual thread per call when the JVM has them,
+ * otherwise a pool of daemon threads. The same locks as for direct TMS calls apply.
+ * </p>
+ * <p>
+ * Cancelling a future interrupts the call. Reports, searches and stores stop at their next task;
+ * a store that is stopped leaves the old file in place. A load can be cancelled until it starts changing
+ * the task manager.
+ * </p>
+ */
+public class TMSAsync implements AutoCloseable {
+    private final TMS tms;
+    private final TaskManager taskManager;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final ReplicaFollower replica;
+
+    private static final class Job<T> extends CompletableFuture<T> implements Runnable {
+        private final Callable<T> action;
+        private Thread runner;
+
+        private Job(Callable<T> action) {
+            this.action = action;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized (this) {
+                if (cancelled && runner != null) {
+                    runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(action.call());
+            } catch (CompletionException e) {
+                completeExceptionally(e.getCause());
+            } catch (Exception e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // do not leave an interrupt from a late cancel on a pooled thread
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Functional interface for calls to the task manager that may throw its checked exceptions.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Creates an asynchronous front that runs calls on virtual threads, or on daemon threads
+     * if the JVM has no virtual threads.
+     *
+     * @param tms The TMS to call.
+     */
+    public TMSAsync(TMS tms) {
+        this(tms, defaultExecutor(), true);
+    }
+
+    /**
+     * Creates an asynchronous front that runs calls on the given executor.
+     *
+     * @param tms      The TMS to call.
+     * @param executor The executor to run calls on. It is not shut down by {@link #close()}.
+     */
+    public TMSAsync(TMS tms, Executor executor) {
+        this(tms, executor, false);
+    }
+
+    private TMSAsync(TMS tms, Executor executor, boolean own) {
+        this(tms, executor, own, null);
+    }
+
+    // For a replica: changes are refused, and queries too while the replica is too far behind its primary
+    TMSAsync(ReplicaFollower replica, Executor executor) {
+        this(replica.getTMS(), executor, false, replica);
+    }
+
+    private TMSAsync(TMS tms, Executor executor, boolean own, ReplicaFollower replica) {
+        this.tms = tms;
+        this.taskManager = tms.getTaskManager();
+        this.executor = executor;
+        this.ownExecutor = own ? (ExecutorService) executor : null;
+        this.replica = replica;
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per call, or a cached pool of daemon threads
+     * on JVMs without virtual threads.
+     *
+     * @return The default executor.
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "tms-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Creates a simple task.
+     *
+     * @param name          The name of the task.
+     * @param description   The description of the task.
+     * @param duration      The duration of the task.
+     * @param prerequisites The names of the prerequisites, or a list holding only "," for none.
+     * @return A future completed when the task is created.
+     */
+    public CompletableFuture<Void> createSimpleTask(String name, String description, String duration, List<String> prerequisites) {
+        return write(() -> {
+            taskManager.addSimpleTask(name, description, duration, prerequisites);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a composite task.
+     *
+     * @param name        The name of the task.
+     * @param description The description of the task.
+     * @param subtasks    The names of the subtasks.
+     * @return A future completed when the task is created.
+     */
+    public CompletableFuture<Void> createCompositeTask(String name, String description, List<String> subtasks) {
+        return write(() -> {
+            taskManager.addCompositeTask(name, description, subtasks);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes a task.
+     *
+     * @param name The name of the task.
+     * @return A future completed when the task is deleted.
+     */
+    public CompletableFuture<Void> deleteTask(String name) {
+        return write(() -> {
+            taskManager.removeTask(name);
+            return null;
+        });
+    }
+
+    /**
+     * Changes the name, description or duration of a task.
+     *
+     * @param name     The name of the task.
+     * @param property The property to change.
+     * @param value    The new value.
+     * @return A future completed when the task is changed.
+     */
+    public CompletableFuture<Void> changeTask(String name, String property, String value) {
+        return write(() -> {
+            taskManager.updateTask(name, property, value);
+            return null;
+        });
+    }
+
+    /**
+     * Changes the prerequisites or subtasks of a task.
+     *
+     * @param name     The name of the task.
+     * @param property "prerequisites" or "subtasks".
+     * @param value    The new names.
+     * @return A future completed when the task is changed.
+     */
+    public CompletableFuture<Void> changeTask(String name, String property, List<String> value) {
+        return write(() -> {
+            taskManager.updateTask(name, property, value);
+            return null;
+        });
+    }
+
+    /**
+     * Defines a basic criterion.
+     *
+     * @param name     The name of the new criterion.
+     * @param property The property of the tasks it looks at.
+     * @param op       The operation.
+     * @param value    The value to be compared with.
+     * @return A future completed when the criterion is defined.
+     */
+    public CompletableFuture<Void> defineBasicCriterion(String name, String property, String op, String value) {
+        return write(() -> {
+            taskManager.defineBasicCriterion(name, property, op, value);
+            return null;
+        });
+    }
+
+    /**
+     * Defines a criterion that negates another.
+     *
+     * @param name      The name of the new criterion.
+     * @param criterion The name of the criterion negated.
+     * @return A future completed when the criterion is defined.
+     */
+    public CompletableFuture<Void> defineNegatedCriterion(String name, String criterion) {
+        return write(() -> {
+            taskManager.defineNegatedCriterion(name, criterion);
+            return null;
+        });
+    }
+
+    /**
+     * Defines a criterion that combines two others.
+     *
+     * @param name   The name of the new criterion.
+     * @param first  The name of the first criterion.
+     * @param op     "&amp;&amp;" or "||".
+     * @param second The name of the second criterion.
+     * @return A future completed when the criterion is defined.
+     */
+    public CompletableFuture<Void> defineBinaryCriterion(String name, String first, String op, String second) {
+        return write(() -> {
+            taskManager.defineBinaryCriterion(name, first, op, second);
+            return null;
+        });
+    }
+
+    /**
+     * Applies a batch of changes, all or nothing.
+     *
+     * @param batch The batch to apply.
+     * @return A future completed when the batch is applied, or failed with an {@link InvalidBatchException}.
+     */
+    public CompletableFuture<Void> applyBatch(TaskBatch batch) {
+        return write(() -> {
+            taskManager.apply(batch);
+            return null;
+        });
+    }
+
+    /**
+     * Prints the details of a task.
+     *
+     * @param name The name of the task.
+     * @return A future with the lines describing the task.
+     */
+    public CompletableFuture<List<String>> printTask(String name) {
+        return submit(() -> tms.report(queries -> call(() -> queries.printTask(name))));
+    }
+
+    /**
+     * Prints the details of all tasks.
+     *
+     * @return A future with the lines describing each task, by task name.
+     */
+    public CompletableFuture<Map<String, List<String>>> printAllTasks() {
+        return submit(() -> tms.report(queries -> call(queries::printAllTasks)));
+    }
+
+    /**
+     * Searches for the tasks that meet a criterion.
+     *
+     * @param criterion The name of the criterion.
+     * @return A future with the names of the matching tasks.
+     */
+    public CompletableFuture<List<String>> search(String criterion) {
+        return submit(() -> tms.report(queries -> call(() -> queries.searchNames(criterion))));
+    }
+
+    /**
+     * Reports the duration of a task.
+     *
+     * @param name The name of the task.
+     * @return A future with the duration.
+     */
+    public CompletableFuture<Double> reportDuration(String name) {
+        return submit(() -> tms.readLocked(() -> call(() -> taskManager.ReportDuration(name))));
+    }
+
+    /**
+     * Reports the earliest finish time of a task.
+     *
+     * @param name The name of the task.
+     * @return A future with the earliest finish time.
+     */
+    public CompletableFuture<Double> reportEarliestFinishTime(String name) {
+        return submit(() -> tms.report(queries -> call(() -> queries.ReportEarliestFinishTime(name))));
+    }
+
+    /**
+     * Stores all tasks and criteria to a file. The state is taken under the read lock, and the
+     * file is written after the lock has been released.
+     *
+     * @param path The path of the file.
+     * @return A future completed when the file has been written.
+     */
+    public CompletableFuture<Void> store(String path) {
+        return submit(() -> {
+            tms.readLocked(taskManager::snapshot).writeTo(path);
+            return null;
+        });
+    }
+
+    /**
+     * Loads tasks and criteria from a file.
+     *
+     * @param path The path of the file.
+     * @return A future completed when the file has been loaded.
+     */
+    public CompletableFuture<Void> load(String path) {
+        return write(() -> {
+            // once loading has started the task manager is being changed, so stop only before that
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Interrupted.");
+            }
+            taskManager.loading(path);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> write(Call<T> action) {
+        if (replica != null) {
+            return CompletableFuture.failedFuture(new ReplicaException("Replica is read-only; send changes to its primary."));
+        }
+        return submit(() -> tms.write(() -> call(action)));
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> action) {
+        if (replica != null && !replica.isFresh()) {
+            return CompletableFuture.failedFuture(replica.staleness());
+        }
+        Job<T> job = new Job<>(action);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            job.completeExceptionally(e);
+        }
+        return job;
+    }
+
+    // Checked exceptions cross the lock helpers wrapped, and are unwrapped again by the job
+    private static <T> T call(Call<T> action) {
+        try {
+            return action.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Shuts down the default executor, if this front created it. Calls already started are finished.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+}
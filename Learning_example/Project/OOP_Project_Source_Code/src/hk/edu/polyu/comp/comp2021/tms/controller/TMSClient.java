@@ -0,0 +1,540 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.RemoteOperationException;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The TMSClient class calls a {@link WireServer} over the binary protocol and returns typed results.
+ * <p>
+ * Each method sends one request and waits for its reply. A {@link Pipeline} sends several requests in one
+ * frame and receives their replies in one frame. A client may be shared by threads; their exchanges take turns.
+ * </p>
+ */
+public class TMSClient implements AutoCloseable {
+    private final WireTransport transport;
+    private final WireFormat.Encoder requests = new WireFormat.Encoder();
+    private final WireFormat.Decoder replies = new WireFormat.Decoder();
+
+    /**
+     * Functional interface for reading the result of a request from its reply.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface ResultReader<T> {
+        T read(WireFormat.Decoder reply) throws IOException;
+    }
+
+    private static final ResultReader<Void> NO_RESULT = reply -> null;
+
+    /**
+     * The reply to one request of a {@link Pipeline}, available once the pipeline has been sent.
+     *
+     * @param <T> The type of the result.
+     */
+    public static final class Reply<T> {
+        private final ResultReader<T> reader;
+        private T value;
+        private RemoteOperationException failure;
+        private boolean done;
+
+        private Reply(ResultReader<T> reader) {
+            this.reader = reader;
+        }
+
+        private void read(WireFormat.Decoder reply) throws IOException {
+            if (reply.readByte() == WireFormat.OK) {
+                value = reader.read(reply);
+            } else {
+                String kind = reply.readName();
+                failure = new RemoteOperationException(kind, reply.readString());
+            }
+            done = true;
+        }
+
+        /**
+         * Get the result of the request
+         * @return the result, or null for requests without one
+         * @throws RemoteOperationException if the request failed on the server.
+         * @throws IllegalStateException    if the pipeline has not been sent yet.
+         */
+        public T get() throws RemoteOperationException {
+            if (!done) {
+                throw new IllegalStateException("Pipeline has not been sent.");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A list of requests sent together. The requests are run in order; one that fails does not stop the others.
+     */
+    public final class Pipeline {
+        private final List<Request> queued = new ArrayList<>();
+
+        private Pipeline() {
+        }
+
+        /**
+         * Queues the creation of a simple task.
+         *
+         * @param name          The name of the task.
+         * @param description   The description of the task.
+         * @param duration      The duration of the task.
+         * @param prerequisites The names of the prerequisites, possibly empty.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> createSimpleTask(String name, String description, double duration, List<String> prerequisites) {
+            return add(WireFormat.CREATE_SIMPLE_TASK, out -> {
+                out.writeName(name);
+                out.writeString(description);
+                out.writeDouble(duration);
+                out.writeNames(prerequisites);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues the creation of a composite task.
+         *
+         * @param name        The name of the task.
+         * @param description The description of the task.
+         * @param subtasks    The names of the subtasks.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> createCompositeTask(String name, String description, List<String> subtasks) {
+            return add(WireFormat.CREATE_COMPOSITE_TASK, out -> {
+                out.writeName(name);
+                out.writeString(description);
+                out.writeNames(subtasks);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues the deletion of a task.
+         *
+         * @param name The name of the task.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> deleteTask(String name) {
+            return add(WireFormat.DELETE_TASK, out -> out.writeName(name), NO_RESULT);
+        }
+
+        /**
+         * Queues a change of the name, description or duration of a task.
+         *
+         * @param name     The name of the task.
+         * @param property The property to change.
+         * @param value    The new value.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> changeTask(String name, String property, String value) {
+            return add(WireFormat.CHANGE_TASK, out -> {
+                out.writeName(name);
+                out.writeString(property);
+                out.writeString(value);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues a change of the prerequisites or subtasks of a task.
+         *
+         * @param name     The name of the task.
+         * @param property "prerequisites" or "subtasks".
+         * @param value    The new names, possibly empty.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> changeTask(String name, String property, List<String> value) {
+            return add(WireFormat.CHANGE_TASK_NAMES, out -> {
+                out.writeName(name);
+                out.writeString(property);
+                out.writeNames(value);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues printing the details of a task.
+         *
+         * @param name The name of the task.
+         * @return The reply with the lines describing the task.
+         */
+        public Reply<List<String>> printTask(String name) {
+            return add(WireFormat.PRINT_TASK, out -> out.writeName(name), WireFormat.Decoder::readStrings);
+        }
+
+        /**
+         * Queues a search.
+         *
+         * @param criterion The name of the criterion.
+         * @return The reply with the names of the matching tasks.
+         */
+        public Reply<List<String>> search(String criterion) {
+            return add(WireFormat.SEARCH, out -> out.writeName(criterion), WireFormat.Decoder::readNames);
+        }
+
+        /**
+         * Queues a report of the duration of a task.
+         *
+         * @param name The name of the task.
+         * @return The reply with the duration.
+         */
+        public Reply<Double> reportDuration(String name) {
+            return add(WireFormat.REPORT_DURATION, out -> out.writeName(name), WireFormat.Decoder::readDouble);
+        }
+
+        /**
+         * Queues a report of the earliest finish time of a task.
+         *
+         * @param name The name of the task.
+         * @return The reply with the earliest finish time.
+         */
+        public Reply<Double> reportEarliestFinishTime(String name) {
+            return add(WireFormat.REPORT_EARLIEST_FINISH_TIME, out -> out.writeName(name), WireFormat.Decoder::readDouble);
+        }
+
+        /**
+         * Queues the definition of a basic criterion.
+         *
+         * @param name     The name of the criterion.
+         * @param property The property compared.
+         * @param op       The comparison.
+         * @param value    The value compared with.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> defineBasicCriterion(String name, String property, String op, String value) {
+            return add(WireFormat.DEFINE_BASIC_CRITERION, out -> {
+                out.writeName(name);
+                out.writeString(property);
+                out.writeString(op);
+                out.writeString(value);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues the definition of a negated criterion.
+         *
+         * @param name      The name of the new criterion.
+         * @param criterion The name of the criterion negated.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> defineNegatedCriterion(String name, String criterion) {
+            return add(WireFormat.DEFINE_NEGATED_CRITERION, out -> {
+                out.writeName(name);
+                out.writeName(criterion);
+            }, NO_RESULT);
+        }
+
+        /**
+         * Queues the definition of a binary criterion.
+         *
+         * @param name   The name of the new criterion.
+         * @param first  The name of the first criterion.
+         * @param op     "&amp;&amp;" or "||".
+         * @param second The name of the second criterion.
+         * @return The reply, available after {@link #send()}.
+         */
+        public Reply<Void> defineBinaryCriterion(String name, String first, String op, String second) {
+            return add(WireFormat.DEFINE_BINARY_CRITERION, out -> {
+                out.writeName(name);
+                out.writeName(first);
+                out.writeString(op);
+                out.writeName(second);
+            }, NO_RESULT);
+        }
+
+        private <T> Reply<T> add(int operation, ArgumentWriter arguments, ResultReader<T> reader) {
+            Reply<T> reply = new Reply<>(reader);
+            queued.add(new Request(operation, arguments, reply));
+            return reply;
+        }
+
+        /**
+         * Sends the queued requests in one frame and waits for their replies.
+         *
+         * @throws IOException if the connection fails.
+         */
+        public void send() throws IOException {
+            if (queued.isEmpty()) {
+                return;
+            }
+            exchange(queued);
+            queued.clear();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ArgumentWriter {
+        void write(WireFormat.Encoder out);
+    }
+
+    private static final class Request {
+        private final int operation;
+        private final ArgumentWriter arguments;
+        private final Reply<?> reply;
+
+        private Request(int operation, ArgumentWriter arguments, Reply<?> reply) {
+            this.operation = operation;
+            this.arguments = arguments;
+            this.reply = reply;
+        }
+    }
+
+    /**
+     * Creates a client on a transport.
+     *
+     * @param transport The connection to the server.
+     */
+    public TMSClient(WireTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Connects to a {@link WireServer}.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     * @return The client.
+     * @throws IOException if the server cannot be reached.
+     */
+    public static TMSClient connect(String host, int port) throws IOException {
+        return new TMSClient(WireTransport.over(new Socket(host, port)));
+    }
+
+    /**
+     * Attaches to a {@link SharedChannel} served by a process on this machine.
+     *
+     * @param path The file of the channel.
+     * @return The client.
+     * @throws IOException if the file is not a channel, or another client is attached.
+     */
+    public static TMSClient attach(Path path) throws IOException {
+        return new TMSClient(MappedTransport.attach(path));
+    }
+
+    /**
+     * Creates a client served within this JVM, without sockets. Useful for tests.
+     *
+     * @param tms The TMS to serve.
+     * @return The client.
+     */
+    public static TMSClient loopback(TMS tms) {
+        WireTransport[] ends = WireTransport.loopback();
+        Thread server = new Thread(() -> WireServer.serve(tms, ends[1]), "tms-wire-loopback");
+        server.setDaemon(true);
+        server.start();
+        return new TMSClient(ends[0]);
+    }
+
+    /**
+     * Starts a list of requests to be sent together.
+     *
+     * @return An empty pipeline.
+     */
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    private synchronized void exchange(List<Request> batch) throws IOException {
+        requests.reset();
+        requests.writeVarint(batch.size());
+        for (Request request : batch) {
+            requests.writeByte(request.operation);
+            request.arguments.write(requests);
+        }
+        transport.send(requests.toByteArray());
+        byte[] frame = transport.receive();
+        if (frame == null) {
+            throw new IOException("Connection closed by the server.");
+        }
+        replies.reset(frame);
+        if (replies.readCount() != batch.size()) {
+            throw new IOException("Reply does not match the request.");
+        }
+        for (Request request : batch) {
+            request.reply.read(replies);
+        }
+    }
+
+    private <T> T call(Reply<T> reply, Pipeline pipeline) throws IOException, RemoteOperationException {
+        pipeline.send();
+        return reply.get();
+    }
+
+    /**
+     * Creates a simple task.
+     *
+     * @param name          The name of the task.
+     * @param description   The description of the task.
+     * @param duration      The duration of the task.
+     * @param prerequisites The names of the prerequisites, possibly empty.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task cannot be created.
+     */
+    public void createSimpleTask(String name, String description, double duration, List<String> prerequisites) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        call(pipeline.createSimpleTask(name, description, duration, prerequisites), pipeline);
+    }
+
+    /**
+     * Creates a composite task.
+     *
+     * @param name        The name of the task.
+     * @param description The description of the task.
+     * @param subtasks    The names of the subtasks.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task cannot be created.
+     */
+    public void createCompositeTask(String name, String description, List<String> subtasks) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        call(pipeline.createCompositeTask(name, description, subtasks), pipeline);
+    }
+
+    /**
+     * Deletes a task.
+     *
+     * @param name The name of the task.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task cannot be deleted.
+     */
+    public void deleteTask(String name) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        call(pipeline.deleteTask(name), pipeline);
+    }
+
+    /**
+     * Changes the name, description or duration of a task.
+     *
+     * @param name     The name of the task.
+     * @param property The property to change.
+     * @param value    The new value.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task cannot be changed.
+     */
+    public void changeTask(String name, String property, String value) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        call(pipeline.changeTask(name, property, value), pipeline);
+    }
+
+    /**
+     * Changes the prerequisites or subtasks of a task.
+     *
+     * @param name     The name of the task.
+     * @param property "prerequisites" or "subtasks".
+     * @param value    The new names, possibly empty.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task cannot be changed.
+     */
+    public void changeTask(String name, String property, List<String> value) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        call(pipeline.changeTask(name, property, value), pipeline);
+    }
+
+    /**
+     * Prints the details of a task.
+     *
+     * @param name The name of the task.
+     * @return The lines describing the task.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public List<String> printTask(String name) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        return call(pipeline.printTask(name), pipeline);
+    }
+
+    /**
+     * Searches for the tasks that meet a criterion.
+     *
+     * @param criterion The name of the criterion.
+     * @return The names of the matching tasks.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the criterion does not exist.
+     */
+    public List<String> search(String criterion) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        return call(pipeline.search(criterion), pipeline);
+    }
+
+    /**
+     * Reports the duration of a task.
+     *
+     * @param name The name of the task.
+     * @return The duration.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public double reportDuration(String name) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        return call(pipeline.reportDuration(name), pipeline);
+    }
+
+    /**
+     * Reports the earliest finish time of a task.
+     *
+     * @param name The name of the task.
+     * @return The earliest finish time.
+     * @throws IOException              if the connection fails.
+     * @throws RemoteOperationException if the task does not exist.
+     */
+    public double reportEarliestFinishTime(String name) throws IOException, RemoteOperationException {
+        Pipeline pipeline = pipeline();
+        return call(pipeline.reportEarliestFinishTime(name), pipeline);
+    }
+
+    /**
+     * Reports the current data version of the workspace, which changes with every change of its tasks
+     * or criteria. On a shared channel it is read from shared memory without a request.
+     *
+     * @return The data version.
+     * @throws IOException if the connection fails.
+     */
+    public long dataVersion() throws IOException {
+        if (transport instanceof MappedTransport) {
+            return ((MappedTransport) transport).publishedVersion();
+        }
+        Pipeline pipeline = pipeline();
+        Reply<Long> reply = pipeline.add(WireFormat.VERSION, out -> {
+        }, WireFormat.Decoder::readVarint);
+        pipeline.send();
+        try {
+            return reply.get();
+        } catch (RemoteOperationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reports how far the server lags behind its primary. A primary reports no lag.
+     *
+     * @return The status of the server.
+     * @throws IOException if the connection fails.
+     */
+    public ReplicaFollower.Status replicaStatus() throws IOException {
+        Pipeline pipeline = pipeline();
+        Reply<ReplicaFollower.Status> reply = pipeline.add(WireFormat.REPLICA_STATUS, out -> {
+        }, in -> new ReplicaFollower.Status(in.readVarint(), in.readVarint(), in.readVarint()));
+        pipeline.send();
+        try {
+            return reply.get();
+        } catch (RemoteOperationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
@@ -0,0 +1,244 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.TaskRecord;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The WireFormat class holds the operation codes and the encoding of the binary protocol
+ * spoken by {@link WireServer} and {@link TMSClient}.
+ * <p>
+ * A frame holds a varint count followed by that many requests, or that many replies in the same order.
+ * A request is an operation code and its arguments. A reply is {@link #OK} and the result, or {@link #ERROR}
+ * and the kind and message of the exception.
+ * </p>
+ * <p>
+ * Integers are unsigned LEB128 varints. Free text such as descriptions is a varint byte length and UTF-8 bytes.
+ * Task and criterion names are interned per connection and direction: a name is sent once as 0 followed
+ * by its text, and afterwards as its varint index, starting at 1. After {@link #MAX_NAMES} names both sides
+ * stop adding, and further new names are always sent as text.
+ * </p>
+ */
+final class WireFormat {
+    static final int CREATE_SIMPLE_TASK = 1;
+    static final int CREATE_COMPOSITE_TASK = 2;
+    static final int DELETE_TASK = 3;
+    static final int CHANGE_TASK = 4;
+    static final int CHANGE_TASK_NAMES = 5;
+    static final int PRINT_TASK = 6;
+    static final int SEARCH = 7;
+    static final int REPORT_DURATION = 8;
+    static final int REPORT_EARLIEST_FINISH_TIME = 9;
+    static final int VERSION = 10;
+    static final int DEFINE_BASIC_CRITERION = 11;
+    static final int DEFINE_NEGATED_CRITERION = 12;
+    static final int DEFINE_BINARY_CRITERION = 13;
+    static final int REPLICA_STATUS = 14;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    /**
+     * The largest number of names interned per connection and direction.
+     */
+    static final int MAX_NAMES = 1 << 16;
+    /**
+     * The largest frame accepted, in bytes.
+     */
+    static final int MAX_FRAME = 1 << 24;
+
+    private WireFormat() {
+    }
+
+    /**
+     * Writes values into a growing byte array. One encoder is kept per connection and direction,
+     * since it holds the names interned so far.
+     */
+    static final class Encoder {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private final Map<String, Integer> names = new HashMap<>();
+
+        void reset() {
+            length = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(text.length);
+            ensure(text.length);
+            System.arraycopy(text, 0, bytes, length, text.length);
+            length += text.length;
+        }
+
+        void writeName(String name) {
+            Integer index = names.get(name);
+            if (index != null) {
+                writeVarint(index);
+                return;
+            }
+            writeVarint(0);
+            writeString(name);
+            if (names.size() < MAX_NAMES) {
+                names.put(name, names.size() + 1);
+            }
+        }
+
+        void writeNames(List<String> values) {
+            writeVarint(values.size());
+            for (String value : values) {
+                writeName(value);
+            }
+        }
+
+        void writeStrings(List<String> values) {
+            writeVarint(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        void writeRecord(TaskRecord record) {
+            writeName(record.getName());
+            writeString(record.getDescription());
+            writeDouble(record.getDuration());
+            writeByte(record.isComposite() ? 1 : 0);
+            writeNames(record.getPrerequisites());
+            writeNames(record.getSubtasks());
+        }
+    }
+
+    /**
+     * Reads values from a frame. One decoder is kept per connection and direction,
+     * since it holds the names interned so far.
+     */
+    static final class Decoder {
+        private byte[] bytes = new byte[0];
+        private int position;
+        private final List<String> names = new ArrayList<>();
+
+        void reset(byte[] frame) {
+            bytes = frame;
+            position = 0;
+        }
+
+        int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new EOFException("Frame ended early.");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Varint is too long.");
+        }
+
+        int readCount() throws IOException {
+            long count = readVarint();
+            if (count > bytes.length - position) {
+                throw new IOException("Count exceeds the frame.");
+            }
+            return (int) count;
+        }
+
+        double readDouble() throws IOException {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() throws IOException {
+            int length = readCount();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readName() throws IOException {
+            long index = readVarint();
+            if (index == 0) {
+                String name = readString();
+                if (names.size() < MAX_NAMES) {
+                    names.add(name);
+                }
+                return name;
+            }
+            if (index > names.size()) {
+                throw new IOException("Unknown name index " + index + ".");
+            }
+            return names.get((int) index - 1);
+        }
+
+        List<String> readNames() throws IOException {
+            int count = readCount();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readName());
+            }
+            return values;
+        }
+
+        List<String> readStrings() throws IOException {
+            int count = readCount();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        TaskRecord readRecord() throws IOException {
+            String name = readName();
+            String description = readString();
+            double duration = readDouble();
+            boolean composite = readByte() != 0;
+            List<String> prerequisites = readNames();
+            return new TaskRecord(name, description, duration, composite, prerequisites, readNames());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import hk.edu.polyu.comp.comp2021.tms.model.TaskManager;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The WireServer class serves a {@link TMS} to {@link TMSClient}s over the binary protocol of {@link WireFormat}.
+ * <p>
+ * Replies carry typed results, such as lists of names and durations, so clients do not parse the messages
+ * of the console. The requests of one frame are run in order and answered together in one frame.
+ * A connection that sends a malformed frame is closed, since its interned names can no longer be trusted.
+ * </p>
+ */
+public class WireServer implements AutoCloseable {
+    private final TMS tms;
+    private final ReplicaFollower replica;
+    private final ServerSocket serverSocket;
+    private final ExecutorService threads = TMSAsync.defaultExecutor();
+    private final Set<WireTransport> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    /**
+     * Starts a server on the loopback address.
+     *
+     * @param tms  The TMS to serve.
+     * @param port The port, or 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public WireServer(TMS tms, int port) throws IOException {
+        this(tms, port, null);
+    }
+
+    // Serves a replica, which refuses changes
+    WireServer(TMS tms, int port, ReplicaFollower replica) throws IOException {
+        this.tms = tms;
+        this.replica = replica;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "tms-wire-server");
+        acceptor.start();
+    }
+
+    /**
+     * Get the port the server listens on
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                WireTransport transport = WireTransport.over(socket);
+                connections.add(transport);
+                threads.execute(() -> {
+                    try {
+                        serve(tms, transport, replica);
+                    } finally {
+                        connections.remove(transport);
+                    }
+                });
+            } catch (IOException e) {
+                // closed, or a client that went away while connecting
+            }
+        }
+    }
+
+    /**
+     * Answers the frames of one connection until it is closed.
+     *
+     * @param tms       The TMS to run the requests against.
+     * @param transport The connection.
+     */
+    static void serve(TMS tms, WireTransport transport) {
+        serve(tms, transport, null);
+    }
+
+    /**
+     * Answers the frames of one connection until it is closed.
+     *
+     * @param tms       The TMS to run the requests against.
+     * @param transport The connection.
+     * @param replica   The replica the TMS belongs to, or null for a primary.
+     */
+    static void serve(TMS tms, WireTransport transport, ReplicaFollower replica) {
+        TMSAsync async = replica == null ? new TMSAsync(tms, Runnable::run) : new TMSAsync(replica, Runnable::run);
+        WireFormat.Decoder request = new WireFormat.Decoder();
+        WireFormat.Encoder reply = new WireFormat.Encoder();
+        try (WireTransport connection = transport) {
+            byte[] frame;
+            while ((frame = connection.receive()) != null) {
+                request.reset(frame);
+                reply.reset();
+                int count = request.readCount();
+                reply.writeVarint(count);
+                for (int i = 0; i < count; i++) {
+                    answer(tms, replica, async, request, reply);
+                }
+                connection.send(reply.toByteArray());
+            }
+        } catch (IOException e) {
+            // malformed frame or lost connection; the connection is closed either way
+        }
+    }
+
+    // All arguments are read before the request is run, so that interned names stay in step on errors
+    private static void answer(TMS tms, ReplicaFollower replica, TMSAsync async, WireFormat.Decoder request, WireFormat.Encoder reply) throws IOException {
+        int operation = request.readByte();
+        switch (operation) {
+            case WireFormat.CREATE_SIMPLE_TASK: {
+                String name = request.readName();
+                String description = request.readString();
+                double duration = request.readDouble();
+                List<String> prerequisites = orNone(request.readNames());
+                writeEmpty(reply, async.createSimpleTask(name, description, Double.toString(duration), prerequisites));
+                break;
+            }
+            case WireFormat.CREATE_COMPOSITE_TASK: {
+                String name = request.readName();
+                String description = request.readString();
+                List<String> subtasks = request.readNames();
+                writeEmpty(reply, async.createCompositeTask(name, description, subtasks));
+                break;
+            }
+            case WireFormat.DELETE_TASK: {
+                writeEmpty(reply, async.deleteTask(request.readName()));
+                break;
+            }
+            case WireFormat.CHANGE_TASK: {
+                String name = request.readName();
+                String property = request.readString();
+                String value = request.readString();
+                writeEmpty(reply, async.changeTask(name, property, value));
+                break;
+            }
+            case WireFormat.CHANGE_TASK_NAMES: {
+                String name = request.readName();
+                String property = request.readString();
+                List<String> value = orNone(request.readNames());
+                writeEmpty(reply, async.changeTask(name, property, value));
+                break;
+            }
+            case WireFormat.PRINT_TASK: {
+                List<String> lines = result(reply, async.printTask(request.readName()));
+                if (lines != null) {
+                    reply.writeStrings(lines);
+                }
+                break;
+            }
+            case WireFormat.SEARCH: {
+                List<String> names = result(reply, async.search(request.readName()));
+                if (names != null) {
+                    reply.writeNames(names);
+                }
+                break;
+            }
+            case WireFormat.REPORT_DURATION: {
+                Double duration = result(reply, async.reportDuration(request.readName()));
+                if (duration != null) {
+                    reply.writeDouble(duration);
+                }
+                break;
+            }
+            case WireFormat.REPORT_EARLIEST_FINISH_TIME: {
+                Double time = result(reply, async.reportEarliestFinishTime(request.readName()));
+                if (time != null) {
+                    reply.writeDouble(time);
+                }
+                break;
+            }
+            case WireFormat.VERSION: {
+                reply.writeByte(WireFormat.OK);
+                reply.writeVarint(dataVersion(tms));
+                break;
+            }
+            case WireFormat.DEFINE_BASIC_CRITERION: {
+                String name = request.readName();
+                String property = request.readString();
+                String op = request.readString();
+                String value = request.readString();
+                writeEmpty(reply, async.defineBasicCriterion(name, property, op, value));
+                break;
+            }
+            case WireFormat.DEFINE_NEGATED_CRITERION: {
+                String name = request.readName();
+                String criterion = request.readName();
+                writeEmpty(reply, async.defineNegatedCriterion(name, criterion));
+                break;
+            }
+            case WireFormat.DEFINE_BINARY_CRITERION: {
+                String name = request.readName();
+                String first = request.readName();
+                String op = request.readString();
+                String second = request.readName();
+                writeEmpty(reply, async.defineBinaryCriterion(name, first, op, second));
+                break;
+            }
+            case WireFormat.REPLICA_STATUS: {
+                reply.writeByte(WireFormat.OK);
+                if (replica == null) {
+                    long version = dataVersion(tms);
+                    reply.writeVarint(version);
+                    reply.writeVarint(version);
+                    reply.writeVarint(0);
+                } else {
+                    ReplicaFollower.Status status = replica.status();
+                    reply.writeVarint(status.getAppliedVersion());
+                    reply.writeVarint(status.getLeaderVersion());
+                    reply.writeVarint(status.getLagMillis());
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown operation " + operation + ".");
+        }
+    }
+
+    static long dataVersion(TMS tms) {
+        TaskManager taskManager = tms.getTaskManager();
+        return tms.readLocked(taskManager::getVersion);
+    }
+
+    // The console takes "," for an empty list
+    private static List<String> orNone(List<String> names) {
+        return names.isEmpty() ? Collections.singletonList(",") : names;
+    }
+
+    private static void writeEmpty(WireFormat.Encoder reply, CompletableFuture<Void> future) {
+        if (future.isCompletedExceptionally()) {
+            result(reply, future);
+        } else {
+            reply.writeByte(WireFormat.OK);
+        }
+    }
+
+    // Writes the status, and the exception if there is one; returns the result, or null after an error
+    private static <T> T result(WireFormat.Encoder reply, CompletableFuture<T> future) {
+        try {
+            T value = future.get();
+            reply.writeByte(WireFormat.OK);
+            return value;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            reply.writeByte(WireFormat.ERROR);
+            reply.writeName(cause.getClass().getSimpleName());
+            reply.writeString(cause.getMessage() == null ? "" : cause.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reply.writeByte(WireFormat.ERROR);
+            reply.writeName("InterruptedException");
+            reply.writeString("Interrupted.");
+            return null;
+        }
+    }
+
+    /**
+     * Runs a server until the JVM is stopped, for example as one shard of a {@link ShardCoordinator}.
+     *
+     * @param args An optional port; by default any free port, which is printed.
+     * @throws IOException if the port cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        TMS tms = new TMS();
+        tms.addIsPrimitiveCriterion();
+        WireServer server = new WireServer(tms, args.length > 0 ? Integer.parseInt(args[0]) : 0);
+        System.out.println(server.getPort());
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. If interrupted while waiting for the accepting
+     * thread, closes them without waiting and keeps the interrupt for the caller.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            // the accepting thread stops on its own now that its socket is closed
+            Thread.currentThread().interrupt();
+        }
+        for (WireTransport connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        threads.shutdown();
+    }
+}
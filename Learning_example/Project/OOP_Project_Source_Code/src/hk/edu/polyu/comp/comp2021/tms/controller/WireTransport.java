@@ -0,0 +1,186 @@
+package hk.edu.polyu.comp.comp2021.tms.controller;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The WireTransport interface carries the frames of the binary protocol between a {@link TMSClient}
+ * and a {@link WireServer}.
+ */
+public interface WireTransport extends Closeable {
+    /**
+     * Sends one frame.
+     *
+     * @param frame The bytes of the frame.
+     * @throws IOException if the frame cannot be sent.
+     */
+    void send(byte[] frame) throws IOException;
+
+    /**
+     * Waits for the next frame.
+     *
+     * @return The bytes of the frame, or null if the other side has closed the transport.
+     * @throws IOException if the frame cannot be received.
+     */
+    byte[] receive() throws IOException;
+
+    /**
+     * Checks if a frame can be received without waiting.
+     *
+     * @return true if a frame, or part of one, has arrived.
+     * @throws IOException if the transport has failed.
+     */
+    boolean ready() throws IOException;
+
+    /**
+     * Carries frames over a socket. Each frame is preceded by its length as a varint.
+     *
+     * @param socket The connected socket.
+     * @return The transport.
+     * @throws IOException if the streams of the socket cannot be opened.
+     */
+    static WireTransport over(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        return new StreamTransport(socket);
+    }
+
+    /**
+     * Creates two connected in-process transports. A frame sent on one is received on the other.
+     *
+     * @return The two ends.
+     */
+    static WireTransport[] loopback() {
+        BlockingQueue<byte[]> there = new LinkedBlockingQueue<>();
+        BlockingQueue<byte[]> back = new LinkedBlockingQueue<>();
+        return new WireTransport[]{new LoopbackTransport(there, back), new LoopbackTransport(back, there)};
+    }
+
+    /**
+     * Frames over the streams of a socket.
+     */
+    final class StreamTransport implements WireTransport {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        private StreamTransport(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void send(byte[] frame) throws IOException {
+            int length = frame.length;
+            while ((length & ~0x7F) != 0) {
+                out.write((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            out.write(length);
+            out.write(frame);
+            out.flush();
+        }
+
+        @Override
+        public byte[] receive() throws IOException {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    if (shift == 0) {
+                        return null;
+                    }
+                    throw new EOFException("Connection closed inside a frame.");
+                }
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                if (shift >= 21) {
+                    throw new IOException("Frame length is too long.");
+                }
+            }
+            if (length > WireFormat.MAX_FRAME) {
+                throw new IOException("Frame of " + length + " bytes is too large.");
+            }
+            byte[] frame = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(frame, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Connection closed inside a frame.");
+                }
+                read += n;
+            }
+            return frame;
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return in.available() > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Frames handed over through queues within one JVM.
+     */
+    final class LoopbackTransport implements WireTransport {
+        // marks the end of the stream, compared by identity
+        private static final byte[] CLOSED = new byte[0];
+
+        private final BlockingQueue<byte[]> outgoing;
+        private final BlockingQueue<byte[]> incoming;
+        private volatile boolean closed;
+
+        private LoopbackTransport(BlockingQueue<byte[]> outgoing, BlockingQueue<byte[]> incoming) {
+            this.outgoing = outgoing;
+            this.incoming = incoming;
+        }
+
+        @Override
+        public void send(byte[] frame) throws IOException {
+            if (closed) {
+                throw new IOException("Transport is closed.");
+            }
+            outgoing.add(frame.clone());
+        }
+
+        @Override
+        public byte[] receive() throws IOException {
+            if (closed) {
+                return null;
+            }
+            try {
+                byte[] frame = incoming.take();
+                if (frame == CLOSED) {
+                    incoming.add(CLOSED);
+                    return null;
+                }
+                return frame;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public boolean ready() {
+            return !incoming.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                outgoing.add(CLOSED);
+            }
+        }
+    }
+}
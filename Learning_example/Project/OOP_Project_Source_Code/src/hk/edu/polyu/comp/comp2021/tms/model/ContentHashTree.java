@@ -0,0 +1,228 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The ContentHashTree class keeps a content hash of every task and criterion, grouped into
+ * a fixed number of buckets under one root hash.
+ * <p>
+ * Entries are identified by keys such as {@code task%Boil-Water} or {@code criterion%C1}.
+ * A bucket hash is the sum of the hashes of its entries, so changing one entry updates its bucket
+ * in constant time. Two trees with the same root hash hold the same content; otherwise only the
+ * buckets whose hashes differ have to be compared or shipped.
+ * </p>
+ */
+public class ContentHashTree {
+    /**
+     * The number of buckets under the root.
+     */
+    public static final int BUCKETS = 4096;
+
+    private final List<Map<String, Long>> entries = new ArrayList<>(Collections.nCopies(BUCKETS, null));
+    private final long[] buckets = new long[BUCKETS];
+    private int size;
+
+    /**
+     * Returns the key of the entry described by a line of the store file.
+     *
+     * @param line A line of the "%" separated store file.
+     * @return The entry key, or null if the line does not describe a task or criterion.
+     */
+    public static String keyOfLine(String line) {
+        String[] array = line.split("%", 3);
+        if (array.length < 2) {
+            return null;
+        }
+        switch (array[0]) {
+            case "simpletask":
+            case "compositeTask":
+                return taskKey(array[1]);
+            case "basic":
+            case "negated":
+            case "binary":
+                return criterionKey(array[1]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the entry key of a task.
+     *
+     * @param name The name of the task.
+     * @return The entry key.
+     */
+    public static String taskKey(String name) {
+        return "task%" + name;
+    }
+
+    /**
+     * Returns the entry key of a criterion.
+     *
+     * @param name The name of the criterion.
+     * @return The entry key.
+     */
+    public static String criterionKey(String name) {
+        return "criterion%" + name;
+    }
+
+    /**
+     * Returns the bucket an entry belongs to.
+     *
+     * @param key The entry key.
+     * @return The bucket number, from 0 to {@link #BUCKETS} - 1.
+     */
+    public static int bucketOf(String key) {
+        return (int) (mix(key.hashCode()) & (BUCKETS - 1));
+    }
+
+    /**
+     * Sets the content of an entry.
+     *
+     * @param key     The entry key.
+     * @param content The stored line of the entry.
+     */
+    public void put(String key, String content) {
+        long hash = mix(hash(key) ^ hash(content));
+        int bucket = bucketOf(key);
+        Map<String, Long> bucketEntries = entries.get(bucket);
+        if (bucketEntries == null) {
+            bucketEntries = new HashMap<>();
+            entries.set(bucket, bucketEntries);
+        }
+        Long old = bucketEntries.put(key, hash);
+        if (old != null) {
+            buckets[bucket] -= old;
+        } else {
+            size++;
+        }
+        buckets[bucket] += hash;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The entry key.
+     */
+    public void remove(String key) {
+        int bucket = bucketOf(key);
+        Map<String, Long> bucketEntries = entries.get(bucket);
+        Long old = bucketEntries == null ? null : bucketEntries.remove(key);
+        if (old != null) {
+            buckets[bucket] -= old;
+            size--;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Collections.fill(entries, null);
+        Arrays.fill(buckets, 0);
+        size = 0;
+    }
+
+    /**
+     * Get the number of entries
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the keys of the entries in one bucket
+     * @param bucket the bucket number
+     * @return unmodifiable set of entry keys in the bucket
+     */
+    public Set<String> keysInBucket(int bucket) {
+        Map<String, Long> bucketEntries = entries.get(bucket);
+        return bucketEntries == null ? Collections.emptySet() : Collections.unmodifiableSet(bucketEntries.keySet());
+    }
+
+    /**
+     * Get a copy of the bucket hashes
+     * @return the hash of every bucket
+     */
+    public long[] bucketHashes() {
+        return buckets.clone();
+    }
+
+    /**
+     * Returns the root hash over all bucket hashes. Trees with equal root hashes hold the same content.
+     *
+     * @return The root hash.
+     */
+    public long rootHash() {
+        long root = BUCKETS;
+        for (long bucket : buckets) {
+            root = mix(root * 31 + bucket);
+        }
+        return root;
+    }
+
+    /**
+     * Returns the buckets whose hashes differ from the given bucket hashes.
+     *
+     * @param otherBuckets The bucket hashes of another tree.
+     * @return The numbers of the differing buckets, in ascending order.
+     */
+    public List<Integer> differingBuckets(long[] otherBuckets) {
+        List<Integer> differing = new ArrayList<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] != otherBuckets[i]) {
+                differing.add(i);
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * Returns the keys of the entries that are added, removed or changed between two trees.
+     * Only the entries of buckets with different hashes are compared.
+     *
+     * @param other The other tree.
+     * @return The sorted keys of the differing entries.
+     */
+    public SortedSet<String> diff(ContentHashTree other) {
+        SortedSet<String> differing = new TreeSet<>();
+        if (rootHash() == other.rootHash()) {
+            return differing;
+        }
+        for (int bucket : differingBuckets(other.buckets)) {
+            Map<String, Long> mine = entries.get(bucket) == null ? Collections.emptyMap() : entries.get(bucket);
+            Map<String, Long> theirs = other.entries.get(bucket) == null ? Collections.emptyMap() : other.entries.get(bucket);
+            collectDifferences(mine, theirs, differing);
+            collectDifferences(theirs, mine, differing);
+        }
+        return differing;
+    }
+
+    private static void collectDifferences(Map<String, Long> from, Map<String, Long> to, Set<String> differing) {
+        for (Map.Entry<String, Long> entry : from.entrySet()) {
+            if (!entry.getValue().equals(to.get(entry.getKey()))) {
+                differing.add(entry.getKey());
+            }
+        }
+    }
+
+    // 64-bit FNV-1a over the characters of a string
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,5 +1,7 @@
 package hk.edu.polyu.comp.comp2021.tms.model;
 
+import java.util.regex.Pattern;
+
 /**
  * The Criterion class represents a criterion for conditional evaluation.
  * This class supports basic condition checks, negated conditions, and binary logical operations like AND OR.
@@ -18,6 +20,10 @@ public class Criterion {
 
     private String logicOp; // "&&" or "||"
 
+    // The compiled expression of a "matches" criterion, made on first use and shared with the copies used to match
+    private volatile Pattern pattern;
+    private Criterion patternOwner = this;
+
     /**
      * Constructs a basic criterion.
      *
@@ -169,6 +175,36 @@ public class Criterion {
         return secondCriterion;
     }
 
+    /**
+     * Get the compiled regular expression of a "matches" criterion
+     * @param regex The regular expression: the value of the criterion, without the "Not " of a negated one.
+     * @return the pattern, compiled once for the criterion
+     */
+    public Pattern getPattern(String regex) {
+        Criterion owner = patternOwner;
+        Pattern compiled = owner.pattern;
+        if (compiled == null || !compiled.pattern().equals(regex)) {
+            compiled = Pattern.compile(regex);
+            owner.pattern = compiled;
+        }
+        return compiled;
+    }
+
+    // Lets a copy made for matching use the compiled expression of the criterion it was made from
+    void sharePattern(Criterion original) {
+        patternOwner = original.patternOwner;
+    }
+
+    // A copy that later changes to this criterion, or to the criteria it combines, do not reach
+    Criterion copy() {
+        Criterion copy = "binary".equals(type)
+                ? new Criterion(firstCriterion.copy(), logicOp, secondCriterion.copy())
+                : new Criterion(property, operation, value, propertyType);
+        copy.type = type;
+        copy.sharePattern(this);
+        return copy;
+    }
+
     /**
      * Returns a string representation of the criterion.
      * The format of the string depends on the type of criterion (basic, negated, binary).
@@ -0,0 +1,188 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The FuzzyNameIndex class finds the names within a few edits of a query without comparing the query with
+ * every name.
+ * <p>
+ * The names are kept in sorted order, which is walked like a trie, since names sharing a prefix are next to each
+ * other. Along the walk a Levenshtein automaton over the query, kept as one row of edit distances per prefix
+ * length, tells how near each prefix can still come to the query; the rows of the prefix a name shares with
+ * the name before it are reused. Once a prefix is further than the allowed distance in every position, all
+ * names starting with it are passed over, with one search once there are more than a few of them, so only the
+ * names close to the query are looked at. Each name carries the keys it was added under, as several tasks
+ * may share a name. The map is concurrent, so searches need no lock.
+ * </p>
+ */
+class FuzzyNameIndex {
+    // Pruned names are stepped over one by one this many times before they are jumped over with a search
+    private static final int SKIP_STEPS = 8;
+
+    private final ConcurrentSkipListMap<String, Set<String>> names = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a name under a key.
+     *
+     * @param name The name.
+     * @param key  The key the name is found under.
+     */
+    void add(String name, String key) {
+        names.compute(name, (word, keys) -> {
+            Set<String> added = keys == null ? new HashSet<>(2) : new HashSet<>(keys);
+            added.add(key);
+            return added;
+        });
+    }
+
+    /**
+     * Removes a name added under a key.
+     *
+     * @param name The name.
+     * @param key  The key it was added under.
+     */
+    void remove(String name, String key) {
+        names.computeIfPresent(name, (word, keys) -> {
+            Set<String> left = new HashSet<>(keys);
+            left.remove(key);
+            return left.isEmpty() ? null : left;
+        });
+    }
+
+    /**
+     * Finds the names within an edit distance of a query.
+     *
+     * @param query       The query.
+     * @param maxDistance The largest edit distance allowed.
+     * @return The keys of the names found, nearest first and in key order among names as near.
+     */
+    List<String> search(String query, int maxDistance) {
+        List<Map.Entry<Integer, String>> found = new ArrayList<>();
+        // rows[d] is the row of the first d characters of the last name; the first valid rows are still right
+        int[][] rows = new int[16][];
+        rows[0] = new int[query.length() + 1];
+        for (int i = 0; i < rows[0].length; i++) {
+            rows[0][i] = i;
+        }
+        String last = "";
+        int valid = 0;
+        Iterator<Map.Entry<String, Set<String>>> entries = names.entrySet().iterator();
+        String skipping = null;
+        int skipped = 0;
+        while (entries.hasNext()) {
+            Map.Entry<String, Set<String>> entry = entries.next();
+            String name = entry.getKey();
+            if (skipping != null) {
+                if (name.startsWith(skipping)) {
+                    if (++skipped < SKIP_STEPS) {
+                        continue;
+                    }
+                    // the pruned names go on; jump past them with one search instead of stepping
+                    String after = after(skipping);
+                    if (after == null) {
+                        break;
+                    }
+                    entries = names.tailMap(after).entrySet().iterator();
+                    skipping = null;
+                    continue;
+                }
+                skipping = null;
+            }
+            int depth = Math.min(valid, commonPrefix(last, name));
+            int pruned = -1;
+            while (depth < name.length()) {
+                if (depth + 1 == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                rows[depth + 1] = step(rows[depth], query, name.charAt(depth), rows[depth + 1]);
+                depth++;
+                if (min(rows[depth]) > maxDistance) {
+                    pruned = depth;
+                    break;
+                }
+            }
+            last = name;
+            if (pruned < 0) {
+                valid = name.length();
+                int distance = rows[name.length()][query.length()];
+                if (distance <= maxDistance) {
+                    for (String key : entry.getValue()) {
+                        found.add(new AbstractMap.SimpleImmutableEntry<>(distance, key));
+                    }
+                }
+            } else {
+                // no name starting with this prefix can come near enough
+                valid = pruned;
+                skipping = name.substring(0, pruned);
+                skipped = 0;
+            }
+        }
+        found.sort(Map.Entry.<Integer, String>comparingByKey().thenComparing(Map.Entry.comparingByValue()));
+        List<String> keys = new ArrayList<>(found.size());
+        for (Map.Entry<Integer, String> entry : found) {
+            keys.add(entry.getValue());
+        }
+        return keys;
+    }
+
+    // The first string after all strings starting with a prefix, or null if there is none
+    private static String after(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // The row of the prefix one character longer: one transition of the automaton
+    private static int[] step(int[] row, String query, char c, int[] next) {
+        if (next == null) {
+            next = new int[row.length];
+        }
+        next[0] = row[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int replace = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(replace, Math.min(row[j], next[j - 1]) + 1);
+        }
+        return next;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * Computes the Levenshtein distance of two words: the fewest single character insertions, deletions and
+     * replacements that turn one into the other.
+     *
+     * @param a The first word.
+     * @param b The second word.
+     * @return The edit distance.
+     */
+    static int distance(String a, String b) {
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            row = step(row, b, a.charAt(i), null);
+        }
+        return row[b.length()];
+    }
+}
@@ -0,0 +1,140 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The MutationLog class keeps the recent changes of a {@link TaskManager} in version order, so that replicas
+ * can follow them.
+ * <p>
+ * Each entry holds the state, after one data version, of every task and criterion changed by that version:
+ * the record of a task or the store line of a criterion, or null if it was removed. Applying the entries
+ * in order to a copy of an earlier version therefore gives the same tasks and criteria, and applying an
+ * entry twice does no harm. Only the last {@code retained} entries are kept; a replica that falls further
+ * behind starts again from a snapshot.
+ * </p>
+ */
+public class MutationLog {
+    private final int retained;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private Map<String, TaskRecord> pendingTasks = new LinkedHashMap<>();
+    private Map<String, String> pendingCriteria = new LinkedHashMap<>();
+    private long lastVersion;
+
+    /**
+     * The changes of one data version.
+     */
+    public static final class Entry {
+        private final long version;
+        private final Map<String, TaskRecord> tasks;
+        private final Map<String, String> criteria;
+
+        /**
+         * Constructs an entry.
+         *
+         * @param version  The data version the changes produced.
+         * @param tasks    The new records of the changed tasks by name, null for removed tasks.
+         * @param criteria The new store lines of the changed criteria by name, null for removed criteria.
+         */
+        public Entry(long version, Map<String, TaskRecord> tasks, Map<String, String> criteria) {
+            this.version = version;
+            this.tasks = Collections.unmodifiableMap(tasks);
+            this.criteria = Collections.unmodifiableMap(criteria);
+        }
+
+        /**
+         * Get the data version the changes produced
+         * @return the data version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Get the new records of the changed tasks
+         * @return unmodifiable map from task name to record, or to null for removed tasks
+         */
+        public Map<String, TaskRecord> getTasks() {
+            return tasks;
+        }
+
+        /**
+         * Get the new store lines of the changed criteria
+         * @return unmodifiable map from criterion name to line, or to null for removed criteria
+         */
+        public Map<String, String> getCriteria() {
+            return criteria;
+        }
+    }
+
+    /**
+     * Constructs an empty log.
+     *
+     * @param retained    The number of entries kept.
+     * @param lastVersion The data version of the task manager when the log starts.
+     */
+    MutationLog(int retained, long lastVersion) {
+        if (retained < 1) {
+            throw new IllegalArgumentException("At least one entry must be kept.");
+        }
+        this.retained = retained;
+        this.lastVersion = lastVersion;
+    }
+
+    synchronized void taskChanged(String name, TaskRecord record) {
+        pendingTasks.put(name, record);
+    }
+
+    synchronized void criterionChanged(String name, String line) {
+        pendingCriteria.put(name, line);
+    }
+
+    // Closes the changes recorded since the last version as the entry of a new version
+    synchronized void seal(long version) {
+        entries.addLast(new Entry(version, pendingTasks, pendingCriteria));
+        if (entries.size() > retained) {
+            entries.removeFirst();
+        }
+        pendingTasks = new LinkedHashMap<>();
+        pendingCriteria = new LinkedHashMap<>();
+        lastVersion = version;
+        notifyAll();
+    }
+
+    /**
+     * Get the data version of the newest entry
+     * @return the data version
+     */
+    public synchronized long getLastVersion() {
+        return lastVersion;
+    }
+
+    /**
+     * Returns the entries after a version, waiting for one if there are none yet.
+     *
+     * @param version       The last version the caller has.
+     * @param timeoutMillis The longest time to wait for a new entry.
+     * @return The entries after the version, oldest first, possibly empty after the timeout;
+     * or null if some of them are no longer kept.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized List<Entry> since(long version, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (lastVersion <= version) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return Collections.emptyList();
+            }
+            wait(left);
+        }
+        if (entries.isEmpty() || entries.peekFirst().getVersion() > version + 1) {
+            return null;
+        }
+        List<Entry> newer = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.getVersion() > version) {
+                newer.add(entry);
+            }
+        }
+        return newer;
+    }
+}
@@ -0,0 +1,237 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The NGramIndex class finds the keys whose text contains some strings, by the runs of three characters
+ * (trigrams) the text contains, so that a regular expression need only be run on texts that can match it.
+ * <p>
+ * Each trigram lists the keys of the texts containing it. A text containing a string contains all of its
+ * trigrams, so the keys listed under every trigram of the strings are the only candidates; the candidates
+ * still have to be checked, since the trigrams may be in the wrong places. Strings shorter than a trigram
+ * narrow nothing. The strings a regular expression needs are found by {@link #requiredLiterals(String)}.
+ * </p>
+ */
+class NGramIndex {
+    private static final int N = 3;
+
+    private final Map<String, Set<String>> postings = new HashMap<>();
+
+    /**
+     * Adds the text of a key.
+     *
+     * @param key  The key.
+     * @param text The text.
+     */
+    void add(String key, String text) {
+        for (String gram : grams(text)) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Removes the text of a key, as it was added.
+     *
+     * @param key  The key.
+     * @param text The text it was added with.
+     */
+    void remove(String key, String text) {
+        for (String gram : grams(text)) {
+            Set<String> keys = postings.get(gram);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Finds the keys whose texts may contain all of some strings.
+     *
+     * @param literals The strings.
+     * @return A new set of the candidate keys, or null if the strings are too short to narrow the keys down.
+     */
+    Set<String> candidates(Collection<String> literals) {
+        List<Set<String>> lists = new ArrayList<>();
+        for (String literal : literals) {
+            for (String gram : grams(literal)) {
+                Set<String> keys = postings.get(gram);
+                if (keys == null) {
+                    return new HashSet<>();
+                }
+                lists.add(keys);
+            }
+        }
+        if (lists.isEmpty()) {
+            return null;
+        }
+        // intersect starting from the shortest list
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<String> candidates = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(lists.get(i));
+        }
+        return candidates;
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + N <= text.length(); i++) {
+            grams.add(text.substring(i, i + N));
+        }
+        return grams;
+    }
+
+    /**
+     * Finds strings that every match of a regular expression contains. The expression is read only as far as
+     * it is simple: runs of plain or escaped characters are taken, and anything else ends a run. Alternatives,
+     * optional parts and flags give no strings, since the match may do without them.
+     *
+     * @param regex The regular expression.
+     * @return The strings found; empty if none is certain.
+     */
+    static List<String> requiredLiterals(String regex) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '|' && depth == 0 || c == '(' && i + 1 < regex.length() && regex.charAt(i + 1) == '?' && depth == 0
+                    && i + 2 < regex.length() && Character.isLetter(regex.charAt(i + 2))) {
+                // an alternative or a flag such as (?i) at the top level: nothing is certain
+                return new ArrayList<>();
+            }
+            if (depth > 0) {
+                // groups may be optional or alternatives; only their nesting is followed
+                if (c == '\\') {
+                    i = endOfEscape(regex, i);
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                continue;
+            }
+            // a whole code point, so that a quantifier after a character outside the BMP covers both its chars
+            int literal;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // a class such as \d, a boundary, a back reference, a character given by its code or
+                    // \Q quoting: none of it is taken as text, and the whole escape is skipped
+                    end(run, literals);
+                    i = endOfEscape(regex, i);
+                    continue;
+                }
+                literal = regex.codePointAt(i + 1);
+                i += Character.charCount(literal);
+            } else if (".^$[]{}()*+?".indexOf(c) >= 0) {
+                end(run, literals);
+                if (c == '(') {
+                    depth++;
+                } else if (c == '[') {
+                    i = endOfClass(regex, i);
+                } else if (c == '{') {
+                    // a repetition of the character before it; the run was ended, so nothing is lost
+                    int close = regex.indexOf('}', i);
+                    i = close < 0 ? regex.length() : close;
+                }
+                continue;
+            } else {
+                literal = regex.codePointAt(i);
+                i += Character.charCount(literal) - 1;
+            }
+            if (i + 1 < regex.length() && "*?{".indexOf(regex.charAt(i + 1)) >= 0) {
+                // the character may be left out
+                end(run, literals);
+            } else if (i + 1 < regex.length() && regex.charAt(i + 1) == '+') {
+                run.appendCodePoint(literal);
+                end(run, literals);
+            } else {
+                run.appendCodePoint(literal);
+            }
+        }
+        end(run, literals);
+        return literals;
+    }
+
+    private static void end(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    // The position of the last char of the escape whose backslash is at a position. Escapes whose length
+    // is not fixed by their letter are read to their end, so that no part of them is taken as text.
+    private static int endOfEscape(String regex, int backslash) {
+        int i = backslash + 1;
+        if (i >= regex.length()) {
+            return backslash;
+        }
+        char c = regex.charAt(i);
+        switch (c) {
+            case 'Q': {
+                int close = regex.indexOf("\\E", i + 1);
+                return close < 0 ? regex.length() : close + 1;
+            }
+            case 'x':
+                return i + 1 < regex.length() && regex.charAt(i + 1) == '{' ? endOf(regex, '}', i + 1) : i + 2;
+            case 'u':
+                return i + 4;
+            case '0': {
+                int digits = 0;
+                while (digits < 3 && i + 1 < regex.length() && regex.charAt(i + 1) >= '0' && regex.charAt(i + 1) <= '7') {
+                    i++;
+                    digits++;
+                }
+                return i;
+            }
+            case 'c':
+                return i + 1;
+            case 'k':
+                return i + 1 < regex.length() && regex.charAt(i + 1) == '<' ? endOf(regex, '>', i + 1) : i;
+            case 'p':
+            case 'P':
+                return i + 1 < regex.length() && regex.charAt(i + 1) == '{' ? endOf(regex, '}', i + 1) : i + 1;
+            case 'N':
+                return endOf(regex, '}', i);
+            default:
+                if (c >= '1' && c <= '9') {
+                    // a back reference; digits after it may belong to it
+                    while (i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1))) {
+                        i++;
+                    }
+                    return i;
+                }
+                return i + Character.charCount(regex.codePointAt(i)) - 1;
+        }
+    }
+
+    private static int endOf(String regex, char close, int from) {
+        int end = regex.indexOf(close, from);
+        return end < 0 ? regex.length() : end;
+    }
+
+    // The position of the ] closing a character class
+    private static int endOfClass(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        for (; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = endOfEscape(regex, i);
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+        }
+        return regex.length();
+    }
+}
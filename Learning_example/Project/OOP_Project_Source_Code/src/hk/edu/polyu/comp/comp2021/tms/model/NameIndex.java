@@ -0,0 +1,44 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The NameIndex class keeps a set of names in sorted order, so that the names starting with a prefix are found
+ * by one search and a short walk, however many names there are.
+ * <p>
+ * The names are kept in a concurrent skip list. Changes are made by the writer of the task manager, and
+ * completions may run side by side with them without any lock; a completion then sees each name either as
+ * it was before the change or after it.
+ * </p>
+ */
+class NameIndex {
+    private final ConcurrentSkipListSet<String> names = new ConcurrentSkipListSet<>();
+
+    void add(String name) {
+        names.add(name);
+    }
+
+    void remove(String name) {
+        names.remove(name);
+    }
+
+    /**
+     * Finds the names that start with a prefix.
+     *
+     * @param prefix The prefix; an empty prefix matches every name.
+     * @param limit  The most names returned.
+     * @return The first names in sorted order that start with the prefix.
+     */
+    List<String> complete(String prefix, int limit) {
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        for (String name : names.tailSet(prefix)) {
+            if (matches.size() == limit || !name.startsWith(prefix)) {
+                break;
+            }
+            matches.add(name);
+        }
+        return matches;
+    }
+}
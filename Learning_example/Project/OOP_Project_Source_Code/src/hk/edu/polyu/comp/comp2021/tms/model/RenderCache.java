@@ -0,0 +1,121 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The RenderCache class keeps the printed details of tasks, as returned by {@link TaskManager#printTask(String)}.
+ * <p>
+ * Each entry remembers the tasks its output was made from: the printed task and every task in its printed
+ * subtree. A change of one task drops only the entries that printed it. The entries are kept in the order
+ * they were last used, and the least recently used ones are dropped once the cached lines hold more than
+ * a given number of characters. The cache is synchronized, since readers fill it side by side.
+ * </p>
+ */
+class RenderCache {
+    // Rough cost of a line and of an entry beyond their characters
+    private static final int LINE_OVERHEAD = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    private long maxSize;
+    private long size;
+
+    private static final class Entry {
+        private final List<String> lines;
+        private final Set<String> dependencies;
+        private final long size;
+
+        private Entry(List<String> lines, Set<String> dependencies, long size) {
+            this.lines = lines;
+            this.dependencies = dependencies;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxSize The most characters of output kept, or 0 to keep none.
+     */
+    RenderCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized List<String> get(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.lines;
+    }
+
+    /**
+     * Keeps the output of a task.
+     *
+     * @param name         The name of the printed task.
+     * @param lines        The output, which must not be changed afterwards.
+     * @param dependencies The names of all tasks the output was made from.
+     */
+    synchronized void put(String name, List<String> lines, Set<String> dependencies) {
+        long entrySize = ENTRY_OVERHEAD;
+        for (String line : lines) {
+            entrySize += line.length() + LINE_OVERHEAD;
+        }
+        if (entrySize > maxSize) {
+            return;
+        }
+        remove(name);
+        entries.put(name, new Entry(lines, dependencies, entrySize));
+        size += entrySize;
+        for (String dependency : dependencies) {
+            dependents.computeIfAbsent(dependency, key -> new HashSet<>()).add(name);
+        }
+        evict();
+    }
+
+    // Drops the entries whose output a changed task was part of
+    synchronized void invalidate(String name) {
+        Set<String> names = dependents.get(name);
+        if (names != null) {
+            for (String dependent : new ArrayList<>(names)) {
+                remove(dependent);
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        dependents.clear();
+        size = 0;
+    }
+
+    synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    private void evict() {
+        // iterating the entries does not count as using them, unlike get
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            eldest.remove();
+            forget(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            forget(name, entry);
+        }
+    }
+
+    private void forget(String name, Entry entry) {
+        size -= entry.size;
+        for (String dependency : entry.dependencies) {
+            Set<String> names = dependents.get(dependency);
+            if (names != null && names.remove(name) && names.isEmpty()) {
+                dependents.remove(dependency);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The TaskBatch class collects task creations, changes and deletions that are applied together with
+ * {@link TaskManager#apply(TaskBatch)}.
+ * <p>
+ * Operations are checked in the order they were added, against the tasks as they would be after the
+ * operations before them. Prerequisites and subtasks may name tasks that are created later in the same
+ * batch; they only have to exist once the whole batch is applied. Either every operation is applied,
+ * or none is.
+ * </p>
+ */
+public final class TaskBatch {
+    enum Kind { CREATE_SIMPLE, CREATE_COMPOSITE, CHANGE, DELETE }
+
+    static final class Operation {
+        final Kind kind;
+        final String name;
+        final String description;
+        final String property;
+        final String value;
+        final List<String> names;
+
+        private Operation(Kind kind, String name, String description, String property, String value, List<String> names) {
+            this.kind = kind;
+            this.name = name;
+            this.description = description;
+            this.property = property;
+            this.value = value;
+            this.names = names;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Adds the creation of a simple task.
+     *
+     * @param name              The name of the task.
+     * @param description       The description of the task.
+     * @param duration          The duration of the task.
+     * @param prerequisiteNames The names of the prerequisites, or a list holding only "," for none.
+     * @return This batch.
+     */
+    public TaskBatch createSimpleTask(String name, String description, String duration, List<String> prerequisiteNames) {
+        operations.add(new Operation(Kind.CREATE_SIMPLE, name, description, null, duration, names(prerequisiteNames)));
+        return this;
+    }
+
+    /**
+     * Adds the creation of a composite task.
+     *
+     * @param name         The name of the task.
+     * @param description  The description of the task.
+     * @param subtaskNames The names of the subtasks.
+     * @return This batch.
+     */
+    public TaskBatch createCompositeTask(String name, String description, List<String> subtaskNames) {
+        operations.add(new Operation(Kind.CREATE_COMPOSITE, name, description, null, null, names(subtaskNames)));
+        return this;
+    }
+
+    /**
+     * Adds a change of the description or duration of a task.
+     *
+     * @param name     The name of the task.
+     * @param property "description" or "duration".
+     * @param value    The new value.
+     * @return This batch.
+     */
+    public TaskBatch changeTask(String name, String property, String value) {
+        operations.add(new Operation(Kind.CHANGE, name, null, Objects.requireNonNull(property), value, null));
+        return this;
+    }
+
+    /**
+     * Adds a change of the prerequisites or subtasks of a task.
+     *
+     * @param name     The name of the task.
+     * @param property "prerequisites" or "subtasks".
+     * @param value    The new names, or a list holding only "," for none.
+     * @return This batch.
+     */
+    public TaskBatch changeTask(String name, String property, List<String> value) {
+        operations.add(new Operation(Kind.CHANGE, name, null, Objects.requireNonNull(property), null, names(value)));
+        return this;
+    }
+
+    /**
+     * Adds the deletion of a task. Deleting a composite task deletes its subtasks, and the composite task
+     * stays, as with {@link TaskManager#removeTask(String)}.
+     *
+     * @param name The name of the task.
+     * @return This batch.
+     */
+    public TaskBatch deleteTask(String name) {
+        operations.add(new Operation(Kind.DELETE, name, null, null, null, null));
+        return this;
+    }
+
+    /**
+     * Get the number of operations
+     * @return number of operations in the batch
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    List<Operation> getOperations() {
+        return operations;
+    }
+
+    // the command line writes "," for an empty list
+    private static List<String> names(List<String> names) {
+        if (names.isEmpty() || names.size() == 1 && ",".equals(names.get(0))) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(names));
+    }
+}
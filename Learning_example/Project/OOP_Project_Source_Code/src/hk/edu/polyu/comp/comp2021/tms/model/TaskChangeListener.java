@@ -0,0 +1,21 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.Set;
+
+/**
+ * The TaskChangeListener interface is told about the changes of a {@link TaskManager}, once per data version,
+ * so that views can follow them without rereading every task.
+ */
+@FunctionalInterface
+public interface TaskChangeListener {
+    /**
+     * Called after the changes of one data version, by the thread that made them and while the task manager
+     * is still locked for them. Listeners should hand any slow work over to another thread.
+     *
+     * @param version  The new data version.
+     * @param tasks    The names of the tasks added or changed.
+     * @param removed  The names of the tasks removed.
+     * @param criteria The names of the criteria added, changed or removed.
+     */
+    void changed(long version, Set<String> tasks, Set<String> removed, Set<String> criteria);
+}
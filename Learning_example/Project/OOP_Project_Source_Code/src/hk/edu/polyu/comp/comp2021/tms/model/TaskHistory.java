@@ -0,0 +1,157 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The TaskHistory class keeps every version of every task, so that the state of a task can be
+ * looked up as of any earlier data version.
+ * <p>
+ * Each task has its own chain of changes in version order. Most changes are stored as deltas that
+ * only hold the fields that changed. Every {@link #KEYFRAME_INTERVAL}-th change, and the first change
+ * after a removal, holds the full record. Looking up a version is a binary search in the chain,
+ * followed by applying at most {@link #KEYFRAME_INTERVAL} deltas to the keyframe before it.
+ * </p>
+ */
+public class TaskHistory {
+    /**
+     * The largest number of changes between two full records of a task.
+     */
+    public static final int KEYFRAME_INTERVAL = 16;
+
+    private final Map<String, Chain> chains = new HashMap<>();
+
+    private static final class Change {
+        private final TaskRecord keyframe;
+        private final boolean removed;
+        private final String description;
+        private final Double duration;
+        private final List<String> prerequisites;
+        private final List<String> subtasks;
+
+        private Change(TaskRecord keyframe, boolean removed, String description, Double duration,
+                       List<String> prerequisites, List<String> subtasks) {
+            this.keyframe = keyframe;
+            this.removed = removed;
+            this.description = description;
+            this.duration = duration;
+            this.prerequisites = prerequisites;
+            this.subtasks = subtasks;
+        }
+
+        private static Change keyframe(TaskRecord record) {
+            return record == null
+                    ? new Change(null, true, null, null, null, null)
+                    : new Change(record, false, null, null, null, null);
+        }
+
+        private static Change delta(TaskRecord before, TaskRecord after) {
+            return new Change(null, false,
+                    Objects.equals(before.getDescription(), after.getDescription()) ? null : after.getDescription(),
+                    before.getDuration() == after.getDuration() ? null : after.getDuration(),
+                    before.getPrerequisites().equals(after.getPrerequisites()) ? null : after.getPrerequisites(),
+                    before.getSubtasks().equals(after.getSubtasks()) ? null : after.getSubtasks());
+        }
+
+        private boolean isKeyframe() {
+            return keyframe != null || removed;
+        }
+
+        private TaskRecord applyTo(TaskRecord base) {
+            return new TaskRecord(base.getName(),
+                    description != null ? description : base.getDescription(),
+                    duration != null ? duration : base.getDuration(),
+                    base.isComposite(),
+                    prerequisites != null ? prerequisites : base.getPrerequisites(),
+                    subtasks != null ? subtasks : base.getSubtasks());
+        }
+    }
+
+    private static final class Chain {
+        private long[] versions = new long[2];
+        private Change[] changes = new Change[2];
+        private int size;
+        private int sinceKeyframe;
+        private TaskRecord latest;
+
+        private void add(long version, TaskRecord record) {
+            if (size > 0 && versions[size - 1] == version) {
+                // a second change within the same version replaces the first
+                size--;
+                latest = recordAt(size - 1);
+                sinceKeyframe = 0;
+                for (int i = size - 1; i >= 0 && !changes[i].isKeyframe(); i--) {
+                    sinceKeyframe++;
+                }
+            }
+            Change change;
+            if (record == null || latest == null || sinceKeyframe + 1 >= KEYFRAME_INTERVAL
+                    || record.isComposite() != latest.isComposite()) {
+                change = Change.keyframe(record);
+                sinceKeyframe = 0;
+            } else {
+                change = Change.delta(latest, record);
+                sinceKeyframe++;
+            }
+            if (size == versions.length) {
+                versions = Arrays.copyOf(versions, size * 2);
+                changes = Arrays.copyOf(changes, size * 2);
+            }
+            versions[size] = version;
+            changes[size] = change;
+            size++;
+            latest = record;
+        }
+
+        private TaskRecord recordAt(int index) {
+            if (index < 0) {
+                return null;
+            }
+            int keyframe = index;
+            while (!changes[keyframe].isKeyframe()) {
+                keyframe--;
+            }
+            TaskRecord record = changes[keyframe].keyframe;
+            for (int i = keyframe + 1; i <= index; i++) {
+                record = changes[i].applyTo(record);
+            }
+            return record;
+        }
+
+        private TaskRecord asOf(long version) {
+            int index = Arrays.binarySearch(versions, 0, size, version);
+            return recordAt(index >= 0 ? index : -index - 2);
+        }
+    }
+
+    /**
+     * Records the state of a task after a change.
+     *
+     * @param version The data version the change produced. Versions must not decrease.
+     * @param name    The name the task is stored under.
+     * @param record  The new state of the task, or null if the task was removed.
+     */
+    public void record(long version, String name, TaskRecord record) {
+        chains.computeIfAbsent(name, k -> new Chain()).add(version, record);
+    }
+
+    /**
+     * Looks up the state of a task as of a data version.
+     *
+     * @param name    The name of the task.
+     * @param version The data version.
+     * @return The task as it was at that version, or null if it did not exist then.
+     */
+    public TaskRecord asOf(String name, long version) {
+        Chain chain = chains.get(name);
+        return chain == null ? null : chain.asOf(version);
+    }
+
+    /**
+     * Returns the names of all tasks that have ever existed.
+     *
+     * @return An unmodifiable set of task names.
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(chains.keySet());
+    }
+}
@@ -1,21 +1,79 @@
 package hk.edu.polyu.comp.comp2021.tms.model;
 
 import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
+import hk.edu.polyu.comp.comp2021.tms.model.storage.BPlusTree;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 /**
  * The TaskManager class is responsible for managing tasks within the Task Management System (TMS).
  * It provides functionalities for adding, updating, removing, and searching for tasks based on various criteria.
  * The class also handles task storage and retrieval, and maintains a mapping of tasks and criteria.
+ * A TaskManager is not synchronized; concurrent users should go through {@code TMS}, which locks around it.
  */
-public class TaskManager {
+public class TaskManager implements TaskQueries {
     private static final double DOUBLE = 0.00001;
     private final Map<String, Task> taskMap;
     private final Map<String, Criterion> criteriaMap;
+    private BPlusTree archive;
+    private long version;
+    // derived caches are filled by readers, which may run side by side under the read lock of TMS
+    private final Map<String, Double> earliestFinishTimes = new ConcurrentHashMap<>();
+    private volatile List<String> topologicalOrder;
+    private final RenderCache renderCache = new RenderCache(DEFAULT_RENDER_CACHE_SIZE);
+    private final ContentHashTree contentHashes = new ContentHashTree();
+    private final NameIndex taskNames = new NameIndex();
+    private final NameIndex criterionNames = new NameIndex();
+    // task names by edit distance, for "did you mean" and the "~" operator; scratch managers do not keep them
+    private final FuzzyNameIndex fuzzyNames = new FuzzyNameIndex();
+    private final Map<String, String> fuzzyWords = new HashMap<>();
+    // trigrams of task names and descriptions, to run "matches" criteria only on tasks that can match
+    private final NGramIndex nameGrams = new NGramIndex();
+    private final NGramIndex descriptionGrams = new NGramIndex();
+    private final Map<String, String> gramDescriptions = new HashMap<>();
+    private boolean namesIndexed = true;
+    private final TaskHistory history = new TaskHistory();
+    private volatile boolean versioned;
+    private PersistentHashMap<String, TaskRecord> versionTasks = PersistentHashMap.empty();
+    private PersistentHashMap<String, Criterion> versionCriteria = PersistentHashMap.empty();
+    private volatile WorkspaceVersion published;
+    private int batchDepth;
+    private boolean batchChanged;
+    private MutationLog mutationLog;
+    private final List<TaskChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private Set<String> changedTasks = new HashSet<>();
+    private Set<String> changedCriteria = new HashSet<>();
     private static final int CHARACTERS_TO_REMOVE = 4;
+    /**
+     * The most characters of printed task details kept by default for {@link #printTask(String)}.
+     */
+    public static final long DEFAULT_RENDER_CACHE_SIZE = 4L << 20;
+    /**
+     * The largest edit distance at which a name criterion with the "~" operator matches a task name.
+     */
+    public static final int FUZZY_DISTANCE = 2;
+    private static final String SECTION_REVERSE = "reverse";
+    private static final String SECTION_SUBTASKS = "subtasks";
+    private static final String SECTION_TOPOLOGICAL = "topo";
+    private static final String SECTION_EARLIEST_FINISH = "eft";
+    private static final ExecutorService STORE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tms-store");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Constructs a new instance of TaskManager.
@@ -59,8 +117,13 @@ public class TaskManager {
         taskMap.put(name, simpleTask);
 
         for (Task prerequisite : prerequisites) {
-            prerequisite.getPrerequisiteOf().add(taskMap.get(name));
+            // composite tasks keep no reverse list, as in batches
+            if (prerequisite.getPrerequisiteOf() != null) {
+                prerequisite.getPrerequisiteOf().add(taskMap.get(name));
+            }
         }
+        taskChanged(name);
+        changed();
     }
 
     /**
@@ -92,6 +155,8 @@ public class TaskManager {
 
         // put the composite task into the task map
         taskMap.put(name, compositeTask);
+        taskChanged(name);
+        changed();
     }
 
     // Convert a list of task names to a list of tasks
@@ -128,6 +193,375 @@ public class TaskManager {
         return tasks;
     }
 
+    /**
+     * Returns the data version of the task manager.
+     * The version grows by one with every change to the tasks or criteria.
+     *
+     * @return The current data version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stops a long operation of the current thread once the thread has been interrupted,
+     * for example because the asynchronous call running it was cancelled.
+     *
+     * @throws CancellationException if the current thread has been interrupted.
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Interrupted.");
+        }
+    }
+
+    // Record a change to the tasks or criteria and drop the values derived from the old state
+    // Inside a batch only the caches are dropped; the version moves on once, when the batch ends.
+    private void changed() {
+        if (batchDepth > 0) {
+            batchChanged = true;
+            if (!earliestFinishTimes.isEmpty()) {
+                earliestFinishTimes.clear();
+            }
+            topologicalOrder = null;
+            return;
+        }
+        version++;
+        earliestFinishTimes.clear();
+        topologicalOrder = null;
+        if (versioned) {
+            published = new WorkspaceVersion(version, versionTasks, versionCriteria);
+        }
+        if (mutationLog != null) {
+            mutationLog.seal(version);
+        }
+        if (!listeners.isEmpty() && (!changedTasks.isEmpty() || !changedCriteria.isEmpty())) {
+            Set<String> tasks = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+            for (String name : changedTasks) {
+                (taskMap.containsKey(name) ? tasks : removed).add(name);
+            }
+            Set<String> criteria = Collections.unmodifiableSet(changedCriteria);
+            changedTasks = new HashSet<>();
+            changedCriteria = new HashSet<>();
+            for (TaskChangeListener listener : listeners) {
+                listener.changed(version, Collections.unmodifiableSet(tasks), Collections.unmodifiableSet(removed), criteria);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener that is told about the changes of every later data version.
+     *
+     * @param listener The listener.
+     */
+    public void addTaskChangeListener(TaskChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addTaskChangeListener(TaskChangeListener)}.
+     *
+     * @param listener The listener.
+     */
+    public void removeTaskChangeListener(TaskChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts logging the changes of every later data version, for replicas to follow.
+     *
+     * @param retained The number of versions kept in the log.
+     * @return The log; the same log if logging had already been started.
+     */
+    public MutationLog enableMutationLog(int retained) {
+        if (mutationLog == null) {
+            mutationLog = new MutationLog(retained, version);
+        }
+        return mutationLog;
+    }
+
+    /**
+     * Starts a batch of changes. Until the matching {@link #endBatch()}, changes share one data version
+     * and the version is published to pinned readers only once, at the end. Batches may be nested.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes started with {@link #beginBatch()}.
+     * If anything changed in the outermost batch, the version moves on by one.
+     */
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No batch in progress.");
+        }
+        if (--batchDepth == 0 && batchChanged) {
+            batchChanged = false;
+            changed();
+        }
+    }
+
+    /**
+     * Starts keeping the tasks and criteria in persistent maps as well, so that versions can be pinned
+     * with {@link #pin()}. Each later change updates the maps in O(log n) without copying them.
+     */
+    public void enableVersions() {
+        if (versioned) {
+            return;
+        }
+        for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+            versionTasks = versionTasks.put(entry.getKey(), TaskRecord.of(entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, Criterion> entry : criteriaMap.entrySet()) {
+            versionCriteria = versionCriteria.put(entry.getKey(), entry.getValue().copy());
+        }
+        published = new WorkspaceVersion(version, versionTasks, versionCriteria);
+        versioned = true;
+    }
+
+    /**
+     * Check if versions are kept
+     * @return true if {@link #enableVersions()} has been called
+     */
+    public boolean isVersioned() {
+        return versioned;
+    }
+
+    /**
+     * Check if a task exists
+     * @param name The name of the task.
+     * @return true if there is a task with the name
+     */
+    public boolean hasTask(String name) {
+        return taskMap.containsKey(name);
+    }
+
+    /**
+     * Summarizes a task with its total duration and earliest finish time. The earliest finish time
+     * is taken from, and fills, the same cache as {@link #ReportEarliestFinishTime(String)}.
+     *
+     * @param name The name of the task.
+     * @return The summary of the task, or null if there is no task with the name.
+     */
+    public TaskSummary summarize(String name) {
+        Task task = taskMap.get(name);
+        if (task == null) {
+            return null;
+        }
+        double duration;
+        double earliestFinishTime;
+        try {
+            // ReportDuration cannot sum subtasks that are gone, as removeTask leaves them on a composite task
+            duration = hasAllSubtasks(task) ? ReportDuration(name) : Double.NaN;
+        } catch (TaskNotFoundException | InvalidSubtaskException | InvalidPrerequisiteException e) {
+            duration = Double.NaN;
+        }
+        try {
+            earliestFinishTime = ReportEarliestFinishTime(name);
+        } catch (TaskNotFoundException | InvalidPrerequisiteException e) {
+            earliestFinishTime = Double.NaN;
+        }
+        return new TaskSummary(TaskRecord.of(name, task), duration, earliestFinishTime);
+    }
+
+    private boolean hasAllSubtasks(Task task) {
+        if (task.getIsComposite()) {
+            for (String subtask : task.getSubtasks()) {
+                if (!taskMap.containsKey(subtask)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the names of the tasks that start with a prefix. Needs no lock and can be called while
+     * another thread is changing the task manager.
+     *
+     * @param prefix The prefix of the names.
+     * @param limit  The most names returned.
+     * @return The first matching names in sorted order.
+     */
+    public List<String> completeTaskName(String prefix, int limit) {
+        return taskNames.complete(prefix, limit);
+    }
+
+    /**
+     * Finds the names of the criteria that start with a prefix. Needs no lock and can be called while
+     * another thread is changing the task manager.
+     *
+     * @param prefix The prefix of the names.
+     * @param limit  The most names returned.
+     * @return The first matching names in sorted order.
+     */
+    public List<String> completeCriterionName(String prefix, int limit) {
+        return criterionNames.complete(prefix, limit);
+    }
+
+    /**
+     * Finds the tasks whose names are within {@link #FUZZY_DISTANCE} edits of a name, for suggesting
+     * the task that was meant when a name is not found.
+     *
+     * @param name  The name as given.
+     * @param limit The most names returned.
+     * @return The names the tasks are found under, nearest first.
+     */
+    public List<String> suggestTaskNames(String name, int limit) {
+        List<String> names = fuzzyNames.search(name, FUZZY_DISTANCE);
+        names.remove(name);
+        return names.size() > limit ? new ArrayList<>(names.subList(0, limit)) : names;
+    }
+
+    /**
+     * Get the names of all tasks
+     * @return a new list of the names, in no particular order
+     */
+    public List<String> getTaskNames() {
+        return new ArrayList<>(taskMap.keySet());
+    }
+
+    /**
+     * Pins the latest version of the tasks and criteria. Needs no lock and can be called while
+     * another thread is changing the task manager; the result never changes afterwards.
+     *
+     * @return The latest published version.
+     * @throws IllegalStateException if versions are not kept.
+     */
+    public WorkspaceVersion pin() {
+        WorkspaceVersion latest = published;
+        if (latest == null) {
+            throw new IllegalStateException("Versions are not enabled.");
+        }
+        return latest;
+    }
+
+    // Update the content hash and history of a task that was added, changed or removed.
+    // Called before changed(), so the change is recorded under the version it is about to produce.
+    private void taskChanged(String key) {
+        Task task = taskMap.get(key);
+        renderCache.invalidate(key);
+        String word = fuzzyWords.remove(key);
+        if (word != null) {
+            fuzzyNames.remove(word, key);
+            nameGrams.remove(key, word);
+        }
+        String description = gramDescriptions.remove(key);
+        if (description != null) {
+            descriptionGrams.remove(key, description);
+        }
+        if (task != null) {
+            fuzzyNames.add(task.getName(), key);
+            fuzzyWords.put(key, task.getName());
+            nameGrams.add(key, task.getName());
+            gramDescriptions.put(key, task.getDescription());
+            descriptionGrams.add(key, task.getDescription());
+        }
+        if (!listeners.isEmpty()) {
+            changedTasks.add(key);
+        }
+        if (task == null) {
+            taskNames.remove(key);
+            contentHashes.remove(ContentHashTree.taskKey(key));
+            history.record(version + 1, key, null);
+            if (versioned) {
+                versionTasks = versionTasks.remove(key);
+            }
+            if (mutationLog != null) {
+                mutationLog.taskChanged(key, null);
+            }
+        } else {
+            TaskRecord record = TaskRecord.of(key, task);
+            taskNames.add(key);
+            contentHashes.put(ContentHashTree.taskKey(key), record.toLine());
+            history.record(version + 1, key, record);
+            if (versioned) {
+                versionTasks = versionTasks.put(key, record);
+            }
+            if (mutationLog != null) {
+                mutationLog.taskChanged(key, record);
+            }
+        }
+    }
+
+    // Update the content hash of a criterion that was added or changed
+    private void criterionChanged(String name) {
+        Criterion criterion = criteriaMap.get(name);
+        String line = criterion == null ? null : criterionLine(name, criterion);
+        if (!listeners.isEmpty()) {
+            changedCriteria.add(name);
+        }
+        if (line == null) {
+            criterionNames.remove(name);
+            contentHashes.remove(ContentHashTree.criterionKey(name));
+        } else {
+            criterionNames.add(name);
+            contentHashes.put(ContentHashTree.criterionKey(name), line);
+        }
+        if (versioned) {
+            // versions keep their own copy, since the criteria of the task manager are mutable
+            versionCriteria = criterion == null ? versionCriteria.remove(name) : versionCriteria.put(name, criterion.copy());
+        }
+        if (mutationLog != null) {
+            mutationLog.criterionChanged(name, line);
+        }
+    }
+
+    /**
+     * Returns the names of all tasks in topological order: every prerequisite comes before the
+     * tasks that need it, and every subtask comes before its composite tasks.
+     * The order is cached until the next change.
+     *
+     * @return An unmodifiable list of all task names in topological order.
+     */
+    public List<String> topologicalOrder() {
+        if (topologicalOrder == null) {
+            Map<String, Integer> inDegree = new HashMap<>();
+            Map<String, List<String>> dependents = new HashMap<>();
+            for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+                Task task = entry.getValue();
+                List<String> before = task.getIsComposite() ? task.getSubtasks() : task.getPrerequisites();
+                int degree = 0;
+                for (String name : before) {
+                    if (taskMap.containsKey(name)) {
+                        dependents.computeIfAbsent(name, k -> new ArrayList<>()).add(entry.getKey());
+                        degree++;
+                    }
+                }
+                inDegree.put(entry.getKey(), degree);
+            }
+
+            List<String> order = new ArrayList<>(taskMap.size());
+            Deque<String> ready = new ArrayDeque<>();
+            inDegree.forEach((name, degree) -> {
+                if (degree == 0) {
+                    ready.add(name);
+                }
+            });
+            while (!ready.isEmpty()) {
+                String name = ready.poll();
+                order.add(name);
+                for (String dependent : dependents.getOrDefault(name, Collections.emptyList())) {
+                    if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            // tasks on a cycle keep their place at the end
+            if (order.size() < taskMap.size()) {
+                Set<String> placed = new HashSet<>(order);
+                for (String name : taskMap.keySet()) {
+                    if (!placed.contains(name)) {
+                        order.add(name);
+                    }
+                }
+            }
+            topologicalOrder = Collections.unmodifiableList(order);
+        }
+        return topologicalOrder;
+    }
 
     /**
      * Prints the details of a specific task.
@@ -138,16 +572,35 @@ public class TaskManager {
      * {@code @auther} Zeng Junqi
      */
     public List<String> printTask(String name) throws TaskNotFoundException {
-        return printTask(name, 0); // Start with depth 0
+        List<String> cached = renderCache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        Set<String> printed = new HashSet<>();
+        List<String> output = Collections.unmodifiableList(printTask(name, 0, printed)); // Start with depth 0
+        renderCache.put(name, output, printed);
+        return output;
+    }
+
+    /**
+     * Sets how many characters of printed task details are kept, so that printing the same task again is
+     * cheap until it or a task it prints changes. The least recently printed tasks are dropped first.
+     *
+     * @param maxSize The most characters kept, or 0 to keep none.
+     */
+    public void setRenderCacheSize(long maxSize) {
+        renderCache.setMaxSize(maxSize);
     }
 
-    private List<String> printTask(String name, int depth) throws TaskNotFoundException {
+    // Collects the names of all printed tasks, which the output must be dropped with when they change
+    private List<String> printTask(String name, int depth, Set<String> printed) throws TaskNotFoundException {
         Task task = taskMap.get(name);
         List<String> output = new ArrayList<>();
 
         if (task == null) {
             throw new TaskNotFoundException("Task with name '" + name + "' does not exist.");
         }
+        printed.add(name);
 
         String indent = String.join("", Collections.nCopies(depth, "    "));
 
@@ -159,7 +612,7 @@ public class TaskManager {
             for (int i = 0; i < task.getSubtasks().size(); i++) {
                 int number = i + 1;
                 output.add(indent + number + ".");
-                output.addAll(printTask(task.getSubtasks().get(i), depth + 1)); // Increase depth for subtasks
+                output.addAll(printTask(task.getSubtasks().get(i), depth + 1, printed)); // Increase depth for subtasks
             }
         } else {
             output.add(indent + "Name: " + task.getName());
@@ -170,7 +623,7 @@ public class TaskManager {
             for (int j = 0; j < task.getPrerequisites().size(); j++) {
                 int number = j + 1;
                 output.add(indent + number + ".");
-                output.addAll(printTask(task.getPrerequisites().get(j), depth + 1)); // Increase depth for prerequisites
+                output.addAll(printTask(task.getPrerequisites().get(j), depth + 1, printed)); // Increase depth for prerequisites
             }
         }
 
@@ -197,6 +650,7 @@ public class TaskManager {
         Map<String, List<String>> allTasksOutput = new HashMap<>();
 
         for (Task task : taskMap.values()) {
+            checkInterrupted();
             List<String> taskOutput = printTask(task.getName());
             allTasksOutput.put(task.getName(), taskOutput);
         }
@@ -204,6 +658,44 @@ public class TaskManager {
         return allTasksOutput;
     }
 
+    /**
+     * Writes the details of a task and of the tasks it depends on, expanding each of them only once.
+     * Later uses of a task are written as "Name: X (see above)", and tasks deeper than the depth limit
+     * are only named, as "Name: X (...)".
+     *
+     * @param name     The name of the task to be printed.
+     * @param out      The output.
+     * @param maxDepth The number of levels of dependencies expanded, or {@link Integer#MAX_VALUE} for all of them.
+     * @throws TaskNotFoundException if the task, or a task it depends on, does not exist.
+     * @throws IOException           if the output fails.
+     */
+    public void printTask(String name, Appendable out, int maxDepth) throws TaskNotFoundException, IOException {
+        new TaskPrinter(taskMap::get, out, maxDepth).print(name);
+    }
+
+    /**
+     * Writes the details of all tasks, each under a "Task: X" line and followed by an empty line.
+     * Each task is expanded only once for the whole output, so it grows with the number of tasks and
+     * dependencies rather than with the number of paths between them.
+     *
+     * @param out      The output.
+     * @param maxDepth The number of levels of dependencies expanded, or {@link Integer#MAX_VALUE} for all of them.
+     * @throws TaskMapIsEmpty        if there are no tasks currently in the task management system.
+     * @throws TaskNotFoundException if a task referenced during the operation cannot be found.
+     * @throws IOException           if the output fails.
+     */
+    public void printAllTasks(Appendable out, int maxDepth) throws TaskMapIsEmpty, TaskNotFoundException, IOException {
+        if (taskMap.isEmpty()) {
+            throw new TaskMapIsEmpty("Task map is empty.");
+        }
+        TaskPrinter printer = new TaskPrinter(taskMap::get, out, maxDepth);
+        for (String name : taskMap.keySet()) {
+            out.append("Task: ").append(name).append('\n');
+            printer.print(name);
+            out.append('\n');
+        }
+    }
+
     /**
      * Reports the total duration of a specified task. For composite tasks, it calculates the
      * cumulative duration of all subtasks, considering prerequisites and overlaps.
@@ -259,6 +751,16 @@ public class TaskManager {
      * {@code @auther} Zeng Junqi
      */
     public double ReportEarliestFinishTime(String name) throws TaskNotFoundException, InvalidPrerequisiteException {
+        Double cached = earliestFinishTimes.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        double earliestFinishTime = computeEarliestFinishTime(name);
+        earliestFinishTimes.put(name, earliestFinishTime);
+        return earliestFinishTime;
+    }
+
+    private double computeEarliestFinishTime(String name) throws TaskNotFoundException, InvalidPrerequisiteException {
         Task task = taskMap.get(name);
         double duration = 0;
         if (task == null) {
@@ -310,26 +812,174 @@ public class TaskManager {
      */
     public String search(String criterion) throws CritersionNotFoundException {
         StringBuilder tasksnames = new StringBuilder();
-        List<String> tasks;
+        for (String element : searchNames(criterion)) {
+            tasksnames.append(element).append(" ");
+        }
+        if (tasksnames.length() == 0) {
+            return "No task found";
+        }
+        return tasksnames.toString();
+    }
+
+    /**
+     * Searches for tasks that meet a specified criterion and returns their names.
+     *
+     * @param criterion The name of the criterion to be used for searching tasks.
+     * @return The distinct names of the matching tasks, in the order they were found.
+     * @throws CritersionNotFoundException if the criterion with the specified name does not exist.
+     */
+    public List<String> searchNames(String criterion) throws CritersionNotFoundException {
+        Criterion criterion1 = criteriaMap.get(criterion);
+        if (criterion1 == null) {
+            throw new CritersionNotFoundException("");
+        }
+        return new ArrayList<>(new LinkedHashSet<>(search(criterion1)));
+    }
+
+    /**
+     * Checks some tasks one by one against a criterion, with the same results as {@link #searchNames(String)}
+     * but without going through all tasks.
+     *
+     * @param criterion The name of the criterion.
+     * @param names     The names of the tasks to check; names of missing tasks are left out.
+     * @return The names of the tasks that meet the criterion, in the given order.
+     * @throws CritersionNotFoundException if the criterion with the specified name does not exist.
+     */
+    public List<String> filterNames(String criterion, Collection<String> names) throws CritersionNotFoundException {
         Criterion criterion1 = criteriaMap.get(criterion);
         if (criterion1 == null) {
             throw new CritersionNotFoundException("");
         }
-        tasks = search(criterion1);
-        List<String> uniqueList = new ArrayList<>();
-        for (String element : tasks) {
-            if (!uniqueList.contains(element)) {
-                uniqueList.add(element);
+        List<String> matching = new ArrayList<>();
+        for (String name : names) {
+            Task task = taskMap.get(name);
+            if (task != null && matches(task, criterion1)) {
+                matching.add(name);
             }
         }
-        for (String element : uniqueList) {
-            tasksnames.append(element).append(" ");
+        return matching;
+    }
+
+    // Evaluates a criterion on one task the way search(Criterion) evaluates it on all of them
+    private boolean matches(Task task, Criterion criterion) {
+        switch (criterion.getType()) {
+            case "binary":
+                if ("&&".equals(criterion.getLogicOp())) {
+                    return matches(task, criterion.getFirstCriterion()) && matches(task, criterion.getSecondCriterion());
+                }
+                return matches(task, criterion.getFirstCriterion()) || matches(task, criterion.getSecondCriterion());
+            case "negated": {
+                Criterion actualCriterion = getCriterion(criterion);
+                if ("duration".equals(actualCriterion.getProperty())) {
+                    return taskMatchesCriterion(task, actualCriterion);
+                }
+                return !taskMatchesCriterion(task, actualCriterion);
+            }
+            default:
+                return taskMatchesCriterion(task, criterion);
         }
-        if (tasksnames.length() == 0) {
-            return "No task found";
+    }
+
+    /**
+     * Prints the details of a task as it was at an earlier data version.
+     *
+     * @param name    The name of the task to be printed.
+     * @param version The data version, as returned by {@link #getVersion()}.
+     * @return A list of strings representing the details of the task at that version.
+     * @throws TaskNotFoundException if the task did not exist at that version.
+     */
+    public List<String> printTaskAsOf(String name, long version) throws TaskNotFoundException {
+        return asOf(version, Collections.singleton(name)).printTask(name);
+    }
+
+    /**
+     * Searches for tasks that met a criterion at an earlier data version.
+     * The criterion is evaluated as it is defined now, since only task changes are kept in the history.
+     *
+     * @param criterion The name of the criterion to be used for searching tasks.
+     * @param version   The data version, as returned by {@link #getVersion()}.
+     * @return The names of the tasks that met the criterion at that version.
+     * @throws CritersionNotFoundException if the criterion with the specified name does not exist.
+     */
+    public String searchAsOf(String criterion, long version) throws CritersionNotFoundException {
+        if (!criteriaMap.containsKey(criterion)) {
+            throw new CritersionNotFoundException("");
         }
-        return tasksnames.toString();
+        TaskManager past = asOf(version, history.names());
+        past.criteriaMap.putAll(criteriaMap);
+        return past.search(criterion);
+    }
+
+    /**
+     * Reports the earliest finish time of a task as it was at an earlier data version.
+     *
+     * @param name    The name of the task.
+     * @param version The data version, as returned by {@link #getVersion()}.
+     * @return The earliest finish time of the task at that version.
+     * @throws TaskNotFoundException        if the task did not exist at that version.
+     * @throws InvalidPrerequisiteException if any prerequisite is invalid.
+     */
+    public double ReportEarliestFinishTimeAsOf(String name, long version) throws TaskNotFoundException, InvalidPrerequisiteException {
+        return asOf(version, Collections.singleton(name)).ReportEarliestFinishTime(name);
+    }
+
+    // The tasks reachable from some roots as they were at a data version.
+    // Each task is looked up in its own history, so the cost grows with the number of tasks reached
+    // and only logarithmically with the length of the history.
+    private TaskManager asOf(long version, Collection<String> roots) {
+        return materialize(name -> history.asOf(name, version), roots);
+    }
+
+    /**
+     * Builds a scratch task manager holding linked copies of the tasks reachable from some roots.
+     * References to tasks that the lookup does not find are left out.
+     *
+     * @param lookup Returns the record of a task by name, or null if there is none.
+     * @param roots  The names of the tasks to start from.
+     * @return A new task manager holding the tasks found.
+     */
+    static TaskManager materialize(Function<String, TaskRecord> lookup, Collection<String> roots) {
+        Map<String, TaskRecord> records = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (records.containsKey(name)) {
+                continue;
+            }
+            checkInterrupted();
+            TaskRecord record = lookup.apply(name);
+            records.put(name, record);
+            if (record != null) {
+                pending.addAll(record.getPrerequisites());
+                pending.addAll(record.getSubtasks());
+            }
+        }
+        records.values().removeIf(Objects::isNull);
+        List<TaskRecord> linkable = new ArrayList<>();
+        for (TaskRecord record : records.values()) {
+            List<String> prerequisites = new ArrayList<>(record.getPrerequisites());
+            List<String> subtasks = new ArrayList<>(record.getSubtasks());
+            prerequisites.retainAll(records.keySet());
+            subtasks.retainAll(records.keySet());
+            linkable.add(new TaskRecord(record.getName(), record.getDescription(), record.getDuration(),
+                    record.isComposite(), prerequisites, subtasks));
+        }
+        TaskManager scratch = new TaskManager();
+        scratch.namesIndexed = false;
+        try {
+            scratch.taskMap.putAll(scratch.linkRecords(linkable));
+        } catch (InvalidPrerequisiteException | InvalidSubtaskException e) {
+            // every reference was checked above
+            throw new IllegalStateException(e);
+        }
+        return scratch;
+    }
+
+    // Used by pinned versions to bring their criteria into a scratch task manager
+    void putCriterion(String name, Criterion criterion) {
+        criteriaMap.put(name, criterion);
     }
+
     /**
      * Searches for tasks that meet a specified criterion. Supports both basic and complex (binary) criteria.
      *
@@ -364,7 +1014,33 @@ public class TaskManager {
 
 
     private List<String> searchBasicCriterion(Criterion criterion) {
+        if (namesIndexed && "name".equals(criterion.getProperty()) && "~".equals(criterion.getOperation())) {
+            // only the names near the value are visited, instead of every task
+            List<String> names = new ArrayList<>();
+            for (String key : fuzzyNames.search((String) criterion.getValue(), FUZZY_DISTANCE)) {
+                names.add(taskMap.get(key).getName());
+            }
+            return names;
+        }
+        if (namesIndexed && "matches".equals(criterion.getOperation())
+                && ("name".equals(criterion.getProperty()) || "description".equals(criterion.getProperty()))) {
+            // the expression runs only on the tasks holding every trigram of the strings it needs
+            NGramIndex grams = "name".equals(criterion.getProperty()) ? nameGrams : descriptionGrams;
+            Set<String> candidates = grams.candidates(NGramIndex.requiredLiterals((String) criterion.getValue()));
+            if (candidates != null) {
+                List<String> names = new ArrayList<>();
+                for (String key : candidates) {
+                    checkInterrupted();
+                    Task task = taskMap.get(key);
+                    if (task != null && taskMatchesCriterion(task, criterion)) {
+                        names.add(task.getName());
+                    }
+                }
+                return names;
+            }
+        }
         return taskMap.values().stream()
+                .peek(task -> checkInterrupted())
                 .filter(task -> taskMatchesCriterion(task, criterion))
                 .map(Task::getName)
                 .collect(Collectors.toList());
@@ -394,12 +1070,14 @@ public class TaskManager {
             actualValue = criterion.getValue();
         }
         // Create a new Criterion with the actual value (without "Not ") for comparison.
-        return new Criterion(
+        Criterion actualCriterion = new Criterion(
                 criterion.getProperty(),
                 criterion.getOperation(),
                 actualValue,
                 criterion.getType()
         );
+        actualCriterion.sharePattern(criterion);
+        return actualCriterion;
     }
 
 
@@ -410,9 +1088,12 @@ public class TaskManager {
                 return matchesOperation(task.getDuration(), (Double) criterion.getValue(), criterion.getOperation());
             case "name":
                 // Assume value is String for name type criteria.
-                return task.getName().contains((String) criterion.getValue());
+                if ("~".equals(criterion.getOperation())) {
+                    return FuzzyNameIndex.distance(task.getName(), (String) criterion.getValue()) <= FUZZY_DISTANCE;
+                }
+                return matchesText(task.getName(), criterion);
             case "description":
-                return task.getDescription().contains((String) criterion.getValue());
+                return matchesText(task.getDescription(), criterion);
             case "prerequisites":
                 if (!task.getIsComposite()) {
                     return task.getPrerequisites().contains((String) criterion.getValue());
@@ -428,6 +1109,14 @@ public class TaskManager {
         }
     }
 
+    // "matches" finds a regular expression anywhere in the text, as "contains" finds a string
+    private static boolean matchesText(String text, Criterion criterion) {
+        if ("matches".equals(criterion.getOperation())) {
+            return criterion.getPattern((String) criterion.getValue()).matcher(text).find();
+        }
+        return text.contains((String) criterion.getValue());
+    }
+
     private boolean matchesOperation(double taskValue, double criterionValue, String operation) {
         switch (operation) {
             case "<": return taskValue < criterionValue;
@@ -460,7 +1149,9 @@ public class TaskManager {
             List<Task> subtasks = convertNamesToSubtasks(task.getSubtasks());
             for (Task subtask : subtasks) {
                 taskMap.remove(subtask.getName());
+                taskChanged(subtask.getName());
             }
+            changed();
             return;
         }
 
@@ -477,12 +1168,16 @@ public class TaskManager {
         if (task.getPrerequisites() != null && !task.getPrerequisites().isEmpty()) {
             List<Task> prerequisites = convertNamesToTasks(task.getPrerequisites());
             for (Task prerequisite : prerequisites) {
-                prerequisite.getPrerequisiteOf().remove(task);
+                if (prerequisite.getPrerequisiteOf() != null) {
+                    prerequisite.getPrerequisiteOf().remove(task);
+                }
             }
         }
 
 
         taskMap.remove(name);
+        taskChanged(name);
+        changed();
     }
 
 
@@ -507,7 +1202,14 @@ public class TaskManager {
                     throw new InvalidPrerequisiteException("Composite task cannot have prerequisites.");
                 }
                 List<Task> prerequisites = convertNamesToTasks(value);
+                // the reverse lists follow, so that old prerequisites can be removed and new ones cannot
+                unlinkPrerequisites(task);
                 task.setPrerequisites(prerequisites);
+                for (Task prerequisite : prerequisites) {
+                    if (prerequisite.getPrerequisiteOf() != null) {
+                        prerequisite.getPrerequisiteOf().add(task);
+                    }
+                }
                 break;
             }
             case "subtasks": {
@@ -516,6 +1218,8 @@ public class TaskManager {
                 break;
             }
         }
+        taskChanged(name);
+        changed();
     }
 
     /**
@@ -525,7 +1229,7 @@ public class TaskManager {
      * @param property The property of the task to update.
      * @param value    The new value for the specified property.
      * @throws TaskNotFoundException    if the task with the specified name does not exist.
-     * @throws InvalidPropertyException if the specified property does not exist.
+     * @throws InvalidPropertyException if the specified property does not exist, or is the duration of a composite task.
      */
     public void updateTask(String name, String property, String value) throws TaskNotFoundException, InvalidPropertyException {
         Task task = taskMap.get(name);
@@ -535,17 +1239,480 @@ public class TaskManager {
 
         switch (property) {
             case "name":
+                // tasks that refer to this task store its new name as well
+                List<String> referring = new ArrayList<>();
+                for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+                    if (entry.getValue().getPrerequisites().contains(task.getName())
+                            || entry.getValue().getIsComposite() && entry.getValue().getSubtasks().contains(task.getName())) {
+                        referring.add(entry.getKey());
+                    }
+                }
                 task.setName(value);
+                referring.forEach(this::taskChanged);
                 break;
             case "description":
                 task.setDescription(value);
                 break;
             case "duration":
+                // the duration of a composite task is that of its subtasks
+                if (task.getIsComposite()) {
+                    throw new InvalidPropertyException("Composite task cannot have a duration.");
+                }
                 task.setDuration(Double.parseDouble(value));
                 break;
             default:
                 throw new InvalidPropertyException("Property '" + property + "' does not exist.");
         }
+        taskChanged(name);
+        changed();
+    }
+
+    /**
+     * Applies a batch of task creations, changes and deletions as a single change.
+     * <p>
+     * Every operation is checked first, and all references are checked together once the whole batch
+     * has been staged, so a task may name prerequisites or subtasks created later in the batch.
+     * If anything is wrong nothing is changed, and every problem found is reported. Otherwise the tasks
+     * are linked, the reverse lists are updated, and the version, caches and hashes move on once.
+     * </p>
+     *
+     * @param batch The batch to apply.
+     * @throws InvalidBatchException if any operation of the batch is invalid.
+     */
+    public void apply(TaskBatch batch) throws InvalidBatchException {
+        // the state of every task the batch touches, null for deleted tasks
+        Map<String, TaskRecord> staged = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+        for (TaskBatch.Operation operation : batch.getOperations()) {
+            String name = operation.name;
+            TaskRecord current = stagedRecord(staged, name);
+            switch (operation.kind) {
+                case CREATE_SIMPLE:
+                case CREATE_COMPOSITE:
+                    if (current != null) {
+                        errors.add("Task '" + name + "' already exists.");
+                    } else if (operation.kind == TaskBatch.Kind.CREATE_COMPOSITE) {
+                        staged.put(name, new TaskRecord(name, operation.description, 0, true,
+                                Collections.emptyList(), operation.names));
+                    } else {
+                        try {
+                            staged.put(name, new TaskRecord(name, operation.description, Double.parseDouble(operation.value),
+                                    false, operation.names, Collections.emptyList()));
+                        } catch (NumberFormatException e) {
+                            errors.add("Task '" + name + "': '" + operation.value + "' is not a valid duration.");
+                        }
+                    }
+                    break;
+                case CHANGE:
+                    if (current == null) {
+                        errors.add("Task '" + name + "' does not exist.");
+                    } else {
+                        TaskRecord changedRecord = changedRecord(current, operation, errors);
+                        if (changedRecord != null) {
+                            staged.put(name, changedRecord);
+                        }
+                    }
+                    break;
+                case DELETE:
+                    if (current == null) {
+                        // deleting a task twice, for example a subtask after its composite task, is allowed
+                        if (!staged.containsKey(name)) {
+                            errors.add("Task '" + name + "' does not exist.");
+                        }
+                        break;
+                    }
+                    // as with removeTask, deleting a composite task deletes its subtasks but keeps the composite task
+                    if (!current.isComposite()) {
+                        staged.put(name, null);
+                    }
+                    for (String subtask : current.getSubtasks()) {
+                        if (stagedRecord(staged, subtask) != null) {
+                            staged.put(subtask, null);
+                        }
+                    }
+                    break;
+            }
+        }
+
+        commit(staged, errors);
+    }
+
+    // Checks the staged tasks against each other and the rest of the tasks, then replaces the live tasks.
+    // Nothing is changed if any error has been found.
+    private void commit(Map<String, TaskRecord> staged, List<String> errors) throws InvalidBatchException {
+        // references of staged tasks are checked once the whole batch is known
+        Set<String> replaced = new HashSet<>();
+        for (Map.Entry<String, TaskRecord> entry : staged.entrySet()) {
+            TaskRecord record = entry.getValue();
+            Task live = taskMap.get(entry.getKey());
+            if (live != null && (record == null || record.isComposite() != live.getIsComposite())) {
+                replaced.add(entry.getKey());
+            }
+            if (record == null) {
+                continue;
+            }
+            for (String prerequisite : record.getPrerequisites()) {
+                if (stagedRecord(staged, prerequisite) == null) {
+                    errors.add("Prerequisite '" + prerequisite + "' of task '" + entry.getKey() + "' does not exist.");
+                }
+            }
+            if (!emptied(record.getSubtasks(), staged)) {
+                for (String subtask : record.getSubtasks()) {
+                    if (stagedRecord(staged, subtask) == null) {
+                        errors.add("Subtask '" + subtask + "' of task '" + entry.getKey() + "' does not exist.");
+                    }
+                }
+            }
+        }
+        // tasks outside the batch must not be left pointing at deleted tasks
+        if (!replaced.isEmpty()) {
+            for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+                if (staged.containsKey(entry.getKey())) {
+                    continue;
+                }
+                Task task = entry.getValue();
+                List<String> references = new ArrayList<>(task.getPrerequisites());
+                if (task.getIsComposite() && !emptied(task.getSubtasks(), staged)) {
+                    references.addAll(task.getSubtasks());
+                }
+                for (String reference : references) {
+                    if (replaced.contains(reference)) {
+                        errors.add("Task '" + reference + "' is still used by task '" + entry.getKey() + "'.");
+                    }
+                }
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new InvalidBatchException(errors);
+        }
+        if (staged.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, TaskRecord> entry : staged.entrySet()) {
+            String name = entry.getKey();
+            TaskRecord record = entry.getValue();
+            Task live = taskMap.get(name);
+            if (live != null) {
+                unlinkPrerequisites(live);
+                if (replaced.contains(name)) {
+                    taskMap.remove(name);
+                }
+            }
+            if (record != null && !taskMap.containsKey(name)) {
+                Task task;
+                if (record.isComposite()) {
+                    task = new CompositeTasks(name, record.getDescription(), Collections.emptyList());
+                    task.setIsComposite(true);
+                } else {
+                    task = new SimpleTask(name, record.getDescription(), record.getDuration(), Collections.emptyList());
+                }
+                taskMap.put(name, task);
+            }
+        }
+        for (Map.Entry<String, TaskRecord> entry : staged.entrySet()) {
+            TaskRecord record = entry.getValue();
+            if (record == null) {
+                continue;
+            }
+            Task task = taskMap.get(entry.getKey());
+            task.setDescription(record.getDescription());
+            List<Task> linked = new ArrayList<>();
+            if (record.isComposite()) {
+                for (String name : record.getSubtasks()) {
+                    Task subtask = taskMap.get(name);
+                    if (subtask == null) {
+                        continue;
+                    }
+                    subtask.setIsSubtask(true);
+                    linked.add(subtask);
+                }
+                task.setSubtasks(linked);
+            } else {
+                task.setDuration(record.getDuration());
+                for (String name : record.getPrerequisites()) {
+                    Task prerequisite = taskMap.get(name);
+                    if (prerequisite.getPrerequisiteOf() != null) {
+                        prerequisite.getPrerequisiteOf().add(task);
+                    }
+                    linked.add(prerequisite);
+                }
+                task.setPrerequisites(linked);
+            }
+        }
+        for (String name : staged.keySet()) {
+            taskChanged(name);
+        }
+        changed();
+    }
+
+    // Whether every subtask of a composite task is deleted, which removeTask does when the composite task is
+    // removed; the composite task then stays and names its old subtasks
+    private static boolean emptied(List<String> subtasks, Map<String, TaskRecord> staged) {
+        if (subtasks.isEmpty()) {
+            return false;
+        }
+        for (String subtask : subtasks) {
+            if (!staged.containsKey(subtask) || staged.get(subtask) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Changes a property of every task that meets a criterion, as one batch.
+     * The matching tasks are found once, before anything is changed.
+     * A duration may be given as a factor such as {@code *1.1}, which multiplies the duration of each task.
+     *
+     * @param criterion The name of the criterion.
+     * @param property  "description" or "duration".
+     * @param value     The new value, or for durations a factor starting with '*'.
+     * @return The number of tasks changed.
+     * @throws CritersionNotFoundException if the criterion does not exist.
+     * @throws InvalidBatchException       if the change is invalid for any of the tasks; then no task is changed.
+     */
+    public int updateTasksMatching(String criterion, String property, String value) throws CritersionNotFoundException, InvalidBatchException {
+        Set<String> matches = matching(criterion);
+        double factor = 1;
+        boolean scale = "duration".equals(property) && value.startsWith("*");
+        if (scale) {
+            try {
+                factor = Double.parseDouble(value.substring(1));
+            } catch (NumberFormatException e) {
+                throw new InvalidBatchException(Collections.singletonList("'" + value + "' is not a valid factor."));
+            }
+        }
+        TaskBatch batch = new TaskBatch();
+        for (String name : matches) {
+            batch.changeTask(name, property, scale ? String.valueOf(taskMap.get(name).getDuration() * factor) : value);
+        }
+        apply(batch);
+        return matches.size();
+    }
+
+    /**
+     * Deletes every task that meets a criterion, as one batch.
+     * The matching tasks are found once, before anything is deleted.
+     *
+     * @param criterion The name of the criterion.
+     * @return The number of tasks that met the criterion.
+     * @throws CritersionNotFoundException if the criterion does not exist.
+     * @throws InvalidBatchException       if a matching task is still used by a task that does not match;
+     *                                     then no task is deleted.
+     */
+    public int removeTasksMatching(String criterion) throws CritersionNotFoundException, InvalidBatchException {
+        Set<String> matches = matching(criterion);
+        TaskBatch batch = new TaskBatch();
+        for (String name : matches) {
+            batch.deleteTask(name);
+        }
+        apply(batch);
+        return matches.size();
+    }
+
+    private Set<String> matching(String criterion) throws CritersionNotFoundException {
+        Criterion found = criteriaMap.get(criterion);
+        if (found == null) {
+            throw new CritersionNotFoundException("Criterion '" + criterion + "' does not exist.");
+        }
+        Set<String> matches = new LinkedHashSet<>();
+        for (String name : search(found)) {
+            if (taskMap.containsKey(name)) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+
+    // The state of a task as the batch staged so far would leave it
+    private TaskRecord stagedRecord(Map<String, TaskRecord> staged, String name) {
+        if (staged.containsKey(name)) {
+            return staged.get(name);
+        }
+        Task task = taskMap.get(name);
+        return task == null ? null : TaskRecord.of(name, task);
+    }
+
+    private static TaskRecord changedRecord(TaskRecord current, TaskBatch.Operation operation, List<String> errors) {
+        String name = current.getName();
+        String description = current.getDescription();
+        double duration = current.getDuration();
+        List<String> prerequisites = current.getPrerequisites();
+        List<String> subtasks = current.getSubtasks();
+        switch (operation.property) {
+            case "description":
+                if (operation.value == null) {
+                    errors.add("Task '" + name + "': a description is a single value.");
+                    return null;
+                }
+                description = operation.value;
+                break;
+            case "duration":
+                if (current.isComposite()) {
+                    errors.add("Task '" + name + "' cannot have a duration.");
+                    return null;
+                }
+                try {
+                    duration = Double.parseDouble(operation.value);
+                } catch (NumberFormatException | NullPointerException e) {
+                    errors.add("Task '" + name + "': '" + operation.value + "' is not a valid duration.");
+                    return null;
+                }
+                break;
+            case "prerequisites":
+                if (current.isComposite() || operation.names == null) {
+                    errors.add("Task '" + name + "' cannot have prerequisites.");
+                    return null;
+                }
+                prerequisites = operation.names;
+                break;
+            case "subtasks":
+                if (!current.isComposite() || operation.names == null) {
+                    errors.add("Task '" + name + "' cannot have subtasks.");
+                    return null;
+                }
+                subtasks = operation.names;
+                break;
+            default:
+                errors.add("Property '" + operation.property + "' cannot be changed in a batch.");
+                return null;
+        }
+        return new TaskRecord(name, description, duration, current.isComposite(), prerequisites, subtasks);
+    }
+
+    // Remove a task from the reverse lists of its prerequisites
+    private void unlinkPrerequisites(Task task) {
+        for (String name : task.getPrerequisites()) {
+            Task prerequisite = taskMap.get(name);
+            if (prerequisite != null && prerequisite.getPrerequisiteOf() != null) {
+                prerequisite.getPrerequisiteOf().remove(task);
+            }
+        }
+    }
+
+    /**
+     * Opens a disk-backed archive for tasks that are rarely used, creating the file if it does not exist.
+     * Archived tasks are kept in a paged B+-tree keyed by task name, and only the pages read recently
+     * are cached in memory. Any archive that was attached before is closed.
+     *
+     * @param path       The path of the archive file.
+     * @param cachePages The number of pages of the archive to keep in memory.
+     * @throws IOException if the archive file cannot be opened.
+     */
+    public void attachArchive(String path, int cachePages) throws IOException {
+        BPlusTree opened = new BPlusTree(Paths.get(path), cachePages);
+        detachArchive();
+        archive = opened;
+    }
+
+    /**
+     * Closes the attached archive, writing all cached changes to its file.
+     *
+     * @throws IOException if the archive cannot be written.
+     */
+    public void detachArchive() throws IOException {
+        if (archive != null) {
+            BPlusTree closing = archive;
+            archive = null;
+            closing.close();
+        }
+    }
+
+    /**
+     * Moves a task from memory into the attached archive.
+     * The same rules as for {@link #removeTask(String)} apply: subtasks and prerequisites of other
+     * tasks stay in memory. A composite task is archived on its own, and its subtasks stay in memory.
+     *
+     * @param name The name of the task to archive.
+     * @throws TaskNotFoundException      if the task with the specified name does not exist.
+     * @throws TaskCannotReomoveException if the task is a subtask or a prerequisite.
+     * @throws IOException                if the archive cannot be written.
+     * @throws IllegalStateException      if no archive is attached.
+     */
+    public void archiveTask(String name) throws TaskNotFoundException, TaskCannotReomoveException, IOException {
+        BPlusTree tree = requireArchive();
+        Task task = taskMap.get(name);
+        if (task == null) {
+            throw new TaskNotFoundException("Task with name '" + name + "' does not exist.");
+        }
+        if (task.getIsSubtask()) {
+            throw new TaskCannotReomoveException("Subtask cannot be archived.");
+        }
+        if (task.isPrerequisite()) {
+            throw new TaskCannotReomoveException("Prerequisite task cannot be archived.");
+        }
+
+        // unlinked first, so that a task is never archived while its prerequisites still point at it
+        unlinkPrerequisites(task);
+        try {
+            tree.put(name, TaskRecord.of(name, task).toLine());
+            tree.flush();
+        } catch (IOException e) {
+            for (String prerequisiteName : task.getPrerequisites()) {
+                Task prerequisite = taskMap.get(prerequisiteName);
+                if (prerequisite != null && prerequisite.getPrerequisiteOf() != null) {
+                    prerequisite.getPrerequisiteOf().add(task);
+                }
+            }
+            throw e;
+        }
+        taskMap.remove(name);
+        taskChanged(name);
+        changed();
+    }
+
+    /**
+     * Moves a task from the attached archive back into memory.
+     * Its prerequisites or subtasks must still exist.
+     *
+     * @param name The name of the task to restore.
+     * @throws TaskNotFoundException        if the task is not in the archive.
+     * @throws TaskAlreadyExistsException   if a task with the same name exists in memory.
+     * @throws InvalidPrerequisiteException if a prerequisite of the task no longer exists.
+     * @throws InvalidSubtaskException      if a subtask of the task no longer exists.
+     * @throws IOException                  if the archive cannot be read or written.
+     * @throws IllegalStateException        if no archive is attached.
+     */
+    public void restoreTask(String name) throws TaskNotFoundException, TaskAlreadyExistsException,
+            InvalidPrerequisiteException, InvalidSubtaskException, IOException {
+        BPlusTree tree = requireArchive();
+        String line = tree.get(name);
+        if (line == null) {
+            throw new TaskNotFoundException("Task with name '" + name + "' is not archived.");
+        }
+        addTask(TaskRecord.fromLine(line));
+        tree.remove(name);
+        tree.flush();
+    }
+
+    /**
+     * Returns the number of tasks in the attached archive.
+     *
+     * @return The number of archived tasks, or 0 if no archive is attached.
+     */
+    public long archivedTaskCount() {
+        return archive == null ? 0 : archive.size();
+    }
+
+    private BPlusTree requireArchive() {
+        if (archive == null) {
+            throw new IllegalStateException("No archive is attached.");
+        }
+        return archive;
+    }
+
+    // Add a task described by a record, through the same checks as a new task
+    private void addTask(TaskRecord record) throws TaskAlreadyExistsException, InvalidPrerequisiteException, InvalidSubtaskException {
+        if (record.isComposite()) {
+            addCompositeTask(record.getName(), record.getDescription(), new ArrayList<>(record.getSubtasks()));
+            return;
+        }
+        List<String> prerequisiteNames = new ArrayList<>(record.getPrerequisites());
+        if (prerequisiteNames.isEmpty()) {
+            prerequisiteNames.add(",");
+        }
+        addSimpleTask(record.getName(), record.getDescription(), String.valueOf(record.getDuration()), prerequisiteNames);
     }
 
     /**
@@ -560,6 +1727,68 @@ public class TaskManager {
     public void defineBasicCriterion(String name, String property, String op, Object value, String type) {
         Criterion newCriterion = new Criterion(property, op, value, type);
         criteriaMap.put(name, newCriterion);
+        criterionChanged(name);
+        changed();
+    }
+
+    /**
+     * Defines a basic criterion given as text, as on the console, after checking it. A duration criterion
+     * compares with one of {@code > < == >= <= !=}; a name or description criterion matches a regular
+     * expression with "matches", a name within a few edits with "~", and otherwise contains the value;
+     * a prerequisites or subtasks criterion contains the value.
+     *
+     * @param name     The name of the new criterion.
+     * @param property "name", "description", "duration", "prerequisites" or "subtasks".
+     * @param op       The operation.
+     * @param value    The value to be compared with.
+     * @throws CriterionNameNullException if the name is null or empty.
+     * @throws InvalidPropertyException   if the property, or the operation or value for it, is not valid.
+     */
+    public void defineBasicCriterion(String name, String property, String op, String value)
+            throws CriterionNameNullException, InvalidPropertyException {
+        if (name == null || name.isEmpty()) {
+            throw new CriterionNameNullException("Criterion name is invalid.");
+        }
+        if (property == null) {
+            throw new InvalidPropertyException("Invalid property.");
+        }
+        switch (property) {
+            case "duration":
+                double number;
+                try {
+                    number = Double.parseDouble(value);
+                } catch (NullPointerException | NumberFormatException e) {
+                    throw new InvalidPropertyException("The string is not a valid double.");
+                }
+                if (!Arrays.asList(">", "<", "==", ">=", "<=", "!=").contains(op)) {
+                    throw new InvalidPropertyException("The op is not a valid value.");
+                }
+                defineBasicCriterion(name, property, op, number, property);
+                return;
+            case "name":
+            case "description":
+                if (!"matches".equals(op)) {
+                    op = property.equals("name") && "~".equals(op) ? "~" : "contains";
+                }
+                if (value == null) {
+                    throw new InvalidPropertyException("Value for name or description is invalid.");
+                }
+                if (op.equals("matches")) {
+                    try {
+                        Pattern.compile(value);
+                    } catch (PatternSyntaxException e) {
+                        throw new InvalidPropertyException("Invalid regular expression.");
+                    }
+                }
+                defineBasicCriterion(name, property, op, value, property);
+                return;
+            case "prerequisites":
+            case "subtasks":
+                defineBasicCriterion(name, property, "contains", value, property);
+                return;
+            default:
+                throw new InvalidPropertyException("Invalid property.");
+        }
     }
 
     /**
@@ -608,6 +1837,8 @@ public class TaskManager {
         }
 
         criteriaMap.put(newCriterionName, negatedCriterion);
+        criterionChanged(newCriterionName);
+        changed();
     }
 
     private boolean isExistingCriterionNegated(Criterion existingCriterion) {
@@ -651,6 +1882,8 @@ public class TaskManager {
         // Create and add the binary criterion
         Criterion binaryCriterion = new Criterion(firstCriterion, logicOp, secondCriterion);
         criteriaMap.put(newCriterionName, binaryCriterion);
+        criterionChanged(newCriterionName);
+        changed();
     }
 
 
@@ -684,6 +1917,8 @@ public class TaskManager {
     public void defineIsPrimitiveCriterion() {
         Criterion isPrimitive = new Criterion("IsPrimitive", "", "", "");
         criteriaMap.put("IsPrimitive", isPrimitive);
+        criterionChanged("IsPrimitive");
+        changed();
     }
 
 
@@ -754,10 +1989,82 @@ public class TaskManager {
         }
     }
 
+    /**
+     * Takes a consistent snapshot of all tasks and criteria.
+     * <p>
+     * Only immutable records are copied, so the snapshot is cheap compared to writing it out
+     * and stays valid while the task manager keeps being changed. The snapshot also carries the
+     * derived structures (reverse prerequisite edges, subtask flags, topological order and cached
+     * earliest finish times), stamped with the current data version.
+     * </p>
+     *
+     * @return A snapshot of the current tasks and criteria.
+     */
+    public WorkspaceSnapshot snapshot() {
+        List<TaskRecord> tasks = new ArrayList<>(taskMap.size());
+        for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+            tasks.add(TaskRecord.of(entry.getKey(), entry.getValue()));
+        }
+
+        List<String> criterionLines = new ArrayList<>(criteriaMap.size());
+        for (Map.Entry<String, Criterion> entry : criteriaMap.entrySet()) {
+            String line = criterionLine(entry.getKey(), entry.getValue());
+            if (line != null) {
+                criterionLines.add(line);
+            }
+        }
+        return new WorkspaceSnapshot(version, tasks, criterionLines, derivedSections());
+    }
+
+    // Format a criterion as a line of the store file, or null if a binary criterion refers to an unnamed criterion
+    private String criterionLine(String name, Criterion criterion) {
+        switch (criterion.getType()) {
+            case "basic":
+            case "negated":
+                return String.join("%", criterion.getType(), name, criterion.getProperty(), criterion.getOperation(), String.valueOf(criterion.getValue()), criterion.getType());
+            case "binary":
+                String foundKey1 = findKeyForCriterion(criterion.getFirstCriterion());
+                String foundKey2 = findKeyForCriterion(criterion.getSecondCriterion());
+                if (foundKey1 != null && foundKey2 != null) {
+                    return String.join("%", "binary", name, foundKey1, criterion.getLogicOp(), foundKey2);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private Map<String, List<String>> derivedSections() {
+        List<String> reverse = new ArrayList<>();
+        List<String> subtasks = new ArrayList<>();
+        for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
+            Task task = entry.getValue();
+            if (task.isPrerequisite()) {
+                List<String> dependents = new ArrayList<>();
+                for (Task dependent : task.getPrerequisiteOf()) {
+                    dependents.add(dependent.getName());
+                }
+                reverse.add(entry.getKey() + "%" + dependents);
+            }
+            if (task.getIsSubtask()) {
+                subtasks.add(entry.getKey());
+            }
+        }
+        List<String> earliestFinish = new ArrayList<>();
+        earliestFinishTimes.forEach((name, time) -> earliestFinish.add(name + "%" + time));
+
+        Map<String, List<String>> sections = new LinkedHashMap<>();
+        sections.put(SECTION_REVERSE, reverse);
+        sections.put(SECTION_SUBTASKS, subtasks);
+        sections.put(SECTION_TOPOLOGICAL, new ArrayList<>(topologicalOrder()));
+        sections.put(SECTION_EARLIEST_FINISH, earliestFinish);
+        return sections;
+    }
+
     /**
      * Stores the task and criterion information into a specified file.
      * <p>
-     * This method iterates over the entries in the task map and criterion map, and writes
+     * This method takes a snapshot of the task map and criterion map, and writes
      * their details to the file specified by the parameter {@code yixincao}. The details are
      * formatted and separated by the "%" symbol. The method handles different types of criteria
      * (basic, negated, and binary) and writes them accordingly.
@@ -768,40 +2075,452 @@ public class TaskManager {
      * @author WU Qixuan
      */
     public void storing(String yixincao) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(yixincao))) {
-            for (Map.Entry<String, Task> entry : taskMap.entrySet()) {
-                Task task = entry.getValue();
-                String line = task.getIsComposite()
-                        ? String.join("%", "compositeTask", entry.getKey(), task.getDescription(), String.valueOf(task.getSubtasks()))
-                        : String.join("%", "simpletask", entry.getKey(), task.getDescription(), String.valueOf(task.getPrerequisites()), String.valueOf(task.getDuration()));
-                writer.write(line);
+        try {
+            snapshot().writeTo(yixincao);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stores the task and criterion information into a specified file in the background.
+     * <p>
+     * The snapshot is taken on the calling thread, so the stored state is the state at the time
+     * of the call. Writing happens on a background thread, one store at a time, and the file is
+     * replaced atomically once it is complete.
+     * </p>
+     *
+     * @param path The path of the file where the task and criterion information will be stored.
+     * @return A future that completes when the file has been written, or completes exceptionally
+     *         with the {@link IOException} that stopped it.
+     */
+    public CompletableFuture<Void> storingAsync(String path) {
+        WorkspaceSnapshot snapshot = snapshot();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        STORE_EXECUTOR.execute(() -> {
+            try {
+                snapshot.writeTo(path);
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the root of the content hash tree over all tasks and criteria.
+     * Two workspaces with the same root hash hold the same tasks and criteria.
+     *
+     * @return The root content hash.
+     */
+    public long contentHash() {
+        return contentHashes.rootHash();
+    }
+
+    /**
+     * Compares the tasks and criteria of this task manager with another one.
+     * Only the hash buckets that differ are compared entry by entry.
+     *
+     * @param other The task manager to compare with.
+     * @return The sorted keys ({@code task%name} or {@code criterion%name}) of the entries that differ.
+     */
+    public SortedSet<String> diff(TaskManager other) {
+        return contentHashes.diff(other.contentHashes);
+    }
+
+    /**
+     * Compares the tasks and criteria of this task manager with a stored file.
+     *
+     * @param path The path of a file written by {@link #storing(String)}.
+     * @return The sorted keys of the entries that differ.
+     * @throws IOException if the file cannot be read.
+     */
+    public SortedSet<String> diffSnapshot(String path) throws IOException {
+        return contentHashes.diff(readContentHashes(path));
+    }
+
+    /**
+     * Compares the tasks and criteria of two stored files.
+     *
+     * @param first  The path of the first stored file.
+     * @param second The path of the second stored file.
+     * @return The sorted keys of the entries that differ.
+     * @throws IOException if a file cannot be read.
+     */
+    public static SortedSet<String> diffSnapshots(String first, String second) throws IOException {
+        return readContentHashes(first).diff(readContentHashes(second));
+    }
+
+    private static ContentHashTree readContentHashes(String path) throws IOException {
+        ContentHashTree tree = new ContentHashTree();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String key = ContentHashTree.keyOfLine(line);
+                if (key != null) {
+                    tree.put(key, line);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Writes the bucket hashes of the content hash tree to a file.
+     * The file is a small summary of the workspace that another workspace can pass to
+     * {@link #exportDelta(String, String)} instead of a full stored file.
+     *
+     * @param path The path of the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void storeHashes(String path) throws IOException {
+        long[] buckets = contentHashes.bucketHashes();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            writer.write("hashes%" + buckets.length);
+            writer.newLine();
+            for (long bucket : buckets) {
+                writer.write(Long.toHexString(bucket));
                 writer.newLine();
             }
+        }
+    }
 
-            for (Map.Entry<String, Criterion> entry : criteriaMap.entrySet()) {
-                Criterion criterion = entry.getValue();
-                String line;
-                switch (criterion.getType()) {
-                    case "basic":
-                    case "negated":
-                        line = String.join("%", criterion.getType(), entry.getKey(), criterion.getProperty(), criterion.getOperation(), String.valueOf(criterion.getValue()), criterion.getType());
-                        writer.write(line);
+    /**
+     * Writes the entries that differ from a base workspace into a delta file, which
+     * {@link #applyDelta(String)} turns the base workspace into a copy of this one with.
+     * <p>
+     * The base is either a stored file or a hash summary written by {@link #storeHashes(String)}.
+     * For a stored file only the changed entries and removals are written. For a hash summary the
+     * whole content of each differing bucket is written, and the receiver drops the entries of those
+     * buckets that the delta does not contain.
+     * </p>
+     *
+     * @param basePath  The path of the stored file or hash summary of the base workspace.
+     * @param deltaPath The path of the delta file to write.
+     * @return The number of tasks and criteria written to the delta file.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public int exportDelta(String basePath, String deltaPath) throws IOException {
+        Map<String, String> lines = new HashMap<>();
+        for (TaskRecord record : snapshot().getTasks()) {
+            lines.put(ContentHashTree.taskKey(record.getName()), record.toLine());
+        }
+        for (Map.Entry<String, Criterion> entry : criteriaMap.entrySet()) {
+            String line = criterionLine(entry.getKey(), entry.getValue());
+            if (line != null) {
+                lines.put(ContentHashTree.criterionKey(entry.getKey()), line);
+            }
+        }
+
+        int written = 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(deltaPath))) {
+            writer.write("delta%1");
+            writer.newLine();
+            long[] baseBuckets = readHashSummary(basePath);
+            if (baseBuckets != null) {
+                for (int bucket : contentHashes.differingBuckets(baseBuckets)) {
+                    writer.write("bucket%" + bucket);
+                    writer.newLine();
+                    for (String key : contentHashes.keysInBucket(bucket)) {
+                        writer.write(lines.get(key));
                         writer.newLine();
+                        written++;
+                    }
+                }
+                return written;
+            }
+            ContentHashTree base = readContentHashes(basePath);
+            for (String key : contentHashes.diff(base)) {
+                writer.write(lines.containsKey(key) ? lines.get(key) : "removed%" + key);
+                writer.newLine();
+                written++;
+            }
+        }
+        return written;
+    }
+
+    // Read a hash summary, or return null if the file is not one
+    private static long[] readHashSummary(String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line = reader.readLine();
+            if (line == null || !line.equals("hashes%" + ContentHashTree.BUCKETS)) {
+                return null;
+            }
+            long[] buckets = new long[ContentHashTree.BUCKETS];
+            for (int i = 0; i < buckets.length; i++) {
+                line = reader.readLine();
+                if (line == null) {
+                    throw new EOFException("Hash summary ends after " + i + " buckets.");
+                }
+                buckets[i] = Long.parseUnsignedLong(line, 16);
+            }
+            return buckets;
+        }
+    }
+
+    /**
+     * Applies a delta file written by {@link #exportDelta(String, String)}.
+     * The changed tasks and criteria replace the current ones, and the task links are rebuilt once
+     * for the whole delta. If the resulting tasks or criteria do not refer to each other correctly,
+     * nothing is changed.
+     *
+     * @param path The path of the delta file.
+     * @throws IOException                     if the file cannot be read or is not a delta file.
+     * @throws InvalidPrerequisiteException    if a task would refer to a missing prerequisite.
+     * @throws InvalidSubtaskException         if a composite task would refer to a missing subtask.
+     * @throws CritersionNotFoundException     if a binary criterion would refer to a missing criterion.
+     * @throws CriterionNameNullException      if a criterion name is empty.
+     * @throws CriterionAlreadyExistsException if a criterion is defined twice.
+     */
+    public void applyDelta(String path) throws IOException, InvalidPrerequisiteException, InvalidSubtaskException,
+            CritersionNotFoundException, CriterionNameNullException, CriterionAlreadyExistsException {
+        Map<String, TaskRecord> tasks = new HashMap<>();
+        for (TaskRecord record : snapshot().getTasks()) {
+            tasks.put(record.getName(), record);
+        }
+        Map<String, String> criteria = new HashMap<>();
+        for (Map.Entry<String, Criterion> entry : criteriaMap.entrySet()) {
+            String line = criterionLine(entry.getKey(), entry.getValue());
+            if (line != null) {
+                criteria.put(entry.getKey(), line);
+            }
+        }
+
+        Set<Integer> replacedBuckets = new HashSet<>();
+        List<String> changedLines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line = reader.readLine();
+            if (!"delta%1".equals(line)) {
+                throw new IOException("Not a delta file: " + path);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] array = line.split("%");
+                switch (array[0]) {
+                    case "bucket":
+                        replacedBuckets.add(Integer.parseInt(array[1]));
                         break;
-                    case "binary":
-                        String foundKey1 = findKeyForCriterion(criterion.getFirstCriterion());
-                        String foundKey2 = findKeyForCriterion(criterion.getSecondCriterion());
-                        if (foundKey1 != null && foundKey2 != null) {
-                            line = String.join("%", "binary", entry.getKey(), foundKey1, criterion.getLogicOp(), foundKey2);
-                            writer.write(line);
-                            writer.newLine();
+                    case "removed":
+                        if ("task".equals(array[1])) {
+                            tasks.remove(array[2]);
+                        } else {
+                            criteria.remove(array[2]);
                         }
                         break;
+                    default:
+                        changedLines.add(line);
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+
+        if (!replacedBuckets.isEmpty()) {
+            tasks.keySet().removeIf(name -> replacedBuckets.contains(ContentHashTree.bucketOf(ContentHashTree.taskKey(name))));
+            criteria.keySet().removeIf(name -> replacedBuckets.contains(ContentHashTree.bucketOf(ContentHashTree.criterionKey(name))));
+        }
+        for (String line : changedLines) {
+            String[] array = line.split("%");
+            switch (array[0]) {
+                case "simpletask":
+                case "compositeTask":
+                    tasks.put(array[1], TaskRecord.fromLine(line));
+                    break;
+                case "basic":
+                case "negated":
+                case "binary":
+                    criteria.put(array[1], line);
+                    break;
+            }
+        }
+        rebuild(tasks.values(), criteria.values());
+    }
+
+    /**
+     * Replaces all tasks and criteria, for example by those of a snapshot of the primary of a replica.
+     *
+     * @param records        The records of all tasks.
+     * @param criterionLines The store lines of all criteria.
+     * @throws InvalidPrerequisiteException    if a task would refer to a missing prerequisite.
+     * @throws InvalidSubtaskException         if a composite task would refer to a missing subtask.
+     * @throws CritersionNotFoundException     if a binary criterion would refer to a missing criterion.
+     * @throws CriterionNameNullException      if a criterion name is empty.
+     * @throws CriterionAlreadyExistsException if a criterion is defined twice.
+     */
+    public void replaceAll(Collection<TaskRecord> records, Collection<String> criterionLines) throws InvalidPrerequisiteException,
+            InvalidSubtaskException, CritersionNotFoundException, CriterionNameNullException, CriterionAlreadyExistsException {
+        rebuild(records, criterionLines);
+    }
+
+    /**
+     * Applies changes logged by the {@link MutationLog} of another task manager, for example the primary of a replica.
+     * The tasks and criteria change together, under one new data version. If the new tasks or criteria do not
+     * refer to each other correctly, nothing is changed.
+     *
+     * @param tasks    The new records of the changed tasks by name, null for removed tasks.
+     * @param criteria The new store lines of the changed criteria by name, null for removed criteria.
+     * @throws InvalidBatchException       if a task would refer to a missing task.
+     * @throws CritersionNotFoundException if a binary criterion would refer to a missing criterion.
+     */
+    public void applyReplicated(Map<String, TaskRecord> tasks, Map<String, String> criteria) throws InvalidBatchException,
+            CritersionNotFoundException {
+        Map<String, Criterion> oldCriteria = new HashMap<>(criteriaMap);
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> entry : criteria.entrySet()) {
+            criteriaMap.remove(entry.getKey());
+            if (entry.getValue() != null) {
+                lines.add(entry.getValue());
+            }
+        }
+        beginBatch();
+        try {
+            putCriterionLines(lines);
+            commit(new LinkedHashMap<>(tasks), new ArrayList<>());
+        } catch (InvalidBatchException | CritersionNotFoundException | RuntimeException e) {
+            criteriaMap.clear();
+            criteriaMap.putAll(oldCriteria);
+            endBatch();
+            throw e;
+        }
+        for (String name : criteria.keySet()) {
+            criterionChanged(name);
+        }
+        if (!criteria.isEmpty()) {
+            changed();
+        }
+        endBatch();
+    }
+
+    /**
+     * Replaces all tasks and criteria by the given records and criterion lines.
+     * The new task links are built and checked before anything is replaced.
+     *
+     * @param records        The records of all tasks.
+     * @param criterionLines The store lines of all criteria.
+     */
+    private void rebuild(Collection<TaskRecord> records, Collection<String> criterionLines) throws InvalidPrerequisiteException,
+            InvalidSubtaskException, CritersionNotFoundException, CriterionNameNullException, CriterionAlreadyExistsException {
+        Map<String, Task> tasks = linkRecords(records);
+
+        Map<String, Criterion> oldCriteria = new HashMap<>(criteriaMap);
+        criteriaMap.clear();
+        try {
+            putCriterionLines(criterionLines);
+        } catch (CritersionNotFoundException | RuntimeException e) {
+            criteriaMap.clear();
+            criteriaMap.putAll(oldCriteria);
+            throw e;
+        }
+
+        Set<String> oldTasks = new HashSet<>(taskMap.keySet());
+        taskMap.clear();
+        taskMap.putAll(tasks);
+        oldTasks.addAll(taskMap.keySet());
+        for (String name : oldTasks) {
+            taskChanged(name);
+        }
+        oldCriteria.keySet().removeAll(criteriaMap.keySet());
+        for (String name : oldCriteria.keySet()) {
+            criterionChanged(name);
+        }
+        for (String name : criteriaMap.keySet()) {
+            criterionChanged(name);
+        }
+        changed();
+    }
+
+    // Adds criteria from store lines. Binary criteria may refer to each other, or to criteria defined earlier.
+    private void putCriterionLines(Collection<String> criterionLines) throws CritersionNotFoundException {
+        List<String[]> binaryCriteria = new ArrayList<>();
+        for (String line : criterionLines) {
+            String[] array = line.split("%");
+            switch (array[0]) {
+                case "binary":
+                    binaryCriteria.add(array);
+                    break;
+                case "basic":
+                    if ("IsPrimitive".equals(array[1])) {
+                        criteriaMap.put("IsPrimitive", new Criterion("IsPrimitive", "", "", ""));
+                    } else {
+                        criteriaMap.put(array[1], new Criterion(array[2], array[3], criterionValue(array), array[2]));
+                    }
+                    break;
+                case "negated":
+                    Criterion negated = new Criterion(array[2], array[3], criterionValue(array), array[2]);
+                    negated.setType("negated");
+                    criteriaMap.put(array[1], negated);
+                    break;
+            }
+        }
+        // binary criteria may refer to each other, so add them once both sides exist
+        boolean progress = true;
+        while (!binaryCriteria.isEmpty() && progress) {
+            progress = binaryCriteria.removeIf(array -> {
+                Criterion first = criteriaMap.get(array[2]);
+                Criterion second = criteriaMap.get(array[4]);
+                if (first == null || second == null) {
+                    return false;
+                }
+                criteriaMap.put(array[1], new Criterion(first, array[3], second));
+                return true;
+            });
+        }
+        if (!binaryCriteria.isEmpty()) {
+            throw new CritersionNotFoundException("Criterion referred to by '" + binaryCriteria.get(0)[1] + "' does not exist.");
+        }
+    }
+
+    // Duration criteria keep their value as a number, like the ones defined through TMS
+    private static Object criterionValue(String[] array) {
+        return "duration".equals(array[2]) ? Double.valueOf(array[4]) : array[4];
+    }
+
+    /**
+     * Creates linked task objects for a set of records, with reverse edges and subtask flags set.
+     *
+     * @param records The records of the tasks.
+     * @return The new tasks by name.
+     * @throws InvalidPrerequisiteException if a record refers to a prerequisite that is not among the records.
+     * @throws InvalidSubtaskException      if a record refers to a subtask that is not among the records.
+     */
+    Map<String, Task> linkRecords(Collection<TaskRecord> records) throws InvalidPrerequisiteException, InvalidSubtaskException {
+        Map<String, Task> tasks = new HashMap<>();
+        for (TaskRecord record : records) {
+            Task task;
+            if (record.isComposite()) {
+                task = new CompositeTasks(record.getName(), record.getDescription(), Collections.emptyList());
+                task.setIsComposite(true);
+            } else {
+                task = new SimpleTask(record.getName(), record.getDescription(), record.getDuration(), Collections.emptyList());
+            }
+            tasks.put(record.getName(), task);
+        }
+        for (TaskRecord record : records) {
+            Task task = tasks.get(record.getName());
+            List<Task> linked = new ArrayList<>();
+            if (record.isComposite()) {
+                for (String name : record.getSubtasks()) {
+                    Task subtask = tasks.get(name);
+                    if (subtask == null) {
+                        throw new InvalidSubtaskException("Task '" + name + "' does not exist.");
+                    }
+                    subtask.setIsSubtask(true);
+                    linked.add(subtask);
+                }
+                task.setSubtasks(linked);
+            } else {
+                for (String name : record.getPrerequisites()) {
+                    Task prerequisite = tasks.get(name);
+                    if (prerequisite == null) {
+                        throw new InvalidPrerequisiteException("Task '" + name + "' does not exist.");
+                    }
+                    if (prerequisite.getPrerequisiteOf() != null) {
+                        prerequisite.getPrerequisiteOf().add(task);
+                    }
+                    linked.add(prerequisite);
+                }
+                task.setPrerequisites(linked);
+            }
+        }
+        return tasks;
     }
 
     /**
@@ -840,7 +2559,7 @@ public class TaskManager {
      * @return A List containing the items from the input string. Returns an empty list if the input is "[]".
      * @author WU Qixuan
      */
-    private static List<String> convertStringToList(String input) {
+    static List<String> convertStringToList(String input) {
         if ("[]".equals(input)) {
             return new ArrayList<>();
         }
@@ -858,6 +2577,12 @@ public class TaskManager {
      * to identify the type of data (task or criterion) and processes it accordingly. Binary criteria and composite
      * tasks are stored temporarily and processed after initial parsing.
      * </p>
+     * <p>
+     * If the task manager holds no tasks yet and the file carries derived sections whose stamps match the
+     * file's data version, its task lines and their own lines, the tasks are linked directly and the stored
+     * reverse edges, subtask flags, topological order and earliest finish times are used as they are.
+     * Otherwise, or if the tasks and sections do not fit together, the tasks are added one by one.
+     * </p>
      *
      * @param cyx The path of the file from which to load the data.
      * @throws IOException If an I/O error occurs while reading from the file.
@@ -871,13 +2596,44 @@ public class TaskManager {
      */
     public void loading(String cyx) throws IOException, InvalidPrerequisiteException, InvalidSubtaskException, TaskAlreadyExistsException,
             CriterionNameNullException, CriterionAlreadyExistsException, CritersionNotFoundException {
+        loading(cyx, progress -> { });
+    }
+
+    /**
+     * Loads tasks and criteria from a file like {@link #loading(String)}, and reports how much of the file
+     * has been read.
+     *
+     * @param cyx      The path of the file from which to load the data.
+     * @param progress Told the part of the file read so far, from 0 to 1, in steps of about one percent.
+     * @throws IOException If an I/O error occurs while reading from the file.
+     * @throws InvalidPrerequisiteException If prerequisites for any task are invalid.
+     * @throws InvalidSubtaskException If subtasks for any composite task are invalid.
+     * @throws TaskAlreadyExistsException If a task being added already exists.
+     * @throws CriterionNameNullException If a criterion name is null or empty.
+     * @throws CriterionAlreadyExistsException If a criterion being added already exists.
+     * @throws CritersionNotFoundException If a specified criterion for binary criteria is not found.
+     */
+    public void loading(String cyx, DoubleConsumer progress) throws IOException, InvalidPrerequisiteException, InvalidSubtaskException,
+            TaskAlreadyExistsException, CriterionNameNullException, CriterionAlreadyExistsException, CritersionNotFoundException {
+        double fileLength = Math.max(new File(cyx).length(), 1);
+        long read = 0;
+        long nextReport = 0;
         try (BufferedReader reader = new BufferedReader(new FileReader(cyx))) {
             String line;
             List<String[]> binaryCriteria = new ArrayList<>();
+            List<String[]> simpleTasks = new ArrayList<>();
             List<String[]> compositeTasks = new ArrayList<>();
-            List<String> prerequisiteNames;
+            List<String> taskLines = new ArrayList<>();
+            Map<String, String> sectionStamps = new HashMap<>();
+            Map<String, List<String>> sections = new HashMap<>();
+            long fileVersion = -1;
 
             while ((line = reader.readLine()) != null) {
+                read += line.length() + 1;
+                if (read >= nextReport) {
+                    progress.accept(Math.min(read / fileLength, 1.0));
+                    nextReport = read + (long) (fileLength / 100) + 1;
+                }
                 String[] array = line.split("%");
                 switch (array[0]) {
                     case "binary":
@@ -885,13 +2641,11 @@ public class TaskManager {
                         break;
                     case "compositeTask":
                         compositeTasks.add(array);
+                        taskLines.add(line);
                         break;
                     case "simpletask":
-                        prerequisiteNames = convertStringToList(array[3]);
-                        if(prerequisiteNames.isEmpty()){
-                            prerequisiteNames.add(",");
-                        }
-                        addSimpleTask(array[1], array[2], array[4], prerequisiteNames);
+                        simpleTasks.add(array);
+                        taskLines.add(line);
                         break;
                     case "basic":
                         if ("IsPrimitive".equals(array[1])) {
@@ -903,15 +2657,164 @@ public class TaskManager {
                     case "negated":
                         defineBasicCriterion(array[1], array[2], array[3], array[4], array[5]);
                         criteriaMap.get(array[1]).setType("negated");
+                        criterionChanged(array[1]);
+                        break;
+                    case "version":
+                        fileVersion = Long.parseLong(array[1]);
+                        break;
+                    case "section":
+                        sectionStamps.put(array[1], line.substring(array[0].length() + array[1].length() + 2));
+                        sections.put(array[1], new ArrayList<>());
+                        break;
+                    case "index":
+                        if (sections.containsKey(array[1])) {
+                            sections.get(array[1]).add(line.substring(array[0].length() + array[1].length() + 2));
+                        }
                         break;
                 }
             }
 
             processBinaryCriteria(binaryCriteria);
+            if (taskMap.isEmpty() && fileVersion >= 0 && isCurrent(sectionStamps, sections, fileVersion, taskLines,
+                    SECTION_REVERSE, SECTION_SUBTASKS, SECTION_TOPOLOGICAL)) {
+                if (!isCurrent(sectionStamps, sections, fileVersion, taskLines, SECTION_EARLIEST_FINISH)) {
+                    sections.remove(SECTION_EARLIEST_FINISH);
+                }
+                if (linkLoadedTasks(simpleTasks, compositeTasks, sections)) {
+                    return;
+                }
+            }
+            for (String[] array : simpleTasks) {
+                List<String> prerequisiteNames = convertStringToList(array[3]);
+                if (prerequisiteNames.isEmpty()) {
+                    prerequisiteNames.add(",");
+                }
+                addSimpleTask(array[1], array[2], array[4], prerequisiteNames);
+            }
             processCompositeTasks(compositeTasks);
         }
     }
 
+    // Whether the sections were derived from these task lines at this version and arrived whole
+    private static boolean isCurrent(Map<String, String> sectionStamps, Map<String, List<String>> sections, long fileVersion,
+                                     List<String> taskLines, String... names) {
+        for (String name : names) {
+            List<String> lines = sections.get(name);
+            if (lines == null || !WorkspaceSnapshot.sectionStamp(fileVersion, taskLines, lines).equals(sectionStamps.get(name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds loaded tasks by linking them directly, taking the derived structures from the stored sections
+     * instead of rebuilding them task by task.
+     * <p>
+     * The tasks are linked apart from the task map, which is only changed once every task line and section
+     * has been read and every name they refer to has been found.
+     * </p>
+     *
+     * @param simpleTasks    The "%" separated fields of each simple task.
+     * @param compositeTasks The "%" separated fields of each composite task.
+     * @param sections       The lines of each derived section, by section name.
+     * @return whether the tasks were added; if not, the task manager is unchanged.
+     */
+    private boolean linkLoadedTasks(List<String[]> simpleTasks, List<String[]> compositeTasks, Map<String, List<String>> sections) {
+        Map<String, Task> loaded = new LinkedHashMap<>();
+        for (String[] array : simpleTasks) {
+            if (array.length < 5 || loaded.containsKey(array[1])) {
+                return false;
+            }
+            double duration;
+            try {
+                duration = Double.parseDouble(array[4]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            loaded.put(array[1], new SimpleTask(array[1], array[2], duration, Collections.emptyList()));
+        }
+        for (String[] array : compositeTasks) {
+            if (array.length < 4 || loaded.containsKey(array[1])) {
+                return false;
+            }
+            CompositeTasks compositeTask = new CompositeTasks(array[1], array[2], Collections.emptyList());
+            compositeTask.setIsComposite(true);
+            loaded.put(array[1], compositeTask);
+        }
+
+        for (String[] array : simpleTasks) {
+            List<String> prerequisiteNames = convertStringToList(array[3]);
+            if (!prerequisiteNames.isEmpty()) {
+                List<Task> prerequisites = findLoaded(loaded, prerequisiteNames);
+                if (prerequisites == null) {
+                    return false;
+                }
+                loaded.get(array[1]).setPrerequisites(prerequisites);
+            }
+        }
+        for (String[] array : compositeTasks) {
+            List<Task> subtasks = findLoaded(loaded, convertStringToList(array[3]));
+            if (subtasks == null) {
+                return false;
+            }
+            loaded.get(array[1]).setSubtasks(subtasks);
+        }
+        for (String entry : sections.get(SECTION_REVERSE)) {
+            String[] array = entry.split("%");
+            Task prerequisite = loaded.get(array[0]);
+            List<Task> dependents = array.length == 2 ? findLoaded(loaded, convertStringToList(array[1])) : null;
+            if (prerequisite == null || dependents == null) {
+                return false;
+            }
+            if (prerequisite.getPrerequisiteOf() != null) {
+                prerequisite.getPrerequisiteOf().addAll(dependents);
+            }
+        }
+        List<Task> subtasks = findLoaded(loaded, sections.get(SECTION_SUBTASKS));
+        List<String> order = sections.get(SECTION_TOPOLOGICAL);
+        if (subtasks == null || order.size() != loaded.size() || !loaded.keySet().containsAll(order)) {
+            return false;
+        }
+        Map<String, Double> finishTimes = new HashMap<>();
+        for (String entry : sections.getOrDefault(SECTION_EARLIEST_FINISH, Collections.emptyList())) {
+            String[] array = entry.split("%");
+            try {
+                if (array.length != 2 || !loaded.containsKey(array[0])) {
+                    return false;
+                }
+                finishTimes.put(array[0], Double.parseDouble(array[1]));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        for (Task subtask : subtasks) {
+            subtask.setIsSubtask(true);
+        }
+        taskMap.putAll(loaded);
+        for (String name : taskMap.keySet()) {
+            taskChanged(name);
+        }
+        changed();
+        topologicalOrder = Collections.unmodifiableList(new ArrayList<>(order));
+        earliestFinishTimes.putAll(finishTimes);
+        return true;
+    }
+
+    // The loaded tasks with the given names, or null if one of them is not loaded
+    private static List<Task> findLoaded(Map<String, Task> loaded, List<String> names) {
+        List<Task> tasks = new ArrayList<>(names.size());
+        for (String name : names) {
+            Task task = loaded.get(name);
+            if (task == null) {
+                return null;
+            }
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
     /**
      * Processes a list of binary criteria specifications.
      * <p>
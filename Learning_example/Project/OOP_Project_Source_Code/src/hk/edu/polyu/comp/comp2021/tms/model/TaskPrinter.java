@@ -0,0 +1,126 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.TaskNotFoundException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The TaskPrinter class writes the details of tasks and of the tasks they depend on, in the layout of
+ * {@link TaskManager#printTask(String)}, straight to an {@link Appendable}.
+ * <p>
+ * Unlike {@code printTask}, a task the printer has already expanded is not expanded again; it is written as
+ * "Name: X (see above)", so a task shared by many others costs one line per use instead of its whole tree.
+ * Below the depth limit the tasks are only named, as "Name: X (...)". One printer remembers the tasks it has
+ * expanded over several calls of {@link #print(String)}. The tree is walked without recursion, so long
+ * chains of prerequisites do not overflow the stack.
+ * </p>
+ */
+class TaskPrinter {
+    private static final String INDENT = "    ";
+
+    private final Function<String, Task> tasks;
+    private final Appendable out;
+    private final int maxDepth;
+    private final Set<String> expanded = new HashSet<>();
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    // A task whose dependencies are being written
+    private static final class Frame {
+        private final List<String> children;
+        private final int depth;
+        private int next;
+
+        private Frame(List<String> children, int depth) {
+            this.children = children;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Constructs a printer.
+     *
+     * @param tasks    Finds a task by name, or returns null.
+     * @param out      The output.
+     * @param maxDepth The depth below which tasks are only named; 0 expands only the printed task itself.
+     */
+    TaskPrinter(Function<String, Task> tasks, Appendable out, int maxDepth) {
+        this.tasks = tasks;
+        this.out = out;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Writes the details of a task and of the tasks it depends on.
+     *
+     * @param name The name of the task.
+     * @throws TaskNotFoundException if the task, or a task it depends on, does not exist.
+     * @throws IOException           if the output fails.
+     */
+    void print(String name) throws TaskNotFoundException, IOException {
+        open(find(name), 0);
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.next == frame.children.size()) {
+                stack.pop();
+                continue;
+            }
+            String childName = frame.children.get(frame.next++);
+            indent(frame.depth).append(Integer.toString(frame.next)).append(".\n");
+            Task child = find(childName);
+            if (expanded.contains(childName)) {
+                indent(frame.depth + 1).append("Name: ").append(childName).append(" (see above)\n");
+            } else {
+                open(child, frame.depth + 1);
+            }
+        }
+    }
+
+    // Writes the details of a task, and starts on its dependencies unless they are past the depth limit
+    private void open(Task task, int depth) throws IOException {
+        List<String> children;
+        indent(depth).append("Name: ").append(task.getName()).append('\n');
+        if (task.getIsComposite()) {
+            children = task.getSubtasks();
+            indent(depth).append("Type: composite task\n");
+            indent(depth).append("Description: ").append(task.getDescription()).append('\n');
+            indent(depth).append("Subtask: Exist ").append(Integer.toString(children.size())).append(" subtasks.\n");
+        } else {
+            children = task.getPrerequisites();
+            indent(depth).append("Type: simple task\n");
+            indent(depth).append("Description: ").append(task.getDescription()).append('\n');
+            indent(depth).append("Duration: ").append(Double.toString(task.getDuration())).append('\n');
+            indent(depth).append("Prerequisites: Exist ").append(Integer.toString(children.size())).append(" prerequisites.\n");
+        }
+        if (depth < maxDepth || children.isEmpty()) {
+            expanded.add(task.getName());
+            stack.push(new Frame(children, depth));
+            return;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            indent(depth).append(Integer.toString(i + 1)).append(".\n");
+            indent(depth + 1).append("Name: ").append(children.get(i)).append(" (...)\n");
+        }
+    }
+
+    private Task find(String name) throws TaskNotFoundException {
+        Task task = tasks.apply(name);
+        if (task == null) {
+            throw new TaskNotFoundException("Task with name '" + name + "' does not exist.");
+        }
+        TaskManager.checkInterrupted();
+        return task;
+    }
+
+    private Appendable indent(int depth) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.append(INDENT);
+        }
+        return out;
+    }
+}
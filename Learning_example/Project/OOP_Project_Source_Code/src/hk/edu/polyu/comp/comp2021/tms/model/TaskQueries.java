@@ -0,0 +1,58 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TaskQueries interface lists the reports that can be run both on the live {@link TaskManager}
+ * and on a pinned {@link WorkspaceVersion}.
+ */
+public interface TaskQueries {
+    /**
+     * Prints the details of a specific task.
+     *
+     * @param name The name of the task to be printed.
+     * @return A list of strings representing the details of the task.
+     * @throws TaskNotFoundException if the task with the specified name does not exist.
+     */
+    List<String> printTask(String name) throws TaskNotFoundException;
+
+    /**
+     * Prints the details of all tasks.
+     *
+     * @return A map from task name to the details of the task.
+     * @throws TaskMapIsEmpty        if there are no tasks.
+     * @throws TaskNotFoundException if a task referenced during the operation cannot be found.
+     */
+    Map<String, List<String>> printAllTasks() throws TaskMapIsEmpty, TaskNotFoundException;
+
+    /**
+     * Searches for tasks that meet a criterion.
+     *
+     * @param criterion The name of the criterion.
+     * @return The names of the matching tasks separated by spaces, or "No task found".
+     * @throws CritersionNotFoundException if the criterion does not exist.
+     */
+    String search(String criterion) throws CritersionNotFoundException;
+
+    /**
+     * Searches for tasks that meet a criterion and returns their names.
+     *
+     * @param criterion The name of the criterion.
+     * @return The distinct names of the matching tasks.
+     * @throws CritersionNotFoundException if the criterion does not exist.
+     */
+    List<String> searchNames(String criterion) throws CritersionNotFoundException;
+
+    /**
+     * Reports the earliest finish time of a task.
+     *
+     * @param name The name of the task.
+     * @return The earliest finish time of the task.
+     * @throws TaskNotFoundException        if the task does not exist.
+     * @throws InvalidPrerequisiteException if any prerequisite is invalid.
+     */
+    double ReportEarliestFinishTime(String name) throws TaskNotFoundException, InvalidPrerequisiteException;
+}
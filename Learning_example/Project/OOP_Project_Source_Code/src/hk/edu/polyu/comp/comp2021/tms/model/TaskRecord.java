@@ -0,0 +1,150 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.*;
+
+/**
+ * The TaskRecord class is an immutable copy of the stored state of one task.
+ * Records refer to other tasks by name only, so they can be kept, shared and written
+ * out after the live {@link Task} objects have changed.
+ */
+public final class TaskRecord {
+    private final String name;
+    private final String description;
+    private final double duration;
+    private final boolean composite;
+    private final List<String> prerequisites;
+    private final List<String> subtasks;
+
+    /**
+     * Constructs a task record.
+     *
+     * @param name          The name the task is stored under.
+     * @param description   The description of the task.
+     * @param duration      The duration of the task.
+     * @param composite     true if the task is a composite task.
+     * @param prerequisites The names of the prerequisites of the task.
+     * @param subtasks      The names of the subtasks of the task.
+     */
+    public TaskRecord(String name, String description, double duration, boolean composite,
+                      List<String> prerequisites, List<String> subtasks) {
+        this.name = name;
+        this.description = description;
+        this.duration = duration;
+        this.composite = composite;
+        this.prerequisites = Collections.unmodifiableList(new ArrayList<>(prerequisites));
+        this.subtasks = Collections.unmodifiableList(new ArrayList<>(subtasks));
+    }
+
+    /**
+     * Takes a record of a live task.
+     *
+     * @param key  The name the task is stored under in the task map.
+     * @param task The task to copy.
+     * @return A record holding the current state of the task.
+     */
+    public static TaskRecord of(String key, Task task) {
+        List<String> subtasks = task.getSubtasks();
+        return new TaskRecord(key, task.getDescription(), task.getDuration(), task.getIsComposite(),
+                task.getPrerequisites(), subtasks == null ? Collections.emptyList() : subtasks);
+    }
+
+    /**
+     * Parses one task line of the "%" separated store file.
+     *
+     * @param line A line written by {@link #toLine()}.
+     * @return The record described by the line.
+     * @throws IllegalArgumentException if the line is not a task line.
+     */
+    public static TaskRecord fromLine(String line) {
+        String[] array = line.split("%");
+        switch (array[0]) {
+            case "simpletask":
+                return new TaskRecord(array[1], array[2], Double.parseDouble(array[4]), false,
+                        TaskManager.convertStringToList(array[3]), Collections.emptyList());
+            case "compositeTask":
+                return new TaskRecord(array[1], array[2], 0, true,
+                        Collections.emptyList(), TaskManager.convertStringToList(array[3]));
+            default:
+                throw new IllegalArgumentException("Not a task line: " + line);
+        }
+    }
+
+    /**
+     * Get the name of the task
+     * @return name of the task
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the description of the task
+     * @return description of the task
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Get the duration of the task
+     * @return duration of the task
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Check if the task is a composite task
+     * @return true if the task is a composite task
+     */
+    public boolean isComposite() {
+        return composite;
+    }
+
+    /**
+     * Get the names of the prerequisites of the task
+     * @return unmodifiable list of prerequisite names
+     */
+    public List<String> getPrerequisites() {
+        return prerequisites;
+    }
+
+    /**
+     * Get the names of the subtasks of the task
+     * @return unmodifiable list of subtask names
+     */
+    public List<String> getSubtasks() {
+        return subtasks;
+    }
+
+    /**
+     * Formats the record as one line of the "%" separated store file.
+     *
+     * @return The line written by {@link TaskManager#storing(String)} for this task.
+     */
+    public String toLine() {
+        return composite
+                ? String.join("%", "compositeTask", name, description, String.valueOf(subtasks))
+                : String.join("%", "simpletask", name, description, String.valueOf(prerequisites), String.valueOf(duration));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TaskRecord)) return false;
+        TaskRecord that = (TaskRecord) o;
+        return Double.compare(that.duration, duration) == 0 && composite == that.composite
+                && name.equals(that.name) && Objects.equals(description, that.description)
+                && prerequisites.equals(that.prerequisites) && subtasks.equals(that.subtasks);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, description, duration, composite, prerequisites, subtasks);
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
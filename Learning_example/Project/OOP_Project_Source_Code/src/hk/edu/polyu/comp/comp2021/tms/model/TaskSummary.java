@@ -0,0 +1,59 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.util.List;
+
+/**
+ * The TaskSummary class is an immutable view of one task together with the figures computed for it,
+ * so that a view can show a task without asking for its details one by one.
+ */
+public final class TaskSummary {
+    private final TaskRecord record;
+    private final double totalDuration;
+    private final double earliestFinishTime;
+
+    /**
+     * Constructs a task summary.
+     *
+     * @param record             The state of the task.
+     * @param totalDuration      The duration of the task with its subtasks, or NaN if it cannot be computed.
+     * @param earliestFinishTime The earliest finish time of the task, or NaN if it cannot be computed.
+     */
+    public TaskSummary(TaskRecord record, double totalDuration, double earliestFinishTime) {
+        this.record = record;
+        this.totalDuration = totalDuration;
+        this.earliestFinishTime = earliestFinishTime;
+    }
+
+    /**
+     * Get the state of the task
+     * @return record of the task
+     */
+    public TaskRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Get the duration of the task with its subtasks, as reported by {@link TaskManager#ReportDuration(String)}
+     * @return duration of the task, or NaN if a subtask or prerequisite is invalid
+     */
+    public double getTotalDuration() {
+        return totalDuration;
+    }
+
+    /**
+     * Get the earliest finish time of the task
+     * @return earliest finish time of the task, or NaN if a subtask or prerequisite is invalid
+     */
+    public double getEarliestFinishTime() {
+        return earliestFinishTime;
+    }
+
+    /**
+     * Get the names of the tasks shown under this task: the subtasks of a composite task,
+     * or the prerequisites of a simple task
+     * @return unmodifiable list of task names
+     */
+    public List<String> getChildren() {
+        return record.isComposite() ? record.getSubtasks() : record.getPrerequisites();
+    }
+}
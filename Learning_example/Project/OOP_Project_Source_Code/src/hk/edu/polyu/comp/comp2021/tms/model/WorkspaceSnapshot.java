@@ -0,0 +1,172 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * The WorkspaceSnapshot class holds a consistent, read-only copy of the tasks and criteria
+ * of a {@link TaskManager} at one point in time.
+ * <p>
+ * A snapshot only holds immutable {@link TaskRecord}s and criterion lines, so it can be
+ * written to disk on another thread while the task manager keeps changing.
+ * </p>
+ * <p>
+ * Besides the tasks and criteria, a snapshot carries named sections of derived data, such as
+ * reverse prerequisite edges and cached schedule values. Each section is stamped with the data
+ * version it was built from and with checksums of the task lines and of its own lines, so a loader
+ * can tell whether it still matches the tasks and was not damaged.
+ * </p>
+ */
+public final class WorkspaceSnapshot {
+    private final long version;
+    private final List<TaskRecord> tasks;
+    private final List<String> criterionLines;
+    private final Map<String, List<String>> sections;
+
+    /**
+     * Constructs a snapshot.
+     *
+     * @param version        The data version of the task manager when the snapshot was taken.
+     * @param tasks          The records of all tasks, in store order.
+     * @param criterionLines The "%" separated lines of all criteria, in store order.
+     * @param sections       The lines of each derived section, by section name.
+     */
+    WorkspaceSnapshot(long version, List<TaskRecord> tasks, List<String> criterionLines, Map<String, List<String>> sections) {
+        this.version = version;
+        this.tasks = Collections.unmodifiableList(tasks);
+        this.criterionLines = Collections.unmodifiableList(criterionLines);
+        this.sections = Collections.unmodifiableMap(new LinkedHashMap<>(sections));
+    }
+
+    /**
+     * Get the data version the snapshot was taken at
+     * @return data version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the task records of the snapshot
+     * @return unmodifiable list of task records
+     */
+    public List<TaskRecord> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Get the criterion lines of the snapshot
+     * @return unmodifiable list of criterion lines
+     */
+    public List<String> getCriterionLines() {
+        return criterionLines;
+    }
+
+    /**
+     * Get the derived sections of the snapshot
+     * @return unmodifiable map from section name to its lines
+     */
+    public Map<String, List<String>> getSections() {
+        return sections;
+    }
+
+    /**
+     * Writes the snapshot in the "%" separated store format.
+     * <p>
+     * The file starts with a {@code version} line, followed by the task and criterion lines.
+     * Each derived section follows as a {@code section%name%stamp} line, with the stamp made by
+     * {@link #sectionStamp}, and one {@code index%name%...} line per entry; older loaders skip these lines.
+     * </p>
+     * <p>
+     * The lines are first written to a temporary file next to {@code path}, which is then
+     * renamed over the target, so readers never see a half written file. The temporary file
+     * takes the permissions of the file it replaces, or the default ones of a new file.
+     * </p>
+     *
+     * @param path The path of the file to write.
+     * @throws IOException if the file cannot be written or renamed.
+     */
+    public void writeTo(String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = createTemp(target);
+        try {
+            PosixFileAttributeView permissions = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+            if (permissions != null && Files.exists(target)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, Charset.defaultCharset())) {
+                writer.write("version%" + version);
+                writer.newLine();
+                List<String> taskLines = new ArrayList<>(tasks.size());
+                for (TaskRecord task : tasks) {
+                    TaskManager.checkInterrupted();
+                    String line = task.toLine();
+                    taskLines.add(line);
+                    writer.write(line);
+                    writer.newLine();
+                }
+                for (String line : criterionLines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                for (Map.Entry<String, List<String>> section : sections.entrySet()) {
+                    writer.write(String.join("%", "section", section.getKey(), sectionStamp(version, taskLines, section.getValue())));
+                    writer.newLine();
+                    for (String line : section.getValue()) {
+                        writer.write(String.join("%", "index", section.getKey(), line));
+                        writer.newLine();
+                    }
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Makes the stamp of a derived section: the data version, a checksum of the task lines and a checksum
+     * of the lines of the section, separated by "%".
+     *
+     * @param version      The data version the section was derived at.
+     * @param taskLines    The task lines of the file, in file order.
+     * @param sectionLines The lines of the section, without their {@code index%name%} start.
+     * @return the stamp
+     */
+    static String sectionStamp(long version, List<String> taskLines, List<String> sectionLines) {
+        return version + "%" + checksum(taskLines) + "%" + checksum(sectionLines);
+    }
+
+    private static long checksum(List<String> lines) {
+        CRC32 crc = new CRC32();
+        for (String line : lines) {
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+
+    // A new empty file next to the target. Unlike Files.createTempFile, which makes the file readable by its
+    // owner only, it gets the default permissions of a new file.
+    private static Path createTemp(Path target) throws IOException {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                return Files.createFile(target.resolveSibling(target.getFileName() + "." + suffix + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // another writer took the name; draw another
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.*;
+
+import java.util.*;
+
+/**
+ * The WorkspaceVersion class is a pinned, immutable version of the tasks and criteria of a {@link TaskManager}.
+ * <p>
+ * Pinning a version costs nothing: the version shares its persistent maps with the task manager, which
+ * keeps updating its own copies of them. Reports on a pinned version always see the same state and need
+ * no lock, so they never hold up changes made in the meantime.
+ * </p>
+ * <p>
+ * The first report that needs all tasks links them, with the criteria, into a task manager that is kept
+ * for the later reports on the same version, which the task manager hands out until its next change.
+ * Reports on one task link only the tasks it reaches, unless that task manager has been built already.
+ * </p>
+ */
+public final class WorkspaceVersion implements TaskQueries {
+    private final long version;
+    private final PersistentHashMap<String, TaskRecord> tasks;
+    private final PersistentHashMap<String, Criterion> criteria;
+    // All tasks and criteria of this version, linked by the first report that needs them
+    private volatile TaskManager view;
+
+    WorkspaceVersion(long version, PersistentHashMap<String, TaskRecord> tasks, PersistentHashMap<String, Criterion> criteria) {
+        this.version = version;
+        this.tasks = tasks;
+        this.criteria = criteria;
+    }
+
+    /**
+     * Get the data version this view was pinned at
+     * @return the data version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of tasks
+     * @return number of tasks
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Get a task of this version
+     * @param name the name of the task
+     * @return the task record, or null if the task does not exist in this version
+     */
+    public TaskRecord getTask(String name) {
+        return tasks.get(name);
+    }
+
+    /**
+     * Prints the details of a task in this version.
+     *
+     * @param name The name of the task to be printed.
+     * @return A list of strings representing the details of the task.
+     * @throws TaskNotFoundException if the task does not exist in this version.
+     */
+    public List<String> printTask(String name) throws TaskNotFoundException {
+        return reaching(name).printTask(name);
+    }
+
+    /**
+     * Prints the details of all tasks in this version.
+     *
+     * @return A map from task name to the details of the task.
+     * @throws TaskMapIsEmpty        if there are no tasks in this version.
+     * @throws TaskNotFoundException if a task referenced during the operation cannot be found.
+     */
+    public Map<String, List<String>> printAllTasks() throws TaskMapIsEmpty, TaskNotFoundException {
+        return all().printAllTasks();
+    }
+
+    /**
+     * Searches the tasks of this version with a criterion of this version.
+     *
+     * @param criterion The name of the criterion.
+     * @return The names of the matching tasks separated by spaces, or "No task found".
+     * @throws CritersionNotFoundException if the criterion does not exist in this version.
+     */
+    public String search(String criterion) throws CritersionNotFoundException {
+        checkCriterion(criterion);
+        return all().search(criterion);
+    }
+
+    /**
+     * Searches the tasks of this version with a criterion of this version and returns their names.
+     *
+     * @param criterion The name of the criterion.
+     * @return The distinct names of the matching tasks.
+     * @throws CritersionNotFoundException if the criterion does not exist in this version.
+     */
+    public List<String> searchNames(String criterion) throws CritersionNotFoundException {
+        checkCriterion(criterion);
+        return all().searchNames(criterion);
+    }
+
+    private void checkCriterion(String criterion) throws CritersionNotFoundException {
+        if (!criteria.containsKey(criterion)) {
+            throw new CritersionNotFoundException("");
+        }
+    }
+
+    /**
+     * Reports the earliest finish time of a task in this version.
+     *
+     * @param name The name of the task.
+     * @return The earliest finish time of the task.
+     * @throws TaskNotFoundException        if the task does not exist in this version.
+     * @throws InvalidPrerequisiteException if any prerequisite is invalid.
+     */
+    public double ReportEarliestFinishTime(String name) throws TaskNotFoundException, InvalidPrerequisiteException {
+        return reaching(name).ReportEarliestFinishTime(name);
+    }
+
+    private TaskManager reaching(String name) {
+        TaskManager built = view;
+        return built != null ? built : TaskManager.materialize(tasks::get, Collections.singleton(name));
+    }
+
+    private TaskManager all() {
+        TaskManager built = view;
+        if (built == null) {
+            synchronized (this) {
+                built = view;
+                if (built == null) {
+                    List<String> names = new ArrayList<>(tasks.size());
+                    tasks.forEach((name, record) -> names.add(name));
+                    built = TaskManager.materialize(tasks::get, names);
+                    criteria.forEach(built::putCriterion);
+                    view = built;
+                }
+            }
+        }
+        return built;
+    }
+}
@@ -0,0 +1,32 @@
+package hk.edu.polyu.comp.comp2021.tms.model.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The InvalidBatchException is a custom exception used in the Task Management System (TMS).
+ * This exception is thrown when a batch of task changes fails validation. None of the changes
+ * of the batch are applied, and every problem found is listed, not only the first one.
+ */
+public class InvalidBatchException extends Exception {
+    private final List<String> errors;
+
+    /**
+     * Constructs a new InvalidBatchException listing the problems found in a batch.
+     *
+     * @param errors The problems found, one message per problem.
+     */
+    public InvalidBatchException(List<String> errors) {
+        super(errors.size() + " error(s) in batch: " + errors.get(0));
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    /**
+     * Get the problems found in the batch
+     * @return unmodifiable list of error messages
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
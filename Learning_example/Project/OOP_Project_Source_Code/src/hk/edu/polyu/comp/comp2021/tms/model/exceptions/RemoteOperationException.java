@@ -0,0 +1,29 @@
+package hk.edu.polyu.comp.comp2021.tms.model.exceptions;
+
+/**
+ * The RemoteOperationException is a custom exception used in the Task Management System (TMS).
+ * This exception is thrown by a remote client when the server reports that an operation failed.
+ * It carries the simple class name of the exception thrown on the server, such as "TaskNotFoundException".
+ */
+public class RemoteOperationException extends Exception {
+    private final String kind;
+
+    /**
+     * Constructs a new RemoteOperationException for an exception reported by the server.
+     *
+     * @param kind    The simple class name of the exception thrown on the server.
+     * @param message The message of the exception thrown on the server.
+     */
+    public RemoteOperationException(String kind, String message) {
+        super(message);
+        this.kind = kind;
+    }
+
+    /**
+     * Get the simple class name of the exception thrown on the server
+     * @return the class name
+     */
+    public String getKind() {
+        return kind;
+    }
+}
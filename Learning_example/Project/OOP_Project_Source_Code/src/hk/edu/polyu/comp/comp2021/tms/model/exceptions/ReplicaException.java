@@ -0,0 +1,18 @@
+package hk.edu.polyu.comp.comp2021.tms.model.exceptions;
+
+/**
+ * The ReplicaException is a custom exception used in the Task Management System (TMS).
+ * This exception is thrown by a replica that cannot serve a request: a change, which only its primary
+ * may make, or a query while the replica has fallen too far behind its primary.
+ */
+public class ReplicaException extends Exception {
+
+    /**
+     * Constructs a new ReplicaException with a detailed message.
+     *
+     * @param message A string explaining why the replica cannot serve the request.
+     */
+    public ReplicaException(String message) {
+        super(message);
+    }
+}
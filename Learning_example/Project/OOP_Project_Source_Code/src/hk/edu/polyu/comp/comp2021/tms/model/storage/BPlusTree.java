@@ -0,0 +1,447 @@
+package hk.edu.polyu.comp.comp2021.tms.model.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * The BPlusTree class is a paged B+-tree file mapping string keys to string values.
+ * <p>
+ * Pages are read through a {@link BufferPool}, so only the pages on recently used paths stay in
+ * memory. Leaves are linked left to right for ordered scans. Values longer than
+ * {@link #MAX_INLINE_VALUE} bytes are kept in chains of overflow pages, and pages freed by
+ * overwritten or removed values are reused. Removing keys does not merge underfull nodes.
+ * </p>
+ */
+public class BPlusTree implements Closeable {
+    /**
+     * The longest key in UTF-8 bytes.
+     */
+    public static final int MAX_KEY_BYTES = 512;
+    /**
+     * The longest value in UTF-8 bytes that is stored inside a leaf.
+     */
+    public static final int MAX_INLINE_VALUE = 512;
+
+    private static final int MAGIC = 0x544D5342;
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final byte OVERFLOW = 3;
+    private static final byte FREE = 4;
+    private static final int NODE_HEADER = 1 + 2 + 4;
+    private static final int OVERFLOW_HEADER = 1 + 4 + 2;
+    private static final int NO_PAGE = -1;
+
+    private final BufferPool pool;
+    private int root;
+    private int freeHead;
+    private long size;
+
+    private static final class Slot {
+        private final byte[] inline;
+        private final int overflowPage;
+        private final int length;
+
+        private Slot(byte[] inline, int overflowPage, int length) {
+            this.inline = inline;
+            this.overflowPage = overflowPage;
+            this.length = length;
+        }
+
+        private int encodedSize() {
+            return inline != null ? 1 + 2 + inline.length : 1 + 4 + 4;
+        }
+    }
+
+    private static final class Node {
+        private final boolean leaf;
+        private final List<String> keys = new ArrayList<>();
+        private final List<Slot> slots = new ArrayList<>();
+        private final List<Integer> children = new ArrayList<>();
+        private int next = NO_PAGE;
+
+        private Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+    }
+
+    private static final class Split {
+        private final String key;
+        private final int right;
+
+        private Split(String key, int right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Opens a tree file, creating an empty tree if the file does not exist or is empty.
+     *
+     * @param file       The file holding the tree.
+     * @param cachePages The number of pages to keep in memory.
+     * @throws IOException if the file cannot be opened or is not a tree file.
+     */
+    public BPlusTree(Path file, int cachePages) throws IOException {
+        pool = new BufferPool(file, cachePages);
+        if (pool.pageCount() == 0) {
+            pool.allocate();
+            freeHead = NO_PAGE;
+            root = allocatePage();
+            writeNode(root, new Node(true));
+            writeHeader();
+        } else {
+            ByteBuffer header = ByteBuffer.wrap(pool.read(0));
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a task archive file: " + file);
+            }
+            root = header.getInt();
+            freeHead = header.getInt();
+            size = header.getLong();
+        }
+    }
+
+    /**
+     * Get the number of keys in the tree
+     * @return number of keys
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the buffer pool the tree reads its pages through
+     * @return the buffer pool
+     */
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Looks up the value of a key.
+     *
+     * @param key The key to look up.
+     * @return The value of the key, or null if the key is not in the tree.
+     * @throws IOException if a page cannot be read.
+     */
+    public String get(String key) throws IOException {
+        Node node = readNode(root);
+        while (!node.leaf) {
+            node = readNode(node.children.get(childIndex(node, key)));
+        }
+        int i = Collections.binarySearch(node.keys, key);
+        return i >= 0 ? readValue(node.slots.get(i)) : null;
+    }
+
+    /**
+     * Sets the value of a key, replacing any previous value.
+     *
+     * @param key   The key, at most {@link #MAX_KEY_BYTES} UTF-8 bytes long.
+     * @param value The value.
+     * @throws IOException if a page cannot be read or written.
+     */
+    public void put(String key, String value) throws IOException {
+        if (key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key is longer than " + MAX_KEY_BYTES + " bytes.");
+        }
+        Slot slot = writeValue(value.getBytes(StandardCharsets.UTF_8));
+        Split split = insert(root, key, slot);
+        if (split != null) {
+            Node newRoot = new Node(false);
+            newRoot.keys.add(split.key);
+            newRoot.children.add(root);
+            newRoot.children.add(split.right);
+            root = allocatePage();
+            writeNode(root, newRoot);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Removes a key from the tree.
+     *
+     * @param key The key to remove.
+     * @return true if the key was in the tree.
+     * @throws IOException if a page cannot be read or written.
+     */
+    public boolean remove(String key) throws IOException {
+        int page = root;
+        Node node = readNode(page);
+        while (!node.leaf) {
+            page = node.children.get(childIndex(node, key));
+            node = readNode(page);
+        }
+        int i = Collections.binarySearch(node.keys, key);
+        if (i < 0) {
+            return false;
+        }
+        freeValue(node.slots.get(i));
+        node.keys.remove(i);
+        node.slots.remove(i);
+        writeNode(page, node);
+        size--;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Visits all keys in ascending order, starting at the first key not less than {@code from}.
+     *
+     * @param from   The smallest key to visit, or null to start at the first key.
+     * @param action The action to run for each key and value.
+     * @throws IOException if a page cannot be read.
+     */
+    public void forEach(String from, BiConsumer<String, String> action) throws IOException {
+        Node node = readNode(root);
+        while (!node.leaf) {
+            node = readNode(node.children.get(from == null ? 0 : childIndex(node, from)));
+        }
+        int i = 0;
+        if (from != null) {
+            i = Collections.binarySearch(node.keys, from);
+            i = i >= 0 ? i : -i - 1;
+        }
+        while (true) {
+            for (; i < node.keys.size(); i++) {
+                action.accept(node.keys.get(i), readValue(node.slots.get(i)));
+            }
+            if (node.next == NO_PAGE) {
+                return;
+            }
+            node = readNode(node.next);
+            i = 0;
+        }
+    }
+
+    /**
+     * Writes all changed pages to the file.
+     *
+     * @throws IOException if a page cannot be written.
+     */
+    public void flush() throws IOException {
+        pool.flush();
+    }
+
+    /**
+     * Writes all changed pages and closes the file.
+     *
+     * @throws IOException if a page cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.close();
+    }
+
+    private Split insert(int page, String key, Slot slot) throws IOException {
+        Node node = readNode(page);
+        if (node.leaf) {
+            int i = Collections.binarySearch(node.keys, key);
+            if (i >= 0) {
+                freeValue(node.slots.get(i));
+                node.slots.set(i, slot);
+            } else {
+                i = -i - 1;
+                node.keys.add(i, key);
+                node.slots.add(i, slot);
+                size++;
+            }
+        } else {
+            int i = childIndex(node, key);
+            Split split = insert(node.children.get(i), key, slot);
+            if (split == null) {
+                return null;
+            }
+            node.keys.add(i, split.key);
+            node.children.add(i + 1, split.right);
+        }
+        if (encodedSize(node) <= BufferPool.PAGE_SIZE) {
+            writeNode(page, node);
+            return null;
+        }
+        return split(page, node);
+    }
+
+    private Split split(int page, Node node) throws IOException {
+        int total = 0;
+        for (int i = 0; i < node.keys.size(); i++) {
+            total += entrySize(node, i);
+        }
+        int middle = 0;
+        for (int bytes = 0; middle < node.keys.size() && bytes < total / 2; middle++) {
+            bytes += entrySize(node, middle);
+        }
+        middle = Math.max(1, Math.min(middle, node.keys.size() - 1));
+
+        Node right = new Node(node.leaf);
+        String promoted = node.keys.get(middle);
+        int rightPage = allocatePage();
+        if (node.leaf) {
+            right.keys.addAll(node.keys.subList(middle, node.keys.size()));
+            right.slots.addAll(node.slots.subList(middle, node.slots.size()));
+            node.keys.subList(middle, node.keys.size()).clear();
+            node.slots.subList(middle, node.slots.size()).clear();
+            right.next = node.next;
+            node.next = rightPage;
+        } else {
+            right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+            right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+            node.keys.subList(middle, node.keys.size()).clear();
+            node.children.subList(middle + 1, node.children.size()).clear();
+        }
+        writeNode(page, node);
+        writeNode(rightPage, right);
+        return new Split(promoted, rightPage);
+    }
+
+    private static int childIndex(Node node, String key) {
+        int i = Collections.binarySearch(node.keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private static int entrySize(Node node, int i) {
+        int keySize = 2 + node.keys.get(i).getBytes(StandardCharsets.UTF_8).length;
+        return node.leaf ? keySize + node.slots.get(i).encodedSize() : keySize + 4;
+    }
+
+    private static int encodedSize(Node node) {
+        int size = NODE_HEADER + (node.leaf ? 0 : 4);
+        for (int i = 0; i < node.keys.size(); i++) {
+            size += entrySize(node, i);
+        }
+        return size;
+    }
+
+    private Node readNode(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(pool.read(page));
+        byte type = buffer.get();
+        if (type != LEAF && type != INTERNAL) {
+            throw new IOException("Page " + page + " is not a tree node.");
+        }
+        Node node = new Node(type == LEAF);
+        int count = buffer.getShort();
+        node.next = buffer.getInt();
+        if (!node.leaf) {
+            node.children.add(buffer.getInt());
+        }
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[buffer.getShort()];
+            buffer.get(key);
+            node.keys.add(new String(key, StandardCharsets.UTF_8));
+            if (!node.leaf) {
+                node.children.add(buffer.getInt());
+            } else if (buffer.get() == 0) {
+                byte[] value = new byte[buffer.getShort()];
+                buffer.get(value);
+                node.slots.add(new Slot(value, NO_PAGE, value.length));
+            } else {
+                int overflowPage = buffer.getInt();
+                node.slots.add(new Slot(null, overflowPage, buffer.getInt()));
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(int page, Node node) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.put(node.leaf ? LEAF : INTERNAL);
+        buffer.putShort((short) node.keys.size());
+        buffer.putInt(node.next);
+        if (!node.leaf) {
+            buffer.putInt(node.children.get(0));
+        }
+        for (int i = 0; i < node.keys.size(); i++) {
+            byte[] key = node.keys.get(i).getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            if (!node.leaf) {
+                buffer.putInt(node.children.get(i + 1));
+                continue;
+            }
+            Slot slot = node.slots.get(i);
+            if (slot.inline != null) {
+                buffer.put((byte) 0);
+                buffer.putShort((short) slot.inline.length);
+                buffer.put(slot.inline);
+            } else {
+                buffer.put((byte) 1);
+                buffer.putInt(slot.overflowPage);
+                buffer.putInt(slot.length);
+            }
+        }
+        pool.write(page, data);
+    }
+
+    private Slot writeValue(byte[] value) throws IOException {
+        if (value.length <= MAX_INLINE_VALUE) {
+            return new Slot(value, NO_PAGE, value.length);
+        }
+        int chunk = BufferPool.PAGE_SIZE - OVERFLOW_HEADER;
+        int pages = (value.length + chunk - 1) / chunk;
+        int[] ids = new int[pages];
+        for (int i = 0; i < pages; i++) {
+            ids[i] = allocatePage();
+        }
+        for (int i = 0; i < pages; i++) {
+            int offset = i * chunk;
+            int length = Math.min(chunk, value.length - offset);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.put(OVERFLOW);
+            buffer.putInt(i + 1 < pages ? ids[i + 1] : NO_PAGE);
+            buffer.putShort((short) length);
+            buffer.put(value, offset, length);
+            pool.write(ids[i], data);
+        }
+        return new Slot(null, ids[0], value.length);
+    }
+
+    private String readValue(Slot slot) throws IOException {
+        if (slot.inline != null) {
+            return new String(slot.inline, StandardCharsets.UTF_8);
+        }
+        byte[] value = new byte[slot.length];
+        int offset = 0;
+        for (int page = slot.overflowPage; page != NO_PAGE; ) {
+            ByteBuffer buffer = ByteBuffer.wrap(pool.read(page));
+            if (buffer.get() != OVERFLOW) {
+                throw new IOException("Page " + page + " is not an overflow page.");
+            }
+            page = buffer.getInt();
+            int length = buffer.getShort();
+            buffer.get(value, offset, length);
+            offset += length;
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private void freeValue(Slot slot) throws IOException {
+        for (int page = slot.overflowPage; page != NO_PAGE; ) {
+            int next = ByteBuffer.wrap(pool.read(page)).getInt(1);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            ByteBuffer.wrap(data).put(FREE).putInt(freeHead);
+            pool.write(page, data);
+            freeHead = page;
+            page = next;
+        }
+    }
+
+    private int allocatePage() throws IOException {
+        if (freeHead == NO_PAGE) {
+            return pool.allocate();
+        }
+        int page = freeHead;
+        freeHead = ByteBuffer.wrap(pool.read(page)).getInt(1);
+        return page;
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer.wrap(data).putInt(MAGIC).putInt(root).putInt(freeHead).putLong(size);
+        pool.write(0, data);
+    }
+}
@@ -0,0 +1,183 @@
+package hk.edu.polyu.comp.comp2021.tms.model.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The BufferPool class caches fixed size pages of a file in memory.
+ * <p>
+ * At most {@code capacity} pages are kept. When the pool is full, the least recently used page
+ * is dropped, and written back first if it was changed. Pages handed out by {@link #read(int)}
+ * must not be modified in place; changed pages are handed back with {@link #write(int, byte[])}.
+ * </p>
+ */
+public class BufferPool implements Closeable {
+    /**
+     * The size of one page in bytes.
+     */
+    public static final int PAGE_SIZE = 4096;
+    /**
+     * The smallest number of pages a pool keeps, so that one tree operation never evicts its own pages.
+     */
+    public static final int MIN_CAPACITY = 64;
+
+    private final FileChannel channel;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Frame> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private int pageCount;
+    private long hits;
+    private long misses;
+
+    private static final class Frame {
+        private final byte[] data;
+        private boolean dirty;
+
+        private Frame(byte[] data, boolean dirty) {
+            this.data = data;
+            this.dirty = dirty;
+        }
+    }
+
+    /**
+     * Opens a buffer pool over a file, creating the file if it does not exist.
+     *
+     * @param file     The file holding the pages.
+     * @param capacity The number of pages to keep in memory.
+     * @throws IOException if the file cannot be opened.
+     */
+    public BufferPool(Path file, int capacity) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.capacity = Math.max(capacity, MIN_CAPACITY);
+        this.pageCount = (int) (channel.size() / PAGE_SIZE);
+    }
+
+    /**
+     * Get the number of pages in the file, including pages not yet written out
+     * @return number of pages
+     */
+    public int pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Reads a page, from memory if it is cached.
+     *
+     * @param pageId The number of the page.
+     * @return The content of the page. The array must not be modified.
+     * @throws IOException if the page cannot be read.
+     */
+    public byte[] read(int pageId) throws IOException {
+        Frame frame = frames.get(pageId);
+        if (frame != null) {
+            hits++;
+            return frame.data;
+        }
+        misses++;
+        byte[] data = new byte[PAGE_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) pageId * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        admit(pageId, new Frame(data, false));
+        return data;
+    }
+
+    /**
+     * Replaces the content of a page. The page is written to the file when it is evicted or flushed.
+     *
+     * @param pageId The number of the page.
+     * @param data   The new content of the page, exactly {@link #PAGE_SIZE} bytes long.
+     * @throws IOException if another page has to be evicted and cannot be written.
+     */
+    public void write(int pageId, byte[] data) throws IOException {
+        if (data.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("Page must be " + PAGE_SIZE + " bytes long.");
+        }
+        admit(pageId, new Frame(data, true));
+    }
+
+    /**
+     * Adds a new empty page at the end of the file.
+     *
+     * @return The number of the new page.
+     * @throws IOException if another page has to be evicted and cannot be written.
+     */
+    public int allocate() throws IOException {
+        int pageId = pageCount++;
+        admit(pageId, new Frame(new byte[PAGE_SIZE], true));
+        return pageId;
+    }
+
+    private void admit(int pageId, Frame frame) throws IOException {
+        frames.put(pageId, frame);
+        Iterator<Map.Entry<Integer, Frame>> eldest = frames.entrySet().iterator();
+        while (frames.size() > capacity) {
+            Map.Entry<Integer, Frame> entry = eldest.next();
+            if (entry.getValue().dirty) {
+                writeOut(entry.getKey(), entry.getValue());
+            }
+            eldest.remove();
+        }
+    }
+
+    private void writeOut(int pageId, Frame frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame.data);
+        long position = (long) pageId * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        frame.dirty = false;
+    }
+
+    /**
+     * Writes all changed pages to the file.
+     *
+     * @throws IOException if a page cannot be written.
+     */
+    public void flush() throws IOException {
+        for (Map.Entry<Integer, Frame> entry : frames.entrySet()) {
+            if (entry.getValue().dirty) {
+                writeOut(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Get the number of page reads served from memory
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of page reads that went to the file
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Writes all changed pages, forces them to the device and closes the file.
+     *
+     * @throws IOException if a page cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package hk.edu.polyu.comp.comp2021.tms.view;
 import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
 
-import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * The Application class serves as the entry point for the Task Management System (TMS).
@@ -10,203 +12,446 @@ import java.util.*;
  */
 public class Application {
 
+    /**
+     * The names of all commands, in lower case, for building a {@link CommandTokenizer}.
+     */
+    public static final String[] COMMANDS = {
+            "createsimpletask", "createcompositetask", "deletetask", "changetask", "changetaskswhere",
+            "deletetaskswhere", "print", "printtree", "printalltrees", "printalltasks", "reportduration", "reportearliestfinishtime",
+            "definebasiccriterion", "definenegatedcriterion", "definebinarycriterion", "search", "printallcriteria",
+            "store", "storeasync", "storestatus", "attacharchive", "archivetask", "restoretask", "diff",
+            "storehashes", "exportdelta", "applydelta", "version", "enableversions", "printasof", "searchasof",
+            "reportearliestfinishtimeasof", "serveshared", "load", "complete", "help", "quit"
+    };
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final ThreadLocal<CommandTokenizer> TOKENIZERS = ThreadLocal.withInitial(() -> new CommandTokenizer(COMMANDS));
+
     /**
      * The main method is the entry point of the application.
      * It creates an instance of the TMS, displays a welcome message, and then enters a loop
      * to process user commands. It supports various commands for managing tasks, such as
      * creating, deleting, and modifying tasks, as well as reporting and storing/loading system state.
+     * Given the name of a script file, it runs the commands of the file instead, without prompts,
+     * and exits at its end.
      *
-     * @param args The command line arguments passed to the application (not used).
+     * @param args An optional script file, with one command per line.
+     * @throws IOException if the script file cannot be read.
      * {@code @auther} CHEN Chi-wei
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         TMS tms = new TMS();
         tms.addIsPrimitiveCriterion();
         // Initialize and run the system
 
-        System.out.println("Wassup, welcome to the Task Management System!");
+        // output is flushed before waiting for input, rather than after every line
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE), false);
+        try {
+            if (args.length > 0) {
+                try (Reader script = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+                    runScript(tms, script, out);
+                }
+                return;
+            }
 
-        while (true) {
-            Scanner input = new Scanner(System.in);
+            out.println("Wassup, welcome to the Task Management System!");
 
-            System.out.println("Enter command(quit to exit):");
+            CommandTokenizer tokens = TOKENIZERS.get();
+            Reader input = new InputStreamReader(System.in);
+            while (true) {
+                out.println("Enter command(quit to exit):");
+                out.flush();
 
-            // String input
-            String command = input.nextLine();
+                if (!tokens.readLine(input) || "quit".equals(tokens.command()) && tokens.size() == 1) {
+                    out.println("Exiting...");
+                    break;
+                }
+
+                execute(tms, tokens, out);
+            }
+        } finally {
+            out.flush();
+        }
+    }
 
-            if (command.equalsIgnoreCase("quit")) {
-                System.out.println("Exiting...");
+    /**
+     * Runs the commands of a script against a TMS until its end or a quit command.
+     * Blank lines are skipped.
+     *
+     * @param tms    The TMS to run the commands against.
+     * @param script The script, with one command per line.
+     * @param out    The stream the output of the commands is printed to.
+     * @throws IOException if the script cannot be read.
+     */
+    public static void runScript(TMS tms, Reader script, PrintStream out) throws IOException {
+        CommandTokenizer tokens = TOKENIZERS.get();
+        while (tokens.readLine(script)) {
+            if (tokens.size() == 0) {
+                continue;
+            }
+            if ("quit".equals(tokens.command())) {
                 break;
             }
+            execute(tms, tokens, out);
+        }
+    }
 
-            // Split the string by space
-            String[] commandlist = command.split(" ");
-
-            //make the first letter of the command lowercase
-            commandlist[0] = commandlist[0].toLowerCase();
-
-            try {
-                //switch case for different commands
-                switch (commandlist[0]) {
-                    case ("createsimpletask"): {
-                        if(commandlist.length < 5){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        // make a list of prerequisites
-                        List<String> prerequisites = new ArrayList<>(Arrays.asList(commandlist).subList(4, commandlist.length));
-                        //create the task
-                        System.out.println(tms.createSimpleTask(commandlist[1], commandlist[2], commandlist[3], prerequisites));
-                        break;
+    /**
+     * Runs one command line against a TMS and prints its output.
+     * Used by {@link #main(String[])} and by {@link TMSServer} for each connection.
+     *
+     * @param tms     The TMS to run the command against.
+     * @param command The command line, for example "deleteTask A".
+     * @param out     The stream the output of the command is printed to.
+     */
+    public static void execute(TMS tms, String command, PrintStream out) {
+        CommandTokenizer tokens = TOKENIZERS.get();
+        tokens.tokenize(command);
+        execute(tms, tokens, out);
+    }
+
+    /**
+     * Runs the command line last read by a tokenizer against a TMS and prints its output.
+     *
+     * @param tms    The TMS to run the command against.
+     * @param tokens The tokenizer holding the command line; it must have been made with {@link #COMMANDS}.
+     * @param out    The stream the output of the command is printed to.
+     */
+    public static void execute(TMS tms, CommandTokenizer tokens, PrintStream out) {
+        // the table gives the lower-case name, or null for an unknown command
+        String command = tokens.command();
+        if (command == null) {
+            out.println("Invalid command.");
+            return;
+        }
+
+        try {
+            //switch case for different commands
+            switch (command) {
+                case ("createsimpletask"): {
+                    if(tokens.size() < 5){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("createcompositetask"): {
-                        if(commandlist.length < 5){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        // make a list of subtasks
-                        List<String> subtasks = new ArrayList<>(Arrays.asList(commandlist).subList(3, commandlist.length));
-                        //create the task
-                        System.out.println(tms.createCompositeTask(commandlist[1], commandlist[2], subtasks));
-                        break;
+                    // make a list of prerequisites
+                    List<String> prerequisites = tokens.rest(4);
+                    //create the task
+                    out.println(tms.createSimpleTask(tokens.get(1), tokens.get(2), tokens.get(3), prerequisites));
+                    break;
+                }
+                case ("createcompositetask"): {
+                    if(tokens.size() < 5){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("deletetask"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.deleteTask(commandlist[1]));
-                        break;
+                    // make a list of subtasks
+                    List<String> subtasks = tokens.rest(3);
+                    //create the task
+                    out.println(tms.createCompositeTask(tokens.get(1), tokens.get(2), subtasks));
+                    break;
+                }
+                case ("deletetask"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("changetask"): {
-                        if(commandlist.length < 4){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        if(commandlist[2].equalsIgnoreCase("prerequisites")){
-                            List<String> prerequisites = new ArrayList<>(Arrays.asList(commandlist).subList(3, commandlist.length));
-                            System.out.println(tms.changeTask(commandlist[1], commandlist[2], prerequisites));
-                            break;
-                        }
-                        if(commandlist[2].equalsIgnoreCase("subtasks")){
-                            List<String> subtasks = new ArrayList<>(Arrays.asList(commandlist).subList(3, commandlist.length));
-                            System.out.println(tms.changeTask(commandlist[1], commandlist[2], subtasks));
-                            break;
-                        }
-                        System.out.println(tms.changeTask(commandlist[1], commandlist[2], commandlist[3]));
-                        break;
+                    out.println(tms.deleteTask(tokens.get(1)));
+                    break;
+                }
+                case ("changetask"): {
+                    if(tokens.size() < 4){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("print"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.printTask(commandlist[1]));
+                    if(tokens.get(2).equalsIgnoreCase("prerequisites")){
+                        List<String> prerequisites = tokens.rest(3);
+                        out.println(tms.changeTask(tokens.get(1), tokens.get(2), prerequisites));
                         break;
                     }
-                    case ("printalltasks"): {
-                        if(commandlist.length != 1){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.printAllTasks());
+                    if(tokens.get(2).equalsIgnoreCase("subtasks")){
+                        List<String> subtasks = tokens.rest(3);
+                        out.println(tms.changeTask(tokens.get(1), tokens.get(2), subtasks));
                         break;
                     }
-                    case ("reportduration"): {
-                        if(commandlist.length < 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.reportDuration(commandlist[1]));
-                        break;
+                    out.println(tms.changeTask(tokens.get(1), tokens.get(2), tokens.get(3)));
+                    break;
+                }
+                case ("changetaskswhere"): {
+                    if(tokens.size() != 4){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("reportearliestfinishtime"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.reportEarliestFinishTime(commandlist[1]));
-                        break;
+                    out.println(tms.changeTasksMatching(tokens.get(1), tokens.get(2), tokens.get(3)));
+                    break;
+                }
+                case ("deletetaskswhere"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("Search"):{
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.search(commandlist[1]));
-                    }
-                    case ("definebasiccriterion"): {
-                        if(commandlist.length < 5){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.addBasicCriterion(commandlist[1], commandlist[2], commandlist[3], commandlist[4]));
-                        break;
+                    out.println(tms.deleteTasksMatching(tokens.get(1)));
+                    break;
+                }
+                case ("print"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("definenegatedcriterion"): {
-                        if(commandlist.length < 3){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.addNegatedCriterion(commandlist[1], commandlist[2]));
-                        break;
+                    out.println(tms.printTask(tokens.get(1)));
+                    break;
+                }
+                case ("printtree"): {
+                    if(tokens.size() != 2 && tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("definebinarycriterion"): {
-                        if(commandlist.length < 5){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.addBinaryCriterion(commandlist[1], commandlist[2], commandlist[3], commandlist[4]));
-                        break;
+                    tms.printTaskTree(tokens.get(1), tokens.size() == 3 ? tokens.get(2) : null, out);
+                    break;
+                }
+                case ("printalltrees"): {
+                    if(tokens.size() != 1 && tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("search"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.search(commandlist[1]));
-                        break;
+                    tms.printAllTaskTrees(tokens.size() == 2 ? tokens.get(1) : null, out);
+                    break;
+                }
+                case ("printalltasks"): {
+                    if(tokens.size() != 1){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("printallcriteria"): {
-                        if(commandlist.length != 1){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.outPutAllCriteria());
-                        break;
+                    out.println(tms.printAllTasks());
+                    break;
+                }
+                case ("reportduration"): {
+                    if(tokens.size() < 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("store"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.store(commandlist[1]));
-                        break;
+                    out.println(tms.reportDuration(tokens.get(1)));
+                    break;
+                }
+                case ("reportearliestfinishtime"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    case ("load"): {
-                        if(commandlist.length != 2){
-                            throw new IndexOutOfBoundsException("Invalid number of arguments.");
-                        }
-                        System.out.println(tms.load(commandlist[1]));
-                        break;
+                    out.println(tms.reportEarliestFinishTime(tokens.get(1)));
+                    break;
+                }
+                case ("Search"):{
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-
-                    case "help": {
-                        System.out.println("Available Commands:");
-                        System.out.println("createSimpleTask <name> <description> <duration> <prerequisites>: Creates a new simple task with the specified name, description, duration (in hours), and a list of prerequisite task names, separated by spaces.");
-                        System.out.println("createCompositeTask <name> <description> <subtasks>: Creates a new composite task with the specified name, description, and a list of subtask names, separated by spaces.");
-                        System.out.println("deleteTask <name>: Deletes the task with the specified name.");
-                        System.out.println("changeTask <name> <property> <value>: Changes the specified property (e.g., 'description', 'duration') of the task with the given name to the new value provided.");
-                        System.out.println("print <name>: Prints details of the task with the specified name.");
-                        System.out.println("printAllTasks: Prints the names of all the tasks currently managed by the system.");
-                        System.out.println("reportDuration <name>: Reports the total duration of the task with the specified name, including the durations of its prerequisites if it's a simple task, or the sum of durations of all its subtasks if it's a composite task.");
-                        System.out.println("reportEarliestFinishTime <name>: Reports the earliest finish time for the task with the specified name based on its prerequisites and their durations.");
-                        System.out.println("defineBasicCriterion <name> <property> <operator> <value>: Defines a basic search criterion with the specified name that compares the specified property (e.g., 'duration', 'name') of tasks to the given value using the provided operator (e.g., '>', '<', '=', 'contains').");
-                        System.out.println("defineNegatedCriterion <name> <criterion>: Defines a new criterion that negates the result of an existing criterion specified by name.");
-                        System.out.println("defineBinaryCriterion <name> <criterion1> <operator> <criterion2>: Defines a new criterion that combines two existing criteria with a logical operator (e.g., 'AND', 'OR').");
-                        System.out.println("printAllCriteria: Prints all defined search criteria.");
-                        System.out.println("store <filename>: Stores the current state of the task management system to a file with the specified filename.");
-                        System.out.println("load <filename>: Loads the state of the task management system from a file with the specified filename.");
-                        System.out.println("quit: Exits the Task Management System.");
+                    out.println(tms.search(tokens.get(1)));
+                }
+                case ("definebasiccriterion"): {
+                    if(tokens.size() < 5){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.addBasicCriterion(tokens.get(1), tokens.get(2), tokens.get(3), tokens.get(4)));
+                    break;
+                }
+                case ("definenegatedcriterion"): {
+                    if(tokens.size() < 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.addNegatedCriterion(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("definebinarycriterion"): {
+                    if(tokens.size() < 5){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.addBinaryCriterion(tokens.get(1), tokens.get(2), tokens.get(3), tokens.get(4)));
+                    break;
+                }
+                case ("search"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.search(tokens.get(1)));
+                    break;
+                }
+                case ("printallcriteria"): {
+                    if(tokens.size() != 1){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.outPutAllCriteria());
+                    break;
+                }
+                case ("store"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.store(tokens.get(1)));
+                    break;
+                }
+                case ("storeasync"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.storeAsync(tokens.get(1)));
+                    break;
+                }
+                case ("storestatus"): {
+                    if(tokens.size() != 1){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.storeStatus());
+                    break;
+                }
+                case ("attacharchive"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.attachArchive(tokens.get(1)));
+                    break;
+                }
+                case ("archivetask"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.archiveTask(tokens.get(1)));
+                    break;
+                }
+                case ("restoretask"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.restoreTask(tokens.get(1)));
+                    break;
+                }
+                case ("diff"): {
+                    if(tokens.size() == 2){
+                        out.println(tms.diff(tokens.get(1)));
                         break;
                     }
-                    case "quit": {
-                        return;
+                    if(tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
-                    default: {
-                        System.out.println("Invalid command.");
+                    out.println(tms.diff(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("storehashes"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.storeHashes(tokens.get(1)));
+                    break;
+                }
+                case ("exportdelta"): {
+                    if(tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.exportDelta(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("applydelta"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.applyDelta(tokens.get(1)));
+                    break;
+                }
+                case ("version"): {
+                    if(tokens.size() != 1){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.version());
+                    break;
+                }
+                case ("enableversions"): {
+                    if(tokens.size() != 1){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.enableVersions());
+                    break;
+                }
+                case ("printasof"): {
+                    if(tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.printTaskAsOf(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("searchasof"): {
+                    if(tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
                     }
+                    out.println(tms.searchAsOf(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("reportearliestfinishtimeasof"): {
+                    if(tokens.size() != 3){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.reportEarliestFinishTimeAsOf(tokens.get(1), tokens.get(2)));
+                    break;
+                }
+                case ("serveshared"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.serveShared(tokens.get(1)));
+                    break;
+                }
+                case ("load"): {
+                    if(tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.load(tokens.get(1)));
+                    break;
+                }
+                case ("complete"): {
+                    if(tokens.size() != 1 && tokens.size() != 2){
+                        throw new IndexOutOfBoundsException("Invalid number of arguments.");
+                    }
+                    out.println(tms.complete(tokens.size() == 2 ? tokens.get(1) : ""));
+                    break;
                 }
-            } catch (IndexOutOfBoundsException e) {
-                System.out.println("Error: " + e.getMessage());
 
+                case "help": {
+                    out.println("Available Commands:");
+                    out.println("Arguments containing spaces can be quoted, for example \"Add fine coffee powder\".");
+                    out.println("createSimpleTask <name> <description> <duration> <prerequisites>: Creates a new simple task with the specified name, description, duration (in hours), and a list of prerequisite task names, separated by spaces.");
+                    out.println("createCompositeTask <name> <description> <subtasks>: Creates a new composite task with the specified name, description, and a list of subtask names, separated by spaces.");
+                    out.println("deleteTask <name>: Deletes the task with the specified name.");
+                    out.println("changeTask <name> <property> <value>: Changes the specified property (e.g., 'description', 'duration') of the task with the given name to the new value provided.");
+                    out.println("print <name>: Prints details of the task with the specified name.");
+                    out.println("printAllTasks: Prints the names of all the tasks currently managed by the system.");
+                    out.println("reportDuration <name>: Reports the total duration of the task with the specified name, including the durations of its prerequisites if it's a simple task, or the sum of durations of all its subtasks if it's a composite task.");
+                    out.println("reportEarliestFinishTime <name>: Reports the earliest finish time for the task with the specified name based on its prerequisites and their durations.");
+                    out.println("defineBasicCriterion <name> <property> <operator> <value>: Defines a basic search criterion with the specified name that compares the specified property (e.g., 'duration', 'name') of tasks to the given value using the provided operator (e.g., '>', '<', '=', 'contains', '~' for names within two edits, or 'matches' for a regular expression found in the name or description).");
+                    out.println("defineNegatedCriterion <name> <criterion>: Defines a new criterion that negates the result of an existing criterion specified by name.");
+                    out.println("defineBinaryCriterion <name> <criterion1> <operator> <criterion2>: Defines a new criterion that combines two existing criteria with a logical operator (e.g., 'AND', 'OR').");
+                    out.println("printAllCriteria: Prints all defined search criteria.");
+                    out.println("store <filename>: Stores the current state of the task management system to a file with the specified filename.");
+                    out.println("storeAsync <filename>: Stores the current state to a file in the background, so that new commands can be entered while it is written.");
+                    out.println("storeStatus: Reports whether the last background store is still running, succeeded or failed.");
+                    out.println("load <filename>: Loads the state of the task management system from a file with the specified filename.");
+                    out.println("attachArchive <filename>: Opens (or creates) a disk-backed archive file for rarely used tasks.");
+                    out.println("archiveTask <name>: Moves the task with the specified name from memory into the attached archive.");
+                    out.println("restoreTask <name>: Moves the task with the specified name from the attached archive back into memory.");
+                    out.println("diff <filename> [<filename2>]: Lists the tasks and criteria that differ between the current state and a stored file, or between two stored files.");
+                    out.println("storeHashes <filename>: Writes a small hash summary of the current state for exportDelta on another workspace.");
+                    out.println("exportDelta <base> <deltafile>: Writes only the tasks and criteria that differ from a stored file or hash summary into a delta file.");
+                    out.println("applyDelta <deltafile>: Applies a delta file exported from another workspace.");
+                    out.println("version: Shows the current data version.");
+                    out.println("enableVersions: Runs reports on pinned versions so they never wait for changes.");
+                    out.println("printAsOf <version> <name>: Prints a task as it was at an earlier version.");
+                    out.println("searchAsOf <version> <criterion>: Searches the tasks as they were at an earlier version.");
+                    out.println("reportEarliestFinishTimeAsOf <version> <name>: Reports the earliest finish time at an earlier version.");
+                    out.println("changeTasksWhere <criterion> <property> <value>: Changes every matching task; a duration may be a factor such as *1.1.");
+                    out.println("deleteTasksWhere <criterion>: Deletes every matching task, or none if any is still in use.");
+                    out.println("serveShared <filename>: Serves this workspace to local tools through a shared memory file.");
+                    out.println("printTree <name> [<depth>]: Prints a task and what it depends on, each task only once, down to an optional depth.");
+                    out.println("printAllTrees [<depth>]: Prints all tasks, each expanded only once, down to an optional depth.");
+                    out.println("complete [<prefix>]: Lists the task and criterion names that start with the prefix.");
+                    out.println("quit: Exits the Task Management System.");
+                    break;
+                }
+                case "quit": {
+                    return;
+                }
+                default: {
+                    out.println("Invalid command.");
+                }
             }
+        } catch (IndexOutOfBoundsException e) {
+            out.println("Error: " + e.getMessage());
+
         }
     }
 }
@@ -0,0 +1,142 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import javax.swing.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+
+/**
+ * The BackgroundCommands class runs the commands of {@link TMS_GUI} off the event dispatch thread, so that
+ * loading a large workspace or printing all tasks does not freeze the window.
+ * <p>
+ * Commands run one at a time on a worker thread, in the order they were given. While one runs, a progress bar
+ * shows how far it has got, or that it is busy if it cannot tell, and a cancel button stops it. Only commands
+ * that change nothing can be cancelled, since a change stopped half way would leave the workspace half changed.
+ * The output of a command is handed to the event dispatch thread in large pieces, each its own event, so the
+ * window keeps repainting and answering while a very long output is shown.
+ * </p>
+ */
+public class BackgroundCommands {
+    // The size of the pieces the output of a command is shown in
+    private static final int CHUNK = 1 << 16;
+
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private final JTextArea output;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tms-gui-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Command current;
+    private int queued;
+
+    /**
+     * Functional interface for a command that reports its progress.
+     */
+    @FunctionalInterface
+    public interface Action extends Function<DoubleConsumer, String> {
+    }
+
+    /**
+     * Constructs the runner of a window.
+     *
+     * @param progressBar  The bar that shows the progress of the running command.
+     * @param cancelButton The button that cancels the running command.
+     * @param output       The area the output of each command is written to.
+     */
+    public BackgroundCommands(JProgressBar progressBar, JButton cancelButton, JTextArea output) {
+        this.progressBar = progressBar;
+        this.cancelButton = cancelButton;
+        this.output = output;
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> cancel());
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+    }
+
+    /**
+     * Runs a command after those given before it. Must be called on the event dispatch thread.
+     *
+     * @param title       A short name of the command, shown on the progress bar.
+     * @param cancellable Whether the command changes nothing, so that it may be stopped half way.
+     * @param action      The command; it is given a way to report its progress from 0 to 1, and returns its output.
+     */
+    public void run(String title, boolean cancellable, Action action) {
+        queued++;
+        worker.execute(new Command(title, cancellable, action));
+    }
+
+    /**
+     * Cancels the running command, if it can be cancelled.
+     */
+    public void cancel() {
+        if (current != null && current.cancellable) {
+            current.cancel(true);
+        }
+    }
+
+    private final class Command extends SwingWorker<Void, Void> {
+        private final String title;
+        private final boolean cancellable;
+        private final Action action;
+
+        private Command(String title, boolean cancellable, Action action) {
+            this.title = title;
+            this.cancellable = cancellable;
+            this.action = action;
+            // progress changes are coalesced by SwingWorker before they reach the event dispatch thread
+            addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setValue((Integer) event.getNewValue());
+                }
+            });
+        }
+
+        @Override
+        protected Void doInBackground() {
+            SwingUtilities.invokeLater(this::started);
+            String result = action.apply(part -> setProgress((int) Math.round(Math.min(Math.max(part, 0), 1) * 100)));
+            // the pieces are queued in order behind started() and ahead of done() and of the next command
+            for (int start = 0; start < result.length() && !isCancelled(); start += CHUNK) {
+                String chunk = result.substring(start, Math.min(result.length(), start + CHUNK));
+                SwingUtilities.invokeLater(() -> output.append(chunk));
+            }
+            return null;
+        }
+
+        private void started() {
+            current = this;
+            output.setText("");
+            progressBar.setIndeterminate(true);
+            progressBar.setString(title);
+            cancelButton.setEnabled(cancellable);
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (CancellationException e) {
+                output.append(System.lineSeparator() + "Cancelled.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                output.setText("Error: " + e.getCause().getMessage());
+            }
+            if (current == this) {
+                current = null;
+            }
+            if (--queued == 0) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue(0);
+                progressBar.setString("");
+                cancelButton.setEnabled(false);
+            }
+        }
+    }
+}
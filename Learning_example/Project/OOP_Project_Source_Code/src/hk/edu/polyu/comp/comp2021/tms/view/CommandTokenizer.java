@@ -0,0 +1,241 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The CommandTokenizer class splits command lines into their words, reusing its buffers from line to line.
+ * <p>
+ * Words are separated by spaces or tabs. A part of a word in double quotes may contain spaces, and the quotes
+ * themselves are left out, so {@code "Add fine coffee powder"} is one word. The first word is looked up,
+ * ignoring case, in a table of command names built once, so a line is dispatched without making new strings.
+ * Lines can be given as strings or read straight from a {@link Reader}.
+ * </p>
+ */
+public class CommandTokenizer {
+    // Blocks start small and grow while the reader fills them, up to the largest size
+    private static final int FIRST_BLOCK_SIZE = 1 << 10;
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final String[] table;
+    private final int mask;
+
+    private char[] chars = new char[256];
+    private int length;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+    private boolean inWord;
+    private boolean quoted;
+
+    private Reader source;
+    private char[] block = new char[0];
+    private int blockPosition;
+    private int blockLength;
+
+    /**
+     * Constructs a tokenizer for a set of commands.
+     *
+     * @param commands The names of the commands, in lower case.
+     */
+    public CommandTokenizer(String... commands) {
+        int size = Integer.highestOneBit(Math.max(commands.length, 1) * 4);
+        table = new String[size];
+        mask = size - 1;
+        for (String command : commands) {
+            int slot = hash(command, 0, command.length()) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = command;
+        }
+    }
+
+    /**
+     * Splits a command line into words.
+     *
+     * @param line The command line.
+     * @return The number of words.
+     */
+    public int tokenize(CharSequence line) {
+        begin();
+        for (int i = 0; i < line.length(); i++) {
+            scan(line.charAt(i));
+        }
+        end();
+        return count;
+    }
+
+    /**
+     * Reads the next line from a reader and splits it into words.
+     * The reader is read in blocks that grow while it fills them, so it need not be buffered, but it must not be read elsewhere meanwhile.
+     *
+     * @param in The reader.
+     * @return false if the reader has no more lines.
+     * @throws IOException if the reader fails.
+     */
+    public boolean readLine(Reader in) throws IOException {
+        if (in != source) {
+            source = in;
+            blockPosition = 0;
+            blockLength = 0;
+        }
+        begin();
+        boolean any = false;
+        while (true) {
+            if (blockPosition == blockLength) {
+                if (block.length == 0) {
+                    block = new char[FIRST_BLOCK_SIZE];
+                } else if (blockLength == block.length && block.length < BLOCK_SIZE) {
+                    block = new char[block.length * 2];
+                }
+                blockLength = in.read(block, 0, block.length);
+                blockPosition = 0;
+                if (blockLength <= 0) {
+                    blockLength = 0;
+                    end();
+                    return any;
+                }
+            }
+            any = true;
+            char c = block[blockPosition++];
+            if (c == '\n') {
+                end();
+                return true;
+            }
+            scan(c);
+        }
+    }
+
+    private void begin() {
+        length = 0;
+        count = 0;
+        inWord = false;
+        quoted = false;
+    }
+
+    private void scan(char c) {
+        if (c == '"') {
+            quoted = !quoted;
+            if (!inWord) {
+                startWord();
+            }
+        } else if (!quoted && (c == ' ' || c == '\t' || c == '\r')) {
+            if (inWord) {
+                endWord();
+            }
+        } else {
+            if (!inWord) {
+                startWord();
+            }
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = c;
+        }
+    }
+
+    private void startWord() {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = length;
+        inWord = true;
+    }
+
+    private void endWord() {
+        ends[count++] = length;
+        inWord = false;
+    }
+
+    // An unclosed quote runs to the end of the line
+    private void end() {
+        if (inWord) {
+            endWord();
+        }
+        quoted = false;
+    }
+
+    /**
+     * Get the number of words of the current line
+     * @return the number of words
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get a word of the current line
+     * @param index The position of the word, 0 for the command.
+     * @return the word
+     */
+    public String get(int index) {
+        if (index >= count) {
+            throw new IndexOutOfBoundsException("Invalid number of arguments.");
+        }
+        return new String(chars, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * Get the words of the current line from a position on
+     * @param from The position of the first word.
+     * @return a new list of the words
+     */
+    public List<String> rest(int from) {
+        List<String> words = new ArrayList<>(Math.max(count - from, 0));
+        for (int i = from; i < count; i++) {
+            words.add(get(i));
+        }
+        return words;
+    }
+
+    /**
+     * Get the command of the current line
+     * @return the name of the command as given to the constructor, or null if the first word is no known command
+     */
+    public String command() {
+        if (count == 0) {
+            return null;
+        }
+        int start = starts[0];
+        int wordLength = ends[0] - start;
+        for (int slot = hash(chars, start, wordLength) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(table[slot], start, wordLength)) {
+                return table[slot];
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(String command, int start, int wordLength) {
+        if (command.length() != wordLength) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (Character.toLowerCase(chars[start + i]) != command.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String text, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + Character.toLowerCase(text.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(char[] text, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + Character.toLowerCase(text[i]);
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,152 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The NameCompletion class offers the names that start with what has been typed into a text field, in a list
+ * under the field, so that task and criterion names need not be typed out in full.
+ * <p>
+ * The list follows every change of the field. Up and down choose a name, enter or a click puts it into the
+ * field, and escape closes the list. In a field of comma separated names only the name being typed, after
+ * the last comma, is completed. The names are looked up while typing, so the lookup must be fast and must
+ * not wait for running commands, like {@link hk.edu.polyu.comp.comp2021.tms.controller.TMS#completeTaskName}.
+ * </p>
+ */
+public class NameCompletion {
+    private final JTextField field;
+    private final Function<String, List<String>> names;
+    private final boolean commaSeparated;
+    private final DefaultListModel<String> choices = new DefaultListModel<>();
+    private final JList<String> choiceList = new JList<>(choices);
+    private final JPopupMenu popup = new JPopupMenu();
+    private boolean accepting;
+
+    private NameCompletion(JTextField field, Function<String, List<String>> names, boolean commaSeparated) {
+        this.field = field;
+        this.names = names;
+        this.commaSeparated = commaSeparated;
+        choiceList.setFocusable(false);
+        choiceList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        choiceList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                accept();
+            }
+        });
+        popup.setFocusable(false);
+        popup.add(choiceList);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // attribute changes do not change the text
+            }
+        });
+        // key listeners run before the key bindings of the field, so a consumed enter does not also run the command
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (popup.isVisible()) {
+                    keyPressedInList(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Offers completions in a text field.
+     *
+     * @param field          The field.
+     * @param names          Finds the names that start with a prefix, in the order to offer them.
+     * @param commaSeparated Whether the field holds a list of names separated by commas.
+     */
+    public static void attach(JTextField field, Function<String, List<String>> names, boolean commaSeparated) {
+        new NameCompletion(field, names, commaSeparated);
+    }
+
+    private void keyPressedInList(KeyEvent e) {
+        int selected = choiceList.getSelectedIndex();
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_DOWN:
+                choiceList.setSelectedIndex(Math.min(selected + 1, choices.size() - 1));
+                break;
+            case KeyEvent.VK_UP:
+                choiceList.setSelectedIndex(Math.max(selected - 1, 0));
+                break;
+            case KeyEvent.VK_ENTER:
+                accept();
+                break;
+            case KeyEvent.VK_ESCAPE:
+                popup.setVisible(false);
+                break;
+            default:
+                return;
+        }
+        choiceList.ensureIndexIsVisible(choiceList.getSelectedIndex());
+        e.consume();
+    }
+
+    private void changed() {
+        if (!accepting) {
+            // the document must not be read back while it is sending its events
+            SwingUtilities.invokeLater(this::update);
+        }
+    }
+
+    private void update() {
+        String prefix = typed();
+        List<String> found = prefix.isEmpty() || !field.isShowing() ? List.of() : names.apply(prefix);
+        if (found.isEmpty() || found.size() == 1 && found.get(0).equals(prefix)) {
+            popup.setVisible(false);
+            return;
+        }
+        choices.clear();
+        choices.addAll(found);
+        choiceList.setSelectedIndex(0);
+        choiceList.setVisibleRowCount(Math.min(found.size(), 10));
+        popup.pack();
+        if (!popup.isVisible()) {
+            popup.show(field, 0, field.getHeight());
+        }
+    }
+
+    // The start of the name being typed
+    private int start() {
+        return commaSeparated ? field.getText().lastIndexOf(',') + 1 : 0;
+    }
+
+    private String typed() {
+        return field.getText().substring(start()).trim();
+    }
+
+    private void accept() {
+        String choice = choiceList.getSelectedValue();
+        popup.setVisible(false);
+        if (choice == null) {
+            return;
+        }
+        accepting = true;
+        try {
+            field.setText(field.getText().substring(0, start()) + choice);
+        } finally {
+            accepting = false;
+        }
+    }
+}
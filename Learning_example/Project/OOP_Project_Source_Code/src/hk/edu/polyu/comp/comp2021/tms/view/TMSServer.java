@@ -0,0 +1,298 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
+import hk.edu.polyu.comp.comp2021.tms.controller.TMSAsync;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * The TMSServer class serves the commands of the {@link Application} over TCP, so that many local tools
+ * can share one workspace.
+ * <p>
+ * A client sends one command per line, as typed in the application. It may send further commands
+ * without waiting for replies; they are run in order. Each reply holds the output lines of its command,
+ * followed by a line holding only ".". An output line that starts with "." gets a second "." in front,
+ * which the client removes. A command that fails unexpectedly is answered with a line starting with "Error:",
+ * and the connection goes on with the next command. "quit" closes the connection.
+ * </p>
+ * <p>
+ * Each connection is served by a reader and a runner, on virtual threads when the JVM has them. The reader
+ * puts commands into a bounded queue; when the queue is full it stops reading, so a client that sends faster
+ * than its commands run is held back by TCP. The number of connections served at once is bounded as well.
+ * </p>
+ */
+public class TMSServer implements AutoCloseable {
+    /**
+     * The default port.
+     */
+    public static final int DEFAULT_PORT = 7021;
+    /**
+     * The default number of commands a connection may send ahead of its replies.
+     */
+    public static final int DEFAULT_PIPELINE_DEPTH = 64;
+    /**
+     * The default number of connections served at once.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+    private static final String END_OF_REPLY = ".";
+    private static final String QUIT = "quit";
+
+    private final TMS tms;
+    private final ServerSocket serverSocket;
+    private final int pipelineDepth;
+    private final Semaphore connectionSlots;
+    private final ExecutorService threads = TMSAsync.defaultExecutor();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean running = true;
+    private volatile Consumer<? super IOException> acceptErrors = e -> { };
+
+    private final class Connection {
+        private final Socket socket;
+        private final BlockingQueue<String> commands = new ArrayBlockingQueue<>(pipelineDepth);
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void read() {
+            // not closed here: closing the stream would close the socket before the runner has answered
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null && enqueue(line)) {
+                    if (line.trim().equalsIgnoreCase(QUIT)) {
+                        return;
+                    }
+                }
+                enqueue(QUIT);
+            } catch (IOException e) {
+                // the connection was closed; the runner still answers what was read
+                enqueue(QUIT);
+            }
+        }
+
+        // Waits for room in the queue; gives up once the runner has closed the connection
+        private boolean enqueue(String command) {
+            try {
+                while (!commands.offer(command, 100, TimeUnit.MILLISECONDS)) {
+                    if (socket.isClosed()) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void run() {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                while (true) {
+                    String command = commands.take();
+                    if (command.trim().equalsIgnoreCase(QUIT)) {
+                        break;
+                    }
+                    buffer.reset();
+                    try {
+                        Application.execute(tms, command, output);
+                    } catch (RuntimeException e) {
+                        // a bad command is answered with its error, and the commands after it still run
+                        output.println("Error: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                    }
+                    output.flush();
+                    writeReply(out, buffer.toString(StandardCharsets.UTF_8));
+                    // flush once the client has no further commands waiting, so pipelined replies go out together
+                    if (commands.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // the client went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeQuietly(socket);
+                connections.remove(this);
+                connectionSlots.release();
+                finished.countDown();
+            }
+        }
+
+        // Stops reading; commands already read are still run and answered.
+        private void shutdownInput() {
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Starts a server on the default port of the loopback address.
+     *
+     * @param tms The TMS to serve.
+     * @throws IOException if the port cannot be opened.
+     */
+    public TMSServer(TMS tms) throws IOException {
+        this(tms, DEFAULT_PORT, DEFAULT_PIPELINE_DEPTH, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Starts a server on the loopback address.
+     *
+     * @param tms            The TMS to serve.
+     * @param port           The port, or 0 for any free port.
+     * @param pipelineDepth  The number of commands a connection may send ahead of its replies.
+     * @param maxConnections The number of connections served at once; further clients wait to be accepted.
+     * @throws IOException if the port cannot be opened.
+     */
+    public TMSServer(TMS tms, int port, int pipelineDepth, int maxConnections) throws IOException {
+        if (pipelineDepth < 1 || maxConnections < 1) {
+            throw new IllegalArgumentException("Pipeline depth and connection limit must be positive.");
+        }
+        this.tms = tms;
+        this.pipelineDepth = pipelineDepth;
+        this.connectionSlots = new Semaphore(maxConnections);
+        this.serverSocket = new ServerSocket(port, maxConnections, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "tms-server");
+        acceptor.start();
+    }
+
+    /**
+     * Sets what is done with an error in accepting a connection, which no client can be told about.
+     * By default such errors are ignored, and the server goes on accepting.
+     *
+     * @param handler Takes each error.
+     */
+    public void onAcceptError(Consumer<? super IOException> handler) {
+        acceptErrors = handler;
+    }
+
+    /**
+     * Get the port the server listens on
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                connectionSlots.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                connectionSlots.release();
+                if (running && !(e instanceof SocketException)) {
+                    acceptErrors.accept(e);
+                }
+                continue;
+            }
+            Connection connection = new Connection(socket);
+            connections.add(connection);
+            try {
+                threads.execute(connection::read);
+                threads.execute(connection::run);
+            } catch (RejectedExecutionException e) {
+                connection.commands.offer(QUIT);
+                closeQuietly(socket);
+                connections.remove(connection);
+                connectionSlots.release();
+            }
+        }
+    }
+
+    private static void writeReply(BufferedWriter out, String output) throws IOException {
+        int start = 0;
+        while (start < output.length()) {
+            int end = output.indexOf('\n', start);
+            if (end < 0) {
+                end = output.length();
+            }
+            String line = output.substring(start, end > start && output.charAt(end - 1) == '\r' ? end - 1 : end);
+            if (line.startsWith(".")) {
+                out.write('.');
+            }
+            out.write(line);
+            out.write('\n');
+            start = end + 1;
+        }
+        out.write(END_OF_REPLY);
+        out.write('\n');
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Stops accepting connections, lets every connection finish the commands it has sent, and closes it.
+     * Connections still busy after a few seconds, or when the calling thread is interrupted while waiting,
+     * are closed anyway; an interrupt is kept for the caller.
+     */
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        acceptor.interrupt();
+        try {
+            acceptor.join();
+            for (Connection connection : connections) {
+                connection.shutdownInput();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            for (Connection connection : connections) {
+                connection.finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // finished connections have left the set
+        for (Connection connection : connections) {
+            closeQuietly(connection.socket);
+        }
+        threads.shutdownNow();
+    }
+
+    /**
+     * Runs a server until the JVM is stopped.
+     *
+     * @param args An optional port, and an optional file to load first.
+     * @throws IOException if the port cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        TMS tms = new TMS();
+        tms.addIsPrimitiveCriterion();
+        if (args.length > 1) {
+            System.out.println(tms.load(args[1]));
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        TMSServer server = new TMSServer(tms, port, DEFAULT_PIPELINE_DEPTH, DEFAULT_MAX_CONNECTIONS);
+        server.onAcceptError(e -> System.err.println("Error: " + e.getMessage()));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Serving the Task Management System on port " + server.getPort() + ".");
+    }
+}
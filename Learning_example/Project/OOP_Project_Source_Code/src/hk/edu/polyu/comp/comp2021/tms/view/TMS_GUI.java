@@ -2,13 +2,16 @@ package hk.edu.polyu.comp.comp2021.tms.view;
 
 import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
 
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.CritersionNotFoundException;
+
 import javax.swing.*;
 import java.awt.*;
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
 
 /**
  * The TMS_GUI class represents the GUI for the Task Management System.
@@ -23,11 +26,19 @@ public class TMS_GUI extends JFrame {
      * The width of the input panel.
      */
     public static final int PANELHEIGHT = 50;
+    /**
+     * The longest task name the task list is sized for; longer names are cut off.
+     */
+    public static final String PROTOTYPE_TASK_NAME = "Make-Coffee-With-Sugar-And-Milk";
     private final TMS tms;
     private final JComboBox<String> commandBox;
     private final JPanel inputPanel;
     private final List<JTextField> inputFields;
-    private final JTextArea tasksOutputArea;
+    private final TaskListModel tasksModel;
+    private final JList<String> tasksList;
+    private final TaskTreeModel taskTreeModel;
+    private final JTextField filterField;
+    private final BackgroundCommands background;
     private final JTextArea commandOutputArea;
 
     /**
@@ -99,7 +110,13 @@ public class TMS_GUI extends JFrame {
 
         JButton executeButton = new JButton("Execute");
         executeButton.addActionListener(e -> executeCommand());
-        bottomPanel.add(executeButton, BorderLayout.EAST);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JButton cancelButton = new JButton("Cancel");
+        JPanel runPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        runPanel.add(progressBar);
+        runPanel.add(cancelButton);
+        runPanel.add(executeButton);
+        bottomPanel.add(runPanel, BorderLayout.EAST);
 
 
         add(bottomPanel, BorderLayout.SOUTH);
@@ -108,6 +125,7 @@ public class TMS_GUI extends JFrame {
         // Initialize commandOutputArea as a field
         commandOutputArea = new JTextArea(5, 20); // Correct this line
         commandOutputArea.setEditable(false);
+        background = new BackgroundCommands(progressBar, cancelButton, commandOutputArea);
         JScrollPane commandOutputScrollPane = new JScrollPane(commandOutputArea);
         commandOutputScrollPane.setPreferredSize(new Dimension((int) panelWidth/3, (int) panelHeight/3)); // Set preferred size if needed
 
@@ -115,9 +133,37 @@ public class TMS_GUI extends JFrame {
         JPanel rightPanel = new JPanel();
         rightPanel.setLayout(new BoxLayout(rightPanel, BoxLayout.Y_AXIS));
 
-        tasksOutputArea = new JTextArea(10, 20);
-        tasksOutputArea.setEditable(false);
-        rightPanel.add(new JScrollPane(tasksOutputArea));
+        // the list follows the changes of the TMS; with a fixed row size only the visible rows are drawn
+        tasksModel = new TaskListModel(tms);
+        tasksList = new JList<>(tasksModel);
+        tasksList.setPrototypeCellValue(PROTOTYPE_TASK_NAME);
+        tasksList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // the selected task is explored in the tree, which reads each level only when it is opened
+        taskTreeModel = new TaskTreeModel(tms);
+        JTree taskTree = new JTree(taskTreeModel);
+        taskTree.setLargeModel(true);
+        taskTree.setRowHeight(tasksList.getFixedCellHeight());
+        taskTree.setShowsRootHandles(true);
+        tasksList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                taskTreeModel.setTask(tasksList.getSelectedValue());
+            }
+        });
+
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(new JLabel("Criterion"), BorderLayout.WEST);
+        filterField = new JTextField();
+        NameCompletion.attach(filterField, this::criterionNames, false);
+        filterField.addActionListener(e -> filterTasks());
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        JButton filterButton = new JButton("Filter");
+        filterButton.addActionListener(e -> filterTasks());
+        filterPanel.add(filterButton, BorderLayout.EAST);
+        filterPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, filterPanel.getPreferredSize().height));
+
+        rightPanel.add(filterPanel);
+        rightPanel.add(new JScrollPane(tasksList));
+        rightPanel.add(new JScrollPane(taskTree));
         rightPanel.add(commandOutputScrollPane);
 
         // Add Right Panel to the Main Frame
@@ -142,23 +188,23 @@ public class TMS_GUI extends JFrame {
                 addInputField("Name");
                 addInputField("Description");
                 addInputField("Duration");
-                addInputField("Prerequisites (comma separated)");
+                addInputField("Prerequisites (comma separated)", this::taskNames, true);
                 break;
             case "createCompositeTask":
                 addInputField("Name");
                 addInputField("Description");
-                addInputField("Subtasks (comma separated)");
+                addInputField("Subtasks (comma separated)", this::taskNames, true);
                 break;
             case "deleteTask":
-                addInputField("Task Name");
+                addInputField("Task Name", this::taskNames, false);
                 break;
             case "changeTask":
-                addInputField("Task Name");
+                addInputField("Task Name", this::taskNames, false);
                 addInputField("Property");
                 addInputField("Value");
                 break;
             case "print":
-                addInputField("Task Name (leave empty to print all tasks)");
+                addInputField("Task Name (leave empty to print all tasks)", this::taskNames, false);
                 break;
             case "creatBasicCriterion":
                 addInputField("Name");
@@ -168,17 +214,17 @@ public class TMS_GUI extends JFrame {
                 break;
             case "creatNegatedCriterion":
                 addInputField("New Criterion name");
-                addInputField("Old Criterion name");
+                addInputField("Old Criterion name", this::criterionNames, false);
                 break;
             case "creatBinaryCriterion":
                 addInputField("New Criterion name");
-                addInputField("First Criterion name");
+                addInputField("First Criterion name", this::criterionNames, false);
                 addInputField("Operation");
-                addInputField("Second Criterion name");
+                addInputField("Second Criterion name", this::criterionNames, false);
             case "printAllCriterion":
                 break;
             case "searchTasksBaseOnCriterion":
-                addInputField("Criterion name");
+                addInputField("Criterion name", this::criterionNames, false);
                 break;
             case "store":
                 addInputField("File Path to store");
@@ -199,40 +245,65 @@ public class TMS_GUI extends JFrame {
         inputFields.add(textField);
     }
 
+    // A field for the names of existing tasks or criteria, which are offered as they are typed
+    private void addInputField(String label, Function<String, List<String>> names, boolean commaSeparated) {
+        addInputField(label);
+        NameCompletion.attach(inputFields.get(inputFields.size() - 1), names, commaSeparated);
+    }
+
+    private List<String> taskNames(String prefix) {
+        return tms.completeTaskName(prefix, TMS.COMPLETION_LIMIT);
+    }
+
+    private List<String> criterionNames(String prefix) {
+        return tms.completeCriterionName(prefix, TMS.COMPLETION_LIMIT);
+    }
+
+    // Reads the input fields here, on the event dispatch thread, and runs the command in the background
     private void executeCommand() {
         String command = (String) commandBox.getSelectedItem();
+        List<String> inputs = new ArrayList<>();
+        for (JTextField field : inputFields) {
+            inputs.add(field.getText());
+        }
+        boolean readOnly = "print".equals(command) || "printAllCriterion".equals(command)
+                || "searchTasksBaseOnCriterion".equals(command);
+        background.run(String.valueOf(command), readOnly, progress -> runCommand(command, inputs, progress));
+    }
+
+    private String runCommand(String command, List<String> inputs, DoubleConsumer progress) {
         try {
             String result = " ";
             if (command != null) {
                 switch (command) {
                     case "createSimpleTask":
-                        String prerequisitesinput = inputFields.get(3).getText();
+                        String prerequisitesinput = inputs.get(3);
                         String[] prerequisites = prerequisitesinput.isEmpty() ? new String[]{","} : prerequisitesinput.split(",");
-                        result = tms.createSimpleTask(inputFields.get(0).getText(),
-                                inputFields.get(1).getText(),
-                                inputFields.get(2).getText(),
+                        result = tms.createSimpleTask(inputs.get(0),
+                                inputs.get(1),
+                                inputs.get(2),
                                 Arrays.asList(prerequisites));
                         break;
                     case "createCompositeTask":
-                        String subtasksInput = inputFields.get(2).getText();
+                        String subtasksInput = inputs.get(2);
                         String[] subtaskArray = subtasksInput.split(",");
                         // Convert the array to a list
                         List<String> subtasks = new ArrayList<>(Arrays.asList(subtaskArray));
-                        result = tms.createCompositeTask(inputFields.get(0).getText(),
-                                inputFields.get(1).getText(),
+                        result = tms.createCompositeTask(inputs.get(0),
+                                inputs.get(1),
                                 subtasks);
                         break;
                     case "deleteTask":
-                        result = tms.deleteTask(inputFields.get(0).getText());
+                        result = tms.deleteTask(inputs.get(0));
                         break;
 
                     case "changeTask":
-                        result = tms.changeTask(inputFields.get(0).getText(),
-                                inputFields.get(1).getText(),
-                                inputFields.get(2).getText());
+                        result = tms.changeTask(inputs.get(0),
+                                inputs.get(1),
+                                inputs.get(2));
                         break;
                     case "print":
-                        String taskName = inputFields.get(0).getText().trim();
+                        String taskName = inputs.get(0).trim();
                         if (taskName.isEmpty()) {
                             result = tms.printAllTasks();
                         } else {
@@ -240,54 +311,48 @@ public class TMS_GUI extends JFrame {
                         }
                         break;
                     case "creatBasicCriterion":
-                        result = tms.addBasicCriterion(inputFields.get(0).getText(),
-                                inputFields.get(1).getText(),
-                                inputFields.get(2).getText(), inputFields.get(3).getText());
+                        result = tms.addBasicCriterion(inputs.get(0),
+                                inputs.get(1),
+                                inputs.get(2), inputs.get(3));
                         break;
                     case "creatNegatedCriterion":
-                        result = tms.addNegatedCriterion(inputFields.get(0).getText(),
-                                inputFields.get(1).getText());
+                        result = tms.addNegatedCriterion(inputs.get(0),
+                                inputs.get(1));
                         break;
                     case "creatBinaryCriterion":
-                        result = tms.addBinaryCriterion(inputFields.get(0).getText(),
-                                inputFields.get(1).getText(), inputFields.get(2).getText(), inputFields.get(3).getText());
+                        result = tms.addBinaryCriterion(inputs.get(0),
+                                inputs.get(1), inputs.get(2), inputs.get(3));
                     case "printAllCriterion":
                         result = tms.outPutAllCriteria();
                         break;
                     case "searchTasksBaseOnCriterion":
-                        result = tms.search(inputFields.get(0).getText());
+                        result = tms.search(inputs.get(0));
                         break;
                     case "store":
-                        result = tms.store(inputFields.get(0).getText());
+                        result = tms.store(inputs.get(0));
                         break;
                     case "load":
-                        result = tms.load(inputFields.get(0).getText());
+                        result = tms.load(inputs.get(0), progress);
                         break;
                     default:
                         result = "Command not implemented";
                 }
             }
-            commandOutputArea.setText(result);
-            updateTasksList();
+            return result;
+        } catch (CancellationException ex) {
+            throw ex;
         } catch (Exception ex) {
-            commandOutputArea.setText("Error: " + ex.getMessage());
+            return "Error: " + ex.getMessage();
         }
     }
 
-    private void updateTasksList() {
-        // Redirect output temporarily to capture the task names
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream ps = new PrintStream(baos);
-        PrintStream old = System.out;
-        System.setOut(ps);
-
-        tms.outPutAllTasks();
-
-        // Set back System.out
-        System.out.flush();
-        System.setOut(old);
-
-        tasksOutputArea.setText(baos.toString());
+    private void filterTasks() {
+        String criterion = filterField.getText().trim();
+        try {
+            tasksModel.setFilter(criterion.isEmpty() ? null : criterion);
+        } catch (CritersionNotFoundException e) {
+            commandOutputArea.setText("Error: Criterion does not exist.");
+        }
     }
 
     /**
@@ -0,0 +1,228 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskChangeListener;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.CritersionNotFoundException;
+
+import javax.swing.*;
+import java.util.*;
+
+/**
+ * The TaskListModel class lists the names of the tasks of a {@link TMS} in a {@link JList}, in sorted order.
+ * <p>
+ * The model follows the changes of the TMS as they happen: each change adds, removes or repaints only the rows
+ * of the tasks it touched, so a change costs the same however many tasks there are. It can be narrowed to the
+ * tasks that meet a criterion; the tasks touched by a change are checked against the criterion one by one, and
+ * all tasks are searched again only when criteria change. The model itself is only used on the event
+ * dispatch thread; changes made on other threads are handed over to it, and changes that come faster than
+ * it can show them are merged and shown together.
+ * </p>
+ */
+public class TaskListModel extends AbstractListModel<String> implements AutoCloseable {
+    // Beyond this many touched tasks, the whole list is rebuilt and repainted at once
+    private static final int BULK_CHANGE = 1024;
+
+    private final TMS tms;
+    private final TaskChangeListener listener = this::changed;
+    private final List<String> all;
+    private List<String> visible;
+    private volatile String filter;
+
+    // Changes not yet shown, merged until the event dispatch thread gets to them
+    private final Object pendingLock = new Object();
+    private Map<String, Boolean> pendingTasks = new HashMap<>();
+    private Set<String> pendingMatching = new HashSet<>();
+    private String pendingCriterion;
+    private boolean pendingRefilter;
+    private boolean scheduled;
+
+    /**
+     * Constructs a model of all tasks and starts following the changes of the TMS.
+     *
+     * @param tms The TMS.
+     */
+    public TaskListModel(TMS tms) {
+        this.tms = tms;
+        all = tms.addTaskListener(listener);
+        Collections.sort(all);
+        visible = all;
+    }
+
+    @Override
+    public int getSize() {
+        return visible.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return visible.get(index);
+    }
+
+    /**
+     * Get the criterion the list is narrowed to
+     * @return the name of the criterion, or null if all tasks are listed
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * Narrows the list to the tasks that meet a criterion, or lists all tasks again.
+     *
+     * @param criterion The name of the criterion, or null for all tasks.
+     * @throws CritersionNotFoundException if the criterion does not exist; the list is left as it was.
+     */
+    public void setFilter(String criterion) throws CritersionNotFoundException {
+        List<String> matching = criterion == null ? all : tms.filterTasks(criterion, all);
+        filter = criterion;
+        replace(matching);
+    }
+
+    // Runs on the thread that made the change, while the TMS is locked for it
+    private void changed(long version, Set<String> tasks, Set<String> removed, Set<String> criteria) {
+        String criterion = filter;
+        Set<String> matching = Collections.emptySet();
+        if (criterion != null && criteria.isEmpty()) {
+            try {
+                matching = new HashSet<>(tms.filterTasks(criterion, tasks));
+            } catch (CritersionNotFoundException e) {
+                // the list empties below
+            }
+        }
+        synchronized (pendingLock) {
+            if (!scheduled) {
+                scheduled = true;
+                pendingCriterion = criterion;
+                SwingUtilities.invokeLater(this::flush);
+            } else if (!Objects.equals(pendingCriterion, criterion)) {
+                pendingRefilter = true;
+            }
+            pendingRefilter |= !criteria.isEmpty();
+            for (String name : removed) {
+                pendingTasks.put(name, false);
+                pendingMatching.remove(name);
+            }
+            for (String name : tasks) {
+                pendingTasks.put(name, true);
+                if (matching.contains(name)) {
+                    pendingMatching.add(name);
+                } else {
+                    pendingMatching.remove(name);
+                }
+            }
+        }
+    }
+
+    // Shows all changes made since the last time at once, however many versions they span
+    private void flush() {
+        Map<String, Boolean> changes;
+        Set<String> matching;
+        String criterion;
+        boolean refilter;
+        synchronized (pendingLock) {
+            changes = pendingTasks;
+            matching = pendingMatching;
+            criterion = pendingCriterion;
+            refilter = pendingRefilter;
+            pendingTasks = new HashMap<>();
+            pendingMatching = new HashSet<>();
+            pendingRefilter = false;
+            scheduled = false;
+        }
+        Set<String> tasks = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            (change.getValue() ? tasks : removed).add(change.getKey());
+        }
+        apply(tasks, removed, criterion, matching, refilter);
+    }
+
+    private void apply(Set<String> tasks, Set<String> removed, String criterion, Set<String> matching, boolean refilter) {
+        boolean unfiltered = visible == all;
+        boolean bulk = tasks.size() + removed.size() > BULK_CHANGE;
+        int oldSize = visible.size();
+        for (String name : removed) {
+            int index = Collections.binarySearch(all, name);
+            if (index >= 0) {
+                all.remove(index);
+                if (unfiltered && !bulk) {
+                    fireIntervalRemoved(this, index, index);
+                }
+            }
+        }
+        for (String name : tasks) {
+            int index = Collections.binarySearch(all, name);
+            if (index < 0) {
+                all.add(-index - 1, name);
+                if (unfiltered && !bulk) {
+                    fireIntervalAdded(this, -index - 1, -index - 1);
+                }
+            } else if (unfiltered && !bulk) {
+                fireContentsChanged(this, index, index);
+            }
+        }
+        if (unfiltered) {
+            if (bulk) {
+                replaceRows(oldSize);
+            }
+            return;
+        }
+        if (refilter || bulk || !Objects.equals(criterion, filter)) {
+            // the filter was set meanwhile, or may now match other tasks
+            try {
+                replace(tms.filterTasks(filter, all));
+            } catch (CritersionNotFoundException e) {
+                replace(Collections.emptyList());
+            }
+            return;
+        }
+        for (String name : removed) {
+            int index = Collections.binarySearch(visible, name);
+            if (index >= 0) {
+                visible.remove(index);
+                fireIntervalRemoved(this, index, index);
+            }
+        }
+        for (String name : tasks) {
+            int index = Collections.binarySearch(visible, name);
+            boolean show = matching.contains(name);
+            if (show && index < 0) {
+                visible.add(-index - 1, name);
+                fireIntervalAdded(this, -index - 1, -index - 1);
+            } else if (!show && index >= 0) {
+                visible.remove(index);
+                fireIntervalRemoved(this, index, index);
+            } else if (show) {
+                fireContentsChanged(this, index, index);
+            }
+        }
+    }
+
+    private void replace(List<String> names) {
+        int oldSize = visible.size();
+        if (names == all) {
+            visible = all;
+        } else {
+            visible = new ArrayList<>(names);
+            Collections.sort(visible);
+        }
+        replaceRows(oldSize);
+    }
+
+    private void replaceRows(int oldSize) {
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!visible.isEmpty()) {
+            fireIntervalAdded(this, 0, visible.size() - 1);
+        }
+    }
+
+    /**
+     * Stops following the changes of the TMS.
+     */
+    @Override
+    public void close() {
+        tms.removeTaskListener(listener);
+    }
+}
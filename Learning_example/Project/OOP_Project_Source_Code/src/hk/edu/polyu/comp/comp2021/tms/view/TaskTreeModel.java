@@ -0,0 +1,382 @@
+package hk.edu.polyu.comp.comp2021.tms.view;
+
+import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskChangeListener;
+import hk.edu.polyu.comp.comp2021.tms.model.TaskSummary;
+
+import javax.swing.*;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The TaskTreeModel class shows one task of a {@link TMS} in a {@link JTree}: under a composite task its
+ * subtasks, and under a simple task its prerequisites, each with its total duration and earliest finish time.
+ * <p>
+ * Nothing is read before it is needed. A task is summarized when its row is first drawn, and the tasks under
+ * it only when it is opened, so a deep task costs only the rows on screen. The summaries are cached by task
+ * name and shared by every row of the task. A change of the TMS drops the cache, since the figures of a task
+ * depend on all tasks below it, and closes only the opened rows whose tasks changed; the other rows are
+ * summarized again when they are redrawn. The model is only used on the event dispatch thread.
+ * </p>
+ * <p>
+ * The event dispatch thread never waits for the TMS, which may be locked by a long command. Summaries are
+ * read on a loader thread; until a summary arrives its rows show that they are loading and have no children,
+ * and when it arrives they are redrawn and, if opened, filled in. Summaries read before a change are dropped.
+ * </p>
+ */
+public class TaskTreeModel implements TreeModel, AutoCloseable {
+    private final TMS tms;
+    private final TaskChangeListener listener = this::changed;
+    private final List<TreeModelListener> treeListeners = new ArrayList<>();
+    private final Map<String, TaskSummary> summaries = new HashMap<>();
+    private final Set<String> loading = new HashSet<>();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tms-tree-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Counts the changes shown, so that summaries read before the last of them are dropped
+    private long generation;
+    private Node root;
+
+    // Changes not yet shown, merged until the event dispatch thread gets to them
+    private final Object pendingLock = new Object();
+    private Set<String> pendingTasks = new HashSet<>();
+    private boolean scheduled;
+    // Summaries read but not yet shown, by the generation they were asked for in
+    private Map<String, TaskSummary> arrived = new HashMap<>();
+    private long arrivedGeneration;
+    private boolean arrivalScheduled;
+
+    /**
+     * A row of the tree. The same task may have several rows, one for each task it is under.
+     */
+    public final class Node {
+        private final Node parent;
+        private final String name;
+        private List<Node> children;
+        // Whether the row was opened before its summary arrived, and shown without children
+        private boolean waiting;
+
+        private Node(Node parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the task of the row
+         * @return name of the task
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the summary of the task of the row, asking the loader for it if it is not cached
+         * @return summary of the task, or null if it has not arrived yet or the task does not exist
+         */
+        public TaskSummary getSummary() {
+            return summarize(name);
+        }
+
+        /**
+         * Check whether the summary of the task of the row has arrived
+         * @return true if the summary is cached
+         */
+        public boolean isLoaded() {
+            return summaries.containsKey(name);
+        }
+
+        private List<Node> children() {
+            if (children == null) {
+                TaskSummary summary = getSummary();
+                if (!isLoaded()) {
+                    waiting = true;
+                    return Collections.emptyList();
+                }
+                List<String> names = summary == null ? Collections.emptyList() : summary.getChildren();
+                children = new ArrayList<>(names.size());
+                for (String child : names) {
+                    children.add(new Node(this, child));
+                }
+            }
+            return children;
+        }
+
+        private TreePath path() {
+            return parent == null ? new TreePath(this) : parent.path().pathByAddingChild(this);
+        }
+
+        @Override
+        public String toString() {
+            TaskSummary summary = getSummary();
+            if (summary == null) {
+                return name + (isLoaded() ? " (missing)" : " (loading)");
+            }
+            return name + (summary.getRecord().isComposite() ? " (composite" : " (simple")
+                    + ", duration " + format(summary.getTotalDuration())
+                    + ", EFT " + format(summary.getEarliestFinishTime()) + ")";
+        }
+    }
+
+    /**
+     * Constructs an empty tree and starts following the changes of the TMS.
+     *
+     * @param tms The TMS.
+     */
+    public TaskTreeModel(TMS tms) {
+        this.tms = tms;
+        tms.addTaskListener(listener);
+    }
+
+    /**
+     * Shows a task, or nothing.
+     *
+     * @param name The name of the task, or null to show nothing.
+     */
+    public void setTask(String name) {
+        root = name == null ? null : new Node(null, name);
+        TreeModelEvent event = new TreeModelEvent(this, root == null ? null : new TreePath(root));
+        for (TreeModelListener treeListener : new ArrayList<>(treeListeners)) {
+            treeListener.treeStructureChanged(event);
+        }
+    }
+
+    private TaskSummary summarize(String name) {
+        TaskSummary summary = summaries.get(name);
+        if (summary == null && !summaries.containsKey(name) && loading.add(name)) {
+            long asked = generation;
+            loader.execute(() -> {
+                // a summary that cannot be read arrives as missing, so the row does not stay loading for ever
+                TaskSummary loaded;
+                try {
+                    loaded = tms.summarizeTask(name);
+                } catch (RuntimeException e) {
+                    loaded = null;
+                }
+                arrive(asked, name, loaded);
+            });
+        }
+        return summary;
+    }
+
+    // Runs on the loader thread; the summaries that arrive together are shown in one event
+    private void arrive(long asked, String name, TaskSummary summary) {
+        synchronized (pendingLock) {
+            if (asked < arrivedGeneration) {
+                return;
+            }
+            if (asked > arrivedGeneration) {
+                arrived = new HashMap<>();
+                arrivedGeneration = asked;
+            }
+            arrived.put(name, summary);
+            if (!arrivalScheduled) {
+                arrivalScheduled = true;
+                SwingUtilities.invokeLater(this::showArrived);
+            }
+        }
+    }
+
+    private void showArrived() {
+        Map<String, TaskSummary> batch;
+        long asked;
+        synchronized (pendingLock) {
+            batch = arrived;
+            asked = arrivedGeneration;
+            arrived = new HashMap<>();
+            arrivalScheduled = false;
+        }
+        if (asked != generation) {
+            // read before a change; the rows ask again when they are redrawn
+            return;
+        }
+        summaries.putAll(batch);
+        loading.removeAll(batch.keySet());
+        if (root == null) {
+            return;
+        }
+        List<TreeModelListener> targets = new ArrayList<>(treeListeners);
+        if (batch.containsKey(root.name)) {
+            fireAll(targets, new TreeModelEvent(this, new TreePath(root)), root.waiting);
+            if (root.waiting) {
+                root.waiting = false;
+                return;
+            }
+        }
+        // the rows on screen are the root and the children of the opened rows
+        Deque<Node> opened = new ArrayDeque<>();
+        opened.push(root);
+        while (!opened.isEmpty()) {
+            Node node = opened.pop();
+            if (node.children == null) {
+                continue;
+            }
+            List<Integer> indices = new ArrayList<>();
+            for (int i = 0; i < node.children.size(); i++) {
+                Node child = node.children.get(i);
+                if (!batch.containsKey(child.name)) {
+                    opened.push(child);
+                } else if (child.waiting) {
+                    child.waiting = false;
+                    fireAll(targets, new TreeModelEvent(this, child.path()), true);
+                } else {
+                    indices.add(i);
+                    opened.push(child);
+                }
+            }
+            if (!indices.isEmpty()) {
+                int[] changed = new int[indices.size()];
+                Object[] rows = new Object[changed.length];
+                for (int i = 0; i < changed.length; i++) {
+                    changed[i] = indices.get(i);
+                    rows[i] = node.children.get(changed[i]);
+                }
+                fireAll(targets, new TreeModelEvent(this, node.path(), changed, rows), false);
+            }
+        }
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "invalid" : Double.toString(value);
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return ((Node) parent).children().get(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return ((Node) parent).children().size();
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        Node row = (Node) node;
+        if (row.children != null) {
+            return row.children.isEmpty();
+        }
+        TaskSummary summary = row.getSummary();
+        // a row that is loading may be opened; it is filled in when its summary arrives
+        return row.isLoaded() && (summary == null || summary.getChildren().isEmpty());
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == null || child == null) {
+            return -1;
+        }
+        return ((Node) parent).children().indexOf(child);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // the rows cannot be edited
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        treeListeners.add(l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        treeListeners.remove(l);
+    }
+
+    // Runs on the thread that made the change, while the TMS is locked for it
+    private void changed(long version, Set<String> tasks, Set<String> removed, Set<String> criteria) {
+        if (tasks.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        synchronized (pendingLock) {
+            pendingTasks.addAll(tasks);
+            pendingTasks.addAll(removed);
+            if (!scheduled) {
+                scheduled = true;
+                SwingUtilities.invokeLater(this::flush);
+            }
+        }
+    }
+
+    private void flush() {
+        Set<String> changes;
+        synchronized (pendingLock) {
+            changes = pendingTasks;
+            pendingTasks = new HashSet<>();
+            scheduled = false;
+        }
+        generation++;
+        summaries.clear();
+        loading.clear();
+        if (root == null) {
+            return;
+        }
+        // only rows that have been opened are visited; the rows under a changed task are read again when reopened
+        List<Node> restructured = new ArrayList<>();
+        List<Node> relabelled = new ArrayList<>();
+        Deque<Node> opened = new ArrayDeque<>();
+        opened.push(root);
+        while (!opened.isEmpty()) {
+            Node node = opened.pop();
+            if (node.children == null) {
+                continue;
+            }
+            if (changes.contains(node.name)) {
+                node.children = null;
+                restructured.add(node);
+            } else {
+                relabelled.add(node);
+                for (Node child : node.children) {
+                    opened.push(child);
+                }
+            }
+        }
+        List<TreeModelListener> targets = new ArrayList<>(treeListeners);
+        if (restructured.contains(root) || root.children == null) {
+            fireAll(targets, new TreeModelEvent(this, new TreePath(root)), true);
+            return;
+        }
+        fireAll(targets, new TreeModelEvent(this, new TreePath(root)), false);
+        for (Node node : relabelled) {
+            int[] indices = new int[node.children.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
+            }
+            fireAll(targets, new TreeModelEvent(this, node.path(), indices, node.children.toArray()), false);
+        }
+        for (Node node : restructured) {
+            fireAll(targets, new TreeModelEvent(this, node.path()), true);
+        }
+    }
+
+    private static void fireAll(List<TreeModelListener> targets, TreeModelEvent event, boolean structure) {
+        for (TreeModelListener target : targets) {
+            if (structure) {
+                target.treeStructureChanged(event);
+            } else {
+                target.treeNodesChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Stops following the changes of the TMS and stops the loader.
+     */
+    @Override
+    public void close() {
+        tms.removeTaskListener(listener);
+        loader.shutdownNow();
+    }
+}
@@ -0,0 +1,54 @@
+package hk.edu.polyu.comp.comp2021.tms.model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PersistentHashMapTest checks the persistent map against a HashMap, including keys with equal hashes,
+ * and checks that old versions are left unchanged.
+ */
+public class PersistentHashMapTest {
+
+    /**
+     * Applies random puts and removes to both maps and compares them, keeping one old version aside.
+     */
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> old = null;
+        Map<String, Integer> oldExpected = null;
+        for (int i = 0; i < 50000; i++) {
+            // "Aa" and "BB" have the same hash code, so these keys also exercise collision nodes
+            String key = (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+            if (i == 25000) {
+                old = map;
+                oldExpected = new HashMap<>(expected);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<String, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+        for (String key : expected.keySet()) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<String, Integer> oldActual = new HashMap<>();
+        old.forEach(oldActual::put);
+        assertEquals(oldExpected, oldActual);
+        assertEquals(oldExpected.size(), old.size());
+    }
+}
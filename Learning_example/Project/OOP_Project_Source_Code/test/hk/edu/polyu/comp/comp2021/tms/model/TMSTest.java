@@ -1,12 +1,63 @@
 package hk.edu.polyu.comp.comp2021.tms.model;
 
+import hk.edu.polyu.comp.comp2021.tms.controller.CommandPipeline;
+import hk.edu.polyu.comp.comp2021.tms.controller.ReplicaFollower;
+import hk.edu.polyu.comp.comp2021.tms.controller.ReplicationLeader;
+import hk.edu.polyu.comp.comp2021.tms.controller.ShardCoordinator;
+import hk.edu.polyu.comp.comp2021.tms.controller.SharedChannel;
 import hk.edu.polyu.comp.comp2021.tms.controller.TMS;
+import hk.edu.polyu.comp.comp2021.tms.controller.TMSAsync;
+import hk.edu.polyu.comp.comp2021.tms.controller.TMSClient;
+import hk.edu.polyu.comp.comp2021.tms.controller.WireServer;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.InvalidBatchException;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.TaskCannotReomoveException;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.RemoteOperationException;
+import hk.edu.polyu.comp.comp2021.tms.view.Application;
+import hk.edu.polyu.comp.comp2021.tms.view.BackgroundCommands;
+import hk.edu.polyu.comp.comp2021.tms.view.TMSServer;
+import hk.edu.polyu.comp.comp2021.tms.view.TaskListModel;
+import hk.edu.polyu.comp.comp2021.tms.view.TaskTreeModel;
+import hk.edu.polyu.comp.comp2021.tms.model.exceptions.TaskNotFoundException;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import javax.swing.JButton;
+import javax.swing.JProgressBar;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * TMSTest is a test suite for the Task Management System (TMS).
@@ -133,4 +184,1161 @@ public class TMSTest {
         assert true;
     }
 
+
+    /**
+     * Tests that a background store writes the state as it was when the store was started,
+     * and that the file can be loaded back.
+     */
+    @Test
+    public void testStoreAsync() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        File file = File.createTempFile("tms", ".txt");
+        file.deleteOnExit();
+
+        CompletableFuture<Void> store = taskManager.storingAsync(file.getPath());
+        taskManager.addSimpleTask("Sugar", "Add-sugar", "1.0", Collections.singletonList("Boil-Water"));
+        store.get();
+
+        TaskManager loaded = new TaskManager();
+        loaded.loading(file.getPath());
+        assertEquals(1, loaded.snapshot().getTasks().size());
+        assertEquals("Boil-Water", loaded.snapshot().getTasks().get(0).getName());
+    }
+
+    /**
+     * Tests archiving a task whose prerequisite is a composite task, which keeps no reverse list.
+     */
+    @Test
+    public void testArchiveTask() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("a1", "First", "1.0", Collections.singletonList(","));
+        taskManager.addCompositeTask("c1", "Both", Collections.singletonList("a1"));
+        taskManager.addSimpleTask("s2", "Second", "2.0", Collections.singletonList("c1"));
+        Path directory = Files.createTempDirectory("tms");
+        Path file = directory.resolve("archive.db");
+        taskManager.attachArchive(file.toString(), 4);
+        try {
+            taskManager.archiveTask("s2");
+            assertFalse(taskManager.hasTask("s2"));
+            assertEquals(1, taskManager.archivedTaskCount());
+
+            taskManager.restoreTask("s2");
+            assertTrue(taskManager.hasTask("s2"));
+            assertEquals(0, taskManager.archivedTaskCount());
+        } finally {
+            taskManager.detachArchive();
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Tests that storing over a file keeps the permissions the file had.
+     */
+    @Test
+    public void testStoreKeepsPermissions() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        File file = File.createTempFile("tms", ".txt");
+        file.deleteOnExit();
+        Assume.assumeNotNull(Files.getFileAttributeView(file.toPath(), PosixFileAttributeView.class));
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(file.toPath(), permissions);
+
+        taskManager.storing(file.getPath());
+        assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+        taskManager.storingAsync(file.getPath()).get();
+        assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    /**
+     * Tests that a stored file is loaded back by linking its tasks, and that its derived sections are then
+     * used as stored.
+     */
+    @Test
+    public void testWarmLoad() throws Exception {
+        TaskManager source = new TaskManager();
+        source.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        source.addSimpleTask("Sugar", "Add-sugar", "2.0", Collections.singletonList("Boil-Water"));
+        source.addCompositeTask("Make-Coffee", "Make-coffee", Arrays.asList("Boil-Water", "Sugar"));
+        assertEquals(3.0, source.ReportEarliestFinishTime("Sugar"), 0);
+        File file = File.createTempFile("tms", ".txt");
+        file.deleteOnExit();
+        source.storing(file.getPath());
+
+        TaskManager loaded = new TaskManager();
+        loaded.loading(file.getPath());
+        assertTrue(source.diff(loaded).isEmpty());
+        assertEquals(source.topologicalOrder(), loaded.topologicalOrder());
+        assertEquals(3.0, loaded.ReportEarliestFinishTime("Sugar"), 0);
+        try {
+            loaded.removeTask("Sugar");
+            fail("a subtask must not be removable");
+        } catch (TaskCannotReomoveException e) {
+            assertEquals("Subtask cannot be removed.", e.getMessage());
+        }
+
+        // a section stamped for the task lines is trusted as it is
+        List<String> lines = Files.readAllLines(file.toPath());
+        List<String> taskLines = new ArrayList<>();
+        List<String> finishTimes = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith("simpletask%") || line.startsWith("compositeTask%")) {
+                taskLines.add(line);
+            } else if (line.equals("index%eft%Sugar%3.0")) {
+                lines.set(i, "index%eft%Sugar%5.0");
+                finishTimes.add("Sugar%5.0");
+            } else if (line.startsWith("index%eft%")) {
+                finishTimes.add(line.substring("index%eft%".length()));
+            }
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("section%eft%")) {
+                lines.set(i, "section%eft%" + WorkspaceSnapshot.sectionStamp(source.getVersion(), taskLines, finishTimes));
+            }
+        }
+        Files.write(file.toPath(), lines);
+        TaskManager stamped = new TaskManager();
+        stamped.loading(file.getPath());
+        assertEquals(5.0, stamped.ReportEarliestFinishTime("Sugar"), 0);
+    }
+
+    /**
+     * Tests that derived sections which do not fit the task lines are not trusted, and that the tasks are
+     * then added one by one.
+     */
+    @Test
+    public void testCorruptedSection() throws Exception {
+        TaskManager source = new TaskManager();
+        source.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        source.addSimpleTask("Sugar", "Add-sugar", "2.0", Collections.singletonList("Boil-Water"));
+        assertEquals(3.0, source.ReportEarliestFinishTime("Sugar"), 0);
+        File file = File.createTempFile("tms", ".txt");
+        file.deleteOnExit();
+        source.storing(file.getPath());
+
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.equals("index%eft%Sugar%3.0")) {
+                lines.add("index%eft%Sugar%5.0");
+            } else if (!line.startsWith("index%reverse%")) {
+                lines.add(line);
+            }
+        }
+        Files.write(file.toPath(), lines);
+        TaskManager loaded = new TaskManager();
+        loaded.loading(file.getPath());
+        assertEquals(3.0, loaded.ReportEarliestFinishTime("Sugar"), 0);
+        try {
+            loaded.removeTask("Boil-Water");
+            fail("a prerequisite must not be removable");
+        } catch (TaskCannotReomoveException e) {
+            assertEquals("Prerequisite task cannot be removed.", e.getMessage());
+        }
+        assertTrue(source.diff(loaded).isEmpty());
+    }
+
+    /**
+     * Tests that a delta exported against a hash summary or a stored file turns one
+     * workspace into a copy of another.
+     */
+    @Test
+    public void testDeltaSync() throws Exception {
+        TaskManager source = new TaskManager();
+        source.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        source.addSimpleTask("Sugar", "Add-sugar", "1.0", Collections.singletonList("Boil-Water"));
+        source.addCompositeTask("Make-Coffee", "Make-coffee", Arrays.asList("Boil-Water", "Sugar"));
+        source.defineBasicCriterion("Long", "duration", ">", 1.0, "duration");
+        TaskManager target = new TaskManager();
+        target.addSimpleTask("Old", "Old-task", "3.0", Collections.singletonList(","));
+
+        File hashes = File.createTempFile("hashes", ".txt");
+        File delta = File.createTempFile("delta", ".txt");
+        File stored = File.createTempFile("stored", ".txt");
+        hashes.deleteOnExit();
+        delta.deleteOnExit();
+        stored.deleteOnExit();
+
+        target.storeHashes(hashes.getPath());
+        source.exportDelta(hashes.getPath(), delta.getPath());
+        target.applyDelta(delta.getPath());
+        assertTrue(source.diff(target).isEmpty());
+        assertEquals(source.contentHash(), target.contentHash());
+
+        target.storing(stored.getPath());
+        source.updateTask("Sugar", "duration", "2.0");
+        assertEquals(Collections.singleton("task%Sugar"), source.diffSnapshot(stored.getPath()));
+        assertEquals(1, source.exportDelta(stored.getPath(), delta.getPath()));
+        target.applyDelta(delta.getPath());
+        assertTrue(source.diff(target).isEmpty());
+        assertEquals("Sugar ", target.search("Long"));
+    }
+
+    /**
+     * Tests that tasks can be printed, searched and timed as they were at earlier versions,
+     * across several keyframes of the history.
+     */
+    @Test
+    public void testTaskHistory() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        taskManager.addSimpleTask("Sugar", "Add-sugar", "1.0", Collections.singletonList("Boil-Water"));
+        taskManager.defineBasicCriterion("Long", "duration", ">", 10.0, "duration");
+        long created = taskManager.getVersion();
+        List<Long> versions = new ArrayList<>();
+        for (int i = 1; i <= 3 * TaskHistory.KEYFRAME_INTERVAL; i++) {
+            taskManager.updateTask("Sugar", "duration", i + ".0");
+            versions.add(taskManager.getVersion());
+        }
+        taskManager.updateTask("Sugar", "description", "Add-more-sugar");
+
+        assertEquals(2.0, taskManager.ReportEarliestFinishTimeAsOf("Sugar", created), 0.00001);
+        for (int i = 1; i <= versions.size(); i++) {
+            assertEquals(i + 1.0, taskManager.ReportEarliestFinishTimeAsOf("Sugar", versions.get(i - 1)), 0.00001);
+        }
+        assertEquals("No task found", taskManager.searchAsOf("Long", versions.get(9)));
+        assertEquals("Sugar ", taskManager.searchAsOf("Long", versions.get(10)));
+        assertEquals("Description: Add-sugar", taskManager.printTaskAsOf("Sugar", created).get(2));
+        assertEquals("Description: Add-more-sugar", taskManager.printTaskAsOf("Sugar", taskManager.getVersion()).get(2));
+        assertEquals(taskManager.printTask("Sugar"), taskManager.printTaskAsOf("Sugar", taskManager.getVersion()));
+        try {
+            taskManager.printTaskAsOf("Sugar", 1);
+            throw new AssertionError("Sugar did not exist at version 1");
+        } catch (TaskNotFoundException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that queries from several threads see consistent results while another thread keeps changing tasks.
+     */
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        TMS tms = new TMS();
+        tms.createSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        tms.addBasicCriterion("Long", "duration", ">", "1.5");
+        List<Thread> readers = new ArrayList<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                tms.createSimpleTask("Task" + i, "Task", "2.0", Collections.singletonList("Boil-Water"));
+                tms.changeTask("Boil-Water", "duration", (i % 2 == 0 ? "3.0" : "1.0"));
+            }
+        });
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                while (writer.isAlive()) {
+                    String duration = tms.reportDuration("Boil-Water");
+                    if (!duration.equals("Duration: 1.0") && !duration.equals("Duration: 3.0")) {
+                        failures.add(duration);
+                    }
+                    if (tms.search("Long").contains("Task0") && tms.printTask("Task0").startsWith("Error")) {
+                        failures.add("Task0 found by search but not printed");
+                    }
+                    tms.reportEarliestFinishTime("Task0");
+                }
+            }));
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals("Earliest finish time reported: 3.0", tms.reportEarliestFinishTime("Task1999"));
+    }
+
+    /**
+     * Tests that a pinned version keeps answering reports with the state it was pinned at.
+     */
+    @Test
+    public void testPinnedVersion() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        taskManager.enableVersions();
+        taskManager.addSimpleTask("Sugar", "Add-sugar", "2.0", Collections.singletonList("Boil-Water"));
+        taskManager.defineBasicCriterion("Long", "duration", ">", 1.5, "duration");
+        WorkspaceVersion pinned = taskManager.pin();
+
+        taskManager.updateTask("Boil-Water", "duration", "5.0");
+        taskManager.removeTask("Sugar");
+
+        assertEquals(3.0, pinned.ReportEarliestFinishTime("Sugar"), 0.00001);
+        assertEquals("Sugar ", pinned.search("Long"));
+        assertEquals(2, pinned.printAllTasks().size());
+        // later reports reuse the tasks linked for this version, and still see it as pinned
+        taskManager.defineBasicCriterion("Long", "duration", ">", 0.5, "duration");
+        assertEquals(3.0, pinned.ReportEarliestFinishTime("Sugar"), 0.00001);
+        assertEquals(Collections.singletonList("Sugar"), pinned.searchNames("Long"));
+        assertEquals("Boil-Water ", taskManager.pin().search("Long"));
+        assertEquals(taskManager.printTask("Boil-Water"), taskManager.pin().printTask("Boil-Water"));
+        assertEquals(taskManager.getVersion(), taskManager.pin().getVersion());
+    }
+
+    /**
+     * Tests that a copy of a criterion, as kept by pinned versions, does not follow changes of the original.
+     */
+    @Test
+    public void testCriterionCopy() {
+        Criterion first = new Criterion("duration", ">", 1.5, "duration");
+        Criterion second = new Criterion("name", "contains", "Tea", "string");
+        Criterion both = new Criterion(first, "&&", second);
+        Criterion copy = both.copy();
+        first.setOperation("<");
+        second.setValue("Coffee");
+        both.setType("negated");
+        assertEquals("(duration > 1.5) && (name contains Tea)", copy.toString());
+        assertEquals("binary", copy.getType());
+    }
+
+    /**
+     * Tests that commands submitted from several threads through the pipeline are all applied and completed.
+     */
+    @Test
+    public void testCommandPipeline() throws Exception {
+        TMS tms = new TMS();
+        CommandPipeline pipeline = new CommandPipeline(tms, 64, 16);
+        pipeline.submit(t -> t.createSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","))).get();
+        List<CompletableFuture<String>> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            int producer = p;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String name = "Task" + producer + "-" + i;
+                    results.add(pipeline.submit(t -> t.createSimpleTask(name, "Task", "2.0", Collections.singletonList("Boil-Water"))));
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.close();
+        assertEquals(2000, results.size());
+        for (CompletableFuture<String> result : results) {
+            assertEquals("Task created successfully.", result.get());
+        }
+        assertEquals("Earliest finish time reported: 3.0", tms.reportEarliestFinishTime("Task3-499"));
+        try {
+            pipeline.submit(t -> t.deleteTask("Task0-0"));
+            throw new AssertionError("A closed pipeline accepted a command");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a batch may refer forward to tasks it creates later, and that an invalid batch changes nothing.
+     */
+    @Test
+    public void testTaskBatch() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        taskManager.apply(new TaskBatch()
+                .createSimpleTask("Coffee", "Brew-coffee", "2.0", Arrays.asList("Boil-Water", "Grind"))
+                .createSimpleTask("Grind", "Grind-beans", "3.0", Collections.singletonList(","))
+                .createCompositeTask("Make-Coffee", "Make-coffee", Arrays.asList("Grind", "Coffee"))
+                .changeTask("Boil-Water", "duration", "4.0"));
+        assertEquals(6.0, taskManager.ReportEarliestFinishTime("Coffee"), 0.00001);
+        assertTrue(taskManager.printTask("Make-Coffee").contains("Subtask: Exist 2 subtasks."));
+
+        long version = taskManager.getVersion();
+        try {
+            taskManager.apply(new TaskBatch()
+                    .deleteTask("Boil-Water")
+                    .createSimpleTask("Tea", "Brew-tea", "x", Collections.singletonList("Leaves")));
+            throw new AssertionError("An invalid batch was applied");
+        } catch (InvalidBatchException e) {
+            assertEquals(2, e.getErrors().size());
+        }
+        assertEquals(version, taskManager.getVersion());
+        assertEquals(4.0, taskManager.ReportDuration("Boil-Water"), 0.00001);
+
+        taskManager.apply(new TaskBatch()
+                .changeTask("Coffee", "prerequisites", Collections.singletonList("Grind"))
+                .deleteTask("Boil-Water"));
+        assertEquals(version + 1, taskManager.getVersion());
+        assertEquals(5.0, taskManager.ReportEarliestFinishTime("Coffee"), 0.00001);
+
+        // deleting a composite task deletes its subtasks and keeps the composite task, as removeTask does
+        TaskManager removed = new TaskManager();
+        removed.addSimpleTask("Grind", "Grind-beans", "3.0", Collections.singletonList(","));
+        removed.addSimpleTask("Coffee", "Brew-coffee", "2.0", Collections.singletonList("Grind"));
+        removed.addCompositeTask("Make-Coffee", "Make-coffee", Arrays.asList("Grind", "Coffee"));
+        removed.removeTask("Make-Coffee");
+        taskManager.apply(new TaskBatch().deleteTask("Make-Coffee"));
+        assertTrue(removed.hasTask("Make-Coffee"));
+        assertTrue(taskManager.hasTask("Make-Coffee"));
+        assertFalse(taskManager.hasTask("Grind"));
+        assertFalse(taskManager.hasTask("Coffee"));
+    }
+
+    /**
+     * Tests changing and deleting every task that meets a criterion.
+     */
+    @Test
+    public void testTasksMatching() {
+        TMS tms = new TMS();
+        tms.createSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        tms.createSimpleTask("Grind", "Grind-beans", "2.0", Collections.singletonList(","));
+        tms.createSimpleTask("Coffee", "Brew-coffee", "3.0", Collections.singletonList("Boil-Water"));
+        tms.addBasicCriterion("Long", "duration", ">", "1.5");
+        tms.addBasicCriterion("Short", "duration", "<", "1.5");
+
+        assertEquals("Tasks updated successfully: 2 tasks.", tms.changeTasksMatching("Long", "duration", "*2"));
+        assertEquals("Duration: 4.0", tms.reportDuration("Grind"));
+        assertEquals("Duration: 6.0", tms.reportDuration("Coffee"));
+        assertEquals("Duration: 1.0", tms.reportDuration("Boil-Water"));
+
+        assertTrue(tms.deleteTasksMatching("Short").startsWith("Error: Task 'Boil-Water' is still used by task 'Coffee'"));
+        assertEquals("Duration: 1.0", tms.reportDuration("Boil-Water"));
+        assertEquals("Tasks deleted successfully: 2 tasks.", tms.deleteTasksMatching("Long"));
+        assertEquals("Boil-Water ", tms.search("Short"));
+        assertEquals("No task found", tms.search("Long"));
+
+        // the duration of a composite task is made of its subtasks and cannot be set, one by one or together
+        tms.createCompositeTask("Make-Tea", "Make-tea", Collections.singletonList("Boil-Water"));
+        tms.addBasicCriterion("Make", "name", "contains", "Make");
+        assertEquals("Error: Composite task cannot have a duration.", tms.changeTask("Make-Tea", "duration", "5.0"));
+        assertEquals("Error: Task 'Make-Tea' cannot have a duration.", tms.changeTasksMatching("Make", "duration", "5.0"));
+        assertEquals("Error: Task 'Make-Tea' cannot have a duration.", tms.changeTasksMatching("Make", "duration", "*2"));
+        assertEquals("Duration: 1.0", tms.reportDuration("Make-Tea"));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        TMS tms = new TMS();
+        try (TMSAsync async = new TMSAsync(tms)) {
+            async.createSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(",")).get();
+            async.createSimpleTask("Coffee", "Brew-coffee", "3.0", Collections.singletonList("Boil-Water")).get();
+            tms.addBasicCriterion("Long", "duration", ">", "1.5");
+
+            assertEquals(Collections.singletonList("Coffee"), async.search("Long").get());
+            assertEquals(Double.valueOf(4.0), async.reportEarliestFinishTime("Coffee").get());
+            try {
+                async.reportDuration("Tea").get();
+                assertTrue(false);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TaskNotFoundException);
+            }
+        }
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        TMS tms = new TMS();
+        try (TMSServer server = new TMSServer(tms, 0, 2, 4);
+             Socket socket = new Socket("localhost", server.getPort())) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // all commands are sent before any reply is read
+            out.write("createSimpleTask Boil-Water Boil-some-water 1.0 ,\n");
+            out.write("createSimpleTask Coffee Brew-coffee 3.0 Boil-Water\n");
+            out.write("reportEarliestFinishTime Coffee\n");
+            out.write("deleteTask\n");
+            out.write("quit\n");
+            out.flush();
+
+            List<String> replies = new ArrayList<>();
+            StringBuilder reply = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(".")) {
+                    replies.add(reply.toString());
+                    reply.setLength(0);
+                } else {
+                    reply.append(line.startsWith(".") ? line.substring(1) : line);
+                }
+            }
+            assertEquals(4, replies.size());
+            assertEquals(tms.reportEarliestFinishTime("Coffee"), replies.get(2));
+            assertEquals("Error: Invalid number of arguments.", replies.get(3));
+        }
+    }
+
+    /**
+     * Tests that a connection stays open to answer the commands sent before "quit", even when the server
+     * reads the "quit" while it is still running them.
+     */
+    @Test
+    public void testServerAnswersBeforeQuit() throws Exception {
+        TMS tms = new TMS();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TaskChangeListener slow = (version, tasks, removed, criteria) -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        tms.addTaskListener(slow);
+        try (TMSServer server = new TMSServer(tms, 0, 4, 1);
+             Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(10_000);
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write("createSimpleTask Boil-Water Boil-some-water 1.0 ,\n");
+            out.write("reportDuration Boil-Water\n");
+            out.write("quit\n");
+            out.flush();
+            running.await();
+            // give the server time to read the "quit" while the first command is still running
+            Thread.sleep(200);
+            release.countDown();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> replies = new ArrayList<>();
+            StringBuilder reply = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(".")) {
+                    replies.add(reply.toString());
+                    reply.setLength(0);
+                } else {
+                    reply.append(line);
+                }
+            }
+            assertEquals(2, replies.size());
+            assertEquals(tms.reportDuration("Boil-Water"), replies.get(1));
+        } finally {
+            tms.removeTaskListener(slow);
+        }
+    }
+
+    /**
+     * Tests that a command failing with an unexpected exception is answered with an error, and that the
+     * commands sent after it on the same connection are still answered.
+     */
+    @Test
+    public void testServerSurvivesBadCommand() throws Exception {
+        TMS tms = new TMS();
+        try (TMSServer server = new TMSServer(tms, 0, 4, 1);
+             Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(10_000);
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write("createSimpleTask A d 1 ,\n");
+            out.write("changeTask A duration abc\n");
+            out.write("reportDuration A\n");
+            out.write("quit\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> replies = new ArrayList<>();
+            StringBuilder reply = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(".")) {
+                    replies.add(reply.toString());
+                    reply.setLength(0);
+                } else {
+                    reply.append(line);
+                }
+            }
+            assertEquals(3, replies.size());
+            assertTrue(replies.get(1).startsWith("Error: "));
+            assertEquals(tms.reportDuration("A"), replies.get(2));
+        }
+    }
+
+    @Test
+    public void testWireProtocol() throws Exception {
+        TMS tms = new TMS();
+        tms.addBasicCriterion("Long", "duration", ">", "1.5");
+        try (TMSClient loopback = TMSClient.loopback(tms)) {
+            TMSClient.Pipeline pipeline = loopback.pipeline();
+            TMSClient.Reply<Void> boil = pipeline.createSimpleTask("Boil-Water", "Boil-some-water", 1.0, Collections.emptyList());
+            pipeline.createSimpleTask("Coffee", "Brew-coffee", 3.0, Collections.singletonList("Boil-Water"));
+            TMSClient.Reply<Void> again = pipeline.createSimpleTask("Coffee", "Brew-coffee", 3.0, Collections.emptyList());
+            TMSClient.Reply<Double> finish = pipeline.reportEarliestFinishTime("Coffee");
+            pipeline.send();
+            assertEquals(null, boil.get());
+            assertEquals(4.0, finish.get(), 0.0);
+            try {
+                again.get();
+                fail("Coffee exists already");
+            } catch (RemoteOperationException e) {
+                assertEquals("TaskAlreadyExistsException", e.getKind());
+            }
+
+            // criteria are defined by the typed operations of the task manager, and fail with their exceptions
+            TMSClient.Reply<Void> brief = pipeline.defineBasicCriterion("Brief", "duration", "<", "2");
+            TMSClient.Reply<Void> badRegex = pipeline.defineBasicCriterion("Bad", "name", "matches", "Brew(");
+            TMSClient.Reply<Void> notBrief = pipeline.defineNegatedCriterion("NotBrief", "Brief");
+            TMSClient.Reply<Void> duplicate = pipeline.defineNegatedCriterion("NotBrief", "Long");
+            TMSClient.Reply<Void> missing = pipeline.defineBinaryCriterion("Both", "Brief", "&&", "Missing");
+            pipeline.send();
+            assertEquals(null, brief.get());
+            assertEquals(null, notBrief.get());
+            assertEquals(Collections.singletonList("Coffee"), loopback.search("NotBrief"));
+            String[][] failures = {
+                    {"InvalidPropertyException", "Invalid regular expression."},
+                    {"CriterionAlreadyExistsException", "A criterion with the given new name already exists."},
+                    {"CritersionNotFoundException", "Second criterion with name 'Missing' does not exist."}};
+            List<TMSClient.Reply<Void>> failed = Arrays.asList(badRegex, duplicate, missing);
+            for (int i = 0; i < failures.length; i++) {
+                try {
+                    failed.get(i).get();
+                    fail(failures[i][1]);
+                } catch (RemoteOperationException e) {
+                    assertEquals(failures[i][0], e.getKind());
+                    assertEquals(failures[i][1], e.getMessage());
+                }
+            }
+        }
+        try (WireServer server = new WireServer(tms, 0);
+             TMSClient client = TMSClient.connect("localhost", server.getPort())) {
+            assertEquals(Collections.singletonList("Coffee"), client.search("Long"));
+            assertEquals(3.0, client.reportDuration("Coffee"), 0.0);
+            client.deleteTask("Coffee");
+            assertEquals(Collections.emptyList(), client.search("Long"));
+        }
+    }
+
+    @Test
+    public void testSharedChannel() throws Exception {
+        TMS tms = new TMS();
+        Path file = Files.createTempFile("tms", ".channel");
+        SharedChannel channel = SharedChannel.open(tms, file);
+        try {
+            try (TMSClient client = TMSClient.attach(file)) {
+                long before = client.dataVersion();
+                client.createSimpleTask("Boil-Water", "Boil-some-water", 1.0, Collections.emptyList());
+                assertTrue(client.dataVersion() > before);
+                assertEquals(1.0, client.reportDuration("Boil-Water"), 0.0);
+                // a live client keeps the channel
+                try {
+                    TMSClient.attach(file).close();
+                    fail("the channel is in use");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().startsWith("Shared channel is in use"));
+                }
+                assertEquals(1.0, client.reportDuration("Boil-Water"), 0.0);
+            }
+            // the channel is freed for the next client once the first one detaches
+            TMSClient next = null;
+            for (int attempt = 0; next == null; attempt++) {
+                try {
+                    next = TMSClient.attach(file);
+                } catch (IOException e) {
+                    if (attempt == 1000) {
+                        throw e;
+                    }
+                    Thread.sleep(1);
+                }
+            }
+            try (TMSClient client = next) {
+                assertEquals(1.0, client.reportEarliestFinishTime("Boil-Water"), 0.0);
+            }
+
+            // a client that died while attached leaves the channel marked as attached, without its lock
+            try (FileChannel raw = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer header = raw.map(FileChannel.MapMode.READ_WRITE, 0, 128);
+                header.order(ByteOrder.nativeOrder());
+                for (int attempt = 0; header.getInt(64) != 0; attempt++) {
+                    assertTrue(attempt < 1000);
+                    Thread.sleep(1);
+                }
+                header.putInt(64, 1);
+            }
+            try (TMSClient client = TMSClient.attach(file)) {
+                assertEquals(1.0, client.reportDuration("Boil-Water"), 0.0);
+            }
+        } finally {
+            channel.close();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        List<TMSClient> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            clients.add(TMSClient.loopback(new TMS()));
+        }
+        try (ShardCoordinator shards = new ShardCoordinator(clients)) {
+            List<String> names = Arrays.asList("A", "B", "C", "D", "E", "F");
+            shards.createSimpleTask("A", "First", 2.0, Collections.emptyList());
+            for (int i = 1; i < names.size(); i++) {
+                shards.createSimpleTask(names.get(i), "Next", 1.0, Collections.singletonList(names.get(i - 1)));
+            }
+            shards.defineBasicCriterion("Long", "duration", ">", "1.5");
+
+            assertEquals(3.0, shards.reportEarliestFinishTime("B"), 0.0);
+            shards.changeTask("A", "duration", "5.0");
+            assertEquals(6.0, shards.reportEarliestFinishTime("B"), 0.0);
+            // ghosts of A on other shards are left out
+            assertEquals(Collections.singletonList("A"), shards.search("Long"));
+            try {
+                shards.deleteTask("C");
+                fail("C is a prerequisite of D");
+            } catch (RemoteOperationException e) {
+                assertEquals(1.0, shards.reportDuration("C"), 0.0);
+            }
+            shards.deleteTask("F");
+            shards.deleteTask("E");
+            assertEquals(2.0, shards.reportEarliestFinishTime("D"), 0.0);
+        }
+    }
+
+    /**
+     * Tests that shards served over TCP report the same durations and earliest finish times as a single
+     * task manager, with composite prerequisites on other shards, and that ghosts follow the tasks using them.
+     */
+    @Test
+    public void testShardsMatchSingleManager() throws Exception {
+        List<TMS> shardTms = new ArrayList<>();
+        List<WireServer> servers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            shardTms.add(new TMS());
+            servers.add(new WireServer(shardTms.get(i), 0));
+            addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), servers.get(i).getPort()));
+        }
+        try (ShardCoordinator shards = ShardCoordinator.connect(addresses)) {
+            TaskManager single = new TaskManager();
+            int home = shards.shardOf("Make");
+            String boil = nameOn(shards, "Boil", home, true);
+            String brew = nameOn(shards, "Brew", home, true);
+            String serve = nameOn(shards, "Serve", home, false);
+            String sugar = nameOn(shards, "Sugar", shards.shardOf(serve), false);
+            shards.createSimpleTask(boil, "Boil", 2.0, Collections.emptyList());
+            shards.createSimpleTask(brew, "Brew", 3.0, Collections.singletonList(boil));
+            shards.createCompositeTask("Make", "Make", Arrays.asList(boil, brew));
+            shards.createSimpleTask(sugar, "Sugar", 0.5, Collections.emptyList());
+            shards.createSimpleTask(serve, "Serve", 1.0, Arrays.asList("Make", sugar));
+            single.addSimpleTask(boil, "Boil", "2.0", Collections.singletonList(","));
+            single.addSimpleTask(brew, "Brew", "3.0", Collections.singletonList(boil));
+            single.addCompositeTask("Make", "Make", Arrays.asList(boil, brew));
+            single.addSimpleTask(sugar, "Sugar", "0.5", Collections.singletonList(","));
+            single.addSimpleTask(serve, "Serve", "1.0", Arrays.asList("Make", sugar));
+            assertEquals(single.ReportEarliestFinishTime(serve), shards.reportEarliestFinishTime(serve), 0.0);
+
+            shards.changeTask(boil, "duration", "4.0");
+            shards.changeTask(sugar, "duration", "2.0");
+            single.updateTask(boil, "duration", "4.0");
+            single.updateTask(sugar, "duration", "2.0");
+            assertEquals(single.ReportDuration("Make"), shards.reportDuration("Make"), 0.0);
+            assertEquals(single.ReportEarliestFinishTime("Make"), shards.reportEarliestFinishTime("Make"), 0.0);
+            assertEquals(single.ReportEarliestFinishTime(serve), shards.reportEarliestFinishTime(serve), 0.0);
+
+            // a create that fails leaves no ghost behind
+            int other = 3 - shards.shardOf(serve) - shards.shardOf(sugar);
+            String late = nameOn(shards, "Late", other, true);
+            shards.createSimpleTask(late, "Late", 1.0, Collections.emptyList());
+            try {
+                shards.createSimpleTask(late, "Late", 1.0, Collections.singletonList(sugar));
+                fail(late + " already exists");
+            } catch (RemoteOperationException e) {
+                assertEquals("TaskAlreadyExistsException", e.getKind());
+            }
+            assertTrue(shardTms.get(other).printTask(sugar).startsWith("Error"));
+
+            // ghosts go with the last task using them
+            shards.deleteTask(serve);
+            assertTrue(shardTms.get(shards.shardOf(serve)).printTask(sugar).startsWith("Error"));
+            assertTrue(shardTms.get(shards.shardOf(serve)).printTask("Make").startsWith("Error"));
+            shards.deleteTask(sugar);
+        } finally {
+            for (WireServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    // The first name starting with the prefix that lives on the shard, or on another shard
+    private static String nameOn(ShardCoordinator shards, String prefix, int shard, boolean same) {
+        for (int i = 0; ; i++) {
+            if ((shards.shardOf(prefix + i) == shard) == same) {
+                return prefix + i;
+            }
+        }
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        TMS primary = new TMS();
+        primary.addIsPrimitiveCriterion();
+        primary.createSimpleTask("A", "First", "2.0", Collections.singletonList(","));
+        try (ReplicationLeader leader = new ReplicationLeader(primary, 0);
+             ReplicaFollower replica = ReplicaFollower.connect("localhost", leader.getPort(), 10_000);
+             WireServer server = replica.serve(0);
+             TMSClient client = TMSClient.connect("localhost", server.getPort())) {
+            primary.createSimpleTask("B", "Next", "1.0", Collections.singletonList("A"));
+            primary.addBasicCriterion("Long", "duration", ">", "1.5");
+            assertTrue(replica.awaitVersion(leader.getLastVersion(), 10_000));
+
+            assertEquals(Collections.singletonList("A"), client.search("Long"));
+            assertEquals(3.0, client.reportEarliestFinishTime("B"), 0.0);
+            assertEquals(leader.getLastVersion(), client.replicaStatus().getAppliedVersion());
+            try {
+                client.deleteTask("A");
+                fail("A replica must not accept changes.");
+            } catch (RemoteOperationException e) {
+                assertEquals("ReplicaException", e.getKind());
+            }
+            primary.deleteTask("B");
+            assertTrue(replica.awaitVersion(leader.getLastVersion(), 10_000));
+            try {
+                client.reportDuration("B");
+                fail("B was deleted on the primary.");
+            } catch (RemoteOperationException e) {
+                assertEquals("TaskNotFoundException", e.getKind());
+            }
+
+            // a change the replica cannot apply stops it for good instead of leaving it silently behind
+            assertNull(replica.getFailure());
+            replica.getTMS().deleteTask("A");
+            primary.createSimpleTask("C", "Last", "1.0", Collections.singletonList("A"));
+            assertFalse(replica.awaitVersion(leader.getLastVersion(), 10_000));
+            assertNotNull(replica.getFailure());
+            assertFalse(replica.isFresh());
+            assertEquals(Long.MAX_VALUE, client.replicaStatus().getLagMillis());
+            try {
+                client.reportDuration("B");
+                fail("A replica that stopped following must not answer queries.");
+            } catch (RemoteOperationException e) {
+                assertEquals("ReplicaException", e.getKind());
+                assertTrue(e.getMessage().contains(replica.getFailure()));
+            }
+        }
+    }
+
+    @Test
+    public void testScript() throws IOException {
+        TMS tms = new TMS();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true, "UTF-8");
+        Application.runScript(tms, new StringReader("CREATESimpleTask A \"Add fine coffee powder\" 1.0 ,\n\n"
+                + "createSimpleTask B \"\" 2.0 A\r\nreportEarliestFinishTime B\nquit\ndeleteTask A\n"), out);
+        assertEquals("Task created successfully." + System.lineSeparator()
+                + "Task created successfully." + System.lineSeparator()
+                + "Earliest finish time reported: 3.0" + System.lineSeparator(), buffer.toString("UTF-8"));
+        assertTrue(tms.printTask("A").contains("Description: Add fine coffee powder"));
+    }
+
+    /**
+     * Tests that a chain of diamonds prints each task once instead of once per path.
+     */
+    @Test
+    public void testPrintTree() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("T0", "Start", "1.0", Collections.singletonList(","));
+        for (int i = 1; i <= 40; i++) {
+            taskManager.addSimpleTask("L" + i, "Left", "1.0", Collections.singletonList("T" + (i - 1)));
+            taskManager.addSimpleTask("R" + i, "Right", "1.0", Collections.singletonList("T" + (i - 1)));
+            taskManager.addSimpleTask("T" + i, "Join", "1.0", Arrays.asList("L" + i, "R" + i));
+        }
+        StringBuilder out = new StringBuilder();
+        taskManager.printTask("T40", out, Integer.MAX_VALUE);
+        assertEquals(40, out.toString().split("\\(see above\\)", -1).length - 1);
+        assertTrue(out.length() < 1_000_000);
+
+        out.setLength(0);
+        taskManager.printTask("T40", out, 1);
+        assertTrue(out.toString().contains("        Name: T39 (...)"));
+        assertTrue(!out.toString().contains("Name: T39\n"));
+    }
+
+    /**
+     * Tests that printed details are reused until a task in the printed subtree changes.
+     */
+    @Test
+    public void testRenderCache() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        taskManager.addSimpleTask("Boil-Water", "Boil-some-water", "1.0", Collections.singletonList(","));
+        taskManager.addSimpleTask("Sugar", "Add-sugar", "1.0", Collections.singletonList("Boil-Water"));
+        taskManager.addCompositeTask("Make-Coffee", "Make-coffee", Collections.singletonList("Sugar"));
+        taskManager.addSimpleTask("Other", "Unrelated", "1.0", Collections.singletonList(","));
+
+        List<String> printed = taskManager.printTask("Make-Coffee");
+        taskManager.updateTask("Other", "duration", "2.0");
+        assertSame(printed, taskManager.printTask("Make-Coffee"));
+        taskManager.updateTask("Boil-Water", "description", "Boil-more-water");
+        assertTrue(taskManager.printTask("Make-Coffee").contains("        Description: Boil-more-water"));
+
+        taskManager.setRenderCacheSize(0);
+        printed = taskManager.printTask("Make-Coffee");
+        assertTrue(printed != taskManager.printTask("Make-Coffee"));
+    }
+
+    /**
+     * Tests that the task list of the GUI follows changes and filters, one task at a time.
+     */
+    @Test
+    public void testTaskListModel() throws Exception {
+        TMS tms = new TMS();
+        tms.createSimpleTask("B", "Second", "2.0", Collections.singletonList(","));
+        tms.addBasicCriterion("Long", "duration", ">", "1.5");
+        TaskListModel model = new TaskListModel(tms);
+        tms.createSimpleTask("A", "First", "1.0", Collections.singletonList(","));
+        tms.createSimpleTask("C", "Third", "3.0", Collections.singletonList(","));
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(3, model.getSize());
+            assertEquals("A", model.getElementAt(0));
+        });
+
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                model.setFilter("Long");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        tms.changeTask("A", "duration", "5.0");
+        tms.changeTask("C", "duration", "1.0");
+        tms.deleteTask("B");
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(1, model.getSize());
+            assertEquals("A", model.getElementAt(0));
+        });
+        model.close();
+    }
+
+    @Test
+    public void testTaskTreeModel() throws Exception {
+        TMS tms = new TMS();
+        tms.createSimpleTask("A", "First", "1.0", Collections.singletonList(","));
+        tms.createSimpleTask("B", "Second", "2.0", Collections.singletonList("A"));
+        tms.createCompositeTask("C", "Both", Arrays.asList("A", "B"));
+        TaskTreeModel model = new TaskTreeModel(tms);
+        Object[] rows = new Object[3];
+        SwingUtilities.invokeAndWait(() -> {
+            model.setTask("C");
+            rows[0] = model.getRoot();
+            assertEquals("C (loading)", rows[0].toString());
+            assertFalse(model.isLeaf(rows[0]));
+            assertEquals(0, model.getChildCount(rows[0]));
+        });
+        assertTrue(drawLoaded(rows[0]).startsWith("C (composite, duration 3.0"));
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(2, model.getChildCount(rows[0]));
+            rows[1] = model.getChild(rows[0], 1);
+        });
+        assertEquals("B (simple, duration 2.0, EFT 3.0)", drawLoaded(rows[1]));
+        SwingUtilities.invokeAndWait(() -> {
+            assertFalse(model.isLeaf(rows[1]));
+            rows[2] = model.getChild(rows[1], 0);
+        });
+        assertEquals("A (simple, duration 1.0, EFT 1.0)", drawLoaded(rows[2]));
+        SwingUtilities.invokeAndWait(() -> assertTrue(model.isLeaf(rows[2])));
+
+        tms.changeTask("A", "duration", "4.0");
+        SwingUtilities.invokeAndWait(() -> rows[1] = model.getChild(model.getRoot(), 1));
+        assertEquals("B (simple, duration 2.0, EFT 6.0)", drawLoaded(rows[1]));
+
+        // a command holding the lock does not hold up the event dispatch thread
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TaskChangeListener blocker = (version, tasks, removed, criteria) -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        tms.addTaskListener(blocker);
+        Thread writer = new Thread(() -> tms.changeTask("B", "duration", "3.0"));
+        writer.start();
+        locked.await();
+        SwingUtilities.invokeAndWait(() -> {
+            model.setTask("B");
+            rows[0] = model.getRoot();
+            assertEquals("B (loading)", rows[0].toString());
+        });
+        release.countDown();
+        writer.join();
+        tms.removeTaskListener(blocker);
+        assertEquals("B (simple, duration 3.0, EFT 7.0)", drawLoaded(rows[0]));
+
+        // deleting a composite task deletes its subtasks only, and the task left behind still gets its row drawn
+        tms.deleteTask("C");
+        SwingUtilities.invokeAndWait(() -> {
+            model.setTask("C");
+            rows[0] = model.getRoot();
+        });
+        assertEquals("C (composite, duration invalid, EFT invalid)", drawLoaded(rows[0]));
+        model.close();
+    }
+
+    // Draws a row of a TaskTreeModel on the event dispatch thread until its summary has arrived
+    private static String drawLoaded(Object row) throws Exception {
+        String[] text = new String[1];
+        for (int attempt = 0; ; attempt++) {
+            SwingUtilities.invokeAndWait(() -> text[0] = row.toString());
+            if (!text[0].endsWith("(loading)") || attempt == 1000) {
+                return text[0];
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Tests that a background command of the GUI shows its progress, and that only a command changing nothing
+     * can be cancelled.
+     */
+    @Test
+    public void testBackgroundCommands() throws Exception {
+        JProgressBar progressBar = new JProgressBar();
+        JButton cancelButton = new JButton("Cancel");
+        JTextArea output = new JTextArea();
+        BackgroundCommands background = new BackgroundCommands(progressBar, cancelButton, output);
+        CountDownLatch halfway = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BackgroundCommands.Action slow = progress -> {
+            progress.accept(0.5);
+            halfway.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "Done.";
+        };
+
+        SwingUtilities.invokeAndWait(() -> background.run("Printing", true, slow));
+        halfway.await();
+        assertTrue(onEventThread(() -> progressBar.getValue() == 50 && "Printing".equals(progressBar.getString())
+                && cancelButton.isEnabled()));
+        SwingUtilities.invokeAndWait(cancelButton::doClick);
+        interrupted.await();
+        assertTrue(onEventThread(() -> output.getText().endsWith("Cancelled.") && !cancelButton.isEnabled()
+                && progressBar.getValue() == 0 && "".equals(progressBar.getString())));
+
+        // a command that changes the workspace runs to its end
+        CountDownLatch again = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> background.run("Loading", false, progress -> {
+            again.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return "Interrupted.";
+            }
+            progress.accept(1);
+            return "Loaded.";
+        }));
+        again.await();
+        assertTrue(onEventThread(() -> "Loading".equals(progressBar.getString()) && !cancelButton.isEnabled()));
+        SwingUtilities.invokeAndWait(background::cancel);
+        release.countDown();
+        assertTrue(onEventThread(() -> "Loaded.".equals(output.getText()) && "".equals(progressBar.getString())));
+    }
+
+    // Checks a condition on the event dispatch thread until it holds, or gives up after about ten seconds
+    private static boolean onEventThread(BooleanSupplier condition) throws Exception {
+        boolean[] holds = new boolean[1];
+        for (int attempt = 0; attempt < 10_000; attempt++) {
+            SwingUtilities.invokeAndWait(() -> holds[0] = condition.getAsBoolean());
+            if (holds[0]) {
+                return true;
+            }
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    @Test
+    public void testComplete() {
+        TMS tms = new TMS();
+        tms.createSimpleTask("Boil", "Boil water", "0.2", Collections.singletonList(","));
+        tms.createSimpleTask("Brew", "Brew coffee", "0.3", Collections.singletonList("Boil"));
+        tms.createSimpleTask("Serve", "Serve coffee", "0.1", Collections.singletonList("Brew"));
+        tms.addBasicCriterion("Brief", "duration", "<", "0.25");
+        assertEquals(Arrays.asList("Boil", "Brew"), tms.completeTaskName("B", 10));
+        assertEquals(Collections.singletonList("Boil"), tms.completeTaskName("B", 1));
+        assertEquals("Tasks: Brew\nCriteria: Brief", tms.complete("Br"));
+
+        tms.deleteTask("Serve");
+        tms.createSimpleTask("Bake", "Bake a cake", "1.0", Collections.singletonList(","));
+        assertEquals(Arrays.asList("Bake", "Boil", "Brew"), tms.completeTaskName("B", 10));
+        assertTrue(tms.completeTaskName("S", 10).isEmpty());
+        assertEquals("No name found", tms.complete("Z"));
+    }
+
+    @Test
+    public void testFuzzyNames() {
+        TMS tms = new TMS();
+        tms.createSimpleTask("BoilWater", "Boil water", "0.2", Collections.singletonList(","));
+        tms.createSimpleTask("BrewCoffee", "Brew coffee", "0.3", Collections.singletonList("BoilWater"));
+        tms.createSimpleTask("BrewTea", "Brew tea", "0.3", Collections.singletonList("BoilWater"));
+        assertEquals("Error: The task does not exist. Did you mean: BrewCoffee?", tms.deleteTask("BrewCofee"));
+        assertEquals("Error: Invalid prerequisite. Did you mean: BoilWater?",
+                tms.createSimpleTask("Serve", "Serve", "0.1", Collections.singletonList("BoilWatr")));
+        assertEquals("Error: The task does not exist.", tms.deleteTask("Unknown"));
+
+        tms.addBasicCriterion("LikeBrewTea", "name", "~", "BrewTee");
+        assertEquals("BrewTea ", tms.search("LikeBrewTea"));
+        tms.addNegatedCriterion("NotLikeBrewTea", "LikeBrewTea");
+        assertEquals(2, tms.search("NotLikeBrewTea").trim().split(" ").length);
+        tms.deleteTask("BrewTea");
+        tms.createSimpleTask("BrewTee", "Brew more tea", "0.3", Collections.singletonList(","));
+        assertEquals("BrewTee ", tms.search("LikeBrewTea"));
+    }
+
+    @Test
+    public void testRegexCriterion() {
+        TMS tms = new TMS();
+        tms.createSimpleTask("BoilWater", "Boil water", "0.2", Collections.singletonList(","));
+        tms.createSimpleTask("BrewCoffee", "Brew coffee", "0.3", Collections.singletonList("BoilWater"));
+        tms.createSimpleTask("BrewTea", "Brew tea", "0.3", Collections.singletonList("BoilWater"));
+        assertEquals("Error: Invalid regular expression.", tms.addBasicCriterion("Bad", "name", "matches", "Brew("));
+
+        tms.addBasicCriterion("Brews", "name", "matches", "^Brew(Tea|Coffee)$");
+        assertEquals(2, tms.search("Brews").trim().split(" ").length);
+        tms.addBasicCriterion("Coffee", "description", "matches", "cof+ee");
+        assertEquals("BrewCoffee ", tms.search("Coffee"));
+        tms.addBasicCriterion("ShortNames", "name", "matches", "^.{7}$");
+        assertEquals("BrewTea ", tms.search("ShortNames"));
+        tms.addNegatedCriterion("NotCoffee", "Coffee");
+        assertEquals(2, tms.search("NotCoffee").trim().split(" ").length);
+
+        tms.changeTask("BrewTea", "description", "Brew coffee instead");
+        assertEquals(2, tms.search("Coffee").trim().split(" ").length);
+        tms.deleteTask("BrewCoffee");
+        assertEquals("BrewTea ", tms.search("Coffee"));
+
+        // a quantifier after a character outside the BMP makes both of its chars optional
+        assertEquals(Arrays.asList("abx", "y"), NGramIndex.requiredLiterals("abx\uD83D\uDE00?y"));
+        assertEquals(Arrays.asList("ab\uD83D\uDE00", "y"), NGramIndex.requiredLiterals("ab\\\uD83D\uDE00+y"));
+        tms.createSimpleTask("Wrap", "abxy", "0.1", Collections.singletonList(","));
+        tms.addBasicCriterion("Emoji", "description", "matches", "abx\uD83D\uDE00?y");
+        assertEquals("Wrap ", tms.search("Emoji"));
+    }
+
+    /**
+     * Tests that the trigram index finds the same tasks as running a regular expression on every task,
+     * for escapes whose letter is followed by more of the escape.
+     */
+    @Test
+    public void testRegexIndexMatchesFullScan() throws Exception {
+        TaskManager taskManager = new TaskManager();
+        List<String> names = Arrays.asList("Abcdef", "AbAbcd", "\u0018Abcd", "Xyz");
+        for (String name : names) {
+            taskManager.addSimpleTask(name, "Task", "1.0", Collections.singletonList(","));
+        }
+        String[] patterns = {"\\x41bcd", "\\x{41}bcd", "\\u0041bcd", "\\0101bcd", "\\cXAbc", "(?<n>Ab)\\k<n>cd",
+                "\\p{Lu}bcdef", "(\\Q)\\E)?Abcd", "[\\Q]\\E]?Abcd"};
+        for (int i = 0; i < patterns.length; i++) {
+            taskManager.defineBasicCriterion("Pattern" + i, "name", "matches", patterns[i]);
+            Set<String> scanned = new TreeSet<>();
+            for (String name : names) {
+                if (Pattern.compile(patterns[i]).matcher(name).find()) {
+                    scanned.add(name);
+                }
+            }
+            assertFalse(patterns[i], scanned.isEmpty());
+            assertEquals(patterns[i], scanned, new TreeSet<>(taskManager.searchNames("Pattern" + i)));
+        }
+        assertEquals(Collections.singletonList("yz"), NGramIndex.requiredLiterals("\\cXyz"));
+    }
 }
\ No newline at end of file
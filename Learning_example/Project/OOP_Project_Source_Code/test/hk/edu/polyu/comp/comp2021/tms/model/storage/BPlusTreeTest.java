@@ -0,0 +1,55 @@
+package hk.edu.polyu.comp.comp2021.tms.model.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * BPlusTreeTest checks that the paged B+-tree keeps its keys across page splits,
+ * overflow values, removals and reopening the file with a small buffer pool.
+ */
+public class BPlusTreeTest {
+
+    /**
+     * Inserts enough keys to split many pages, then checks lookups and ordered scans
+     * before and after reopening the file.
+     */
+    @Test
+    public void testPutGetRemoveAndReopen() throws Exception {
+        File file = File.createTempFile("archive", ".db");
+        file.deleteOnExit();
+        String longValue = String.join("", Collections.nCopies(3000, "x"));
+
+        try (BPlusTree tree = new BPlusTree(file.toPath(), BufferPool.MIN_CAPACITY)) {
+            for (int i = 0; i < 20000; i++) {
+                tree.put("task-" + i, i % 1000 == 1 ? longValue + i : "value-" + i);
+            }
+            for (int i = 0; i < 20000; i += 2) {
+                assertTrue(tree.remove("task-" + i));
+            }
+            tree.put("task-1", "changed");
+            assertEquals(10000, tree.size());
+            assertTrue(tree.getPool().getMisses() > 0);
+        }
+
+        try (BPlusTree tree = new BPlusTree(file.toPath(), BufferPool.MIN_CAPACITY)) {
+            assertEquals(10000, tree.size());
+            assertEquals("changed", tree.get("task-1"));
+            assertEquals("value-3", tree.get("task-3"));
+            assertEquals(longValue + 3001, tree.get("task-3001"));
+            assertNull(tree.get("task-2"));
+
+            List<String> keys = new ArrayList<>();
+            tree.forEach(null, (key, value) -> keys.add(key));
+            List<String> sorted = new ArrayList<>(keys);
+            Collections.sort(sorted);
+            assertEquals(10000, keys.size());
+            assertEquals(sorted, keys);
+        }
+    }
+}